@@ -0,0 +1,344 @@
+package Gitlet.Bench;
+
+import Gitlet.Blobs.BlobPool;
+import Gitlet.Commits.Commit;
+import Gitlet.Commits.CommitChain;
+import Gitlet.Diff.*;
+import Gitlet.Gc.MarkSet;
+import Gitlet.Stage.Stage;
+import Gitlet.Utility.Exceptions.MergeException;
+import Gitlet.Utility.Exceptions.NoSuchBranchException;
+import Gitlet.Utility.Exceptions.ReverseMergeException;
+import Gitlet.Utility.Materializer;
+import Gitlet.Utility.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * 常用命令在RepoGenerator生成的仓库上的耗时
+ *
+ * 命令按守护进程的方式在同一个JVM里执行，包括写回组件，不包括JVM启动和加载仓库。
+ * 会修改仓库的基准测试（add、commit、checkout）在每次调用前准备好要用的修改，准备的时间不计入结果。
+ * merge-base没有对应的命令，直接在每次重新加载的commitChain上求b1和b2的共同祖先，绕开内存里的缓存，
+ * 所以需要fanout不小于2；mergeWithBranch同样在重新加载的commitChain上把b2合并进b1，只在内存里提交，不写工作目录。
+ * loadChain对应log -n 20：加载commitChain并读出最近20个提交，历史的长度用depth调整。
+ * materialize把head的全部文件写进清空的工作目录，比较顺序写和并发写。
+ *
+ * lineDiff、merge3、renames、markSet和encrypt不需要仓库，输入由RepoGenerator按seed生成：
+ * lineDiff和merge3默认是大文件少量修改，-p lines=20000 -p edits=2000是大量分散的修改；
+ * renames有renamed个被删除的文件，一半改名之后每10行改一行，另有renamed/2个全新的文件；
+ * markSet建立objects个对象的gc标记位，并行标记一半再逐个检查。
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="CommandBenchmarks.status -p files=4000"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmarks {
+
+    /**
+     * 工作目录里有changes个改过、还没有暂存的文件
+     */
+    @State(Scope.Thread)
+    public static class Modified {
+        @Setup(Level.Invocation)
+        public void modify(RepoState repo) throws IOException {
+            repo.generator.modify();
+        }
+    }
+
+    /**
+     * 暂存区里有changes个改过的文件
+     */
+    @State(Scope.Thread)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void stage(RepoState repo) throws IOException {
+            repo.generator.modify();
+            RepoState.run("add", RepoGenerator.ROOT);
+        }
+    }
+
+    /**
+     * 从磁盘新加载的commitChain，共同祖先的缓存是空的
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+        CommitChain commitChain;
+
+        @Setup(Level.Invocation)
+        public void load() {
+            commitChain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        }
+    }
+
+    /**
+     * 从磁盘新加载、已经切换到b1的commitChain，以及合并文件内容用到的文件池
+     */
+    @State(Scope.Thread)
+    public static class Merging {
+        CommitChain commitChain;
+        BlobPool blobPool;
+
+        @Setup(Level.Trial)
+        public void loadBlobs(RepoState repo) {
+            blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        }
+
+        @Setup(Level.Invocation)
+        public void load() throws NoSuchBranchException {
+            commitChain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+            commitChain.changeBranchTo(RepoGenerator.branch(1));
+        }
+    }
+
+    /**
+     * 清空的工作目录和要写回去的暂存区
+     */
+    @State(Scope.Thread)
+    public static class Cleared {
+        @Param({"1", "8"})
+        public int threads;
+
+        BlobPool blobPool;
+        Map<String, String> files;
+
+        @Setup(Level.Trial)
+        public void load(RepoState repo) {
+            blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+            files = Stage.deSerialFrom(Utils.getStageFilePath()).getTrackingFiles();
+        }
+
+        @Setup(Level.Invocation)
+        public void clear() throws IOException {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(Paths.get(RepoGenerator.ROOT))) {
+                paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            }
+            for (Path path : paths)
+                Files.delete(path);
+        }
+    }
+
+    /**
+     * 一个lines行的文件和两边各自改过大约edits处的版本
+     */
+    @State(Scope.Benchmark)
+    public static class Texts {
+        @Param("200000")
+        public int lines;
+
+        @Param("10")
+        public int edits;
+
+        Lines base, ours, theirs;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            RepoGenerator generator = new RepoGenerator(20);
+            String[] original = generator.lines(lines);
+            base = lines(original);
+            ours = lines(generator.mutate(original, edits));
+            theirs = lines(generator.mutate(original, edits));
+        }
+
+        private static Lines lines(String[] content) {
+            return new Lines(ByteBuffer.wrap((String.join("\n", content) + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * 大批改名：被删除的文件、新增的文件和它们的内容
+     */
+    @State(Scope.Benchmark)
+    public static class Renamed {
+        @Param("1000")
+        public int renamed;
+
+        final Map<String, String> removed = new HashMap<>(), added = new HashMap<>();
+        private final Map<String, byte[]> contents = new HashMap<>();
+        RenameDetector.Source source;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            RepoGenerator generator = new RepoGenerator(21);
+            Random random = new Random(21);
+            for (int i = 0; i < renamed; i++) {
+                String[] lines = generator.lines(40 + random.nextInt(200));
+                removed.put("old/" + i + ".txt", put(lines));
+                if (i % 2 == 0) {
+                    for (int l = 0; l < lines.length; l += 10)
+                        lines[l] = "edited " + random.nextInt();
+                    added.put("new/" + i + ".txt", put(lines));
+                }
+            }
+            for (int i = 0; i < renamed / 2; i++)
+                added.put("fresh/" + i + ".txt", put(generator.lines(40 + random.nextInt(200))));
+            source = (path, hash) -> ByteBuffer.wrap(contents.get(hash));
+        }
+
+        private String put(String[] lines) {
+            byte[] content = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+            String hash = Utils.encrypt(content, "SHA-1");
+            contents.put(hash, content);
+            return hash;
+        }
+    }
+
+    /**
+     * objects个对象的id
+     */
+    @State(Scope.Benchmark)
+    public static class ObjectIds {
+        @Param("1000000")
+        public int objects;
+
+        String[] ids;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Random random = new Random(22);
+            ids = new String[objects];
+            for (int i = 0; i < objects; i++)
+                ids[i] = String.format("%016x%016x%08x", random.nextLong(), random.nextLong(), random.nextInt());
+        }
+    }
+
+    /**
+     * bytes字节的文本
+     */
+    @State(Scope.Benchmark)
+    public static class Content {
+        @Param("1048576")
+        public int bytes;
+
+        byte[] content;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            content = new RepoGenerator(23).text(bytes);
+        }
+    }
+
+    /**
+     * 在master和b1之间来回切换
+     */
+    @State(Scope.Thread)
+    public static class Branches {
+        boolean onMaster = true;
+    }
+
+    @Benchmark
+    public void add(RepoState repo, Modified modified) {
+        RepoState.run("add", RepoGenerator.ROOT);
+    }
+
+    @Benchmark
+    public void commit(RepoState repo, Staged staged) {
+        RepoState.run("commit", "bench");
+    }
+
+    @Benchmark
+    public void status(RepoState repo) {
+        RepoState.run("status");
+    }
+
+    @Benchmark
+    public void checkout(RepoState repo, Branches branches) {
+        RepoState.run("checkout", branches.onMaster ? RepoGenerator.branch(1) : "master");
+        branches.onMaster = !branches.onMaster;
+    }
+
+    @Benchmark
+    public void log(RepoState repo) {
+        RepoState.run("log");
+    }
+
+    @Benchmark
+    public List<Commit> mergeBase(RepoState repo, Loaded loaded) throws NoSuchBranchException {
+        return loaded.commitChain.findMergeBasesByBranch(RepoGenerator.branch(1), RepoGenerator.branch(2));
+    }
+
+    @Benchmark
+    public void diff(RepoState repo) {
+        RepoState.run("diff", "master", RepoGenerator.branch(1));
+    }
+
+    @Benchmark
+    public void gc(RepoState repo) {
+        RepoState.run("gc");
+    }
+
+    @Benchmark
+    public void mergeWithBranch(RepoState repo, Merging merging)
+            throws NoSuchBranchException, ReverseMergeException, MergeException, IOException {
+        CommitChain commitChain = merging.commitChain;
+        commitChain.mergeWithBranch(ZonedDateTime.now(), "bench", RepoGenerator.branch(2),
+                new ContentMerge(merging.blobPool, commitChain.getCurBranchName(), RepoGenerator.branch(2)),
+                RenameDetector.of(merging.blobPool));
+    }
+
+    @Benchmark
+    public int loadChain(RepoState repo) {
+        CommitChain commitChain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        int read = 0;
+        for (Iterator<Commit> it = commitChain.iterator(); it.hasNext() && read < 20; read++)
+            it.next();
+        return read;
+    }
+
+    @Benchmark
+    public List<String> materialize(RepoState repo, Cleared cleared) {
+        return new Materializer(cleared.blobPool, cleared.threads).write(cleared.files);
+    }
+
+    @Benchmark
+    public List<Edit> lineDiff(Texts texts) {
+        return LineDiff.diff(texts.base, texts.ours);
+    }
+
+    @Benchmark
+    public Merge3.Result merge3(Texts texts) {
+        return Merge3.merge(texts.base, texts.ours, texts.theirs, "ours", "base", "theirs");
+    }
+
+    @Benchmark
+    public List<RenameDetector.Rename> renames(Renamed renamed) throws IOException {
+        return new RenameDetector(renamed.source, renamed.source).detect(renamed.removed, renamed.added);
+    }
+
+    @Benchmark
+    public long markSet(ObjectIds objects) {
+        String[] ids = objects.ids;
+        MarkSet.Builder builder = new MarkSet.Builder();
+        for (String id : ids)
+            builder.add(id);
+        MarkSet marks = builder.build();
+        IntStream.range(0, ids.length).parallel().filter(i -> i % 2 == 0).forEach(i -> marks.mark(ids[i]));
+        return IntStream.range(0, ids.length).filter(i -> marks.isMarked(ids[i])).count();
+    }
+
+    @Benchmark
+    public String encrypt(Content content) {
+        return Utils.encrypt(content.content, "SHA-1");
+    }
+
+    @Benchmark
+    public String encryptFile(RepoState repo) {
+        return Utils.encrypt(Paths.get(RepoGenerator.ROOT, "d0", "f0.txt"), "SHA-1");
+    }
+}
@@ -0,0 +1,187 @@
+package Gitlet.Bench;
+
+import Gitlet.Gitlet;
+import Gitlet.Utility.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 生成基准测试用的仓库
+ *
+ * 在当前目录初始化仓库，repo/下放files个大约size字节的文本文件，master上先提交depth次，
+ * 然后从master的最新提交分出fanout个分支b1..bN，每个分支再提交depth次，最后回到master并把全部文件add进暂存区。
+ * 每次提交改写changes个文件里的一小段行；分支i只改下标模fanout等于i-1的文件，所以任意两个分支合并都没有冲突。
+ * 文件内容和历史的形状只由seed决定，提交id里有提交时间，每次生成都不一样。
+ * 命令在同一个JVM里按常驻进程的方式执行，省去每条命令重新加载仓库的时间。
+ * 基准测试在@Setup里用它生成仓库，也可以单独运行，生成一个仓库手工试验
+ */
+public class RepoGenerator {
+
+    static final String ROOT = "repo";
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "commit", "branch", "merge", "blob",
+            "tree", "stage", "index", "pack", "delta", "hash", "node", "graph", "chain", "file", "snapshot", "head"};
+
+    final int files, size, depth, fanout, changes;
+    private final Random random;
+    private final List<Path> paths = new ArrayList<>();
+
+    RepoGenerator(int files, int size, int depth, int fanout, int changes, long seed) {
+        this.files = files;
+        this.size = size;
+        this.depth = depth;
+        this.fanout = fanout;
+        this.changes = Math.min(changes, files);
+        this.random = new Random(seed);
+        //大约每个目录sqrt(files)个文件
+        int directories = Math.max(1, (int) Math.sqrt(files));
+        for (int i = 0; i < files; i++)
+            paths.add(Paths.get(ROOT, "d" + i % directories, "f" + i + ".txt"));
+    }
+
+    /**
+     * 只生成文本、不建仓库时使用
+     */
+    RepoGenerator(long seed) {
+        this(0, 0, 0, 0, 0, seed);
+    }
+
+    /**
+     * @return 分支的名字，从b1开始
+     */
+    static String branch(int i) {
+        return "b" + i;
+    }
+
+    /**
+     * @return 提交的总数，不包括init时的提交
+     */
+    int commits() {
+        return depth * (fanout + 1);
+    }
+
+    void generate() throws IOException {
+        Gitlet.main(new String[]{"init"});
+        Gitlet.loadRepository();
+        for (Path path : paths) {
+            Files.createDirectories(path.getParent());
+            Files.write(path, text(size));
+        }
+        for (int i = 0; i < depth; i++)
+            commit("master " + i, 0, 1);
+        for (int b = 1; b <= fanout; b++) {
+            run("branch", branch(b));
+            run("checkout", branch(b));
+            for (int i = 0; i < depth; i++)
+                commit(branch(b) + " " + i, b - 1, fanout);
+            run("checkout", "master");
+        }
+        run("add", ROOT);
+    }
+
+    /**
+     * 改写下标模step等于offset的文件中的changes个，然后提交
+     */
+    private void commit(String log, int offset, int step) throws IOException {
+        modify(offset, step);
+        run("add", ROOT);
+        run("commit", log);
+    }
+
+    /**
+     * 在工作目录里改写任意changes个文件，不暂存
+     */
+    void modify() throws IOException {
+        modify(0, 1);
+    }
+
+    private void modify(int offset, int step) throws IOException {
+        int candidates = (files - offset + step - 1) / step;
+        for (int i = 0; i < Math.min(changes, candidates); i++)
+            modify(paths.get(offset + step * random.nextInt(candidates)));
+    }
+
+    /**
+     * 把文件中随机位置的十六分之一行换成新内容
+     */
+    private void modify(Path path) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(path, StandardCharsets.UTF_8));
+        int count = Math.max(1, lines.size() / 16);
+        int from = random.nextInt(Math.max(1, lines.size() - count + 1));
+        for (int i = from; i < Math.min(lines.size(), from + count); i++)
+            lines.set(i, line());
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 大约bytes字节、由随机单词组成的若干行文本
+     */
+    byte[] text(int bytes) {
+        StringBuilder text = new StringBuilder(bytes + 80);
+        while (text.length() < bytes)
+            text.append(line()).append('\n');
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return count行由随机单词组成的文本，每行都不一样
+     */
+    String[] lines(int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++)
+            lines[i] = "line " + i + " " + line();
+        return lines;
+    }
+
+    /**
+     * 随机地改、删、插入大约edits处
+     */
+    String[] mutate(String[] base, int edits) {
+        List<String> result = new ArrayList<>(base.length + edits);
+        double rate = (double) edits / base.length;
+        for (String line : base) {
+            double r = random.nextDouble();
+            if (r < rate / 3)
+                continue;
+            if (r < rate * 2 / 3)
+                result.add(line());
+            result.add(r < rate && r >= rate * 2 / 3 ? line + " changed" : line);
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private String line() {
+        StringBuilder line = new StringBuilder();
+        int words = 4 + random.nextInt(8);
+        for (int i = 0; i < words; i++)
+            line.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        return line.append(' ').append(random.nextInt(100000)).toString();
+    }
+
+    private static void run(String... args) {
+        Gitlet.executeResident(args);
+    }
+
+    /**
+     * 单独生成一个仓库：java Gitlet.Bench.RepoGenerator [文件数] [文件大小] [深度] [分支数] [每次提交改写的文件数] [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        if (Files.exists(Utils.getGitDirPath())) {
+            System.err.println("run the generator in an empty directory.");
+            return;
+        }
+        RepoGenerator generator = new RepoGenerator(
+                args.length > 0 ? Integer.parseInt(args[0]) : 2000,
+                args.length > 1 ? Integer.parseInt(args[1]) : 4096,
+                args.length > 2 ? Integer.parseInt(args[2]) : 50,
+                args.length > 3 ? Integer.parseInt(args[3]) : 4,
+                args.length > 4 ? Integer.parseInt(args[4]) : 10,
+                args.length > 5 ? Long.parseLong(args[5]) : 42);
+        long start = System.nanoTime();
+        generator.generate();
+        System.out.printf("generated %d files, %d commits in %.1f s%n", generator.files, generator.commits(),
+                (System.nanoTime() - start) / 1e9);
+    }
+}
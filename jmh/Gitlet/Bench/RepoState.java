@@ -0,0 +1,86 @@
+package Gitlet.Bench;
+
+import Gitlet.Gitlet;
+import Gitlet.Utility.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的仓库，每个基准测试的每个fork生成一次
+ *
+ * 仓库建在当前目录（mvn -Pjmh exec:exec时是target/jmh-work），开始前清掉上一次留下的仓库，结束后删除。
+ * 命令打印的内容不计入结果，测量期间标准输出被丢弃
+ */
+@State(Scope.Benchmark)
+public class RepoState {
+
+    @Param("1000")
+    public int files;
+
+    @Param("4096")
+    public int size;
+
+    @Param("20")
+    public int depth;
+
+    @Param("2")
+    public int fanout;
+
+    @Param("10")
+    public int changes;
+
+    @Param("42")
+    public long seed;
+
+    RepoGenerator generator;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        clean();
+        generator = new RepoGenerator(files, size, depth, fanout, changes, seed);
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        generator.generate();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        System.setOut(stdout);
+        clean();
+    }
+
+    /**
+     * 以常驻进程的方式执行一条命令
+     */
+    static void run(String... args) {
+        Gitlet.executeResident(args);
+    }
+
+    private static void clean() throws IOException {
+        deleteTree(Utils.getGitDirPath());
+        deleteTree(Paths.get(RepoGenerator.ROOT));
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths)
+            Files.delete(path);
+    }
+}
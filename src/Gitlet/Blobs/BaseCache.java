@@ -0,0 +1,40 @@
+package Gitlet.Blobs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 重建出来的快照内容的LRU缓存，按总字节数限制大小
+ *
+ * 检出时同一条差量链上的基础版本会被反复用到，缓存起来就不用每次都从头重建
+ */
+
+class BaseCache {
+
+    private final long capacity;
+    private long size;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    BaseCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized byte[] get(String hash) {
+        return entries.get(hash);
+    }
+
+    synchronized void put(String hash, byte[] content) {
+        if (content.length > capacity / 4)
+            return;
+        byte[] old = entries.put(hash, content);
+        if (old != null)
+            size -= old.length;
+        size += content.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            size -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+}
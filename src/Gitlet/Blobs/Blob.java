@@ -9,14 +9,32 @@ import java.nio.file.Paths;
  */
 
 public class Blob implements Serializable {
+
+    //和最初版本保持一致，新版本只增加字段，旧仓库保存的对象仍然可以读出来
+    private static final long serialVersionUID = -4367725996224397214L;
+
     //在.gitlet文件夹内该快照的位置
     private String dirGit;
     //在工作目录内源文件的地址
     private String dirRaw;
+    //差量存储时基础版本的hash，为null时快照保存的是完整内容
+    private String base;
+    //差量链的长度，完整内容为0
+    private int depth;
+    //快照在对象库中的压缩方式，旧仓库中的快照为null，表示没有压缩
+    private Codec codec;
+    //文件内容的大小和快照实际占用的大小，用于统计压缩率
+    private long size;
+    private long storedSize;
 
-    Blob(String dirGit, String dirRaw) {
+    Blob(String dirGit, String dirRaw, String base, int depth, Codec codec, long size, long storedSize) {
         this.dirGit = dirGit;
         this.dirRaw = dirRaw;
+        this.base = base;
+        this.depth = depth;
+        this.codec = codec;
+        this.size = size;
+        this.storedSize = storedSize;
     }
 
     public Path getPathGit() {
@@ -24,4 +42,16 @@ public class Blob implements Serializable {
     }
 
     public Path getPathRaw() { return Paths.get(dirRaw); }
+
+    String getBase() { return base; }
+
+    int getDepth() { return depth; }
+
+    boolean isDelta() { return base != null; }
+
+    Codec getCodec() { return codec == null ? Codec.NONE : codec; }
+
+    long getSize() { return size; }
+
+    long getStoredSize() { return storedSize; }
 }
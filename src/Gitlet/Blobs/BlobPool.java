@@ -1,25 +1,61 @@
 package Gitlet.Blobs;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import Gitlet.Trace.Trace;
+import Gitlet.Utility.Config;
 import Gitlet.Utility.Utils;
 
+/**
+ * 文件抽象池，保存所有文件的所有版本的快照
+ *
+ * 一个文件的新版本和同一路径上一次保存的版本很相似时，只保存相对上一版本的二进制差量，
+ * 差量链的长度不超过MAX_DELTA_DEPTH，读取时沿着差量链重建，重建出的基础版本放在BaseCache里复用
+ */
+
 public class BlobPool implements Serializable {
 
+    //和最初版本保持一致，新版本只增加字段，旧仓库保存的对象仍然可以读出来
+    private static final long serialVersionUID = -683064404540116277L;
+
+    //差量链的最大长度，超过之后保存完整内容，保证读取时最多重建这么多层
+    private static final int MAX_DELTA_DEPTH = 10;
+    //比这个大的文件不做差量，避免把整个文件读进内存
+    private static final long MAX_DELTA_FILE_SIZE = 16L << 20;
+    //差量至少要比完整内容小这么多倍才值得保存
+    private static final int MIN_DELTA_GAIN = 2;
+    private static final long BASE_CACHE_BYTES = 64L << 20;
+
     //blob pool: map sha-1 to the blob of file.
     private Map<String, Blob> pool = new HashMap<>();
+    //文件的相对路径 -> 这个路径最近一次保存的快照的hash，新版本以它作为差量的基础
+    private Map<String, String> latestByPath = new HashMap<>();
+    //已经打包的快照从这里读取，第一次用到时才打开
+    private transient PackStore packs;
+    private transient BaseCache baseCache;
+    private transient AddReport lastAddReport;
+    //压缩新快照累计花费的CPU时间
+    private long compressCpuNanos;
 
     public static BlobPool deSerialFrom(Path path) {
-        try {
-            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path.toString()));
+        try (Trace.Span span = Trace.begin("load.blobPool")) {
+            span.read(path.toFile().length());
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path.toString())));
             return (BlobPool) ois.readObject();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
@@ -27,25 +63,609 @@ public class BlobPool implements Serializable {
         }
     }
 
-    public void addFile(List<Path> files) throws IOException{
-        for (Path file : files) {
-            Path destDir = Utils.getFilesPath().resolve(Utils.getRelativeDir(file));
-            String hash = Utils.encrypt(file, "SHA-1");
-            if (!Files.exists(destDir)) Files.createDirectories(destDir);
-            if (!pool.containsKey(hash)) {
-                Path destFile = destDir.resolve(hash);
-                Files.copy(file, destFile);
-                pool.put(hash, new Blob(destFile.toString(), file.toString()));
+    /**
+     * 为一批文件保存快照
+     *
+     * 每个文件只读一遍：读出的每一块同时送进摘要计算和压缩输出，先写到临时文件，算出hash之后再改名，
+     * 已经存在相同快照时直接删掉临时文件。可以做差量的小文件一次读进内存，同样只读一遍。
+     *
+     * 文件在一个ForkJoinPool中并行地计算hash和写入快照，这一阶段只读pool，
+     * 之后再按路径顺序逐个把结果合并进pool，所以结果和并行度无关
+     * @param files 要保存的文件
+     * @param parallelism 并行度
+     * @return 文件的相对路径 -> 文件的hash
+     */
+    public Map<String, String> addFile(List<Path> files, int parallelism) throws IOException{
+        try (Trace.Span span = Trace.begin("add")) {
+            return addFile(files, parallelism, span);
+        }
+    }
+
+    /**
+     * @param span 记下读取的字节数、计算hash的文件数和新写入的快照大小
+     */
+    private Map<String, String> addFile(List<Path> files, int parallelism, Trace.Span span) throws IOException {
+        long start = System.nanoTime();
+        Codec codec = configuredCodec();
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.naturalOrder());
+        //并行阶段之前初始化这些延迟创建的字段，避免多个线程同时初始化
+        packs();
+        baseCache();
+        latestByPath();
+        List<Added> results;
+        ForkJoinPool workers = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            results = workers.submit(() -> sorted.parallelStream().map(file -> {
+                try {
+                    return store(file, codec);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList())).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            workers.shutdown();
+        }
+
+        Map<String, String> added = new LinkedHashMap<>();
+        long bytes = 0;
+        for (Added result : results) {
+            if (result.blob != null) {
+                //同一批里内容相同的另一个文件已经先合并进去了
+                if (pool.containsKey(result.hash)) {
+                    Files.deleteIfExists(result.blob.getPathGit());
+                } else {
+                    pool.put(result.hash, result.blob);
+                    if (span.isRecording())
+                        span.written(result.blob.getPathGit().toFile().length());
+                }
+            }
+            latestByPath().put(result.relativeDir, result.hash);
+            added.put(result.relativeDir, result.hash);
+            compressCpuNanos += result.cpuNanos;
+            bytes += result.size;
+        }
+        lastAddReport = new AddReport(results.size(), bytes, System.nanoTime() - start, parallelism);
+        span.hashed(results.size()).read(bytes);
+        return added;
+    }
+
+    /**
+     * 为一个文件计算hash并保存快照，不修改pool
+     */
+    private Added store(Path file, Codec codec) throws IOException {
+        long cpuStart = cpuTime();
+        String relativeDir = Utils.getRelativeDir(file);
+        Path destDir = Utils.getFilesPath().resolve(relativeDir);
+        Files.createDirectories(destDir);
+        String base = latestByPath().get(relativeDir);
+        Added added;
+        if (base != null && pool.containsKey(base) && pool.get(base).getDepth() < MAX_DELTA_DEPTH
+                && Files.size(file) <= MAX_DELTA_FILE_SIZE)
+            added = addInMemory(file, destDir, base, codec);
+        else
+            added = addStreaming(file, destDir, codec);
+        added.relativeDir = relativeDir;
+        added.cpuNanos = cpuTime() - cpuStart;
+        return added;
+    }
+
+    /**
+     * 一边读文件一边计算hash并压缩写入临时文件
+     */
+    private Added addStreaming(Path file, Path destDir, Codec codec) throws IOException {
+        MessageDigest md = sha1();
+        Path tmp = Files.createTempFile(destDir, ".add-", ".tmp");
+        try {
+            long size = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(Utils.IO_BUFFER_SIZE);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 OutputStream out = codec.compress(Files.newOutputStream(tmp))) {
+                for (int n; (n = in.read(buffer)) >= 0; buffer.clear()) {
+                    md.update(buffer.array(), 0, n);
+                    out.write(buffer.array(), 0, n);
+                    size += n;
+                }
             }
+            String hash = Utils.toHex(md.digest());
+            if (pool.containsKey(hash))
+                return new Added(hash, null, size);
+            Path destFile = destDir.resolve(hash);
+            Files.move(tmp, destFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            makeReadOnly(destFile);
+            return new Added(hash, new Blob(destFile.toString(), file.toString(), null, 0,
+                    codec, size, Files.size(destFile)), size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 把小文件一次读进内存，计算hash，然后尽量保存成相对baseHash的差量
+     */
+    private Added addInMemory(Path file, Path destDir, String baseHash, Codec codec) throws IOException {
+        return addBytes(Files.readAllBytes(file), file.toString(), destDir, baseHash, codec);
+    }
+
+    /**
+     * 计算内存里内容的hash，尽量保存成相对baseHash的差量
+     * @param baseHash 差量的基础，为null时保存完整内容
+     */
+    private Added addBytes(byte[] content, String source, Path destDir, String baseHash, Codec codec) throws IOException {
+        String hash = Utils.toHex(sha1().digest(content));
+        if (pool.containsKey(hash))
+            return new Added(hash, null, content.length);
+        byte[] delta = baseHash == null ? null : Delta.create(readContent(baseHash), content);
+        boolean useDelta = delta != null && (long) delta.length * MIN_DELTA_GAIN <= content.length;
+        Path destFile = destDir.resolve(hash);
+        //和addStreaming一样先写临时文件再改名：已经存在的只读快照不会挡住写入，崩溃时也不会留下写了一半的快照
+        Path tmp = Files.createTempFile(destDir, ".add-", ".tmp");
+        try {
+            try (OutputStream out = codec.compress(Files.newOutputStream(tmp))) {
+                out.write(useDelta ? delta : content);
+            }
+            Files.move(tmp, destFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        makeReadOnly(destFile);
+        return new Added(hash, new Blob(destFile.toString(), source, useDelta ? baseHash : null,
+                useDelta ? pool.get(baseHash).getDepth() + 1 : 0, codec, content.length, Files.size(destFile)),
+                content.length);
+    }
+
+    /**
+     * 为不在工作目录里的内容保存快照，比如merge合并出的文件
+     * @param relativeDir 内容所属文件的相对路径
+     * @param content 内容
+     * @return 内容的hash
+     */
+    public String addContent(String relativeDir, byte[] content) throws IOException {
+        Path destDir = Utils.getFilesPath().resolve(relativeDir);
+        Files.createDirectories(destDir);
+        String base = latestByPath().get(relativeDir);
+        if (base == null || !pool.containsKey(base) || pool.get(base).getDepth() >= MAX_DELTA_DEPTH)
+            base = null;
+        Added added = addBytes(content, relativeDir, destDir, base, configuredCodec());
+        if (added.blob != null)
+            pool.put(added.hash, added.blob);
+        latestByPath().put(relativeDir, added.hash);
+        return added.hash;
+    }
+
+    /**
+     * @return 最近一次addFile的吞吐量统计，还没有调用过时返回null
+     */
+    public AddReport getLastAddReport() {
+        return lastAddReport;
+    }
+
+    /**
+     * 一个文件保存快照的结果
+     */
+    private static class Added {
+        final String hash;
+        //新写入的快照，已经存在相同快照时为null
+        final Blob blob;
+        final long size;
+        String relativeDir;
+        long cpuNanos;
+
+        Added(String hash, Blob blob, long size) {
+            this.hash = hash;
+            this.blob = blob;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 一次add的吞吐量，用于按机器调整并行度
+     */
+    public static class AddReport {
+        private final int files;
+        private final long bytes, nanos;
+        private final int parallelism;
+
+        AddReport(int files, long bytes, long nanos, int parallelism) {
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("added %d files (%d bytes) in %.3f s with parallelism %d: %.1f files/s, %.2f MB/s",
+                    files, bytes, seconds, parallelism, files / seconds, bytes / seconds / (1 << 20));
+        }
+    }
+
+    private static MessageDigest sha1() throws IOException {
+        try {
+            return Utils.digest("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Codec configuredCodec() {
+        String name = Config.get(Config.COMPRESSION, Codec.DEFLATE.name());
+        try {
+            return Codec.of(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown " + Config.COMPRESSION + " '" + name + "', using deflate.");
+            return Codec.DEFLATE;
         }
     }
 
+    private static long cpuTime() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
     public Blob getFile(String hash) {
         return pool.get(hash);
     }
 
-    public void rmFile(String hash) throws IOException{
-        Files.delete(pool.get(hash).getPathRaw());
-        pool.remove(hash);
+    /**
+     * @return 所有快照的hash，调用者不能修改
+     */
+    public Set<String> getHashes() {
+        return Collections.unmodifiableSet(pool.keySet());
+    }
+
+    /**
+     * @return 差量存储的快照的基础版本，完整存储或者不存在的快照返回null
+     */
+    public String getDeltaBase(String hash) {
+        Blob blob = pool.get(hash);
+        return blob == null ? null : blob.getBase();
+    }
+
+    /**
+     * 读取指定快照的完整内容，差量存储的快照会沿着差量链重建
+     * @param hash 快照的hash
+     * @return 快照内容
+     */
+    public byte[] readContent(String hash) throws IOException {
+        Blob blob = pool.get(hash);
+        if (!blob.isDelta())
+            return readStored(hash);
+        byte[] cached = baseCache().get(hash);
+        if (cached != null)
+            return cached;
+        byte[] content = Delta.apply(readContent(blob.getBase()), readStored(hash));
+        baseCache().put(hash, content);
+        return content;
+    }
+
+    /**
+     * 读取快照内容用于比较：松散存放、没有压缩的完整快照直接映射进内存，其余的解压或者重建到内存里
+     * @param hash 快照的hash
+     * @return 快照内容，调用者不能修改
+     */
+    public ByteBuffer mapContent(String hash) throws IOException {
+        Path linkable = getLinkableObject(hash);
+        if (linkable == null)
+            return ByteBuffer.wrap(readContent(hash));
+        try (FileChannel channel = FileChannel.open(linkable, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * @return 快照在对象库里实际保存的字节，差量存储的快照返回的是差量
+     */
+    private byte[] readStored(String hash) throws IOException {
+        try (InputStream in = openStored(hash)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * @return 解压之后的快照内容流，差量存储的快照读到的是差量
+     */
+    private InputStream openStored(String hash) throws IOException {
+        Blob blob = pool.get(hash);
+        Path loose = blob.getPathGit();
+        InputStream raw = Files.exists(loose) ? Files.newInputStream(loose) : packs().open(hash);
+        if (raw == null)
+            throw new FileNotFoundException("snapshot " + hash + " is missing from the object store");
+        return blob.getCodec().decompress(raw);
+    }
+
+    /**
+     * 快照写入对象库之后就不再修改，去掉写权限，
+     * 这样工作目录里硬链接到它的文件也是只读的，不会被就地修改
+     */
+    private static void makeReadOnly(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("r--r--r--"));
+        } catch (UnsupportedOperationException e) {
+            file.toFile().setReadOnly();
+        }
+    }
+
+    /**
+     * 可以直接链接到工作目录的快照文件：松散存放、没有压缩、不是差量
+     * @param hash 快照的hash
+     * @return 快照文件的路径，快照不能直接链接时返回null
+     */
+    public Path getLinkableObject(String hash) {
+        Blob blob = pool.get(hash);
+        if (blob == null || blob.isDelta() || blob.getCodec() != Codec.NONE)
+            return null;
+        Path loose = blob.getPathGit();
+        return Files.exists(loose) ? loose : null;
+    }
+
+    /**
+     * 把指定快照的内容恢复到target，已经存在的target会被覆盖
+     *
+     * 先删除旧的target再写入新文件，target是指向对象库的硬链接时不会改到快照本身。
+     * 优先读取松散的快照文件，找不到时再从包里读取
+     * @param hash 快照的hash
+     * @param target 恢复到的位置
+     */
+    public void restoreFile(String hash, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (pool.get(hash).isDelta()) {
+            Files.write(target, readContent(hash));
+            return;
+        }
+        if (pool.get(hash).getCodec() != Codec.NONE) {
+            //流式解压，不把整个文件读进内存
+            try (InputStream in = openStored(hash); OutputStream out = Files.newOutputStream(target)) {
+                in.transferTo(out);
+            }
+            return;
+        }
+        Path loose = pool.get(hash).getPathGit();
+        if (Files.exists(loose)) {
+            //不用Files.copy，它会把快照的只读权限也带过来
+            try (FileChannel in = FileChannel.open(loose, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (long position = 0, size = in.size(); position < size; )
+                    position += in.transferTo(position, size - position, out);
+            }
+            return;
+        }
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (!packs().copyTo(hash, out))
+                throw new FileNotFoundException("snapshot " + hash + " is missing from the object store");
+        }
+    }
+
+    /**
+     * 把松散的快照文件打包
+     *
+     * 新包写完并落盘之后才删除对应的松散文件，中途失败时松散文件都还在
+     * @param all 为true时把已有的包也合并进新包，最后只剩一个包
+     * @return 打包的快照个数
+     */
+    public int repack(boolean all) throws IOException {
+        PackStore store = packs();
+        List<String> hashes = new ArrayList<>();
+        List<Path> looseFiles = new ArrayList<>();
+        for (Map.Entry<String, Blob> entry : new TreeMap<>(pool).entrySet()) {
+            Path loose = entry.getValue().getPathGit();
+            if (Files.exists(loose)) {
+                hashes.add(entry.getKey());
+                looseFiles.add(loose);
+            } else if (all && store.contains(entry.getKey())) {
+                hashes.add(entry.getKey());
+            }
+        }
+        if (hashes.isEmpty())
+            return 0;
+        List<Path> oldPacks = all ? store.packFiles() : Collections.emptyList();
+        PackStore.write(Utils.getPacksPath(), hashes, this::copyStored);
+        store.close();
+        packs = null;
+        for (Path loose : looseFiles)
+            Files.deleteIfExists(loose);
+        for (Path old : oldPacks)
+            Files.deleteIfExists(old);
+        removeEmptyDirectories(Utils.getFilesPath());
+        return hashes.size();
+    }
+
+    /**
+     * gc的清扫阶段：删除不再被引用、并且早于宽限期的快照
+     *
+     * 松散的快照直接删除文件，包里有死快照时把活着的快照重写成新包。对象库里不属于任何快照的文件
+     * （写了一半的临时文件、同一批里重复的快照）同样按修改时间清理。
+     * 宽限期内的快照即使没有被引用也保留，它们可能属于一次还没结束的add，它们的差量基础也一起保留
+     * @param live 快照是否还被引用，差量基础要由调用者一起标记
+     * @param cutoffMillis 修改时间不早于它的文件不动
+     * @return 删除的快照个数和回收的字节数
+     */
+    public Swept sweep(Predicate<String> live, long cutoffMillis) throws IOException {
+        PackStore store = packs();
+        Set<String> protectedBases = new HashSet<>();
+        for (Map.Entry<String, Blob> entry : pool.entrySet()) {
+            if (live.test(entry.getKey()))
+                continue;
+            Path loose = entry.getValue().getPathGit();
+            boolean young = Files.exists(loose) ? Files.getLastModifiedTime(loose).toMillis() >= cutoffMillis
+                    : store.packedAt(entry.getKey()) >= cutoffMillis;
+            if (young)
+                for (String base = entry.getValue().getBase(); base != null; base = getDeltaBase(base))
+                    protectedBases.add(padded(base));
+        }
+        Predicate<String> kept = hash -> live.test(hash) || protectedBases.contains(padded(hash));
+
+        long bytes = 0;
+        int removed;
+        try {
+            if (Files.isDirectory(Utils.getFilesPath())) {
+                try (Stream<Path> walk = Files.walk(Utils.getFilesPath())) {
+                    for (Iterator<Path> it = walk.filter(Files::isRegularFile).iterator(); it.hasNext(); ) {
+                        Path file = it.next();
+                        String name = file.getFileName().toString();
+                        Blob blob = pool.get(name);
+                        boolean recorded = blob != null && blob.getPathGit().normalize().equals(file.normalize());
+                        if (recorded && kept.test(name) || Files.getLastModifiedTime(file).toMillis() >= cutoffMillis)
+                            continue;
+                        bytes += Files.size(file);
+                        Files.delete(file);
+                    }
+                }
+                removeEmptyDirectories(Utils.getFilesPath());
+            }
+            bytes += store.prune(kept, cutoffMillis);
+        } finally {
+            //清扫到一半失败时也要去掉内容已经删掉的快照，否则add会以为同样的内容已经保存过了
+            packs = null;
+            removed = forgetMissing(kept);
+        }
+        return new Swept(removed, bytes);
+    }
+
+    /**
+     * 从快照列表里去掉文件和包里都已经没有内容的死快照
+     * @return 去掉的快照个数
+     */
+    private int forgetMissing(Predicate<String> kept) throws IOException {
+        PackStore store = packs();
+        int removed = 0;
+        for (Iterator<Map.Entry<String, Blob>> it = pool.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Blob> entry = it.next();
+            if (kept.test(entry.getKey()) || Files.exists(entry.getValue().getPathGit())
+                    || store.contains(entry.getKey()))
+                continue;
+            it.remove();
+            removed++;
+        }
+        latestByPath().values().removeIf(hash -> !pool.containsKey(hash));
+        baseCache = null;
+        return removed;
+    }
+
+    /**
+     * 一次清扫的结果
+     */
+    public static class Swept {
+        public final int snapshots;
+        public final long bytes;
+
+        Swept(int snapshots, long bytes) {
+            this.snapshots = snapshots;
+            this.bytes = bytes;
+        }
+    }
+
+    private static String padded(String hash) {
+        return hash.length() >= 40 ? hash : "0".repeat(40 - hash.length()) + hash;
+    }
+
+    private void copyStored(String hash, WritableByteChannel target) throws IOException {
+        Path loose = pool.get(hash).getPathGit();
+        if (Files.exists(loose)) {
+            try (FileChannel in = FileChannel.open(loose, StandardOpenOption.READ)) {
+                long position = 0, size = in.size();
+                while (position < size)
+                    position += in.transferTo(position, size - position, target);
+            }
+        } else if (!packs().copyTo(hash, target)) {
+            throw new FileNotFoundException("snapshot " + hash + " is missing from the object store");
+        }
+    }
+
+    private Map<String, String> latestByPath() {
+        //旧版本的仓库反序列化出来时没有这个字段
+        if (latestByPath == null)
+            latestByPath = new HashMap<>();
+        return latestByPath;
+    }
+
+    private synchronized BaseCache baseCache() {
+        if (baseCache == null)
+            baseCache = new BaseCache(BASE_CACHE_BYTES);
+        return baseCache;
+    }
+
+    /**
+     * 统计对象库的压缩情况
+     * @param decode 为true时把所有快照解压一遍，测量解压花费的CPU时间
+     * @return 统计报告，每行一项
+     */
+    public List<String> stats(boolean decode) throws IOException {
+        Map<Codec, long[]> byCodec = new EnumMap<>(Codec.class);
+        long size = 0, stored = 0, deltas = 0, unknown = 0;
+        for (Blob blob : pool.values()) {
+            if (blob.getSize() == 0 && blob.getStoredSize() == 0) {
+                unknown++;
+                continue;
+            }
+            long[] sums = byCodec.computeIfAbsent(blob.getCodec(), c -> new long[3]);
+            sums[0]++;
+            sums[1] += blob.getSize();
+            sums[2] += blob.getStoredSize();
+            size += blob.getSize();
+            stored += blob.getStoredSize();
+            if (blob.isDelta()) deltas++;
+        }
+        List<String> report = new ArrayList<>();
+        report.add("codec for new snapshots: " + configuredCodec().name().toLowerCase());
+        for (Map.Entry<Codec, long[]> entry : byCodec.entrySet()) {
+            long[] sums = entry.getValue();
+            report.add(String.format("%-8s %d snapshots, %d bytes -> %d bytes (%s)", entry.getKey().name().toLowerCase(),
+                    sums[0], sums[1], sums[2], ratio(sums[1], sums[2])));
+        }
+        report.add(String.format("total    %d snapshots (%d deltas), %d bytes -> %d bytes (%s)",
+                pool.size() - unknown, deltas, size, stored, ratio(size, stored)));
+        if (unknown > 0)
+            report.add(unknown + " snapshots were stored before sizes were recorded");
+        report.add(String.format("compression cpu time: %.3f ms", compressCpuNanos / 1e6));
+        if (decode) {
+            long cpuStart = cpuTime(), decoded = 0;
+            byte[] buffer = new byte[Codec.BUFFER_SIZE];
+            for (String hash : pool.keySet()) {
+                try (InputStream in = openStored(hash)) {
+                    for (int n; (n = in.read(buffer)) > 0; )
+                        decoded += n;
+                }
+            }
+            long cpu = cpuTime() - cpuStart;
+            report.add(String.format("decompression cpu time: %.3f ms for %d bytes (%.1f MB/s)",
+                    cpu / 1e6, decoded, cpu == 0 ? 0 : decoded / (cpu / 1e9) / (1 << 20)));
+        }
+        return report;
+    }
+
+    private static String ratio(long size, long stored) {
+        return stored == 0 ? "n/a" : String.format("ratio %.2f", (double) size / stored);
+    }
+
+    private synchronized PackStore packs() throws IOException {
+        if (packs == null)
+            packs = PackStore.open(Utils.getPacksPath());
+        return packs;
+    }
+
+    private static void removeEmptyDirectories(Path root) throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> walk = Files.walk(root)) {
+            dirs = walk.filter(Files::isDirectory).filter(p -> !p.equals(root)).collect(Collectors.toList());
+        }
+        //先删最深的目录
+        dirs.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        for (Path dir : dirs) {
+            try (Stream<Path> children = Files.list(dir)) {
+                if (children.findAny().isPresent())
+                    continue;
+            }
+            Files.delete(dir);
+        }
     }
 }
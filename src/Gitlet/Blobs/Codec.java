@@ -0,0 +1,60 @@
+package Gitlet.Blobs;
+
+import java.io.*;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 快照在对象库中的压缩方式
+ *
+ * 压缩和解压都是流式的，不需要把整个文件读进内存。
+ * 通过仓库配置core.compression选择新快照使用的压缩方式，已有快照各自记录了自己的压缩方式
+ */
+
+public enum Codec {
+
+    NONE {
+        @Override
+        OutputStream compress(OutputStream out) { return out; }
+
+        @Override
+        InputStream decompress(InputStream in) { return in; }
+    },
+
+    //JDK自带的Deflate，压缩率高
+    DEFLATE {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return new DeflaterOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        }
+    },
+
+    //LZ77风格的快速压缩，压缩率比Deflate低但是快得多
+    LZ {
+        @Override
+        OutputStream compress(OutputStream out) { return new LzOutputStream(out); }
+
+        @Override
+        InputStream decompress(InputStream in) { return new LzInputStream(in); }
+    };
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    abstract OutputStream compress(OutputStream out);
+
+    abstract InputStream decompress(InputStream in);
+
+    /**
+     * @param name 配置中的名字，不区分大小写
+     * @throws IllegalArgumentException 没有这个名字的压缩方式
+     */
+    public static Codec of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,146 @@
+package Gitlet.Blobs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 二进制差量的生成和应用
+ *
+ * 差量由一串指令组成：COPY从基础版本的某个偏移处复制一段字节，INSERT直接插入一段新字节。
+ * 生成时把基础版本按BLOCK字节分块建立哈希表，再用滚动哈希扫描新版本，找到相同的块后向前后尽量延长匹配。
+ *
+ * 格式：基础版本长度 新版本长度 指令...，所有整数都是变长编码
+ */
+
+class Delta {
+
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+    private static final byte OP_INSERT = 0;
+    private static final byte OP_COPY = 1;
+
+    /**
+     * @return 由base得到target的差量
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            insert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+        int mask = Integer.highestOneBit(Math.max(1, base.length / BLOCK) * 2) - 1;
+        int[] table = new int[mask + 1];
+        //table[h]记录哈希值为h的块在base中的偏移+1，0表示空
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK)
+            table[hash(base, i) & mask] = i + 1;
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++)
+            power *= PRIME;
+
+        int pending = 0, i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int candidate = table[h & mask] - 1;
+            if (candidate >= 0 && equals(base, candidate, target, i, BLOCK)) {
+                int start = candidate, at = i;
+                //向后延长匹配，吃掉还没输出的插入字节
+                while (at > pending && start > 0 && base[start - 1] == target[at - 1]) {
+                    start--;
+                    at--;
+                }
+                int length = i - at + BLOCK;
+                while (start + length < base.length && at + length < target.length
+                        && base[start + length] == target[at + length])
+                    length++;
+                insert(out, target, pending, at - pending);
+                writeCopy(out, start, length);
+                i = pending = at + length;
+                if (i + BLOCK <= target.length)
+                    h = hash(target, i);
+                continue;
+            }
+            if (i + BLOCK < target.length)
+                h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+            i++;
+        }
+        insert(out, target, pending, target.length - pending);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在base上应用差量，得到新版本
+     */
+    static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length)
+            throw new IOException("delta does not match its base");
+        byte[] target = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            byte op = delta[pos[0]++];
+            if (op == OP_COPY) {
+                int offset = readVarint(delta, pos), length = readVarint(delta, pos);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else if (op == OP_INSERT) {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw new IOException("corrupt delta");
+            }
+        }
+        if (written != target.length)
+            throw new IOException("corrupt delta");
+        return target;
+    }
+
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i++)
+            h = h * PRIME + data[i];
+        return h;
+    }
+
+    private static boolean equals(byte[] a, int from, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i++)
+            if (a[from + i] != b[bFrom + i])
+                return false;
+        return true;
+    }
+
+    private static void insert(ByteArrayOutputStream out, byte[] data, int from, int length) {
+        if (length == 0)
+            return;
+        out.write(OP_INSERT);
+        writeVarint(out, length);
+        out.write(data, from, length);
+    }
+
+    private static void writeCopy(ByteArrayOutputStream out, int offset, int length) {
+        out.write(OP_COPY);
+        writeVarint(out, offset);
+        writeVarint(out, length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package Gitlet.Blobs;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * LZ压缩的输入流，格式见LzOutputStream
+ */
+
+class LzInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final byte[] block = new byte[LzOutputStream.BLOCK_SIZE];
+    private final byte[] compressed = new byte[LzOutputStream.BLOCK_SIZE + LzOutputStream.BLOCK_SIZE / 8 + 64];
+    private int length, position;
+    private boolean finished;
+
+    LzInputStream(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == length && !nextBlock())
+            return -1;
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position == length && !nextBlock())
+            return -1;
+        int n = Math.min(len, length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (finished)
+            return false;
+        int raw = readVarint();
+        if (raw == 0) {
+            finished = true;
+            return false;
+        }
+        int stored = readVarint();
+        if (raw > block.length || stored > compressed.length)
+            throw new IOException("corrupt lz stream");
+        if (in.readByte() == 0) {
+            in.readFully(block, 0, raw);
+        } else {
+            in.readFully(compressed, 0, stored);
+            decompress(stored, raw);
+        }
+        length = raw;
+        position = 0;
+        return true;
+    }
+
+    private void decompress(int stored, int raw) throws IOException {
+        int[] pos = {0};
+        int out = 0;
+        while (pos[0] < stored) {
+            int literals = varint(pos);
+            System.arraycopy(compressed, pos[0], block, out, literals);
+            pos[0] += literals;
+            out += literals;
+            int match = varint(pos);
+            if (match == 0)
+                break;
+            int offset = (compressed[pos[0]] & 0xff) | (compressed[pos[0] + 1] & 0xff) << 8;
+            pos[0] += 2;
+            //匹配可能和自己重叠，只能逐字节复制
+            for (int i = 0; i < match; i++, out++)
+                block[out] = block[out - offset];
+        }
+        if (out != raw)
+            throw new IOException("corrupt lz stream");
+    }
+
+    private int varint(int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = compressed[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("truncated lz stream");
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
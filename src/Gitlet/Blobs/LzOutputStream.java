@@ -0,0 +1,146 @@
+package Gitlet.Blobs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * LZ压缩的输出流
+ *
+ * 数据按BLOCK_SIZE分块压缩，每块的格式：原始长度 存储长度 标志 数据，原始长度为0表示流结束。
+ * 压缩后没有变小的块原样保存（标志为0）。
+ * 块内是一串序列：字面量长度 字面量 匹配长度 [匹配偏移(2字节)]，匹配长度为0的序列是块的最后一个序列
+ */
+
+class LzOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+
+    private final OutputStream out;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] compressed = new byte[BLOCK_SIZE + BLOCK_SIZE / 8 + 64];
+    private final int[] table = new int[1 << HASH_BITS];
+    private int length;
+    private boolean closed;
+
+    LzOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == BLOCK_SIZE)
+            writeBlock();
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == BLOCK_SIZE)
+                writeBlock();
+            int n = Math.min(len, BLOCK_SIZE - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (length > 0)
+            writeBlock();
+        writeVarint(out, 0);
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        int size = compressBlock();
+        writeVarint(out, length);
+        if (size < length) {
+            writeVarint(out, size);
+            out.write(1);
+            out.write(compressed, 0, size);
+        } else {
+            writeVarint(out, length);
+            out.write(0);
+            out.write(block, 0, length);
+        }
+        length = 0;
+    }
+
+    /**
+     * @return 压缩后的长度，超过块长度时直接放弃压缩
+     */
+    private int compressBlock() {
+        Arrays.fill(table, 0);
+        int pos = 0, anchor = 0, i = 0;
+        int limit = length - MIN_MATCH;
+        while (i <= limit) {
+            int h = hash(i);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+            if (ref >= 0 && i - ref <= 0xffff && sameInt(ref, i)) {
+                int match = MIN_MATCH;
+                while (i + match < length && block[ref + match] == block[i + match])
+                    match++;
+                pos = writeSequence(pos, anchor, i - anchor, match, i - ref);
+                if (pos < 0)
+                    return Integer.MAX_VALUE;
+                i += match;
+                anchor = i;
+            } else {
+                i++;
+            }
+        }
+        pos = writeSequence(pos, anchor, length - anchor, 0, 0);
+        return pos < 0 ? Integer.MAX_VALUE : pos;
+    }
+
+    private int writeSequence(int pos, int literalsFrom, int literals, int match, int offset) {
+        if (pos + literals + 16 > compressed.length)
+            return -1;
+        pos = putVarint(pos, literals);
+        System.arraycopy(block, literalsFrom, compressed, pos, literals);
+        pos += literals;
+        pos = putVarint(pos, match);
+        if (match > 0) {
+            compressed[pos++] = (byte) offset;
+            compressed[pos++] = (byte) (offset >>> 8);
+        }
+        return pos;
+    }
+
+    private int putVarint(int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            compressed[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        compressed[pos++] = (byte) value;
+        return pos;
+    }
+
+    private int hash(int i) {
+        int v = (block[i] & 0xff) | (block[i + 1] & 0xff) << 8 | (block[i + 2] & 0xff) << 16 | (block[i + 3] & 0xff) << 24;
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private boolean sameInt(int a, int b) {
+        return block[a] == block[b] && block[a + 1] == block[b + 1]
+                && block[a + 2] == block[b + 2] && block[a + 3] == block[b + 3];
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,344 @@
+package Gitlet.Blobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import Gitlet.Utility.Utils;
+
+/**
+ * 包文件存储
+ *
+ * 一个包由两个文件组成：pack-xxx.pack把很多快照的内容首尾相接地存在一起，
+ * pack-xxx.idx按快照hash排序，记录每个快照在.pack文件中的偏移和长度。
+ * idx文件开头有一个256项的扇出表，第i项是hash首字节不大于i的快照个数，查找时先用首字节缩小范围再二分。
+ *
+ * idx文件整个映射进内存，.pack文件只打开一次，读取快照时使用带位置的transferTo，
+ * 检出大量文件时不需要为每个快照单独打开一个文件
+ */
+
+class PackStore implements AutoCloseable {
+
+    private static final int IDX_MAGIC = 0x47494458;   //"GIDX"
+    private static final int PACK_MAGIC = 0x4750414b;  //"GPAK"
+    private static final int VERSION = 1;
+    private static final int ID_LENGTH = 20;
+    private static final int FANOUT_OFFSET = 12;
+    private static final int RECORDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+    private static final int RECORD_LENGTH = ID_LENGTH + 16;
+
+    private final List<Pack> packs = new ArrayList<>();
+
+    /**
+     * 打开指定目录下的所有包，目录不存在时返回一个空的PackStore
+     */
+    static PackStore open(Path dir) throws IOException {
+        PackStore store = new PackStore();
+        if (!Files.isDirectory(dir))
+            return store;
+        //先写.pack再写.idx，所以只认有.idx的包，写了一半的包会被忽略
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path idx : files.filter(p -> p.toString().endsWith(".idx")).sorted().collect(Collectors.toList()))
+                store.packs.add(new Pack(idx));
+        }
+        return store;
+    }
+
+    boolean contains(String hash) {
+        return locate(hash) != null;
+    }
+
+    /**
+     * 把指定快照的内容写到target
+     * @return 是否在包里找到了这个快照
+     */
+    boolean copyTo(String hash, WritableByteChannel target) throws IOException {
+        Location location = locate(hash);
+        if (location == null)
+            return false;
+        FileChannel channel = location.pack.channel();
+        long position = location.offset, end = location.offset + location.length;
+        while (position < end)
+            position += channel.transferTo(position, end - position, target);
+        return true;
+    }
+
+    /**
+     * @return 读取指定快照在包里的内容的流，不在任何包里时返回null
+     */
+    InputStream open(String hash) {
+        Location location = locate(hash);
+        if (location == null)
+            return null;
+        return new RegionInputStream(location.pack.channel(), location.offset, location.offset + location.length);
+    }
+
+    /**
+     * @return 含有这个快照的包的修改时间，不在任何包里时返回-1
+     */
+    long packedAt(String hash) {
+        Location location = locate(hash);
+        return location == null ? -1 : location.pack.modified;
+    }
+
+    List<Path> packFiles() {
+        List<Path> files = new ArrayList<>();
+        for (Pack pack : packs) {
+            files.add(pack.packPath);
+            files.add(pack.idxPath);
+        }
+        return files;
+    }
+
+    private Location locate(String hash) {
+        byte[] id = toId(hash);
+        for (Pack pack : packs) {
+            Location location = pack.locate(id);
+            if (location != null)
+                return location;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        for (Pack pack : packs)
+            pack.close();
+        packs.clear();
+    }
+
+    /**
+     * 把一组快照写成一个新的包
+     * @param dir 存放包的目录
+     * @param hashes 要写入的快照
+     * @param source 提供每个快照的内容
+     * @return 新包的.pack文件
+     */
+    static Path write(Path dir, Collection<String> hashes, ObjectSource source) throws IOException {
+        Files.createDirectories(dir);
+        String name = "pack-" + System.currentTimeMillis();
+        //gc在同一毫秒里可能重写好几个包
+        for (int i = 1; Files.exists(dir.resolve(name + ".pack")); i++)
+            name = "pack-" + System.currentTimeMillis() + "-" + i;
+        Path packPath = dir.resolve(name + ".pack"), idxPath = dir.resolve(name + ".idx");
+        Path idxTmp = dir.resolve(name + ".idx.tmp");
+        List<byte[]> records = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(packPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.allocate(12).putInt(PACK_MAGIC).putInt(VERSION).putInt(hashes.size()).flip());
+            for (String hash : hashes) {
+                long offset = out.position();
+                source.copyTo(hash, out);
+                long length = out.position() - offset;
+                records.add(ByteBuffer.allocate(RECORD_LENGTH).put(toId(hash)).putLong(offset).putLong(length).array());
+            }
+            out.force(true);
+        }
+        records.sort((a, b) -> Arrays.compareUnsigned(a, 0, ID_LENGTH, b, 0, ID_LENGTH));
+        ByteBuffer idx = ByteBuffer.allocate(RECORDS_OFFSET + records.size() * RECORD_LENGTH);
+        idx.putInt(IDX_MAGIC).putInt(VERSION).putInt(records.size());
+        int[] fanout = new int[256];
+        for (byte[] record : records)
+            fanout[record[0] & 0xff]++;
+        for (int i = 0, total = 0; i < 256; i++) {
+            total += fanout[i];
+            idx.putInt(total);
+        }
+        for (byte[] record : records)
+            idx.put(record);
+        try (FileChannel out = FileChannel.open(idxTmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            idx.flip();
+            while (idx.hasRemaining())
+                out.write(idx);
+            out.force(true);
+        }
+        Files.move(idxTmp, idxPath, StandardCopyOption.ATOMIC_MOVE);
+        //包写完之后不再修改
+        packPath.toFile().setReadOnly();
+        idxPath.toFile().setReadOnly();
+        return packPath;
+    }
+
+    /**
+     * 从包里去掉不再被引用的快照
+     *
+     * 含有死快照的包把活着的快照写成一个新包，新包落盘之后再删掉旧包，中途失败时旧包还在。
+     * 修改时间不早于cutoff的包不动，它们可能是刚刚打好的包。调用之后这个PackStore被关闭
+     * @param live 快照是否还被引用
+     * @param cutoffMillis 宽限期的起点
+     * @return 回收的字节数
+     */
+    long prune(Predicate<String> live, long cutoffMillis) throws IOException {
+        long reclaimed = 0;
+        for (Pack pack : packs) {
+            if (pack.modified >= cutoffMillis)
+                continue;
+            List<String> kept = new ArrayList<>();
+            for (int i = 0; i < pack.count; i++) {
+                String hash = Utils.toHex(pack.idAt(i));
+                if (live.test(hash))
+                    kept.add(hash);
+            }
+            if (kept.size() == pack.count)
+                continue;
+            long before = Files.size(pack.packPath) + Files.size(pack.idxPath), after = 0;
+            if (!kept.isEmpty()) {
+                Path written = write(pack.idxPath.getParent(), kept, (hash, target) -> {
+                    Location location = pack.locate(toId(hash));
+                    FileChannel channel = pack.channel();
+                    long position = location.offset, end = location.offset + location.length;
+                    while (position < end)
+                        position += channel.transferTo(position, end - position, target);
+                });
+                String name = written.getFileName().toString();
+                after = Files.size(written) + Files.size(written.resolveSibling(name.replace(".pack", ".idx")));
+            }
+            pack.close();
+            //先删.idx，删了一半时剩下的.pack会被当成写了一半的包忽略
+            Files.delete(pack.idxPath);
+            Files.delete(pack.packPath);
+            reclaimed += before - after;
+        }
+        packs.clear();
+        return reclaimed;
+    }
+
+    /**
+     * 把hash字符串转换成定长的20字节id，hash不足40位时高位补零
+     */
+    static byte[] toId(String hash) {
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = hash.length() - 1, j = ID_LENGTH * 2 - 1; i >= 0 && j >= 0; i--, j--) {
+            int digit = Character.digit(hash.charAt(i), 16);
+            id[j / 2] |= (j % 2 == 0) ? digit << 4 : digit;
+        }
+        return id;
+    }
+
+    interface ObjectSource {
+        void copyTo(String hash, WritableByteChannel target) throws IOException;
+    }
+
+    /**
+     * 用带位置的读取访问包文件中的一段，多个流可以共享同一个FileChannel
+     */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end)
+                return -1;
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0)
+                throw new IOException("truncated pack");
+            position += n;
+            return n;
+        }
+    }
+
+    private static class Location {
+        final Pack pack;
+        final long offset, length;
+
+        Location(Pack pack, long offset, long length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Pack {
+        final Path idxPath, packPath;
+        final MappedByteBuffer idx;
+        final int count;
+        final long modified;
+        private FileChannel channel;
+
+        Pack(Path idxPath) throws IOException {
+            this.idxPath = idxPath;
+            String name = idxPath.getFileName().toString();
+            this.packPath = idxPath.resolveSibling(name.substring(0, name.length() - 4) + ".pack");
+            try (FileChannel c = FileChannel.open(idxPath, StandardOpenOption.READ)) {
+                idx = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+            }
+            if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION)
+                throw new IOException("bad pack index " + idxPath);
+            count = idx.getInt(8);
+            modified = Files.getLastModifiedTime(packPath).toMillis();
+        }
+
+        byte[] idAt(int i) {
+            byte[] id = new byte[ID_LENGTH];
+            idx.get(RECORDS_OFFSET + i * RECORD_LENGTH, id);
+            return id;
+        }
+
+        Location locate(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (first - 1) * 4);
+            int hi = idx.getInt(FANOUT_OFFSET + first * 4) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(RECORDS_OFFSET + mid * RECORD_LENGTH, id);
+                if (cmp == 0) {
+                    int at = RECORDS_OFFSET + mid * RECORD_LENGTH + ID_LENGTH;
+                    return new Location(this, idx.getLong(at), idx.getLong(at + 8));
+                }
+                if (cmp < 0) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return null;
+        }
+
+        private int compare(int at, byte[] id) {
+            for (int i = 0; i < ID_LENGTH; i++) {
+                int cmp = Integer.compare(idx.get(at + i) & 0xff, id[i] & 0xff);
+                if (cmp != 0)
+                    return cmp;
+            }
+            return 0;
+        }
+
+        synchronized FileChannel channel() {
+            if (channel == null) {
+                try {
+                    channel = FileChannel.open(packPath, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return channel;
+        }
+
+        void close() {
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException ignored) { }
+        }
+    }
+}
@@ -2,77 +2,354 @@ package Gitlet.Commits;
 
 import Gitlet.Utility.Utils;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
 
 /**
  * Commit结点
+ *
+ * 结点只保存紧凑的表示：id和双亲都是20字节一个的二进制id拼成的byte数组，时间是秒数加纳秒，
+ * 作者和时区在所有提交之间共享同一个字符串。十六进制的commitStr和ZonedDateTime只在需要时生成。
+ * 提交保存在CommitStore里，每个提交一条writeRecord写出的记录，用到时才读出来
  */
 
 public class Commit implements Serializable {
 
-    //the commitStr of parent commit.
-    private String parent;
-    //第二个双亲结点的commitStr，主要在merge时起作用
-    private String secondParent;
-    //holds the commitStrs of son commits.
-    private List<String> sons = new LinkedList<>();
+    //和最初版本保持一致，新版本只增加字段，旧仓库保存的对象仍然可以读出来
+    private static final long serialVersionUID = -8573201475980045397L;
 
-    private ZonedDateTime timestamp;
+    private static final int ID_LENGTH = CommitGraph.ID_LENGTH;
+
+    /**
+     * 序列化的字段：前面是旧版本的字段，读取旧检查点时用，新版本写出时都为null；后面是紧凑表示的字段。
+     * 子结点不再保存（可以从提交图的双亲推出来），sons和children只为了能读旧检查点
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("parent", String.class),
+            new ObjectStreamField("secondParent", String.class),
+            new ObjectStreamField("sons", List.class),
+            new ObjectStreamField("timestamp", ZonedDateTime.class),
+            new ObjectStreamField("SHA1", String.class),
+            new ObjectStreamField("files", Map.class),
+            new ObjectStreamField("tree", String.class),
+            new ObjectStreamField("generation", int.class),
+            new ObjectStreamField("log", String.class),
+            new ObjectStreamField("author", String.class),
+            new ObjectStreamField("id", byte[].class),
+            new ObjectStreamField("parents", byte[].class),
+            new ObjectStreamField("children", byte[].class),
+            new ObjectStreamField("epochSecond", long.class),
+            new ObjectStreamField("nano", int.class),
+            new ObjectStreamField("zone", String.class),
+            new ObjectStreamField("treeId", byte[].class),
+    };
+
+    //提交的SHA-1
+    private byte[] id;
+    //双亲的id依次拼接，根提交为null，merge产生的提交有两个双亲，第二个主要在merge时起作用
+    private byte[] parents;
+    //代数：根提交为1，其余为所有双亲代数的最大值加一，旧版本保存的提交为0，加载时补上
+    private int generation;
+
+    private long epochSecond;
+    private int nano;
+    private String zone;
     private String log;
-    private String SHA1;
     private String author;
-    //holds the hash values of commited files.
-    //files can be retrieved using hash value through the Gitlet.Gitlet.Blobs.BlobPool object.
-    //filename -> sha-1 of file
-    private Map<String, String> files;
+    //根目录树对象的hash，文件列表通过TreeStore读取，没有变化的子目录和其他提交共享
+    private byte[] treeId;
+
+    //从旧检查点读出来、还没有转换的字段
+    private transient Legacy legacy;
+
+    /**
+     * 旧版本的双亲用commitStr保存，可能是SHA-1的后六位；旧版本还直接保存完整的文件列表
+     */
+    private static final class Legacy {
+        String parent;
+        String secondParent;
+        Map<String, String> files;
+    }
 
-    Commit(ZonedDateTime timestamp, String log, Map<String, String> commitFiles,
+    Commit(ZonedDateTime timestamp, String log, String tree,
                     String SHA1, String author, String parent) {
-        this.timestamp = timestamp;
+        this(timestamp, log, tree, SHA1, author, parent, null);
+    }
+
+    Commit(ZonedDateTime timestamp, String log, String tree,
+                  String SHA1, String author, String parent, String secondParent) {
+        setTimestamp(timestamp);
         this.log = log;
-        this.SHA1 = SHA1;
-        this.author = author;
+        this.id = Utils.fromHex(padId(SHA1));
+        this.author = author == null ? null : author.intern();
+        this.treeId = Utils.fromHex(tree);
+        if (parent != null && !parent.equals("null"))
+            parents = Utils.fromHex(secondParent == null ? parent : parent + secondParent);
+    }
 
-        this.files = commitFiles;
-        this.parent = parent;
+    private void setTimestamp(ZonedDateTime timestamp) {
+        Instant instant = timestamp.toInstant();
+        epochSecond = instant.getEpochSecond();
+        nano = instant.getNano();
+        zone = timestamp.getZone().getId().intern();
     }
 
-    Commit(ZonedDateTime timestamp, String log, Map<String, String> commitFiles,
-                  String SHA1, String author, String parent, String secondParent) {
-        this(timestamp, log, commitFiles, SHA1, author, parent);
-        this.secondParent = secondParent;
+    /**
+     * 旧版本算出的SHA-1去掉了开头的0，不足40位，在前面补0
+     */
+    static String padId(String hex) {
+        if (hex.length() >= ID_LENGTH * 2)
+            return hex;
+        return "0".repeat(ID_LENGTH * 2 - hex.length()) + hex;
     }
 
-    public Set<Map.Entry<String, String>> getFileEntries() { return files.entrySet(); }
+    /**
+     * @return 根目录树对象的hash，内容相同的两次提交hash相同
+     */
+    public String getTreeHash() { return Utils.toHex(treeId); }
+
+    /**
+     * @return 展开目录树得到的完整文件列表：filename -> sha-1 of file
+     */
+    public Map<String, String> getFiles() { return TreeStore.flatten(getTreeHash()); }
 
-    public boolean containsFileName(String filename) { return files.containsKey(filename);}
+    public Set<Map.Entry<String, String>> getFileEntries() { return getFiles().entrySet(); }
 
-    public Set<String> getFileNames() { return files.keySet(); }
+    public boolean containsFileName(String filename) { return getHashOfFile(filename) != null; }
 
-    public String getHashOfFile(String filename) { return files.get(filename); }
+    public Set<String> getFileNames() { return getFiles().keySet(); }
 
-    public Collection<String> getFileHashes() { return files.values(); }
+    public String getHashOfFile(String filename) {
+        return TreeStore.lookup(getTreeHash(), filename);
+    }
+
+    public Collection<String> getFileHashes() { return getFiles().values(); }
 
     public String getLog() {
         return log;
     }
 
-    public String getParentCommitStr() { return parent; }
+    public String getParentCommitStr() { return parents == null ? "null" : idAt(parents, 0); }
+
+    public String getSecondParentCommitStr() { return parents == null || parents.length == ID_LENGTH ? null : idAt(parents, 1); }
+
+    /**
+     * @return 所有双亲的commitStr，根提交返回空列表
+     */
+    List<String> getParentCommitStrs() {
+        return ids(parents);
+    }
+
+    int getGeneration() { return generation; }
+
+    void setGeneration(int generation) { this.generation = generation; }
+
+    /**
+     * @return 提交的完整id，也就是它的SHA-1
+     */
+    public String getCommitStr() { return Utils.toHex(id); }
+
+    public String getHash() { return getCommitStr(); }
+
+    /**
+     * @return 二进制的id，调用者不能修改
+     */
+    byte[] getId() { return id; }
+
+    public ZonedDateTime getTimestamp() {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano), ZoneId.of(zone));
+    }
 
-    public String getCommitStr() { return Utils.fromHash2DirName(SHA1); }
+    long getEpochMillis() { return epochSecond * 1000 + nano / 1_000_000; }
 
-    List<String> getSons() { return sons; }
+    public String getAuthor() { return author; }
+
+    private static String idAt(byte[] ids, int i) {
+        return Utils.toHex(Arrays.copyOfRange(ids, i * ID_LENGTH, (i + 1) * ID_LENGTH));
+    }
+
+    private static List<String> ids(byte[] ids) {
+        if (ids == null)
+            return Collections.emptyList();
+        List<String> list = new ArrayList<>(ids.length / ID_LENGTH);
+        for (int i = 0; i < ids.length / ID_LENGTH; i++)
+            list.add(idAt(ids, i));
+        return list;
+    }
+
+    /**
+     * 比较id和十六进制的commitStr，不生成新的字符串
+     */
+    boolean idEquals(String commitStr) {
+        if (commitStr.length() != ID_LENGTH * 2)
+            return false;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int high = Character.digit(commitStr.charAt(i * 2), 16), low = Character.digit(commitStr.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0 || (byte) (high << 4 | low) != id[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 计算提交的id：双亲、时间、作者、log和根目录树的hash一起做SHA-1，内容不同的提交id就不同
+     */
+    static String computeHash(String parent, String secondParent, ZonedDateTime timestamp, String author,
+                              String log, String tree) {
+        StringBuilder content = new StringBuilder();
+        content.append("tree ").append(tree).append('\n')
+                .append("parent ").append(parent).append('\n');
+        if (secondParent != null)
+            content.append("parent ").append(secondParent).append('\n');
+        content.append("time ").append(timestamp).append('\n')
+                .append("author ").append(author).append('\n')
+                .append("log ").append(log).append('\n');
+        return Utils.encrypt(content.toString().getBytes(StandardCharsets.UTF_8), "SHA-1");
+    }
+
+    /**
+     * 转换从旧检查点读出来的提交：旧版本用SHA-1的后六位做commitStr，把双亲换成完整的id；
+     * 旧版本保存的文件列表写成目录树
+     * @param fullIds 旧commitStr -> 完整id
+     * @return 是否做了转换
+     */
+    boolean upgradeLegacy(Map<String, String> fullIds) {
+        if (legacy == null)
+            return false;
+        List<String> parentStrs = new ArrayList<>();
+        if (legacy.parent != null && !legacy.parent.equals("null"))
+            parentStrs.add(legacy.parent);
+        if (legacy.secondParent != null)
+            parentStrs.add(legacy.secondParent);
+        parents = parentStrs.isEmpty() ? null : concatIds(parentStrs, fullIds);
+        if (treeId == null)
+            treeId = Utils.fromHex(TreeStore.write(legacy.files == null ? Collections.emptyMap() : legacy.files));
+        legacy = null;
+        return true;
+    }
+
+    private static byte[] concatIds(List<String> commitStrs, Map<String, String> fullIds) {
+        byte[] ids = new byte[commitStrs.size() * ID_LENGTH];
+        for (int i = 0; i < commitStrs.size(); i++) {
+            String commitStr = commitStrs.get(i);
+            System.arraycopy(Utils.fromHex(padId(fullIds.getOrDefault(commitStr, commitStr))), 0, ids, i * ID_LENGTH, ID_LENGTH);
+        }
+        return ids;
+    }
+
+    /**
+     * 写出CommitStore里的一条记录：id、双亲个数和双亲、代数、秒数、纳秒、时区、作者、log、根目录树
+     */
+    void writeRecord(DataOutputStream out) throws IOException {
+        out.write(id);
+        int parentCount = parents == null ? 0 : parents.length / ID_LENGTH;
+        out.writeByte(parentCount);
+        if (parentCount > 0)
+            out.write(parents);
+        out.writeInt(generation);
+        out.writeLong(epochSecond);
+        out.writeInt(nano);
+        out.writeUTF(zone);
+        writeString(out, author);
+        writeString(out, log);
+        out.write(treeId);
+    }
+
+    static Commit readRecord(DataInput in) throws IOException {
+        Commit commit = new Commit();
+        commit.id = new byte[ID_LENGTH];
+        in.readFully(commit.id);
+        int parentCount = in.readUnsignedByte();
+        if (parentCount > 0) {
+            commit.parents = new byte[parentCount * ID_LENGTH];
+            in.readFully(commit.parents);
+        }
+        commit.generation = in.readInt();
+        commit.epochSecond = in.readLong();
+        commit.nano = in.readInt();
+        commit.zone = in.readUTF().intern();
+        String author = readString(in);
+        commit.author = author == null ? null : author.intern();
+        commit.log = readString(in);
+        commit.treeId = new byte[ID_LENGTH];
+        in.readFully(commit.treeId);
+        return commit;
+    }
+
+    private Commit() { }
+
+    /**
+     * log可能超过writeUTF的64KB上限，写成长度加UTF-8字节，null写成-1
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("parents", parents);
+        fields.put("generation", generation);
+        fields.put("epochSecond", epochSecond);
+        fields.put("nano", nano);
+        fields.put("zone", zone);
+        fields.put("log", log);
+        fields.put("author", author);
+        fields.put("treeId", treeId);
+        out.writeFields();
+    }
 
-    void addSonCommit(String commitStr) {
-        sons.add(commitStr);
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        generation = fields.get("generation", 0);
+        log = (String) fields.get("log", null);
+        String author = (String) fields.get("author", null);
+        this.author = author == null ? null : author.intern();
+        id = (byte[]) fields.get("id", null);
+        if (id != null) {
+            parents = (byte[]) fields.get("parents", null);
+            epochSecond = fields.get("epochSecond", 0L);
+            nano = fields.get("nano", 0);
+            zone = ((String) fields.get("zone", null)).intern();
+            treeId = (byte[]) fields.get("treeId", null);
+            return;
+        }
+        //旧版本的检查点：双亲等CommitChain知道完整的id之后再转换
+        id = Utils.fromHex(padId((String) fields.get("SHA1", null)));
+        setTimestamp((ZonedDateTime) fields.get("timestamp", null));
+        String tree = (String) fields.get("tree", null);
+        if (tree != null)
+            treeId = Utils.fromHex(tree);
+        legacy = new Legacy();
+        legacy.parent = (String) fields.get("parent", null);
+        legacy.secondParent = (String) fields.get("secondParent", null);
+        legacy.files = (Map<String, String>) fields.get("files", null);
     }
 
     @Override
     public String toString() {
-        return "Hash: "+SHA1+"\n"+
-                "time: "+timestamp.toString()+"\n"+
+        return "Hash: "+getCommitStr()+"\n"+
+                "time: "+getTimestamp().toString()+"\n"+
                 "log: "+log+"\n"+
                 "Author: "+author;
     }
@@ -84,14 +361,14 @@ public class Commit implements Serializable {
 
         Commit commit = (Commit) o;
 
-        if (timestamp != null ? !timestamp.equals(commit.timestamp) : commit.timestamp != null) return false;
+        if (epochSecond != commit.epochSecond || nano != commit.nano || !Objects.equals(zone, commit.zone)) return false;
         if (log != null ? !log.equals(commit.log) : commit.log != null) return false;
-        if (SHA1 != null ? !SHA1.equals(commit.SHA1) : commit.SHA1 != null) return false;
+        if (!Arrays.equals(id, commit.id)) return false;
         return author != null ? author.equals(commit.author) : commit.author == null;
     }
 
     @Override
     public int hashCode() {
-        return SHA1.hashCode();
+        return (id[0] & 0xff) << 24 | (id[1] & 0xff) << 16 | (id[2] & 0xff) << 8 | (id[3] & 0xff);
     }
 }
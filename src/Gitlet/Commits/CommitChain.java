@@ -1,11 +1,18 @@
 package Gitlet.Commits;
 
+import Gitlet.Diff.ContentMerge;
+import Gitlet.Diff.RenameDetector;
+import Gitlet.Gc.MarkSet;
+import Gitlet.Trace.Trace;
 import Gitlet.Utility.Exceptions.*;
+import Gitlet.Utility.Utils;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * commitChain的数据结构操作类
@@ -15,55 +22,271 @@ import java.util.*;
 
 public class CommitChain implements Serializable , Iterable<Commit>{
 
-    //commit pool: map a commitStr to a Gitlet.Commits.Commit Object
-    private Map<String, Commit> commits = new HashMap<>();
+    //和最初版本保持一致，新版本只增加字段，旧仓库保存的对象仍然可以读出来
+    private static final long serialVersionUID = -1973635144061347766L;
+
+    //旧版本的检查点把全部提交序列化在这里，加载时迁移进CommitStore，新的检查点里为null
+    private Map<String, Commit> commits;
     //branch pool: map a branch name to the commitStr of the Gitlet.Commits.Commit the branch point at.
     private Map<String, String> branches = new HashMap<>();
     //the commit tree's root node.
     private Commit chain;
     //head is the name of current working branch.
     private String head;
+    //序号不大于它的日志记录已经折叠进了这个检查点
+    long journalSeq;
+
+    //最后一条已经应用（重放或者新产生）的日志记录的序号
+    transient long lastSeq;
+    //日志文件中有效记录的总长度
+    transient long journalLength;
+    //正在重放日志时，修改操作不再产生新的日志记录
+    transient boolean replaying;
+    //日志重放失败、后面还有没应用的记录，这时不能截断或者压缩日志
+    transient boolean journalDamaged;
+    //本次命令产生的、还没有写入日志的记录
+    private transient List<byte[]> pendingJournal;
+    //最近的merge base结果："较小commitStr:较大commitStr" -> 公共祖先的commitStr。
+    //不写进检查点，冷启动时每条命令都从空缓存开始，只有守护进程里的连续命令能用上
+    private transient Map<String, List<String>> mergeBaseCache;
+
+    private static final int MERGE_BASE_CACHE_SIZE = 128;
+    //前缀有歧义时最多报告这么多个候选
+    private static final int AMBIGUOUS_CANDIDATES = 10;
+    //只含双亲、代数和时间的提交图，遍历历史时用它而不是完整的Commit对象，第一次用到时才打开
+    private transient CommitGraph graph;
+    //加载之后新产生的提交，写回时追加到搜索索引
+    private transient List<Commit> addedCommits;
+    //从旧检查点升级id时的旧commitStr -> 完整id，重放旧日志里的reset记录时用
+    private transient Map<String, String> legacyIds;
+    //检查点的格式过时，下次写回时整体重写检查点
+    transient boolean needsCheckpoint;
+    //全部提交的记录，按需读取
+    private transient CommitStore store;
 
     /**
-     * 从指定路径反序列化commitChain对象
+     * 从指定路径反序列化commitChain检查点，再重放检查点之后的日志
      *
      * 如果读不到，就实例化一个新的commitChain返回
      * @param ccPath 指定路径
      * @return 反序列化/新生成的commitChain对象的引用
      */
     public static CommitChain deSerialFrom(Path ccPath) {
+        try (Trace.Span span = Trace.begin("load.commitChain")) {
+            CommitChain cc;
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(ccPath.toString())));
+                cc = (CommitChain) in.readObject();
+                in.close();
+            } catch (IOException | ClassNotFoundException e) {
+                return new CommitChain();
+            }
+            span.read(ccPath.toFile().length() + Utils.getCommitJournalPath().toFile().length());
+            cc.upgradeLegacyCommits();
+            cc.fillMissingGenerations();
+            cc.migrateCommits();
+            CommitJournal.replay(cc, Utils.getCommitJournalPath());
+            return cc;
+        }
+    }
+
+    List<byte[]> pendingJournal() {
+        if (pendingJournal == null)
+            pendingJournal = new ArrayList<>();
+        return pendingJournal;
+    }
+
+    private CommitStore store() {
+        if (store == null)
+            store = CommitStore.open(Utils.getCommitStorePath());
+        return store;
+    }
+
+    private CommitGraph graph() {
+        if (graph == null)
+            graph = CommitGraph.open(Utils.getCommitGraphPath(), store());
+        return graph;
+    }
+
+    /**
+     * 按id找到提交：先查缓存，再在提交图上找到记录的偏移读出来
+     * @return 不存在时返回null
+     */
+    private Commit lookup(String commitStr) {
+        if (commits != null)
+            return commits.get(commitStr);
+        Commit commit = store().cached(commitStr);
+        if (commit != null)
+            return commit;
+        int index = graph().indexOf(commitStr);
+        return index == CommitGraph.NONE ? null : store().load(graph().getOffset(index));
+    }
+
+    /**
+     * 新提交追加到提交记录和提交图的末尾，重放日志时补上的提交不算新增的，搜索索引会发现对不上而重建
+     */
+    private void addCommit(Commit commit) {
+        CommitGraph graph = graph();
+        graph.add(commit, store().append(commit));
+        if (!replaying)
+            getAddedCommits().add(commit);
+    }
+
+    /**
+     * @return 加载之后新产生、还没有写进搜索索引的提交
+     */
+    public List<Commit> getAddedCommits() {
+        if (addedCommits == null)
+            addedCommits = new ArrayList<>();
+        return addedCommits;
+    }
+
+    public void clearAddedCommits() {
+        getAddedCommits().clear();
+    }
+
+    /**
+     * @return 提交总数
+     */
+    public int size() {
+        return store().size();
+    }
+
+    /**
+     * @param hash 提交完整的SHA-1
+     */
+    public boolean containsCommit(String hash) {
+        return lookup(hash) != null;
+    }
+
+    /**
+     * 把新提交的记录写进文件，要在日志和提交图之前写
+     */
+    public void saveCommits() throws IOException {
+        if (store != null)
+            store.save();
+    }
+
+    /**
+     * @return 提交缓存的命中情况
+     */
+    public String getCacheReport() {
+        return store().report();
+    }
+
+    /**
+     * 把提交图中新增的提交写进文件，提交图没有打开过时什么也不做
+     * @param path 提交图文件
+     */
+    public void saveGraph(Path path) throws IOException {
+        if (graph != null)
+            graph = graph.save(path);
+    }
+
+    /**
+     * @return 即使没有新的修改也需要写回：检查点的格式过时，或者提交图有还没有写进文件的修改，比如刚从commits重新生成
+     */
+    public boolean needsSaving() {
+        return !journalDamaged && (needsCheckpoint || (graph != null && graph.isDirty()));
+    }
+
+    /**
+     * @return 日志没能完整重放，commitChain只能读不能写回
+     */
+    public boolean isReadOnly() {
+        return journalDamaged;
+    }
+
+    /**
+     * @return 提交图中下标对应的提交
+     */
+    private Commit commitAt(int index) {
+        Commit commit = store().cached(graph().getId(index));
+        return commit != null ? commit : store().load(graph().getOffset(index));
+    }
+
+    private void journal(CommitJournal.Entry entry) {
+        if (!replaying)
+            pendingJournal().add(entry.toByteArray());
+    }
+
+    /**
+     * 旧版本的检查点用HashMap保存提交，每个提交带着十六进制的双亲、子结点和完整的文件列表。
+     * 这里把它们换成CommitTable和紧凑的Commit：更早的版本用SHA-1的后六位做commitStr，
+     * 双亲和branches都换成完整的id，文件列表写成目录树
+     */
+    private void upgradeLegacyCommits() {
+        if (commits == null || commits instanceof CommitTable)
+            return;
+        legacyIds = new HashMap<>();
+        for (Map.Entry<String, Commit> entry : commits.entrySet()) {
+            String fullId = entry.getValue().getHash();
+            if (!entry.getKey().equals(fullId))
+                legacyIds.put(entry.getKey(), fullId);
+        }
+        for (Commit commit : commits.values())
+            commit.upgradeLegacy(legacyIds);
+        branches.replaceAll((branch, commitStr) -> legacyIds.getOrDefault(commitStr, commitStr));
+        commits = new CommitTable(commits.values());
+        needsCheckpoint = true;
+    }
+
+    /**
+     * 检查点里还带着全部提交时（旧版本），把它们按代数顺序写成提交记录，之后的检查点不再包含提交。
+     * 中途失败时旧检查点还在，下次加载再迁移一遍
+     */
+    private void migrateCommits() {
+        if (commits == null)
+            return;
+        List<Commit> ordered = new ArrayList<>(commits.values());
+        ordered.sort(Comparator.comparingInt(Commit::getGeneration));
         try {
-            ObjectInputStream in = new ObjectInputStream(new FileInputStream(ccPath.toString()));
-            return (CommitChain) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            return new CommitChain();
+            store().rewrite(ordered);
+            Files.deleteIfExists(Utils.getCommitGraphPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
         }
+        commits = null;
+        graph = null;
+        needsCheckpoint = true;
     }
 
     /**
      * 向commitChain的head指针后添加一个新的Commit对象，然后head指向这个新的对象
      * 同时当前branch也要指向这个新的对象
      *
-     * 处理了当前chain指向为空，即当前commitChain为空（刚初始化）的特殊情况
+     * 提交的id由双亲、时间、作者、log和根目录树一起计算
      * @param timestamp 时间戳信息
      * @param log log信息
-     * @param commitFiles 本commit保存的目录名
-     * @param SHA1 sha-1字符串
+     * @param tree 本commit的根目录树，由TreeStore.write生成
      * @param author commit的作者
      */
-    public void newCommit(ZonedDateTime timestamp, String log, Map<String, String> commitFiles,
+    public void newCommit(ZonedDateTime timestamp, String log, String tree, String author) {
+        String parent = chain == null ? "null" : branches.get(head);
+        newCommit(timestamp, log, tree, Commit.computeHash(parent, null, timestamp, author, log, tree), author);
+    }
+
+    /**
+     * 处理了当前chain指向为空，即当前commitChain为空（刚初始化）的特殊情况，重放日志时直接使用记录的id
+     * @param SHA1 提交的id
+     */
+    void newCommit(ZonedDateTime timestamp, String log, String tree,
                           String SHA1, String author) {
-        Commit commit;
+        //崩溃前提交记录已经写进文件、检查点还没有更新时，重放日志不再追加同一个提交
+        Commit commit = replaying ? lookup(Commit.padId(SHA1)) : null;
+        if (commit == null) {
+            commit = new Commit(timestamp, log, tree, SHA1, author, chain == null ? "null" : branches.get(head));
+            assignGeneration(commit);
+            addCommit(commit);
+        }
         if (chain == null) {
-            commit = new Commit(timestamp, log, commitFiles, SHA1, author, "null");
             chain = commit;
             head = "master";
-        } else {
-            commit = new Commit(timestamp, log, commitFiles, SHA1, author, branches.get(head));
-            getHeadCommit().addSonCommit(commit.getCommitStr());
         }
-        commits.put(commit.getCommitStr(), commit);
         branches.put(head, commit.getCommitStr());
+        journal(new CommitJournal.Entry(CommitJournal.NEW_TREE_COMMIT).string(timestamp.toString()).string(log)
+                .string(tree).string(SHA1).string(author));
     }
 
     /**
@@ -89,21 +312,41 @@ public class CommitChain implements Serializable , Iterable<Commit>{
         }
     }
 
+    /**
+     * 把id的前缀解析成完整的id，在提交图的排序id表上二分查找
+     * @param prefix 至少4位的十六进制前缀，也可以是完整的id
+     * @return 完整的id
+     * @throws NoSuchCommitException 没有以prefix开头的提交
+     * @throws AmbiguousCommitException 以prefix开头的提交不止一个，异常中带着找到的候选id
+     */
+    public String resolveCommitId(String prefix) throws NoSuchCommitException, AmbiguousCommitException {
+        List<String> candidates = graph().resolvePrefix(prefix.toLowerCase(Locale.ROOT), AMBIGUOUS_CANDIDATES);
+        if (candidates.isEmpty())
+            throw new NoSuchCommitException();
+        if (candidates.size() > 1)
+            throw new AmbiguousCommitException(candidates);
+        return candidates.get(0);
+    }
+
     /**
      * 使用commitStr获得对应的Commit对象
-     * @param commitStr 六位commitStr字符串
+     * @param commitStr 提交完整的id
      * @return
      * @throws NoSuchCommitException 如果找不到对应Commit对象，抛出此异常
      */
-    private Commit getCommit(String commitStr) throws NoSuchCommitException {
-        Commit temp = commits.get(commitStr);
+    public Commit getCommit(String commitStr) throws NoSuchCommitException {
+        Commit temp = lookup(commitStr);
         if (temp == null)
             throw new NoSuchCommitException();
         return temp;
     }
 
+    /**
+     * 按hash比较，缓存淘汰之后同一个提交可能被读成不同的对象
+     */
     public boolean isHead(Commit commit) {
-        return commit == getHeadCommit();
+        Commit headCommit = getHeadCommit();
+        return headCommit != null && headCommit.getHash().equals(commit.getHash());
     }
 
     public String getCurBranchName() {
@@ -114,6 +357,7 @@ public class CommitChain implements Serializable , Iterable<Commit>{
         if (branches.containsKey(branch))
             throw new AlreadyExistBranchException();
         branches.put(branch, branches.get(head));
+        journal(new CommitJournal.Entry(CommitJournal.ADD_BRANCH).string(branch));
     }
 
     /**
@@ -128,6 +372,7 @@ public class CommitChain implements Serializable , Iterable<Commit>{
         if (head.equals(branch))
             throw new DeleteCurrentBranchException();
         branches.remove(branch);
+        journal(new CommitJournal.Entry(CommitJournal.DELETE_BRANCH).string(branch));
     }
 
     /**
@@ -135,9 +380,12 @@ public class CommitChain implements Serializable , Iterable<Commit>{
      * @throws NoSuchCommitException
      */
     public void resetTo(String commitStr) throws NoSuchCommitException{
-        if (!commits.containsKey(commitStr))
+        if (replaying && legacyIds != null)
+            commitStr = legacyIds.getOrDefault(commitStr, commitStr);
+        if (lookup(commitStr) == null)
             throw new NoSuchCommitException();
         branches.put(head, commitStr);
+        journal(new CommitJournal.Entry(CommitJournal.RESET_TO).string(commitStr));
     }
 
     /**
@@ -147,29 +395,116 @@ public class CommitChain implements Serializable , Iterable<Commit>{
         if (!branches.containsKey(branch))
             throw new NoSuchBranchException();
         head = branch;
+        journal(new CommitJournal.Entry(CommitJournal.CHANGE_BRANCH).string(branch));
+    }
+
+    /**
+     * gc的根：所有branch能到达的提交，加上宽限期内产生的提交和它们的祖先
+     *
+     * 只在提交图上按下标遍历，提交时间和双亲都从提交图里读，不读出提交本身。
+     * 双亲的下标总是比孩子小，从后往前扫一遍就能把被标记的提交的祖先全部标记上
+     * @param cutoffMillis 提交时间不早于它的提交即使没有branch指向也保留，可能是刚被reset丢下的
+     * @return 全部提交的标记集合，要保留的提交被标记
+     */
+    public MarkSet liveCommits(long cutoffMillis) throws IOException {
+        if (commits != null)
+            throw new IOException("the commits have not been migrated into " + Utils.getCommitStorePath());
+        CommitGraph graph = graph();
+        MarkSet.Builder ids = new MarkSet.Builder();
+        for (int i = 0; i < graph.size(); i++)
+            ids.add(graph.getId(i));
+        MarkSet live = ids.build();
+        for (String commitStr : branches.values())
+            live.mark(commitStr);
+        for (int i = graph.size() - 1; i >= 0; i--) {
+            String commitStr = graph.getId(i);
+            if (graph.getEpochMillis(i) >= cutoffMillis)
+                live.mark(commitStr);
+            if (!live.isMarked(commitStr))
+                continue;
+            if (graph.getParent(i) != CommitGraph.NONE)
+                live.mark(graph.getId(graph.getParent(i)));
+            if (graph.getSecondParent(i) != CommitGraph.NONE)
+                live.mark(graph.getId(graph.getSecondParent(i)));
+        }
+        return live;
+    }
+
+    /**
+     * 按提交图的顺序（双亲在孩子前面）逐个读出被标记的提交，不会同时把它们都放在内存里
+     * @param selected liveCommits的结果
+     */
+    public void forEachCommit(MarkSet selected, Consumer<Commit> action) {
+        CommitGraph graph = graph();
+        for (int i = 0; i < graph.size(); i++)
+            if (selected.isMarked(graph.getId(i)))
+                action.accept(commitAt(i));
+    }
+
+    /**
+     * 只保留被标记的提交，其余的从commitChain里删掉
+     *
+     * 提交记录立即重写，删除不写日志，下次写回时整体重写检查点；提交图和搜索索引从剩下的提交重新生成
+     * @param live liveCommits的结果，包含所有保留下来的提交的祖先
+     * @return 删掉的提交个数
+     */
+    public int pruneCommits(MarkSet live) throws IOException {
+        CommitGraph graph = graph();
+        long[] offsets = new long[graph.size()];
+        int kept = 0;
+        for (int i = 0; i < graph.size(); i++)
+            if (live.isMarked(graph.getId(i)))
+                offsets[kept++] = graph.getOffset(i);
+        int pruned = size() - kept;
+        if (pruned == 0)
+            return 0;
+        CommitStore store = store();
+        long[] keptOffsets = Arrays.copyOf(offsets, kept);
+        //写新文件的同时从旧文件里一条一条读出来
+        store.rewrite(() -> Arrays.stream(keptOffsets).mapToObj(store::load).iterator());
+        getAddedCommits().removeIf(commit -> !live.isMarked(commit.getCommitStr()));
+        Files.deleteIfExists(Utils.getCommitGraphPath());
+        this.graph = null;
+        graph();
+        mergeBaseCache = null;
+        needsCheckpoint = true;
+        return pruned;
     }
 
-    public Iterator<Map.Entry<String,Commit>> getAllCommitsIterator() {
-        return commits.entrySet().iterator();
+    /**
+     * 顺序读出全部提交，只在重建搜索索引、gc这样本来就要看所有提交的地方用
+     */
+    public Iterator<Map.Entry<String,Commit>> getAllCommitsIterator() throws IOException {
+        return allCommits().entrySet().iterator();
+    }
+
+    private Map<String, Commit> allCommits() throws IOException {
+        if (commits != null)
+            return commits;
+        Map<String, Commit> all = new HashMap<>();
+        store().forEach((commit, offset) -> all.put(commit.getCommitStr(), commit));
+        return all;
     }
 
     /**
      * 主要的迭代器，实现了"倒着走"的功能
+     *
+     * 在提交图上沿着第一个双亲走，只有返回的提交才去取完整的Commit对象
      */
     private class CommitIterator implements Iterator<Commit> {
-        Commit cur = getHeadCommit();
+        int cur = getHeadCommit() == null ? CommitGraph.NONE : graph().indexOf(getHeadCommit().getHash());
 
         @Override
         public boolean hasNext() {
-            return !cur.getParentCommitStr().equals("null");
+            return cur != CommitGraph.NONE && graph().getParent(cur) != CommitGraph.NONE;
         }
 
         @Override
         public Commit next() {
-            Commit dummyCur = cur;
-            try {
-                cur = getCommit(dummyCur.getParentCommitStr());
-            } catch (NoSuchCommitException ignored) { }
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Commit dummyCur = commitAt(cur);
+            cur = graph().getParent(cur);
             return dummyCur;
         }
     }
@@ -179,123 +514,262 @@ public class CommitChain implements Serializable , Iterable<Commit>{
         return new CommitIterator();
     }
 
-    public Commit findLCACommitByBranch(String branchA, String branchB) throws NoSuchBranchException {
+    /**
+     * 求两个branch所指提交的所有最近公共祖先
+     * @return 按代数从大到小排列的公共祖先，没有公共祖先时为空
+     */
+    public List<Commit> findMergeBasesByBranch(String branchA, String branchB) throws NoSuchBranchException {
         String commitStrA = branches.get(branchA), commitStrB = branches.get(branchB);
         if (commitStrA==null || commitStrB==null)
             throw new NoSuchBranchException();
         try {
-            return findLCACommitByCommitStr(commitStrA, commitStrB);
+            return findMergeBases(commitStrA, commitStrB);
         } catch (NoSuchCommitException e) {
             e.printStackTrace();
-            return null;
+            return Collections.emptyList();
         }
     }
 
-    public Commit findLCACommitByCommitStr(String commitStrA, String commitStrB) throws NoSuchCommitException {
+    /**
+     * 求两个提交的所有最近公共祖先
+     *
+     * 提交一旦生成就不再改变，所以最近的结果可以一直缓存下去；缓存只在内存里，只对常驻的守护进程有用
+     * @return 按代数从大到小排列的公共祖先，没有公共祖先时为空
+     * @throws NoSuchCommitException 如果找不到对应Commit对象，抛出此异常
+     */
+    public List<Commit> findMergeBases(String commitStrA, String commitStrB) throws NoSuchCommitException {
         Commit a = getCommit(commitStrA), b = getCommit(commitStrB);
-        if (commitStrA.equals(commitStrB))
-            return a;
-        LCAHelper(chain, a, b);
-        return LCA;
+        String key = commitStrA.compareTo(commitStrB) < 0 ? commitStrA + ":" + commitStrB : commitStrB + ":" + commitStrA;
+        List<String> cached = mergeBaseCache().get(key);
+        List<Commit> bases = new ArrayList<>();
+        if (cached != null) {
+            for (String commitStr : cached)
+                bases.add(getCommit(commitStr));
+            return bases;
+        }
+        List<String> commitStrs = new ArrayList<>();
+        try (Trace.Span span = Trace.begin("merge-base")) {
+            MergeBase mergeBase = new MergeBase(graph());
+            for (int base : mergeBase.find(graph().indexOf(a.getHash()), graph().indexOf(b.getHash()))) {
+                bases.add(commitAt(base));
+                commitStrs.add(bases.get(bases.size() - 1).getCommitStr());
+            }
+            span.visited(mergeBase.getVisited());
+        }
+        mergeBaseCache().put(key, commitStrs);
+        return bases;
     }
 
-    private Commit LCA;
+    private Map<String, List<String>> mergeBaseCache() {
+        if (mergeBaseCache == null)
+            mergeBaseCache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                    return size() > MERGE_BASE_CACHE_SIZE;
+                }
+            };
+        return mergeBaseCache;
+    }
 
-    private int LCAHelper(Commit root, Commit a, Commit b) {
-        List<String> sons = root.getSons();
-        int point = 0;
-        if (root==a || root==b)
-            point++;
-        for (String son : sons) {
-            try {
-                Commit temp = getCommit(son);
-                point += LCAHelper(temp, a, b);
-            } catch (NoSuchCommitException ignored) {}
-        }
-        if (point == 2) {
-            LCA = root;
-            return 0;
+    /**
+     * @return ancestor是否是descendant自己或者它的祖先
+     */
+    public boolean isAncestor(Commit ancestor, Commit descendant) {
+        return new MergeBase(graph()).isAncestor(graph().indexOf(ancestor.getHash()), graph().indexOf(descendant.getHash()));
+    }
+
+    /**
+     * 新提交的代数：所有双亲代数的最大值加一
+     */
+    private void assignGeneration(Commit commit) {
+        int generation = 0;
+        for (String parent : commit.getParentCommitStrs())
+            generation = Math.max(generation, lookup(parent).getGeneration());
+        commit.setGeneration(generation + 1);
+    }
+
+    /**
+     * 旧版本保存的提交没有代数，按双亲优先的顺序补上，用显式的栈避免深历史上递归过深
+     */
+    private void fillMissingGenerations() {
+        if (commits == null)
+            return;
+        Deque<Commit> stack = new ArrayDeque<>();
+        for (Commit start : commits.values()) {
+            if (start.getGeneration() > 0)
+                continue;
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit commit = stack.peek();
+                boolean ready = true;
+                for (String parentStr : commit.getParentCommitStrs()) {
+                    Commit parent = commits.get(parentStr);
+                    if (parent.getGeneration() == 0) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    if (commit.getGeneration() == 0)
+                        assignGeneration(commit);
+                }
+            }
         }
-        return point;
     }
 
-    public void mergeWithBranch(ZonedDateTime timestamp, String hash, String author, String branch) throws NoSuchBranchException, ReverseMergeException, MergeException {
+    public void mergeWithBranch(ZonedDateTime timestamp, String author, String branch) throws NoSuchBranchException, ReverseMergeException, MergeException, IOException {
+        mergeWithBranch(timestamp, author, branch, null, null);
+    }
+
+    /**
+     * 把branch合并到当前分支
+     * @param merger 合并两边都修改过的文件的内容，为null时这些文件都算冲突
+     * @param renames 找出两边相对共同祖先改过名的文件，为null时只按文件名对应
+     * @throws MergeException 有冲突时不提交，异常里带着所有冲突和包含冲突标记的合并结果
+     */
+    public void mergeWithBranch(ZonedDateTime timestamp, String author, String branch, ContentMerge merger,
+                                RenameDetector renames) throws NoSuchBranchException, ReverseMergeException, MergeException, IOException {
         //不存在要合并的branch，异常
         if (!branches.containsKey(branch))
             throw new NoSuchBranchException();
-        //共同祖先
-        Commit lca = findLCACommitByBranch(head, branch);
         Commit cur = getHeadCommit();
         Commit object = getCommitByBranch(branch);
-        if (cur == object)
+        if (cur.getHash().equals(object.getHash()))
             return;
+        //共同祖先，所有提交都源自init时的提交，所以至少有一个；交叉合并时有多个同样近的，取代数最大的那个做三方合并
+        List<Commit> bases = findMergeBasesByBranch(head, branch);
+        Commit lca = bases.get(0);
         //如果目标分支是当前分支的祖先，合并失败
-        if (lca == object)
+        if (bases.contains(object))
             throw new ReverseMergeException();
         //如果当前分支是目标分支的祖先，快进调整当前branch指针即可
-        if (lca == cur) {
-            branches.put(head, branches.get(branch));
+        if (bases.contains(cur)) {
+            try {
+                resetTo(branches.get(branch));
+            } catch (NoSuchCommitException ignored) { }
             return;
         }
         //其余情况就是分叉了，目标分支和当前分支不在一条线上
         /*
-        1. 祖先和head一样，但是obj不一样的，按照obj来
-        2. 祖先和obj一样，但是head不一样的，按照head来
+        1. 祖先和head一样，但是obj不一样的，按照obj来（包括obj删掉了）
+        2. 祖先和obj一样，但是head不一样的，按照head来（包括head删掉了）
         3. Obj和head一样，但是和祖先不一样的，按照obj来（不动）
         4. Obj和head都无，但是祖先有的文件，删掉
-        5. Obj，head，祖先都有的文件（名），但是版本都不一样，冲突，不动并报错
+        5. Obj，head，祖先都有的文件（名），但是版本都不一样，逐行三方合并，合并不了的地方写成冲突标记；
+           一边修改一边删除的文件也是冲突，保留修改过的版本。所有冲突合并完一起报告
+        6. 一边改了名、另一边在原来的名字上修改的文件，先把祖先和另一边的版本挪到新名字上，再按上面的规则合并；
+           两边改成了不同的名字是冲突，两个名字都保留
         操你妈，傻逼逻辑，写死我了
          */
-        Set<String> lcaFileNames = lca.getFileNames(), curFileNames = cur.getFileNames(), objFileNames = object.getFileNames();
+        //三个提交的文件列表各展开一次，后面的比较都在内存里做
+        Map<String, String> lcaFiles = new HashMap<>(lca.getFiles()), curFiles = new HashMap<>(cur.getFiles()),
+                objFiles = new HashMap<>(object.getFiles());
+        Map<String, String> conflicts = new TreeMap<>();
+        if (renames != null)
+            followRenames(lcaFiles, curFiles, objFiles, renames, conflicts);
+        Set<String> filenames = new TreeSet<>(lcaFiles.keySet());
+        filenames.addAll(curFiles.keySet());
+        filenames.addAll(objFiles.keySet());
         Map<String, String> mergeResultFiles = new HashMap<>();
-        for(String filename : lcaFileNames) {
-            if (cur.containsFileName(filename) && object.containsFileName(filename)) {
-                String curHash = cur.getHashOfFile(filename),
-                        lcaHash = lca.getHashOfFile(filename),
-                        objHash = object.getHashOfFile(filename);
-                if (curHash.equals(lcaHash) && objHash.equals(lcaHash))
-                    mergeResultFiles.put(filename, lcaHash);
-                else if (curHash.equals(lcaHash) && !objHash.equals(lcaHash))
-                    mergeResultFiles.put(filename, objHash);
-                else if (!curHash.equals(lcaHash) && objHash.equals(lcaHash))
-                    mergeResultFiles.put(filename, curHash);
-                else
-                    throw new MergeException(filename);
-            } else if (cur.containsFileName(filename) && !object.containsFileName(filename))
-                mergeResultFiles.put(filename, cur.getHashOfFile(filename));
-            else if (!cur.containsFileName(filename) && object.containsFileName(filename))
-                mergeResultFiles.put(filename, object.getHashOfFile(filename));
+        for (String filename : filenames) {
+            String lcaHash = lcaFiles.get(filename), curHash = curFiles.get(filename), objHash = objFiles.get(filename);
+            String result;
+            if (Objects.equals(curHash, objHash) || Objects.equals(lcaHash, objHash))
+                result = curHash;
+            else if (Objects.equals(lcaHash, curHash))
+                result = objHash;
+            else if (curHash == null || objHash == null) {
+                conflicts.put(filename, "modified and deleted");
+                result = curHash == null ? objHash : curHash;
+            } else if (merger == null) {
+                conflicts.put(filename, "content");
+                result = curHash;
+            } else
+                result = merger.merge(filename, lcaHash, curHash, objHash);
+            if (result != null)
+                mergeResultFiles.put(filename, result);
         }
+        if (merger != null)
+            conflicts.putAll(merger.getConflicts());
+        String tree = TreeStore.write(mergeResultFiles);
+        if (!conflicts.isEmpty())
+            throw new MergeException(conflicts, mergeResultFiles, tree);
+        String log = "merged by "+head+" and "+branch;
+        newMergeCommit(timestamp, log, tree, Commit.computeHash(branches.get(head), branches.get(branch),
+                timestamp, author, log, tree), author, branch);
+    }
 
-        for(String filename : curFileNames) {
-            if (!lcaFileNames.contains(filename)) {
-                if (!objFileNames.contains(filename) || object.getHashOfFile(filename).equals(cur.getHashOfFile(filename)))
-                    mergeResultFiles.put(filename, cur.getHashOfFile(filename));
+    /**
+     * 一边改了名、另一边还在原来的名字上的文件，把祖先和另一边的版本挪到新名字上
+     */
+    private static void followRenames(Map<String, String> lcaFiles, Map<String, String> curFiles,
+                                      Map<String, String> objFiles, RenameDetector renames,
+                                      Map<String, String> conflicts) throws IOException {
+        Map<String, String> curRenames = renamesOf(lcaFiles, curFiles, renames),
+                objRenames = renamesOf(lcaFiles, objFiles, renames);
+        for (Map.Entry<String, String> rename : curRenames.entrySet()) {
+            String from = rename.getKey(), to = rename.getValue(), objTo = objRenames.get(from);
+            if (objTo != null) {
+                if (objTo.equals(to))
+                    moveFile(lcaFiles, from, to);
                 else
-                    throw new MergeException(filename);
+                    conflicts.put(from, "renamed to " + to + " and " + objTo);
+            } else if (objFiles.containsKey(from) && !objFiles.containsKey(to)) {
+                moveFile(lcaFiles, from, to);
+                moveFile(objFiles, from, to);
             }
         }
-
-        for(String filename : objFileNames) {
-            if (!lcaFileNames.contains(filename)) {
-                if (!curFileNames.contains(filename) || cur.getHashOfFile(filename).equals(object.getHashOfFile(filename)))
-                    mergeResultFiles.put(filename, object.getHashOfFile(filename));
-                else
-                    throw new MergeException(filename);
+        for (Map.Entry<String, String> rename : objRenames.entrySet()) {
+            String from = rename.getKey(), to = rename.getValue();
+            if (!curRenames.containsKey(from) && curFiles.containsKey(from) && !curFiles.containsKey(to)) {
+                moveFile(lcaFiles, from, to);
+                moveFile(curFiles, from, to);
             }
         }
-        newMergeCommit(timestamp, "merged by "+head+" and "+branch, mergeResultFiles, hash, author, branch);
     }
 
-    private void newMergeCommit(ZonedDateTime timestamp, String log, Map<String, String> commitFiles,
+    /**
+     * @return 一边相对共同祖先的改名，原文件名 -> 新文件名
+     */
+    private static Map<String, String> renamesOf(Map<String, String> lcaFiles, Map<String, String> sideFiles,
+                                                 RenameDetector renames) throws IOException {
+        Map<String, String> removed = new HashMap<>(lcaFiles), added = new HashMap<>(sideFiles);
+        removed.keySet().removeAll(sideFiles.keySet());
+        added.keySet().removeAll(lcaFiles.keySet());
+        Map<String, String> result = new HashMap<>();
+        if (!removed.isEmpty() && !added.isEmpty())
+            renames.detect(removed, added).forEach(rename -> result.put(rename.from, rename.to));
+        return result;
+    }
+
+    private static void moveFile(Map<String, String> files, String from, String to) {
+        files.put(to, files.remove(from));
+    }
+
+    /**
+     * 解决冲突之后提交合并的结果，提交的第二个双亲是被合并的分支
+     * @param tree 暂存区写成的目录树
+     */
+    public void concludeMerge(ZonedDateTime timestamp, String log, String tree, String author, String branch)
+            throws NoSuchBranchException {
+        if (!branches.containsKey(branch))
+            throw new NoSuchBranchException();
+        newMergeCommit(timestamp, log, tree, Commit.computeHash(branches.get(head), branches.get(branch),
+                timestamp, author, log, tree), author, branch);
+    }
+
+    void newMergeCommit(ZonedDateTime timestamp, String log, String tree,
                            String SHA1, String author, String objectBranch) {
-        Commit commit = new Commit(timestamp, log, commitFiles, SHA1, author, branches.get(head), branches.get(objectBranch));
-        getHeadCommit().addSonCommit(commit.getCommitStr());
-        try {
-            getCommitByBranch(objectBranch).addSonCommit(commit.getCommitStr());
-        } catch (NoSuchBranchException ignored) { }
-        commits.put(commit.getCommitStr(), commit);
+        Commit commit = replaying ? lookup(Commit.padId(SHA1)) : null;
+        if (commit == null) {
+            commit = new Commit(timestamp, log, tree, SHA1, author, branches.get(head), branches.get(objectBranch));
+            assignGeneration(commit);
+            addCommit(commit);
+        }
         branches.put(head, commit.getCommitStr());
         branches.put(objectBranch, commit.getCommitStr());
+        journal(new CommitJournal.Entry(CommitJournal.NEW_TREE_MERGE_COMMIT).string(timestamp.toString()).string(log)
+                .string(tree).string(SHA1).string(author).string(objectBranch));
     }
 }
\ No newline at end of file
@@ -0,0 +1,338 @@
+package Gitlet.Commits;
+
+import Gitlet.Utility.Utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 提交图文件.gitlet/commitgraph，只保存遍历历史需要的信息，可以直接内存映射
+ *
+ * 每个提交一条定长记录：20字节id（提交的SHA-1）、两个双亲的下标、代数、提交时间（毫秒）、完整提交在CommitStore里的偏移，
+ * 记录按代数从小到大排列，双亲的下标总是小于自己的下标，新提交只需要追加到末尾。
+ * 按id查找下标用的排序表放在记录之前，只覆盖写排序表时已有的那些记录，在扇出表限定的范围里二分查找；
+ * 之后追加的记录直接逐条比较，追加的记录多了之后整个文件重写一遍。查找不需要在堆上建立id的HashMap。
+ * id的前缀也在排序表上二分查找，找出所有以它开头的提交。
+ *
+ * 文件格式：
+ * 头部：魔数(int) 版本(int) 记录数(int) 排序表长度(int)
+ * 扇出表：256个int，第i个是排序表中id首字节不大于i的个数
+ * 排序表：按id排序的记录下标
+ * 记录：id(20字节) 第一个双亲(int) 第二个双亲(int) 代数(int) 时间(long) 偏移(long)，没有双亲时为-1
+ */
+
+class CommitGraph {
+
+    private static final int MAGIC = 0x43475048;
+    //版本2增加了记录的偏移，版本1的文件会被当成对不上而重新生成
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 16;
+    private static final int FANOUT_LENGTH = 256 * 4;
+    static final int ID_LENGTH = 20;
+    private static final int PARENT1 = ID_LENGTH, PARENT2 = PARENT1 + 4, GENERATION = PARENT2 + 4, EPOCH = GENERATION + 4;
+    private static final int OFFSET = EPOCH + 8;
+    private static final int RECORD_LENGTH = OFFSET + 8;
+    //排序表之外的记录超过这么多条时重写整个文件
+    static final int MAX_UNSORTED = 1000;
+
+    static final int NONE = -1;
+
+    private final MappedByteBuffer mapped;
+    //映射部分的记录数和其中被排序表覆盖的记录数
+    private final int mappedCount, sortedCount;
+    private final int recordsOffset;
+    //还没有写进文件的记录
+    private final List<ByteBuffer> tail = new ArrayList<>();
+    //文件不存在或者和commitChain对不上，下次保存时整个重写
+    private boolean rewrite;
+
+    private CommitGraph(MappedByteBuffer mapped, int mappedCount, int sortedCount) {
+        this.mapped = mapped;
+        this.mappedCount = mappedCount;
+        this.sortedCount = sortedCount;
+        this.recordsOffset = HEADER_LENGTH + FANOUT_LENGTH + sortedCount * 4;
+    }
+
+    /**
+     * 打开提交图文件，文件不存在、损坏或者和提交记录对不上时，顺序读一遍提交记录重新生成
+     * @param path 提交图文件
+     * @param store 全部提交的记录
+     */
+    static CommitGraph open(Path path, CommitStore store) {
+        CommitGraph graph = map(path);
+        if (graph == null || !graph.matches(store)) {
+            graph = new CommitGraph(null, 0, 0);
+            graph.rewrite = true;
+            List<Commit> ordered = new ArrayList<>(store.size());
+            Map<String, Long> offsets = new HashMap<>();
+            try {
+                store.forEach((commit, offset) -> {
+                    ordered.add(commit);
+                    offsets.put(commit.getCommitStr(), offset);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read the commit records", e);
+            }
+            ordered.sort(Comparator.comparingInt(Commit::getGeneration).thenComparing(Commit::getCommitStr));
+            //重新生成时所有记录都还没有排序，用一个临时的表找双亲的下标
+            Map<String, Integer> indices = new HashMap<>();
+            for (Commit commit : ordered) {
+                List<String> parents = commit.getParentCommitStrs();
+                graph.append(commit, parents.size() > 0 ? indices.get(parents.get(0)) : NONE,
+                        parents.size() > 1 ? indices.get(parents.get(1)) : NONE, offsets.get(commit.getCommitStr()));
+                indices.put(commit.getHash(), graph.size() - 1);
+            }
+        }
+        return graph;
+    }
+
+    private static CommitGraph map(Path path) {
+        if (!Files.exists(path))
+            return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH + FANOUT_LENGTH)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = buffer.getInt(8), sortedCount = buffer.getInt(12);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || sortedCount < 0 || sortedCount > count
+                    || HEADER_LENGTH + FANOUT_LENGTH + (long) sortedCount * 4 + (long) count * RECORD_LENGTH > channel.size())
+                return null;
+            return new CommitGraph(buffer, count, sortedCount);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 记录数一致、最后一条记录的偏移处确实是这个提交时认为文件是最新的
+     */
+    private boolean matches(CommitStore store) {
+        if (mappedCount != store.size())
+            return false;
+        if (mappedCount == 0)
+            return true;
+        try {
+            return store.load(getOffset(mappedCount - 1)).getCommitStr().equals(getId(mappedCount - 1));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 追加一个提交，它的双亲必须已经在图里
+     * @param offset 提交在CommitStore里的偏移
+     */
+    void add(Commit commit, long offset) {
+        List<String> parents = commit.getParentCommitStrs();
+        append(commit, parents.size() > 0 ? indexOf(parents.get(0)) : NONE,
+                parents.size() > 1 ? indexOf(parents.get(1)) : NONE, offset);
+    }
+
+    private void append(Commit commit, int parent, int secondParent, long offset) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        record.put(commit.getId());
+        record.putInt(parent).putInt(secondParent);
+        record.putInt(commit.getGeneration());
+        record.putLong(commit.getEpochMillis());
+        record.putLong(offset);
+        tail.add(record);
+    }
+
+    int size() {
+        return mappedCount + tail.size();
+    }
+
+    /**
+     * @param hash 提交的SHA-1
+     * @return 提交在图中的下标，不存在时返回NONE
+     */
+    int indexOf(String hash) {
+        //新提交的双亲通常就是最后几条记录，从后往前找
+        if (hash.length() == ID_LENGTH * 2) {
+            for (int i = size() - 1; i >= sortedCount; i--)
+                if (comparePrefix(i, hash) == 0)
+                    return i;
+        }
+        List<Integer> found = find(hash, 1);
+        return found.isEmpty() ? NONE : found.get(0);
+    }
+
+    /**
+     * @param prefix 小写的十六进制前缀
+     * @param max 最多返回这么多个
+     * @return 以prefix开头的提交的完整id，排序表覆盖的记录按id排序在前
+     */
+    List<String> resolvePrefix(String prefix, int max) {
+        List<String> ids = new ArrayList<>();
+        for (int index : find(prefix, max))
+            ids.add(getId(index));
+        return ids;
+    }
+
+    private List<Integer> find(String prefix, int max) {
+        List<Integer> found = new ArrayList<>();
+        if (prefix.isEmpty())
+            return found;
+        if (sortedCount > 0) {
+            //扇出表按id的第一个字节划分范围，前缀只有一位时覆盖16个字节值
+            int lowByte, highByte;
+            if (prefix.length() >= 2) {
+                lowByte = highByte = Integer.parseInt(prefix.substring(0, 2), 16);
+            } else {
+                lowByte = Character.digit(prefix.charAt(0), 16) << 4;
+                highByte = lowByte | 0xf;
+            }
+            int low = lowByte == 0 ? 0 : mapped.getInt(HEADER_LENGTH + (lowByte - 1) * 4);
+            int high = mapped.getInt(HEADER_LENGTH + highByte * 4);
+            //第一个不小于prefix的位置
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (comparePrefix(sortedAt(mid), prefix) < 0)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            for (int i = low; i < sortedCount && found.size() < max && comparePrefix(sortedAt(i), prefix) == 0; i++)
+                found.add(sortedAt(i));
+        }
+        for (int i = sortedCount; i < size() && found.size() < max; i++)
+            if (comparePrefix(i, prefix) == 0)
+                found.add(i);
+        return found;
+    }
+
+    private int sortedAt(int position) {
+        return mapped.getInt(HEADER_LENGTH + FANOUT_LENGTH + position * 4);
+    }
+
+    /**
+     * 逐个十六进制位比较记录的id和prefix，只比较prefix那么长
+     */
+    private int comparePrefix(int index, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            int b = idByte(index, i / 2) & 0xff;
+            int cmp = Integer.compare(i % 2 == 0 ? b >> 4 : b & 0xf, Character.digit(prefix.charAt(i), 16));
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    private byte idByte(int index, int i) {
+        if (index < mappedCount)
+            return mapped.get(recordsOffset + index * RECORD_LENGTH + i);
+        return tail.get(index - mappedCount).get(i);
+    }
+
+    String getId(int index) {
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++)
+            id[i] = idByte(index, i);
+        return Utils.toHex(id);
+    }
+
+    int getParent(int index) {
+        return getInt(index, PARENT1);
+    }
+
+    int getSecondParent(int index) {
+        return getInt(index, PARENT2);
+    }
+
+    int getGeneration(int index) {
+        return getInt(index, GENERATION);
+    }
+
+    long getEpochMillis(int index) {
+        if (index < mappedCount)
+            return mapped.getLong(recordsOffset + index * RECORD_LENGTH + EPOCH);
+        return tail.get(index - mappedCount).getLong(EPOCH);
+    }
+
+    long getOffset(int index) {
+        if (index < mappedCount)
+            return mapped.getLong(recordsOffset + index * RECORD_LENGTH + OFFSET);
+        return tail.get(index - mappedCount).getLong(OFFSET);
+    }
+
+    private int getInt(int index, int field) {
+        if (index < mappedCount)
+            return mapped.getInt(recordsOffset + index * RECORD_LENGTH + field);
+        return tail.get(index - mappedCount).getInt(field);
+    }
+
+    boolean isDirty() {
+        return rewrite || !tail.isEmpty();
+    }
+
+    /**
+     * 把还没有写进文件的记录保存下来
+     *
+     * 通常只把新记录追加到文件末尾，再改写头部的记录数；崩溃在两步之间时多出来的字节会被忽略，下次追加时覆盖。
+     * 文件需要重写或者排序表之外的记录太多时，先写临时文件再原子地改名
+     * @return 保存之后重新映射的提交图
+     */
+    CommitGraph save(Path path) throws IOException {
+        if (!isDirty())
+            return this;
+        if (rewrite || size() - sortedCount > MAX_UNSORTED) {
+            writeAll(path);
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                long position = recordsOffset + (long) mappedCount * RECORD_LENGTH;
+                for (ByteBuffer record : tail) {
+                    ByteBuffer bytes = record.duplicate().clear();
+                    while (bytes.hasRemaining())
+                        position += channel.write(bytes, position);
+                }
+                channel.force(false);
+                channel.write(ByteBuffer.allocate(4).putInt(size()).flip(), 8);
+                channel.force(false);
+            }
+        }
+        CommitGraph saved = map(path);
+        if (saved == null)
+            throw new IOException("commit graph " + path + " is unreadable after saving");
+        return saved;
+    }
+
+    private void writeAll(Path path) throws IOException {
+        int count = size();
+        Integer[] order = new Integer[count];
+        byte[][] ids = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            ids[i] = Utils.fromHex(getId(i));
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + FANOUT_LENGTH + count * 4 + count * RECORD_LENGTH);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(count);
+        int[] fanout = new int[256];
+        for (byte[] id : ids)
+            fanout[id[0] & 0xff]++;
+        for (int i = 0, total = 0; i < 256; i++) {
+            total += fanout[i];
+            buffer.putInt(total);
+        }
+        for (int index : order)
+            buffer.putInt(index);
+        for (int i = 0; i < count; i++) {
+            buffer.put(ids[i]).putInt(getParent(i)).putInt(getSecondParent(i))
+                    .putInt(getGeneration(i)).putLong(getEpochMillis(i)).putLong(getOffset(i));
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,257 @@
+package Gitlet.Commits;
+
+import Gitlet.Utility.Exceptions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * commitChain的追加式日志
+ *
+ * commitChain的每个修改操作（newCommit、newMergeCommit、addBranch、deleteBranch、resetTo、changeBranchTo）
+ * 都会生成一条很小的日志记录，命令结束时只把这些记录追加到.gitlet/commitjournal末尾，
+ * 而不是把整个commitChain重新序列化一遍。
+ *
+ * .gitlet/commitchain现在是检查点：它记录了折叠进去的最后一条日志的序号，加载时先反序列化检查点，
+ * 再重放序号更大的日志记录。日志记录数或者日志大小超过阈值时，把当前状态整体写成新的检查点并清空日志。
+ *
+ * 每条记录的格式：长度(int) CRC32(int) 序号(long) 类型(byte) 内容，
+ * 末尾写了一半的记录（长度不够或CRC不对）在重放时被丢弃，下次追加前截断。
+ * 其他的重放失败（中间的记录损坏、记录和检查点对不上）说明后面还有有效的记录，这时commitChain变成只读，
+ * 不再截断或者压缩日志，以免把后面的提交删掉
+ */
+
+public class CommitJournal {
+
+    //日志中积累了这么多条记录之后做一次压缩
+    static final int COMPACT_RECORDS = 1000;
+    //日志文件超过这个大小之后做一次压缩
+    static final long COMPACT_BYTES = 16L << 20;
+
+    static final byte NEW_COMMIT = 1;
+    static final byte NEW_MERGE_COMMIT = 2;
+    static final byte ADD_BRANCH = 3;
+    static final byte DELETE_BRANCH = 4;
+    static final byte RESET_TO = 5;
+    static final byte CHANGE_BRANCH = 6;
+    //提交改为保存根目录树的hash，旧的NEW_COMMIT和NEW_MERGE_COMMIT记录仍然可以重放
+    static final byte NEW_TREE_COMMIT = 7;
+    static final byte NEW_TREE_MERGE_COMMIT = 8;
+
+    /**
+     * 把commitChain中还没有落盘的修改写出去：通常只追加日志，达到阈值时写检查点
+     * @param cc commitChain
+     * @param checkpoint 检查点文件
+     * @param journal 日志文件
+     */
+    public static void save(CommitChain cc, Path checkpoint, Path journal) throws IOException {
+        if (cc.journalDamaged)
+            throw new IOException("the commit journal could not be replayed, refusing to rewrite it");
+        List<byte[]> pending = cc.pendingJournal();
+        if (!Files.exists(checkpoint) || cc.needsCheckpoint
+                || cc.lastSeq + pending.size() - cc.journalSeq >= COMPACT_RECORDS
+                || cc.journalLength >= COMPACT_BYTES) {
+            compact(cc, checkpoint, journal);
+            return;
+        }
+        if (pending.isEmpty())
+            return;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (byte[] body : pending)
+            frame(buffer, ++cc.lastSeq, body);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            //丢掉上次崩溃时写了一半的记录
+            if (channel.size() > cc.journalLength)
+                channel.truncate(cc.journalLength);
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            long position = cc.journalLength;
+            while (bytes.hasRemaining())
+                position += channel.write(bytes, position);
+            channel.force(false);
+            cc.journalLength = position;
+        }
+        pending.clear();
+    }
+
+    /**
+     * 把当前状态整体写成检查点，然后删掉日志
+     *
+     * 检查点先写到临时文件再原子地改名，改名之后、删日志之前崩溃也没关系，
+     * 因为日志里的记录序号都不大于检查点记录的序号，重放时会被跳过
+     */
+    static void compact(CommitChain cc, Path checkpoint, Path journal) throws IOException {
+        if (cc.journalDamaged)
+            throw new IOException("the commit journal could not be replayed, refusing to rewrite it");
+        cc.lastSeq += cc.pendingJournal().size();
+        cc.journalSeq = cc.lastSeq;
+        cc.pendingJournal().clear();
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toString())) {
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+            oos.writeObject(cc);
+            oos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journal);
+        cc.journalLength = 0;
+        cc.needsCheckpoint = false;
+    }
+
+    /**
+     * 在刚反序列化出来的检查点上重放日志
+     */
+    static void replay(CommitChain cc, Path journal) {
+        cc.lastSeq = cc.journalSeq;
+        cc.journalLength = 0;
+        if (!Files.exists(journal))
+            return;
+        cc.replaying = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            long size = Files.size(journal);
+            while (true) {
+                byte[] body = readFrame(in, size - cc.journalLength);
+                if (body == null)
+                    break;
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                long seq = record.readLong();
+                if (seq > cc.journalSeq) {
+                    apply(cc, record);
+                    cc.lastSeq = seq;
+                }
+                cc.journalLength += 8 + body.length;
+            }
+        } catch (IOException | RuntimeException e) {
+            cc.journalDamaged = true;
+            System.err.println("The commit journal could not be replayed after " + cc.journalLength
+                    + " bytes, the repository is read-only: " + e.getMessage());
+        } finally {
+            cc.replaying = false;
+        }
+    }
+
+    private static void apply(CommitChain cc, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        try {
+            switch (type) {
+                case NEW_COMMIT:
+                    cc.newCommit(ZonedDateTime.parse(readString(in)), readString(in), TreeStore.write(readFiles(in)),
+                            readString(in), readString(in));
+                    break;
+                case NEW_MERGE_COMMIT:
+                    cc.newMergeCommit(ZonedDateTime.parse(readString(in)), readString(in), TreeStore.write(readFiles(in)),
+                            readString(in), readString(in), readString(in));
+                    break;
+                case NEW_TREE_COMMIT:
+                    cc.newCommit(ZonedDateTime.parse(readString(in)), readString(in), readString(in),
+                            readString(in), readString(in));
+                    break;
+                case NEW_TREE_MERGE_COMMIT:
+                    cc.newMergeCommit(ZonedDateTime.parse(readString(in)), readString(in), readString(in),
+                            readString(in), readString(in), readString(in));
+                    break;
+                case ADD_BRANCH: cc.addBranch(readString(in)); break;
+                case DELETE_BRANCH: cc.deleteBranch(readString(in)); break;
+                case RESET_TO: cc.resetTo(readString(in)); break;
+                case CHANGE_BRANCH: cc.changeBranchTo(readString(in)); break;
+                default: throw new IOException("unknown journal record type " + type);
+            }
+        } catch (AlreadyExistBranchException | NoSuchBranchException | DeleteCurrentBranchException
+                | NoSuchCommitException e) {
+            throw new IOException("journal does not match the checkpoint", e);
+        }
+    }
+
+    private static void frame(ByteArrayOutputStream buffer, long seq, byte[] body) {
+        ByteBuffer record = ByteBuffer.allocate(16 + body.length);
+        record.putInt(8 + body.length).putInt(0).putLong(seq).put(body);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, 8 + body.length);
+        record.putInt(4, (int) crc.getValue());
+        buffer.write(record.array(), 0, record.capacity());
+    }
+
+    /**
+     * @param remaining 文件中从这条记录开始剩下的字节数
+     * @return 去掉长度和CRC之后的记录内容，到达文件末尾或者遇到末尾写了一半的记录时返回null
+     * @throws IOException 记录损坏并且后面还有数据，不是崩溃时没写完的最后一条记录
+     */
+    private static byte[] readFrame(DataInputStream in, long remaining) throws IOException {
+        if (remaining < 8)
+            return null;
+        int length = in.readInt();
+        int crc = in.readInt();
+        //崩溃时文件已经变长、内容还没写进去，读出来是0
+        if ((length == 0 && crc == 0) || length > remaining - 8)
+            return null;
+        if (length < 9)
+            throw new IOException("corrupt journal record length " + length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        CRC32 actual = new CRC32();
+        actual.update(body);
+        if ((int) actual.getValue() == crc)
+            return body;
+        if (remaining == 8 + length)
+            return null;
+        throw new IOException("journal record checksum mismatch");
+    }
+
+    /**
+     * 一条日志记录的内容构造器
+     */
+    static class Entry {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Entry(byte type) {
+            bytes.write(type);
+        }
+
+        Entry string(String s) {
+            try {
+                writeString(out, s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> readFiles(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> files = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            files.put(readString(in), readString(in));
+        return files;
+    }
+}
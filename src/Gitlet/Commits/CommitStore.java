@@ -0,0 +1,269 @@
+package Gitlet.Commits;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 提交记录文件.gitlet/commits
+ *
+ * 每个提交一条Commit.writeRecord写出的记录，新提交只追加到末尾。记录在文件里的偏移保存在提交图里，
+ * 所以按id找提交只需要在提交图上查到偏移，再读这一条记录，加载commitChain时一个提交都不用读。
+ * 读出来的提交放在一个固定大小的LRU缓存里，同时统计命中和未命中的次数。
+ *
+ * 文件格式：魔数(int) 版本(int) 记录数(int) 有效长度(long)，然后每条记录：长度(int) 内容。
+ * 追加时先写记录再改写头部，崩溃在两步之间时多出来的字节不算数，下次追加时覆盖
+ */
+
+class CommitStore {
+
+    private static final int MAGIC = 0x47434d54;   //"GCMT"
+    private static final int VERSION = 1;
+    static final int HEADER_LENGTH = 20;
+    //缓存的提交个数，log、merge只会用到最近的一小部分提交
+    private static final int CACHE_SIZE = 4096;
+
+    private final Path path;
+    //已经写进文件的记录数和有效长度
+    private int count;
+    private long end = HEADER_LENGTH;
+    private FileChannel channel;
+    //还没有写进文件的记录，偏移从end开始
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingCount;
+
+    private final Map<String, Commit> cache = new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private long hits, misses;
+
+    private CommitStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 只读文件头，文件不存在或者头部不对时当作空文件，第一次保存时重写
+     */
+    static CommitStore open(Path path) {
+        CommitStore store = new CommitStore(path);
+        if (!Files.exists(path))
+            return store;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+            header.flip();
+            if (header.remaining() == HEADER_LENGTH && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                    && header.getLong(12) <= channel.size()) {
+                store.count = header.getInt(8);
+                store.end = header.getLong(12);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return store;
+    }
+
+    /**
+     * @return 记录总数，包括还没有写进文件的
+     */
+    int size() {
+        return count + pendingCount;
+    }
+
+    /**
+     * 追加一个新提交，命令结束时由save写进文件
+     * @return 新记录的偏移
+     */
+    long append(Commit commit) {
+        long offset = end + pending.size();
+        try {
+            pending.write(record(commit));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pendingCount++;
+        synchronized (cache) {
+            cache.put(commit.getCommitStr(), commit);
+        }
+        return offset;
+    }
+
+    private static byte[] record(Commit commit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        commit.writeRecord(out);
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length - 4);
+        return record;
+    }
+
+    /**
+     * @return 缓存里的提交，不在缓存里时返回null
+     */
+    Commit cached(String commitStr) {
+        synchronized (cache) {
+            Commit commit = cache.get(commitStr);
+            if (commit != null)
+                hits++;
+            return commit;
+        }
+    }
+
+    /**
+     * 读出offset处的一条记录并放进缓存
+     */
+    Commit load(long offset) {
+        Commit commit;
+        try {
+            commit = Commit.readRecord(new DataInputStream(new ByteArrayInputStream(readRecord(offset))));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read commit record at " + offset, e);
+        }
+        synchronized (cache) {
+            misses++;
+            cache.put(commit.getCommitStr(), commit);
+        }
+        return commit;
+    }
+
+    private byte[] readRecord(long offset) throws IOException {
+        if (offset >= end) {
+            byte[] bytes = pending.toByteArray();
+            int at = (int) (offset - end);
+            int length = ByteBuffer.wrap(bytes).getInt(at);
+            return Arrays.copyOfRange(bytes, at + 4, at + 4 + length);
+        }
+        FileChannel channel = channel();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, record, offset + 4);
+        return record.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0)
+                throw new EOFException("truncated commit record");
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        return channel;
+    }
+
+    /**
+     * 按文件中的顺序顺序读出所有提交和它们的偏移，读出的提交不放进缓存
+     */
+    void forEach(ObjLongConsumer<Commit> action) throws IOException {
+        if (count > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ).position(HEADER_LENGTH))))) {
+                long offset = HEADER_LENGTH;
+                for (int i = 0; i < count; i++) {
+                    int length = in.readInt();
+                    action.accept(Commit.readRecord(in), offset);
+                    offset += 4 + length;
+                }
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(pending.toByteArray()));
+        long offset = end;
+        for (int i = 0; i < pendingCount; i++) {
+            int length = in.readInt();
+            action.accept(Commit.readRecord(in), offset);
+            offset += 4 + length;
+        }
+    }
+
+    /**
+     * 把新追加的记录写进文件：先写记录，落盘之后再改写头部
+     */
+    void save() throws IOException {
+        if (pendingCount == 0)
+            return;
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+            long position = end;
+            while (bytes.hasRemaining())
+                position += out.write(bytes, position);
+            out.force(false);
+            count += pendingCount;
+            end = position;
+            writeHeader(out, count, end);
+            out.force(false);
+        }
+        pending.reset();
+        pendingCount = 0;
+    }
+
+    /**
+     * 用指定的提交重写整个文件，先写临时文件再原子地改名。之前的偏移全部失效，提交图要重新生成
+     * @param commits 按双亲在前的顺序给出，可以边写边从旧文件里读
+     */
+    void rewrite(Iterable<Commit> commits) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long position = HEADER_LENGTH;
+        int written = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream records = new BufferedOutputStream(Channels.newOutputStream(out.position(HEADER_LENGTH)));
+            for (Commit commit : commits) {
+                byte[] record = record(commit);
+                records.write(record);
+                position += record.length;
+                written++;
+            }
+            records.flush();
+            writeHeader(out, written, position);
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        close();
+        count = written;
+        end = position;
+        pending.reset();
+        pendingCount = 0;
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static void writeHeader(FileChannel out, int count, long end) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).putInt(count).putLong(end);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining())
+            position += out.write(header, position);
+    }
+
+    synchronized void close() {
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignored) { }
+        channel = null;
+    }
+
+    /**
+     * @return 缓存的命中情况
+     */
+    String report() {
+        synchronized (cache) {
+            long total = hits + misses;
+            return String.format("commit cache: %d/%d commits, %d hits, %d misses (hit rate %s)", cache.size(),
+                    CACHE_SIZE, hits, misses, total == 0 ? "n/a" : String.format("%.1f%%", hits * 100.0 / total));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package Gitlet.Commits;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * commitStr -> Commit的表
+ *
+ * 用开放寻址直接把Commit放在数组里，按Commit自己的二进制id定位，
+ * 不需要HashMap那样给每个提交再分配一个结点和一个40位的十六进制key。
+ * 只支持CommitChain用到的操作：查找、插入和遍历，提交不会被删除。
+ * 提交现在保存在CommitStore里，这个表只用来读出旧检查点里的提交，加载时迁移
+ */
+
+class CommitTable extends AbstractMap<String, Commit> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private transient Commit[] slots = new Commit[INITIAL_CAPACITY];
+    private transient int size;
+
+    CommitTable() { }
+
+    CommitTable(Collection<Commit> commits) {
+        for (Commit commit : commits)
+            insert(commit);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Commit get(Object key) {
+        if (!(key instanceof String) || ((String) key).length() != CommitGraph.ID_LENGTH * 2)
+            return null;
+        String commitStr = (String) key;
+        int mask = slots.length - 1;
+        for (int i = slotOf(commitStr) & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (slots[i].idEquals(commitStr))
+                return slots[i];
+        }
+        return null;
+    }
+
+    /**
+     * @param key 必须是value的commitStr
+     */
+    @Override
+    public Commit put(String key, Commit value) {
+        return insert(value);
+    }
+
+    private Commit insert(Commit commit) {
+        if ((size + 1) * 3 > slots.length * 2)
+            resize();
+        int mask = slots.length - 1;
+        int i = commit.hashCode() & mask;
+        for (; slots[i] != null; i = (i + 1) & mask) {
+            if (Arrays.equals(slots[i].getId(), commit.getId())) {
+                Commit previous = slots[i];
+                slots[i] = commit;
+                return previous;
+            }
+        }
+        slots[i] = commit;
+        size++;
+        return null;
+    }
+
+    private void resize() {
+        Commit[] old = slots;
+        slots = new Commit[old.length * 2];
+        size = 0;
+        for (Commit commit : old)
+            if (commit != null)
+                insert(commit);
+    }
+
+    /**
+     * 和Commit.hashCode一致：id的前四个字节。commitStr不是十六进制时位置没有意义，后面逐个比较id时不会匹配
+     */
+    private static int slotOf(String commitStr) {
+        int hash = 0;
+        for (int i = 0; i < 8; i++)
+            hash = hash << 4 | Math.max(Character.digit(commitStr.charAt(i), 16), 0);
+        return hash;
+    }
+
+    @Override
+    public Collection<Commit> values() {
+        return new AbstractCollection<Commit>() {
+            @Override
+            public Iterator<Commit> iterator() {
+                return commits();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Commit>> entrySet() {
+        return new AbstractSet<Entry<String, Commit>>() {
+            @Override
+            public Iterator<Entry<String, Commit>> iterator() {
+                Iterator<Commit> commits = commits();
+                return new Iterator<Entry<String, Commit>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return commits.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Commit> next() {
+                        Commit commit = commits.next();
+                        return new SimpleImmutableEntry<>(commit.getCommitStr(), commit);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Iterator<Commit> commits() {
+        return new Iterator<Commit>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < slots.length && slots[from] == null)
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < slots.length;
+            }
+
+            @Override
+            public Commit next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Commit commit = slots[next];
+                next = advance(next + 1);
+                return commit;
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Commit commit : values())
+            out.writeObject(commit);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 2 < (count + 1) * 3)
+            capacity *= 2;
+        slots = new Commit[capacity];
+        for (int i = 0; i < count; i++)
+            insert((Commit) in.readObject());
+    }
+}
@@ -0,0 +1,139 @@
+package Gitlet.Commits;
+
+import java.util.*;
+
+/**
+ * 在提交图上求两个提交的最近公共祖先（merge base）
+ *
+ * 从两个提交出发沿着双亲（包括merge提交的第二个双亲）往下走，按代数从大到小处理，
+ * 每个提交的代数是它所有双亲代数的最大值加一，所以处理到一个提交时它在两个提交之下的所有后代都已经处理过了。
+ * 同时能从两边到达的提交是公共祖先，它和它的祖先都标记为过时，队列里只剩过时的提交时停止，
+ * 只会走到两个提交和公共祖先之间的那部分历史。整个过程只读提交图，不需要完整的Commit对象。
+ *
+ * 交叉合并时可能有多个同样好的公共祖先，它们互相都不是祖先，全部返回
+ */
+
+class MergeBase {
+
+    private static final int PARENT1 = 1, PARENT2 = 2, STALE = 4, RESULT = 8;
+
+    private final CommitGraph graph;
+    //代数大的先出队，代数相同时下标大的先出队，保证结果的顺序是确定的
+    private final Comparator<Integer> byGeneration;
+    //最近一次查找中出队的提交数
+    private int visited;
+
+    MergeBase(CommitGraph graph) {
+        this.graph = graph;
+        this.byGeneration = Comparator.comparingInt(graph::getGeneration).thenComparingInt(i -> i).reversed();
+    }
+
+    /**
+     * @param a 提交在图中的下标
+     * @param b 提交在图中的下标
+     * @return a和b的所有最近公共祖先的下标，按代数从大到小排列，没有公共祖先时为空
+     */
+    List<Integer> find(int a, int b) {
+        visited = 0;
+        if (a == b)
+            return Collections.singletonList(a);
+        List<Integer> candidates = paintDownToCommon(a, b);
+        if (candidates.size() > 1)
+            candidates = removeRedundant(candidates);
+        return candidates;
+    }
+
+    int getVisited() {
+        return visited;
+    }
+
+    private List<Integer> paintDownToCommon(int a, int b) {
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(byGeneration);
+        List<Integer> result = new ArrayList<>();
+        flags.put(a, PARENT1);
+        flags.put(b, PARENT2);
+        queue.add(a);
+        queue.add(b);
+        while (hasNonStale(queue, flags)) {
+            int commit = queue.poll();
+            visited++;
+            int flag = flags.get(commit);
+            if ((flag & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if ((flag & (STALE | RESULT)) == 0) {
+                    result.add(commit);
+                    flag |= RESULT;
+                }
+                //公共祖先的祖先都不可能是最近的
+                flag |= STALE;
+                flags.put(commit, flag);
+            }
+            int inherited = flag & (PARENT1 | PARENT2 | STALE);
+            for (int parent : parents(commit)) {
+                int parentFlag = flags.getOrDefault(parent, 0);
+                if ((parentFlag & inherited) == inherited)
+                    continue;
+                flags.put(parent, parentFlag | inherited);
+                queue.add(parent);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasNonStale(PriorityQueue<Integer> queue, Map<Integer, Integer> flags) {
+        for (int commit : queue)
+            if ((flags.get(commit) & STALE) == 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * 去掉是其他候选者祖先的候选者
+     */
+    private List<Integer> removeRedundant(List<Integer> candidates) {
+        List<Integer> result = new ArrayList<>();
+        for (int candidate : candidates) {
+            boolean redundant = false;
+            for (int other : candidates)
+                if (other != candidate && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            if (!redundant)
+                result.add(candidate);
+        }
+        return result;
+    }
+
+    /**
+     * 从descendant往下找ancestor，代数不大于ancestor的提交不用再往下走
+     */
+    boolean isAncestor(int ancestor, int descendant) {
+        int floor = graph.getGeneration(ancestor);
+        if (ancestor == descendant)
+            return true;
+        if (graph.getGeneration(descendant) <= floor)
+            return false;
+        Deque<Integer> stack = new ArrayDeque<>();
+        Set<Integer> seen = new HashSet<>();
+        stack.push(descendant);
+        while (!stack.isEmpty()) {
+            int commit = stack.pop();
+            visited++;
+            for (int parent : parents(commit)) {
+                if (parent == ancestor)
+                    return true;
+                if (graph.getGeneration(parent) > floor && seen.add(parent))
+                    stack.push(parent);
+            }
+        }
+        return false;
+    }
+
+    private int[] parents(int commit) {
+        int first = graph.getParent(commit), second = graph.getSecondParent(commit);
+        if (first == CommitGraph.NONE)
+            return new int[0];
+        return second == CommitGraph.NONE ? new int[]{first} : new int[]{first, second};
+    }
+}
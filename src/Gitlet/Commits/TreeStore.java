@@ -0,0 +1,294 @@
+package Gitlet.Commits;
+
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 目录树对象库
+ *
+ * 每个目录保存成一个树对象：按名字排好序的条目列表，每个条目是文件（指向快照的hash）或者子目录（指向子树的hash），
+ * 树对象的id是它内容的SHA-1。提交只记录根目录的树，两次提交之间没有变化的子目录就是同一个树对象，
+ * 比较两次提交时hash相同的子树可以整个跳过。
+ *
+ * 树对象保存在.gitlet/trees下，用id的前两位分目录，写入之后不再修改。
+ * 文件格式：条目数(int)，然后每个条目：类型(byte，f是文件，d是目录) 名字(UTF) hash(UTF)
+ */
+
+public class TreeStore {
+
+    static final byte FILE = 'f';
+    static final byte DIRECTORY = 'd';
+
+    //解析过的树对象缓存的个数，树对象按内容寻址，缓存永远不会过期
+    private static final int CACHE_SIZE = 4096;
+    private static final Map<String, Tree> cache = new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final Pattern SEPARATOR = Pattern.compile(Pattern.quote(File.separator));
+
+    /**
+     * 一个目录的树对象，条目按名字排序
+     */
+    static final class Tree {
+        final String[] names;
+        final byte[] types;
+        final String[] hashes;
+
+        Tree(String[] names, byte[] types, String[] hashes) {
+            this.names = names;
+            this.types = types;
+            this.hashes = hashes;
+        }
+
+        int indexOf(String name) {
+            return Arrays.binarySearch(names, name);
+        }
+    }
+
+    /**
+     * 构建树对象时使用的目录结点
+     */
+    private static final class Node {
+        final TreeMap<String, Node> directories = new TreeMap<>();
+        final TreeMap<String, String> files = new TreeMap<>();
+    }
+
+    /**
+     * 把一份完整的文件列表写成树对象，已经存在的树对象不会重写，
+     * 所以只改了一个文件的提交只会新增从这个文件到根目录路径上的几个树对象
+     * @param files 相对路径 -> 快照的hash
+     * @return 根目录树对象的hash
+     */
+    public static String write(Map<String, String> files) {
+        return build(files, true);
+    }
+
+    /**
+     * 只计算文件列表对应的根目录树对象的hash，不写入任何树对象
+     * @param files 相对路径 -> 快照的hash
+     * @return 根目录树对象的hash，和write的返回值相同
+     */
+    public static String hash(Map<String, String> files) {
+        return build(files, false);
+    }
+
+    private static String build(Map<String, String> files, boolean store) {
+        Node root = new Node();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String[] parts = SEPARATOR.split(file.getKey());
+            Node node = root;
+            for (int i = 0; i < parts.length - 1; i++)
+                node = node.directories.computeIfAbsent(parts[i], k -> new Node());
+            node.files.put(parts[parts.length - 1], file.getValue());
+        }
+        try {
+            return write(root, store);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String write(Node node, boolean store) throws IOException {
+        //文件和子目录合并成一个按名字排序的条目列表
+        TreeMap<String, String> entries = new TreeMap<>();
+        Map<String, Byte> types = new HashMap<>();
+        for (Map.Entry<String, Node> directory : node.directories.entrySet()) {
+            entries.put(directory.getKey(), write(directory.getValue(), store));
+            types.put(directory.getKey(), DIRECTORY);
+        }
+        for (Map.Entry<String, String> file : node.files.entrySet()) {
+            entries.put(file.getKey(), file.getValue());
+            types.put(file.getKey(), FILE);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            out.writeByte(types.get(entry.getKey()));
+            out.writeUTF(entry.getKey());
+            //旧版本的快照hash去掉了开头的0，长度不固定，按字符串保存
+            out.writeUTF(entry.getValue());
+        }
+        byte[] content = bytes.toByteArray();
+        String hash = Utils.encrypt(content, "SHA-1");
+        Path path = pathOf(hash);
+        if (store && !Files.exists(path)) {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), "tree", ".tmp");
+            try {
+                Files.write(tmp, content);
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ignored) {
+                //另一个进程同时写了同样的树对象
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash 树对象的hash
+     * @return 解析好的树对象
+     */
+    static Tree read(String hash) {
+        synchronized (cache) {
+            Tree tree = cache.get(hash);
+            if (tree != null)
+                return tree;
+        }
+        Tree tree = parse(hash);
+        synchronized (cache) {
+            cache.put(hash, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * 不经过缓存读取一个树对象的条目，gc遍历全部树对象时用，不会把缓存里常用的树挤出去
+     * @param hash 树对象的hash
+     * @param files 收集文件条目指向的快照hash
+     * @param directories 收集子目录的树对象hash
+     */
+    public static void readEntries(String hash, Collection<String> files, Collection<String> directories) {
+        Tree tree = parse(hash);
+        for (int i = 0; i < tree.names.length; i++)
+            (tree.types[i] == FILE ? files : directories).add(tree.hashes[i]);
+    }
+
+    private static Tree parse(String hash) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pathOf(hash))))) {
+            int size = in.readInt();
+            String[] names = new String[size];
+            byte[] types = new byte[size];
+            String[] hashes = new String[size];
+            for (int i = 0; i < size; i++) {
+                types[i] = in.readByte();
+                //同名的目录和文件在很多树对象里重复出现，名字共享同一个字符串
+                names[i] = in.readUTF().intern();
+                hashes[i] = in.readUTF();
+            }
+            return new Tree(names, types, hashes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read tree " + hash, e);
+        }
+    }
+
+    /**
+     * 沿着路径一级一级查找，只读路径上的几个树对象
+     * @param root 根目录树对象的hash
+     * @param file 文件的相对路径
+     * @return 文件快照的hash，不存在时返回null
+     */
+    static String lookup(String root, String file) {
+        String[] parts = SEPARATOR.split(file);
+        String hash = root;
+        for (int i = 0; i < parts.length; i++) {
+            Tree tree = read(hash);
+            int index = tree.indexOf(parts[i]);
+            if (index < 0)
+                return null;
+            boolean last = i == parts.length - 1;
+            if ((tree.types[index] == FILE) != last)
+                return null;
+            hash = tree.hashes[index];
+        }
+        return hash;
+    }
+
+    /**
+     * @param root 根目录树对象的hash
+     * @return 展开之后的完整文件列表：相对路径 -> 快照的hash
+     */
+    static Map<String, String> flatten(String root) {
+        Map<String, String> files = new HashMap<>();
+        flatten(root, "", files);
+        return files;
+    }
+
+    private static void flatten(String hash, String prefix, Map<String, String> files) {
+        Tree tree = read(hash);
+        for (int i = 0; i < tree.names.length; i++) {
+            if (tree.types[i] == FILE)
+                files.put(prefix + tree.names[i], tree.hashes[i]);
+            else
+                flatten(tree.hashes[i], prefix + tree.names[i] + File.separator, files);
+        }
+    }
+
+    /**
+     * 比较两棵树，hash相同的子树直接跳过
+     * @param from 原来的根目录树对象
+     * @param to 新的根目录树对象
+     * @param changed 新增或者内容变化的文件：相对路径 -> 新快照的hash
+     * @param removed 只在原来的树里存在的文件
+     */
+    public static void diff(String from, String to, Map<String, String> changed, Collection<String> removed) {
+        if (!from.equals(to))
+            diff(from, to, "", changed, removed);
+    }
+
+    private static void diff(String from, String to, String prefix, Map<String, String> changed,
+                             Collection<String> removed) {
+        Tree a = read(from), b = read(to);
+        int i = 0, j = 0;
+        while (i < a.names.length || j < b.names.length) {
+            int cmp = i == a.names.length ? 1 : j == b.names.length ? -1 : a.names[i].compareTo(b.names[j]);
+            if (cmp < 0) {
+                removeAll(a.types[i], a.hashes[i], prefix + a.names[i], removed);
+                i++;
+            } else if (cmp > 0) {
+                addAll(b.types[j], b.hashes[j], prefix + b.names[j], changed);
+                j++;
+            } else {
+                String path = prefix + a.names[i];
+                if (!a.hashes[i].equals(b.hashes[j]) || a.types[i] != b.types[j]) {
+                    if (a.types[i] == DIRECTORY && b.types[j] == DIRECTORY)
+                        diff(a.hashes[i], b.hashes[j], path + File.separator, changed, removed);
+                    else if (a.types[i] == FILE && b.types[j] == FILE)
+                        changed.put(path, b.hashes[j]);
+                    else {
+                        //文件变成了目录，或者目录变成了文件
+                        removeAll(a.types[i], a.hashes[i], path, removed);
+                        addAll(b.types[j], b.hashes[j], path, changed);
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static void addAll(byte type, String hash, String path, Map<String, String> changed) {
+        if (type == FILE)
+            changed.put(path, hash);
+        else
+            flatten(hash, path + File.separator, changed);
+    }
+
+    private static void removeAll(byte type, String hash, String path, Collection<String> removed) {
+        if (type == FILE)
+            removed.add(path);
+        else
+            removed.addAll(flatten(hash, path).keySet());
+    }
+
+    private static Map<String, String> flatten(String hash, String path) {
+        Map<String, String> files = new HashMap<>();
+        flatten(hash, path + File.separator, files);
+        return files;
+    }
+
+    private static Path pathOf(String hash) {
+        return Utils.getTreesPath().resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+}
@@ -0,0 +1,118 @@
+package Gitlet.Daemon;
+
+import Gitlet.Trace.Trace;
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 守护进程的瘦客户端
+ *
+ * 从.gitlet/daemon读出守护进程监听的回环端口和令牌，把命令行参数发过去，再把守护进程执行命令时的
+ * 标准输出和标准错误原样打印出来。读不到端点或者连不上时返回false，由调用者按冷启动方式自己执行命令
+ */
+
+public class DaemonClient {
+
+    //设置了这个系统属性（-Dgitlet.latency=true）时，每条命令结束后在标准错误上打印耗时
+    public static final String LATENCY_PROPERTY = "gitlet.latency";
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_REJECTED = 1;
+    //令牌对不上，端点文件可能是另一个守护进程留下的
+    static final int STATUS_UNAUTHORIZED = 2;
+
+    /**
+     * 把命令转发给守护进程执行
+     * @param args 命令行参数
+     * @return 命令是否已经由守护进程执行
+     */
+    public static boolean forward(String[] args) {
+        String[] endpoint = readEndpoint();
+        if (endpoint == null)
+            return false;
+        long start = System.nanoTime();
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(endpoint[0]));
+        } catch (ConnectException e) {
+            //守护进程已经不在了，端点文件是上次异常退出留下的
+            try {
+                Files.deleteIfExists(Utils.getDaemonFilePath());
+            } catch (IOException ignored) { }
+            return false;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+        //请求一旦发出就不能再回退到冷启动，否则同一条命令可能被执行两次
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeUTF(endpoint[1]);
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args)
+                out.writeUTF(arg);
+            out.flush();
+            int status = in.readInt();
+            if (status == STATUS_UNAUTHORIZED)
+                System.err.println("The daemon rejected this client, running the command without it.");
+            if (status != STATUS_OK)
+                return false;
+            long elapsed = in.readLong();
+            System.out.write(readBytes(in));
+            System.out.flush();
+            System.err.write(readBytes(in));
+            System.err.flush();
+            if (Boolean.getBoolean(LATENCY_PROPERTY))
+                System.err.println(formatLatency("warm", args[args[0].equals(Trace.FLAG) && args.length > 1 ? 1 : 0], elapsed)
+                        + String.format(" (round trip %.3f ms)", (System.nanoTime() - start) / 1e6));
+        } catch (IOException e) {
+            System.err.println("Lost connection to the daemon: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 通知守护进程退出
+     * @return 是否有守护进程收到了通知
+     */
+    public static boolean stop() {
+        return readEndpoint() != null && forward(new String[]{"daemon", "stop"});
+    }
+
+    public static String formatLatency(String mode, String command, long nanos) {
+        return String.format("[%s] %s: %.3f ms", mode, command, nanos / 1e6);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return {端口, 令牌}，没有守护进程时返回null
+     */
+    private static String[] readEndpoint() {
+        try {
+            List<String> lines = Files.readAllLines(Utils.getDaemonFilePath());
+            if (lines.size() < 2)
+                return null;
+            return new String[]{lines.get(0).trim(), lines.get(1).trim()};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package Gitlet.Daemon;
+
+import Gitlet.Gitlet;
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻内存的守护进程，每个仓库一个
+ *
+ * 启动时只反序列化一次commitChain、stage和blobpool，之后在回环地址上逐条接受瘦客户端发来的命令，
+ * 直接在内存里的组件上执行，命令结束后只写回被修改过的组件。
+ * 端口和一个随机令牌写在.gitlet/daemon里，只有读得到这个文件的客户端才能提交命令。
+ * 被拒绝的客户端会自己冷启动执行命令，所以每条命令之前先检查组件文件的长度和修改时间，和上次加载或写回时不一样就重新加载，
+ * 不会拿内存里过时的组件覆盖掉冷启动写回的修改。
+ * 每条命令的耗时都会打印在守护进程的控制台上，方便和冷启动的耗时对比
+ */
+
+public class GitletDaemon {
+
+    private final String token = new BigInteger(128, new SecureRandom()).toString(16);
+    private final String root = Paths.get("").toAbsolutePath().toString();
+    //执行命令时System.out和System.err会被重定向给客户端，守护进程自己的日志走这两个流
+    private final PrintStream console = System.out;
+    private final PrintStream consoleErr = System.err;
+    //上次加载或者写回之后组件文件的长度和修改时间
+    private List<Long> loadedState;
+
+    public void serve() throws IOException {
+        if (Files.exists(Utils.getDaemonFilePath()) && DaemonClient.forward(new String[]{"daemon", "ping"})) {
+            consoleErr.println("A daemon is already running for this repository.");
+            return;
+        }
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            long start = System.nanoTime();
+            Gitlet.loadRepository();
+            loadedState = diskState();
+            console.println(DaemonClient.formatLatency("daemon", "load repository", System.nanoTime() - start));
+            publish(server.getLocalPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(this::unpublish));
+            console.println("[daemon] listening on " + server.getLocalSocketAddress());
+            boolean running = true;
+            while (running) {
+                try (Socket socket = server.accept()) {
+                    running = handle(socket);
+                } catch (IOException e) {
+                    consoleErr.println("[daemon] " + e.getMessage());
+                }
+            }
+        } finally {
+            unpublish();
+        }
+    }
+
+    /**
+     * 处理一个客户端连接上的一条命令
+     * @return 守护进程是否继续运行
+     */
+    private boolean handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        String clientToken = in.readUTF();
+        String clientRoot = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = in.readUTF();
+        if (!token.equals(clientToken)) {
+            out.writeInt(DaemonClient.STATUS_UNAUTHORIZED);
+            out.flush();
+            return true;
+        }
+        //客户端不在本仓库的根目录下，相对路径对不上，让它自己冷启动执行
+        if (!root.equals(clientRoot) || args.length == 0) {
+            out.writeInt(DaemonClient.STATUS_REJECTED);
+            out.flush();
+            return true;
+        }
+        boolean isControl = args[0].equals("daemon");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream(), stderr = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        if (!isControl)
+            execute(args, stdout, stderr);
+        long elapsed = System.nanoTime() - start;
+        if (!isControl)
+            console.println(DaemonClient.formatLatency("warm", String.join(" ", args), elapsed));
+        out.writeInt(DaemonClient.STATUS_OK);
+        out.writeLong(elapsed);
+        DaemonClient.writeBytes(out, stdout.toByteArray());
+        DaemonClient.writeBytes(out, stderr.toByteArray());
+        out.flush();
+        return !(isControl && args.length == 2 && args[1].equals("stop"));
+    }
+
+    private void execute(String[] args, ByteArrayOutputStream stdout, ByteArrayOutputStream stderr) {
+        if (!diskState().equals(loadedState)) {
+            console.println("[daemon] repository changed on disk, reloading");
+            Gitlet.loadRepository();
+        }
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+        try {
+            Gitlet.executeResident(args);
+        } catch (RuntimeException e) {
+            //命令没有按预期失败，内存里的组件可能只改了一半，重新从磁盘加载
+            e.printStackTrace();
+            Gitlet.loadRepository();
+        } finally {
+            System.setOut(console);
+            System.setErr(consoleErr);
+            loadedState = diskState();
+        }
+    }
+
+    /**
+     * @return 检查点、日志、提交记录、暂存区和文件池的长度和修改时间，文件不存在时都是-1
+     */
+    private static List<Long> diskState() {
+        List<Long> state = new ArrayList<>();
+        for (Path path : new Path[]{Utils.getCommitChainPath(), Utils.getCommitJournalPath(), Utils.getCommitStorePath(),
+                Utils.getStageFilePath(), Utils.getBlobsPath()}) {
+            try {
+                state.add(Files.size(path));
+                state.add(Files.getLastModifiedTime(path).to(TimeUnit.NANOSECONDS));
+            } catch (IOException e) {
+                state.add(-1L);
+                state.add(-1L);
+            }
+        }
+        return state;
+    }
+
+    private void publish(int port) throws IOException {
+        Path tmp = Utils.getGitDirPath().resolve(Utils.DAEMON_FILE_NAME + ".tmp");
+        Files.write(tmp, (port + "\n" + token + "\n").getBytes());
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) { }
+        Files.move(tmp, Utils.getDaemonFilePath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void unpublish() {
+        try {
+            Files.deleteIfExists(Utils.getDaemonFilePath());
+        } catch (IOException ignored) { }
+    }
+}
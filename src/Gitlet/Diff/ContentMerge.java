@@ -0,0 +1,68 @@
+package Gitlet.Diff;
+
+import Gitlet.Blobs.BlobPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * merge时合并两边都修改过的文件的内容
+ *
+ * 文本文件用Merge3逐行合并，合并结果（包括带冲突标记的结果）保存成新的快照；
+ * 二进制文件没法逐行合并，保留当前分支的版本并记为冲突。所有冲突都记下来，合并完再一起报告
+ */
+
+public class ContentMerge {
+
+    private final BlobPool blobPool;
+    private final String oursLabel, theirsLabel;
+    private final Map<String, String> conflicts = new TreeMap<>();
+
+    /**
+     * @param oursLabel 冲突标记里当前分支的名字
+     * @param theirsLabel 冲突标记里被合并的分支的名字
+     */
+    public ContentMerge(BlobPool blobPool, String oursLabel, String theirsLabel) {
+        this.blobPool = blobPool;
+        this.oursLabel = oursLabel;
+        this.theirsLabel = theirsLabel;
+    }
+
+    /**
+     * 合并一个两边都修改过的文件
+     * @param path 文件的相对路径
+     * @param base 共同祖先里的版本，两边都新增的文件为null
+     * @param ours 当前分支的版本
+     * @param theirs 被合并的分支的版本
+     * @return 合并结果的hash，有冲突时是带着冲突标记的内容
+     */
+    public String merge(String path, String base, String ours, String theirs) throws IOException {
+        ByteBuffer baseContent = base == null ? ByteBuffer.allocate(0) : blobPool.mapContent(base);
+        ByteBuffer oursContent = blobPool.mapContent(ours), theirsContent = blobPool.mapContent(theirs);
+        if (Lines.isBinary(baseContent) || Lines.isBinary(oursContent) || Lines.isBinary(theirsContent)) {
+            conflict(path, "binary");
+            return ours;
+        }
+        Merge3.Result result = Merge3.merge(new Lines(baseContent), new Lines(oursContent), new Lines(theirsContent),
+                oursLabel, "merge base", theirsLabel);
+        if (result.conflicts > 0)
+            conflict(path, result.conflicts + (result.conflicts == 1 ? " conflict" : " conflicts"));
+        return blobPool.addContent(path, result.content);
+    }
+
+    /**
+     * 记录一个冲突，比如一边修改了文件而另一边删除了它
+     */
+    public void conflict(String path, String reason) {
+        conflicts.put(path, reason);
+    }
+
+    /**
+     * @return 冲突的文件 -> 冲突的原因，按文件名排序
+     */
+    public Map<String, String> getConflicts() {
+        return conflicts;
+    }
+}
@@ -0,0 +1,98 @@
+package Gitlet.Diff;
+
+import Gitlet.Blobs.BlobPool;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * diff命令的输出：每个文件一段unified格式的差异
+ *
+ * 快照通过BlobPool.mapContent读取，工作目录里的文件直接映射进内存，比较时都不复制内容
+ */
+
+public class DiffPrinter {
+
+    private final BlobPool blobPool;
+    private final PrintStream out;
+
+    public DiffPrinter(BlobPool blobPool, PrintStream out) {
+        this.blobPool = blobPool;
+        this.out = out;
+    }
+
+    /**
+     * 比较同一个文件的两个快照
+     * @param oldHash 旧的快照，为null表示文件是新增的
+     * @param newHash 新的快照，为null表示文件被删除了
+     */
+    public void printSnapshots(String path, String oldHash, String newHash) throws IOException {
+        print(path, oldHash == null ? null : blobPool.mapContent(oldHash),
+                newHash == null ? null : blobPool.mapContent(newHash));
+    }
+
+    /**
+     * 比较快照和工作目录里的文件
+     * @param oldHash 快照，为null表示文件是新增的
+     * @param file 工作目录里的文件，不存在表示文件被删除了
+     */
+    public void printWorkingFile(String path, String oldHash, Path file) throws IOException {
+        print(path, oldHash == null ? null : blobPool.mapContent(oldHash), Files.exists(file) ? map(file) : null);
+    }
+
+    /**
+     * 比较改名前后的两个快照
+     */
+    public void printRename(RenameDetector.Rename rename, String oldHash, String newHash) throws IOException {
+        printRename(rename, blobPool.mapContent(oldHash), blobPool.mapContent(newHash));
+    }
+
+    /**
+     * 比较改名前的快照和工作目录里改名后的文件
+     */
+    public void printWorkingRename(RenameDetector.Rename rename, String oldHash, Path file) throws IOException {
+        printRename(rename, blobPool.mapContent(oldHash), map(file));
+    }
+
+    /**
+     * 把工作目录里的文件映射进内存
+     */
+    public static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void printRename(RenameDetector.Rename rename, ByteBuffer before, ByteBuffer after) throws IOException {
+        out.println("diff --gitlet a/" + rename.from + " b/" + rename.to);
+        out.println("similarity index " + rename.score + "%");
+        out.println("rename from " + rename.from);
+        out.println("rename to " + rename.to);
+        if (!before.equals(after))
+            content("a/" + rename.from, "b/" + rename.to, before, after);
+    }
+
+    private void print(String path, ByteBuffer before, ByteBuffer after) throws IOException {
+        out.println("diff --gitlet a/" + path + " b/" + path);
+        if (before == null)
+            out.println("new file");
+        else if (after == null)
+            out.println("deleted file");
+        content(before == null ? "/dev/null" : "a/" + path, after == null ? "/dev/null" : "b/" + path, before, after);
+    }
+
+    private void content(String oldName, String newName, ByteBuffer before, ByteBuffer after) throws IOException {
+        if ((before != null && Lines.isBinary(before)) || (after != null && Lines.isBinary(after))) {
+            out.println("Binary files " + oldName + " and " + newName + " differ");
+            return;
+        }
+        Lines a = before == null ? Lines.empty() : new Lines(before);
+        Lines b = after == null ? Lines.empty() : new Lines(after);
+        UnifiedDiff.write(oldName, newName, a, b, LineDiff.diff(a, b), out);
+    }
+}
@@ -0,0 +1,23 @@
+package Gitlet.Diff;
+
+/**
+ * 一处修改：a的[beginA, endA)行被替换成b的[beginB, endB)行，
+ * beginA == endA时是插入，beginB == endB时是删除
+ */
+
+public class Edit {
+
+    public final int beginA, endA, beginB, endB;
+
+    public Edit(int beginA, int endA, int beginB, int endB) {
+        this.beginA = beginA;
+        this.endA = endA;
+        this.beginB = beginB;
+        this.endB = endB;
+    }
+
+    @Override
+    public String toString() {
+        return "Edit[" + beginA + "-" + endA + "," + beginB + "-" + endB + "]";
+    }
+}
@@ -0,0 +1,214 @@
+package Gitlet.Diff;
+
+import java.util.*;
+
+/**
+ * 按行比较两个文件，得到把a变成b的最少修改
+ *
+ * 先去掉两端相同的行。剩下的区域比较大时，先找出两边都只出现一次并且内容相同的行，
+ * 按它们在a中的顺序取b中位置的最长递增子序列作为锚点，把区域切成锚点之间的小区域分别比较（patience diff）；
+ * 找不到锚点或者区域很小时用Myers算法，从两端同时搜索找到最短编辑路径的中点，再对两半递归，只需要线性的空间。
+ * 大文件里只改了几处时，比较的代价主要是切行和两端的线性扫描；改动很多但是分散时，锚点把问题切成很多小块，
+ * 不会退化成整个文件上的O((N+M)D)
+ */
+
+public class LineDiff {
+
+    //两边行数之和不超过这个数的区域直接用Myers算法
+    private static final int ANCHOR_THRESHOLD = 64;
+
+    private final Lines a, b;
+    private final List<Edit> edits = new ArrayList<>();
+
+    private LineDiff(Lines a, Lines b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * @return 按位置排序、互不相邻的修改
+     */
+    public static List<Edit> diff(Lines a, Lines b) {
+        LineDiff diff = new LineDiff(a, b);
+        diff.region(0, a.size(), 0, b.size());
+        return diff.edits;
+    }
+
+    private void region(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a.equals(aLo, b, bLo)) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a.equals(aHi - 1, b, bHi - 1)) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            add(aLo, aHi, bLo, bHi);
+            return;
+        }
+        if ((aHi - aLo) + (bHi - bLo) > ANCHOR_THRESHOLD && anchor(aLo, aHi, bLo, bHi))
+            return;
+        bisect(aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * 用两边都只出现一次的行做锚点切分区域
+     * @return 找不到锚点时返回false
+     */
+    private boolean anchor(int aLo, int aHi, int bLo, int bHi) {
+        //行的hash -> {在a中出现的次数, a中的位置, 在b中出现的次数, b中的位置}
+        Map<Integer, int[]> occurrences = new HashMap<>();
+        for (int i = aLo; i < aHi; i++) {
+            int[] o = occurrences.computeIfAbsent(a.hash(i), h -> new int[4]);
+            o[0]++;
+            o[1] = i;
+        }
+        for (int j = bLo; j < bHi; j++) {
+            int[] o = occurrences.get(b.hash(j));
+            if (o != null) {
+                o[2]++;
+                o[3] = j;
+            }
+        }
+        //按a中的顺序排列的唯一行在b中的位置
+        int[] pairA = new int[Math.min(aHi - aLo, bHi - bLo)], pairB = new int[pairA.length];
+        int pairs = 0;
+        for (int i = aLo; i < aHi && pairs < pairA.length; i++) {
+            int[] o = occurrences.get(a.hash(i));
+            if (o[0] == 1 && o[2] == 1 && a.equals(i, b, o[3])) {
+                pairA[pairs] = i;
+                pairB[pairs] = o[3];
+                pairs++;
+            }
+        }
+        if (pairs == 0)
+            return false;
+        //patience排序求pairB的最长递增子序列：tails[l]是长度为l+1的递增子序列里结尾最小的那个pair的下标
+        int[] tails = new int[pairs], previous = new int[pairs];
+        int length = 0;
+        for (int p = 0; p < pairs; p++) {
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairB[tails[mid]] < pairB[p])
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            previous[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            if (lo == length)
+                length++;
+        }
+        int[] chain = new int[length];
+        for (int p = tails[length - 1], l = length - 1; p >= 0; p = previous[p], l--)
+            chain[l] = p;
+        int fromA = aLo, fromB = bLo;
+        for (int p : chain) {
+            region(fromA, pairA[p], fromB, pairB[p]);
+            fromA = pairA[p] + 1;
+            fromB = pairB[p] + 1;
+        }
+        region(fromA, aHi, fromB, bHi);
+        return true;
+    }
+
+    /**
+     * Myers算法：从两端同时沿着对角线搜索，正反两条路径相遇的点把区域分成两半
+     */
+    private void bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD, length = 2 * maxD + 2;
+        //forward[offset + k]是正向在对角线k（x - y = k）上走到的最远的x，backward是反向的
+        int[] forward = new int[length], backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        //delta为奇数时正向搜索先碰到反向的路径
+        boolean front = (delta & 1) != 0;
+        //超出区域边界的对角线不用再搜索
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])
+                        ? forward[k1Offset + 1] : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a.equals(aLo + x1, b, bLo + y1)) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1 && x1 >= n - backward[k2Offset]) {
+                        split(aLo, aHi, bLo, bHi, x1, y1);
+                        return;
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])
+                        ? backward[k2Offset + 1] : backward[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a.equals(aHi - 1 - x2, b, bHi - 1 - y2)) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            split(aLo, aHi, bLo, bHi, x1, y1);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        //没有任何相同的行
+        add(aLo, aHi, bLo, bHi);
+    }
+
+    private void split(int aLo, int aHi, int bLo, int bHi, int x, int y) {
+        //分点落在角上时两半之一就是原问题，直接当作整块替换，保证递归一定会结束
+        if ((x == 0 && y == 0) || (x == aHi - aLo && y == bHi - bLo)) {
+            add(aLo, aHi, bLo, bHi);
+            return;
+        }
+        region(aLo, aLo + x, bLo, bLo + y);
+        region(aLo + x, aHi, bLo + y, bHi);
+    }
+
+    /**
+     * 按顺序追加一处修改，和上一处相邻时合并成一处
+     */
+    private void add(int aLo, int aHi, int bLo, int bHi) {
+        if (aLo == aHi && bLo == bHi)
+            return;
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == aLo && last.endB == bLo) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, aHi, last.beginB, bHi));
+                return;
+            }
+        }
+        edits.add(new Edit(aLo, aHi, bLo, bHi));
+    }
+}
@@ -0,0 +1,118 @@
+package Gitlet.Diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 按行切分的文件内容
+ *
+ * 内容可以是内存映射的快照或者工作目录里的文件，这里只记录每一行的起始位置和hash，不复制内容。
+ * 每一行包括结尾的换行符，最后一行可以没有换行符
+ */
+
+public class Lines {
+
+    //判断二进制文件时检查的前缀长度，和git一样在前8000字节里找0
+    private static final int BINARY_PROBE = 8000;
+
+    private final ByteBuffer content;
+    //第i行是[starts[i], starts[i + 1])
+    private final int[] starts;
+    private final int[] hashes;
+    private final int size;
+
+    public Lines(ByteBuffer content) {
+        this.content = content.duplicate();
+        int limit = this.content.limit();
+        int[] starts = new int[16];
+        int[] hashes = new int[16];
+        int count = 0, start = 0, hash = 0;
+        for (int i = 0; i < limit; i++) {
+            byte b = this.content.get(i);
+            hash = hash * 31 + b;
+            if (b == '\n' || i == limit - 1) {
+                if (count + 1 >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                starts[count] = start;
+                hashes[count] = hash;
+                count++;
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        starts[count] = limit;
+        this.starts = starts;
+        this.hashes = hashes;
+        this.size = count;
+    }
+
+    public static Lines empty() {
+        return new Lines(ByteBuffer.allocate(0));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int hash(int i) {
+        return hashes[i];
+    }
+
+    /**
+     * @return 第i行和other的第j行内容是否相同
+     */
+    boolean equals(int i, Lines other, int j) {
+        if (hashes[i] != other.hashes[j])
+            return false;
+        int length = starts[i + 1] - starts[i];
+        if (length != other.starts[j + 1] - other.starts[j])
+            return false;
+        for (int k = 0; k < length; k++)
+            if (content.get(starts[i] + k) != other.content.get(other.starts[j] + k))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return 第i行是否以换行符结尾，只有最后一行可能没有
+     */
+    boolean endsWithNewline(int i) {
+        return content.get(starts[i + 1] - 1) == '\n';
+    }
+
+    /**
+     * 把[from, to)行原样写到out
+     */
+    void write(int from, int to, OutputStream out) throws IOException {
+        if (from >= to)
+            return;
+        int length = starts[to] - starts[from];
+        if (content.hasArray()) {
+            out.write(content.array(), content.arrayOffset() + starts[from], length);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+        for (int position = starts[from], end = starts[to]; position < end; ) {
+            int n = Math.min(chunk.length, end - position);
+            ByteBuffer slice = content.duplicate();
+            slice.position(position);
+            slice.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+            position += n;
+        }
+    }
+
+    /**
+     * @return 内容的前8000字节里有0字节时认为是二进制文件，不按行比较
+     */
+    public static boolean isBinary(ByteBuffer content) {
+        for (int i = 0, n = Math.min(content.limit(), BINARY_PROBE); i < n; i++)
+            if (content.get(i) == 0)
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+package Gitlet.Diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * diff3风格的三方合并
+ *
+ * 分别求出共同祖先到两边的修改，按在祖先中的位置排序；位置重叠或者相邻的修改归到同一块里。
+ * 只有一边修改的块取那一边，两边改得一样的块取任意一边，其余的块是冲突，
+ * 写成带着两边和祖先内容的冲突标记：
+ * <<<<<<< ours
+ * ||||||| base
+ * =======
+ * >>>>>>> theirs
+ */
+
+public class Merge3 {
+
+    /**
+     * 合并结果
+     */
+    public static class Result {
+        public final byte[] content;
+        public final int conflicts;
+
+        Result(byte[] content, int conflicts) {
+            this.content = content;
+            this.conflicts = conflicts;
+        }
+    }
+
+    public static Result merge(Lines base, Lines ours, Lines theirs, String oursLabel, String baseLabel,
+                               String theirsLabel) {
+        List<Edit> oursEdits = LineDiff.diff(base, ours), theirsEdits = LineDiff.diff(base, theirs);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int conflicts = 0;
+        try {
+            int i = 0, j = 0, position = 0;
+            //没有修改的行在两边相对祖先的偏移
+            int oursShift = 0, theirsShift = 0;
+            while (i < oursEdits.size() || j < theirsEdits.size()) {
+                int lo = Math.min(i < oursEdits.size() ? oursEdits.get(i).beginA : Integer.MAX_VALUE,
+                        j < theirsEdits.size() ? theirsEdits.get(j).beginA : Integer.MAX_VALUE);
+                base.write(position, lo, out);
+                int hi = lo, firstOurs = i, firstTheirs = j;
+                boolean grew = true;
+                while (grew) {
+                    grew = false;
+                    while (i < oursEdits.size() && oursEdits.get(i).beginA <= hi) {
+                        hi = Math.max(hi, oursEdits.get(i++).endA);
+                        grew = true;
+                    }
+                    while (j < theirsEdits.size() && theirsEdits.get(j).beginA <= hi) {
+                        hi = Math.max(hi, theirsEdits.get(j++).endA);
+                        grew = true;
+                    }
+                }
+                int oursLo = lo + oursShift, theirsLo = lo + theirsShift;
+                if (i > firstOurs)
+                    oursShift = oursEdits.get(i - 1).endB - oursEdits.get(i - 1).endA;
+                if (j > firstTheirs)
+                    theirsShift = theirsEdits.get(j - 1).endB - theirsEdits.get(j - 1).endA;
+                int oursHi = hi + oursShift, theirsHi = hi + theirsShift;
+                if (j == firstTheirs) {
+                    ours.write(oursLo, oursHi, out);
+                } else if (i == firstOurs) {
+                    theirs.write(theirsLo, theirsHi, out);
+                } else if (same(ours, oursLo, oursHi, theirs, theirsLo, theirsHi)) {
+                    ours.write(oursLo, oursHi, out);
+                } else {
+                    conflicts++;
+                    marker(out, "<<<<<<< " + oursLabel);
+                    section(out, ours, oursLo, oursHi);
+                    marker(out, "||||||| " + baseLabel);
+                    section(out, base, lo, hi);
+                    marker(out, "=======");
+                    section(out, theirs, theirsLo, theirsHi);
+                    marker(out, ">>>>>>> " + theirsLabel);
+                }
+                position = hi;
+            }
+            base.write(position, base.size(), out);
+        } catch (IOException e) {
+            //写的是内存里的流，不会发生
+            throw new UncheckedIOException(e);
+        }
+        return new Result(out.toByteArray(), conflicts);
+    }
+
+    private static boolean same(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo)
+            return false;
+        for (int k = 0; k < xHi - xLo; k++)
+            if (!x.equals(xLo + k, y, yLo + k))
+                return false;
+        return true;
+    }
+
+    /**
+     * 冲突标记里的一段内容，最后一行没有换行符时补上，保证标记单独占一行
+     */
+    private static void section(ByteArrayOutputStream out, Lines lines, int from, int to) throws IOException {
+        lines.write(from, to, out);
+        if (to > from && !lines.endsWithNewline(to - 1))
+            out.write('\n');
+    }
+
+    private static void marker(ByteArrayOutputStream out, String text) throws IOException {
+        out.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
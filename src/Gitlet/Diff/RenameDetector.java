@@ -0,0 +1,341 @@
+package Gitlet.Diff;
+
+import Gitlet.Blobs.BlobPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 按内容相似度找出被改名的文件
+ *
+ * 和git一样把内容切成块（到换行符为止，最长64字节），两个文件的相似度是相同的块的字节数占较大的文件的比例。
+ * 两两比较需要删除数乘新增数次完整的比较，这里先给每个文件算一个MinHash签名：每个块只算一次hash，
+ * 按hash的高6位分到64个桶里，每个桶保留最小的值（one permutation hashing），小文件的空桶借用右边最近的非空桶的值。
+ * 把签名分成32段，每段2个桶，任意一段完全相同的两个文件才是候选（LSH），相似度刚好50%的两个文件成为候选的概率约97%，
+ * 每个新增的文件只按签名估计的相似度取前几个候选，再真正地比较块来确认。
+ * 内容完全相同的改名不需要签名，先按hash配对
+ */
+
+public class RenameDetector {
+
+    /**
+     * 读取文件内容
+     */
+    public interface Source {
+        ByteBuffer read(String path, String hash) throws IOException;
+    }
+
+    /**
+     * 一处改名，score是相似度的百分比
+     */
+    public static class Rename {
+        public final String from, to;
+        public final int score;
+
+        Rename(String from, String to, int score) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+        }
+    }
+
+    //相似度不低于这个百分比才算改名，和git的默认值一样
+    public static final int MIN_SCORE = 50;
+    private static final int CHUNK = 64;
+    private static final int BANDS = 32, ROWS = 2, SIGNATURE = BANDS * ROWS;
+    //每个新增的文件最多确认几个候选
+    private static final int MAX_CONFIRM = 3;
+    private static final long EMPTY = Long.MAX_VALUE;
+
+    private final Source removedSource, addedSource;
+    //同样内容的文件只算一次签名
+    private final Map<String, long[]> signatures = new HashMap<>();
+    private final List<Rename> renames = new ArrayList<>();
+    //代价统计
+    private long removedFiles, addedFiles, sketched, candidatePairs, naivePairs, confirmed, nanos;
+
+    /**
+     * @param removedSource 读取被删除的文件的内容
+     * @param addedSource 读取新增的文件的内容
+     */
+    public RenameDetector(Source removedSource, Source addedSource) {
+        this.removedSource = removedSource;
+        this.addedSource = addedSource;
+    }
+
+    /**
+     * 两边都是快照
+     */
+    public static RenameDetector of(BlobPool blobPool) {
+        Source snapshots = (path, hash) -> blobPool.mapContent(hash);
+        return new RenameDetector(snapshots, snapshots);
+    }
+
+    /**
+     * 找出改名
+     * @param removed 被删除的文件 -> hash
+     * @param added 新增的文件 -> hash
+     * @return 按原文件名排序的改名，每个文件最多出现一次
+     */
+    public List<Rename> detect(Map<String, String> removed, Map<String, String> added) throws IOException {
+        long start = System.nanoTime();
+        removedFiles += removed.size();
+        addedFiles += added.size();
+        naivePairs += (long) removed.size() * added.size();
+        List<Rename> result = new ArrayList<>();
+        Map<String, String> sources = new TreeMap<>(removed), destinations = new TreeMap<>(added);
+        exact(sources, destinations, result);
+        if (!sources.isEmpty() && !destinations.isEmpty())
+            similar(sources, destinations, result);
+        result.sort(Comparator.comparing(rename -> rename.from));
+        renames.addAll(result);
+        nanos += System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * 内容完全相同的文件直接配对，有多个同样内容的文件时优先配对文件名相同的
+     */
+    private void exact(Map<String, String> sources, Map<String, String> destinations, List<Rename> result) {
+        Map<String, List<String>> byHash = new HashMap<>();
+        sources.forEach((path, hash) -> byHash.computeIfAbsent(hash, h -> new ArrayList<>()).add(path));
+        for (Iterator<Map.Entry<String, String>> it = destinations.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> destination = it.next();
+            List<String> candidates = byHash.get(destination.getValue());
+            if (candidates == null || candidates.isEmpty())
+                continue;
+            int pick = 0;
+            for (int i = 0; i < candidates.size(); i++)
+                if (sameName(candidates.get(i), destination.getKey()))
+                    pick = i;
+            String from = candidates.remove(pick);
+            sources.remove(from);
+            it.remove();
+            result.add(new Rename(from, destination.getKey(), 100));
+        }
+    }
+
+    private void similar(Map<String, String> sources, Map<String, String> destinations, List<Rename> result)
+            throws IOException {
+        List<String> sourcePaths = new ArrayList<>(sources.keySet());
+        List<long[]> sourceSignatures = new ArrayList<>();
+        //每一段的hash -> 这一段相同的原文件的下标
+        List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+        for (int band = 0; band < BANDS; band++)
+            buckets.add(new HashMap<>());
+        for (int s = 0; s < sourcePaths.size(); s++) {
+            long[] signature = signature(removedSource, sourcePaths.get(s), sources.get(sourcePaths.get(s)));
+            sourceSignatures.add(signature);
+            if (signature == null)
+                continue;
+            for (int band = 0; band < BANDS; band++)
+                buckets.get(band).computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>()).add(s);
+        }
+        //{相似度, 原文件下标, 新文件下标}，确认过的候选
+        List<int[]> pairs = new ArrayList<>();
+        List<String> destinationPaths = new ArrayList<>(destinations.keySet());
+        Map<String, Map<Long, Integer>> chunkCache = new HashMap<>();
+        for (int d = 0; d < destinationPaths.size(); d++) {
+            String path = destinationPaths.get(d), hash = destinations.get(path);
+            long[] signature = signature(addedSource, path, hash);
+            if (signature == null)
+                continue;
+            Set<Integer> candidates = new HashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                List<Integer> bucket = buckets.get(band).get(bandKey(signature, band));
+                if (bucket != null)
+                    candidates.addAll(bucket);
+            }
+            candidatePairs += candidates.size();
+            //按签名估计的相似度排序，只确认最像的几个
+            List<int[]> estimates = new ArrayList<>();
+            for (int s : candidates)
+                estimates.add(new int[]{estimate(signature, sourceSignatures.get(s)), s});
+            estimates.sort((x, y) -> x[0] != y[0] ? Integer.compare(y[0], x[0]) : Integer.compare(x[1], y[1]));
+            Map<Long, Integer> destinationChunks = null;
+            for (int i = 0; i < Math.min(MAX_CONFIRM, estimates.size()); i++) {
+                int s = estimates.get(i)[1];
+                String sourcePath = sourcePaths.get(s), sourceHash = sources.get(sourcePath);
+                if (destinationChunks == null)
+                    destinationChunks = chunks(addedSource.read(path, hash));
+                Map<Long, Integer> sourceChunks = chunkCache.get(sourceHash);
+                if (sourceChunks == null) {
+                    sourceChunks = chunks(removedSource.read(sourcePath, sourceHash));
+                    chunkCache.put(sourceHash, sourceChunks);
+                }
+                confirmed++;
+                int score = score(sourceChunks, destinationChunks);
+                if (score >= MIN_SCORE)
+                    pairs.add(new int[]{score, s, d});
+            }
+        }
+        //相似度高的先配对，一样时优先文件名相同的
+        pairs.sort((x, y) -> {
+            if (x[0] != y[0])
+                return Integer.compare(y[0], x[0]);
+            boolean xSame = sameName(sourcePaths.get(x[1]), destinationPaths.get(x[2]));
+            boolean ySame = sameName(sourcePaths.get(y[1]), destinationPaths.get(y[2]));
+            if (xSame != ySame)
+                return xSame ? -1 : 1;
+            return x[1] != y[1] ? Integer.compare(x[1], y[1]) : Integer.compare(x[2], y[2]);
+        });
+        boolean[] sourceUsed = new boolean[sourcePaths.size()], destinationUsed = new boolean[destinationPaths.size()];
+        for (int[] pair : pairs) {
+            if (sourceUsed[pair[1]] || destinationUsed[pair[2]])
+                continue;
+            sourceUsed[pair[1]] = destinationUsed[pair[2]] = true;
+            result.add(new Rename(sourcePaths.get(pair[1]), destinationPaths.get(pair[2]), pair[0]));
+        }
+    }
+
+    /**
+     * @return 内容的MinHash签名，空文件返回null
+     */
+    private long[] signature(Source source, String path, String hash) throws IOException {
+        if (signatures.containsKey(hash))
+            return signatures.get(hash);
+        ByteBuffer content = source.read(path, hash);
+        long[] signature = null;
+        if (content.remaining() > 0) {
+            signature = new long[SIGNATURE];
+            Arrays.fill(signature, EMPTY);
+            for (long chunk : chunkHashes(content)) {
+                long value = mix(chunk);
+                int bucket = (int) (value >>> 58);
+                value &= 0x03FFFFFFFFFFFFFFL;
+                if (value < signature[bucket])
+                    signature[bucket] = value;
+            }
+            densify(signature);
+            sketched++;
+        }
+        signatures.put(hash, signature);
+        return signature;
+    }
+
+    /**
+     * 空桶取右边最近的非空桶的值，再按距离打乱，两个文件在同一个位置借到同一个值的概率仍然是Jaccard系数
+     */
+    private static void densify(long[] signature) {
+        for (int i = 0; i < SIGNATURE; i++) {
+            if (signature[i] != EMPTY)
+                continue;
+            int distance = 1;
+            while (signature[(i + distance) % SIGNATURE] == EMPTY)
+                distance++;
+            signature[i] = mix(signature[(i + distance) % SIGNATURE] + distance) | Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return 签名估计的相似度百分比，值相同的桶的比例近似于两个块集合的Jaccard系数
+     */
+    private static int estimate(long[] x, long[] y) {
+        int same = 0;
+        for (int i = 0; i < SIGNATURE; i++)
+            if (x[i] == y[i])
+                same++;
+        return same * 100 / SIGNATURE;
+    }
+
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++)
+            key = mix(key * 31 + signature[i]);
+        return key;
+    }
+
+    /**
+     * @return 去掉重复之后的块的hash，签名只和块的集合有关
+     */
+    private static long[] chunkHashes(ByteBuffer content) {
+        long[] hashes = new long[64];
+        int count = 0, limit = content.limit(), start = content.position();
+        long hash = 0;
+        for (int i = start; i < limit; i++) {
+            byte b = content.get(i);
+            hash = hash * 31 + b;
+            if (b == '\n' || i - start + 1 == CHUNK || i == limit - 1) {
+                if (count == hashes.length)
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                hashes[count++] = hash;
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        hashes = Arrays.copyOf(hashes, count);
+        Arrays.sort(hashes);
+        int unique = 0;
+        for (int i = 0; i < count; i++)
+            if (unique == 0 || hashes[i] != hashes[unique - 1])
+                hashes[unique++] = hashes[i];
+        return Arrays.copyOf(hashes, unique);
+    }
+
+    /**
+     * @return 块的hash -> 这种块的总字节数
+     */
+    private static Map<Long, Integer> chunks(ByteBuffer content) {
+        Map<Long, Integer> chunks = new HashMap<>();
+        int limit = content.limit(), start = content.position();
+        long hash = 0;
+        for (int i = start; i < limit; i++) {
+            byte b = content.get(i);
+            hash = hash * 31 + b;
+            if (b == '\n' || i - start + 1 == CHUNK || i == limit - 1) {
+                chunks.merge(hash, i - start + 1, Integer::sum);
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return 相同的块的字节数占较大的文件的百分比
+     */
+    private static int score(Map<Long, Integer> x, Map<Long, Integer> y) {
+        long common = 0, xSize = 0, ySize = 0;
+        for (Map.Entry<Long, Integer> entry : x.entrySet()) {
+            xSize += entry.getValue();
+            Integer other = y.get(entry.getKey());
+            if (other != null)
+                common += Math.min(entry.getValue(), other);
+        }
+        for (int size : y.values())
+            ySize += size;
+        return (int) (common * 100 / Math.max(1, Math.max(xSize, ySize)));
+    }
+
+    private static boolean sameName(String x, String y) {
+        return Paths.get(x).getFileName().equals(Paths.get(y).getFileName());
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return 是否真的比较过内容：两边都有文件时才需要检测
+     */
+    public boolean hasRun() {
+        return naivePairs > 0;
+    }
+
+    public List<Rename> getRenames() {
+        return renames;
+    }
+
+    /**
+     * @return 检测的代价：文件数、签名数、候选对数（和两两比较的对数对照）、确认的次数和耗时
+     */
+    public String report() {
+        return String.format("rename detection: %d removed x %d added, %d sketched, %d candidate pairs (%d naive), "
+                        + "%d confirmed, %d renames, %.1f ms", removedFiles, addedFiles, sketched, candidatePairs,
+                naivePairs, confirmed, renames.size(), nanos / 1e6);
+    }
+}
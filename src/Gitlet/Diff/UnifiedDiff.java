@@ -0,0 +1,73 @@
+package Gitlet.Diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 把LineDiff的结果按unified格式输出，每处修改前后带3行上下文，上下文重叠的修改合并成一个hunk
+ */
+
+public class UnifiedDiff {
+
+    private static final int CONTEXT = 3;
+
+    /**
+     * @param oldName 旧版本的名字，不存在的文件用/dev/null
+     * @param newName 新版本的名字，不存在的文件用/dev/null
+     */
+    public static void write(String oldName, String newName, Lines a, Lines b, List<Edit> edits, PrintStream out)
+            throws IOException {
+        if (edits.isEmpty())
+            return;
+        line(out, "--- " + oldName);
+        line(out, "+++ " + newName);
+        for (int first = 0; first < edits.size(); ) {
+            int last = first;
+            while (last + 1 < edits.size() && edits.get(last + 1).beginA - edits.get(last).endA <= 2 * CONTEXT)
+                last++;
+            int aStart = Math.max(0, edits.get(first).beginA - CONTEXT);
+            int bStart = Math.max(0, edits.get(first).beginB - CONTEXT);
+            int aEnd = Math.min(a.size(), edits.get(last).endA + CONTEXT);
+            int bEnd = Math.min(b.size(), edits.get(last).endB + CONTEXT);
+            line(out, "@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@");
+            int i = aStart;
+            for (int e = first; e <= last; e++) {
+                Edit edit = edits.get(e);
+                lines(out, ' ', a, i, edit.beginA);
+                lines(out, '-', a, edit.beginA, edit.endA);
+                lines(out, '+', b, edit.beginB, edit.endB);
+                i = edit.endA;
+            }
+            lines(out, ' ', a, i, aEnd);
+            first = last + 1;
+        }
+    }
+
+    /**
+     * 和diff -u一样，范围是从1开始的起始行号和行数，空范围的起始行号是它前面那一行
+     */
+    private static String range(int start, int end) {
+        int count = end - start;
+        if (count == 1)
+            return String.valueOf(start + 1);
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static void lines(OutputStream out, char prefix, Lines lines, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            out.write(prefix);
+            lines.write(i, i + 1, out);
+            if (!lines.endsWithNewline(i)) {
+                out.write('\n');
+                out.write("\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void line(OutputStream out, String text) throws IOException {
+        out.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
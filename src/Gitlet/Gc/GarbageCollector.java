@@ -0,0 +1,230 @@
+package Gitlet.Gc;
+
+import Gitlet.Blobs.BlobPool;
+import Gitlet.Commits.CommitChain;
+import Gitlet.Commits.TreeStore;
+import Gitlet.Stage.Stage;
+import Gitlet.Utility.Utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * 回收不再被引用的提交、树对象和快照
+ *
+ * 标记：从所有branch、暂存区和宽限期内的提交出发，在一个ForkJoinPool里并行地遍历树对象，
+ * 标记遇到的树对象和快照，差量存储的快照连同它的整条差量链一起标记。标记位放在MarkSet里，
+ * 遍历时不缓存解析过的树对象，内存只和对象个数成正比。
+ * 清扫：删掉没有被标记、并且修改时间早于宽限期的树对象文件和快照，包里的死快照通过重写包回收。
+ * 标记阶段出了任何错误都不会进入清扫阶段。删掉提交之后立即写回commitChain，
+ * 清扫快照中途失败时blobPool也会去掉内容已经删掉的快照，调用者要把它写回
+ */
+
+public class GarbageCollector {
+
+    private final CommitChain commitChain;
+    private final BlobPool blobPool;
+    private final Stage stage;
+    private final long cutoffMillis;
+    private final int parallelism;
+
+    private MarkSet trees, blobs;
+    //是否已经开始清扫快照，从这以后blobPool在内存里的状态就和磁盘上的不一样了
+    private boolean swept;
+
+    /**
+     * @param graceMillis 宽限期，比它新的对象即使没有被引用也保留
+     * @param parallelism 标记阶段的线程数
+     */
+    public GarbageCollector(CommitChain commitChain, BlobPool blobPool, Stage stage, long graceMillis, int parallelism) {
+        this.commitChain = commitChain;
+        this.blobPool = blobPool;
+        this.stage = stage;
+        this.cutoffMillis = System.currentTimeMillis() - graceMillis;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public Report run() throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        MarkSet live = commitChain.liveCommits(cutoffMillis);
+        trees = collectTrees();
+        MarkSet.Builder blobIds = new MarkSet.Builder();
+        blobPool.getHashes().forEach(blobIds::add);
+        blobs = blobIds.build();
+        mark(live);
+        report.markNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        report.liveCommits = live.markedCount();
+        report.liveTrees = trees.markedCount();
+        report.liveSnapshots = blobs.markedCount();
+        long records = sizeOf(Utils.getCommitStorePath());
+        report.commits = commitChain.pruneCommits(live);
+        //提交记录已经重写了，检查点马上跟着重写，后面失败时日志也不会重放到删掉的提交上
+        if (report.commits > 0)
+            Utils.serializeCommitChain(commitChain);
+        report.bytes += records - sizeOf(Utils.getCommitStorePath());
+        sweepTrees(report);
+        swept = true;
+        BlobPool.Swept swept = blobPool.sweep(blobs::isMarked, cutoffMillis);
+        report.snapshots = swept.snapshots;
+        report.bytes += swept.bytes;
+        report.sweepNanos = System.nanoTime() - start;
+        report.parallelism = parallelism;
+        return report;
+    }
+
+    /**
+     * @return 是否已经开始清扫快照，run失败时据此决定要不要写回blobPool
+     */
+    public boolean hasSwept() {
+        return swept;
+    }
+
+    private void mark(MarkSet live) throws IOException {
+        for (String hash : stage.getTrackingFiles().values())
+            markBlob(hash);
+        List<MarkTree> roots = new ArrayList<>();
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        try {
+            //提交只在取树对象的hash时逐个读出来
+            commitChain.forEachCommit(live, commit -> {
+                String root = commit.getTreeHash();
+                if (!trees.contains(root))
+                    throw new UncheckedIOException(new IOException("tree " + root + " of commit "
+                            + commit.getCommitStr() + " is missing"));
+                if (trees.mark(root))
+                    roots.add(new MarkTree(root));
+            });
+            workers.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(roots);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * 标记一个树对象下面的全部文件和子目录，每个子目录是一个子任务
+     */
+    private class MarkTree extends RecursiveAction {
+        private static final long serialVersionUID = -2543704592333597319L;
+        private final String hash;
+
+        MarkTree(String hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        protected void compute() {
+            List<String> files = new ArrayList<>(), directories = new ArrayList<>();
+            TreeStore.readEntries(hash, files, directories);
+            for (String file : files)
+                markBlob(file);
+            List<MarkTree> subtrees = new ArrayList<>();
+            for (String directory : directories) {
+                if (!trees.contains(directory))
+                    throw new UncheckedIOException(new IOException("tree " + directory + " is missing"));
+                if (trees.mark(directory))
+                    subtrees.add(new MarkTree(directory));
+            }
+            invokeAll(subtrees);
+        }
+    }
+
+    /**
+     * 标记快照和它的差量链，已经标记过的快照的差量链也已经标记过了
+     */
+    private void markBlob(String hash) {
+        for (String h = hash; h != null && blobs.mark(h); h = blobPool.getDeltaBase(h)) { }
+    }
+
+    /**
+     * 树对象文件保存在.gitlet/trees/id的前两位/id的其余部分
+     */
+    private static MarkSet collectTrees() throws IOException {
+        MarkSet.Builder ids = new MarkSet.Builder();
+        if (Files.isDirectory(Utils.getTreesPath())) {
+            try (Stream<Path> walk = Files.walk(Utils.getTreesPath(), 2)) {
+                walk.filter(Files::isRegularFile).forEach(file -> ids.add(idOf(file)));
+            }
+        }
+        return ids.build();
+    }
+
+    private void sweepTrees(Report report) throws IOException {
+        if (!Files.isDirectory(Utils.getTreesPath()))
+            return;
+        try (Stream<Path> walk = Files.walk(Utils.getTreesPath(), 2)) {
+            for (Iterator<Path> it = walk.filter(Files::isRegularFile).iterator(); it.hasNext(); ) {
+                Path file = it.next();
+                //写了一半的临时文件不是树对象，只按修改时间清理
+                if (trees.isMarked(idOf(file)) || Files.getLastModifiedTime(file).toMillis() >= cutoffMillis)
+                    continue;
+                report.bytes += Files.size(file);
+                Files.delete(file);
+                if (trees.contains(idOf(file)))
+                    report.trees++;
+            }
+        }
+    }
+
+    private static long sizeOf(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    private static String idOf(Path file) {
+        return file.getParent().getFileName().toString() + file.getFileName();
+    }
+
+    /**
+     * 一次gc的结果
+     */
+    public static class Report {
+        private int liveCommits, liveTrees, liveSnapshots;
+        private int commits, trees, snapshots;
+        private long bytes;
+        private long markNanos, sweepNanos;
+        private int parallelism;
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return 删掉的提交个数
+         */
+        public int getCommits() {
+            return commits;
+        }
+
+        /**
+         * @return 从对象库里删掉的快照个数
+         */
+        public int getSnapshots() {
+            return snapshots;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("removed %d commits, %d trees, %d snapshots; reclaimed %d bytes.%n"
+                            + "kept %d commits, %d trees, %d snapshots; mark %.3f s with parallelism %d, sweep %.3f s",
+                    commits, trees, snapshots, bytes, liveCommits, liveTrees, liveSnapshots,
+                    markNanos / 1e9, parallelism, sweepNanos / 1e9);
+        }
+    }
+}
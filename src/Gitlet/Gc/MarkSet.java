@@ -0,0 +1,140 @@
+package Gitlet.Gc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * gc的标记位
+ *
+ * 对象的id只保留前8个字节，排好序存在一个long数组里，标记位放在AtomicLongArray里，
+ * 每个对象只占8字节多一位，几百万个对象也只需要几十MB，多个线程可以同时标记。
+ *
+ * 前8个字节相同的不同对象几乎不会出现，出现时合成一项：其中任何一个被标记就都当作被标记，
+ * 最多少回收一点垃圾；标记它们时总是当作第一次标记，遍历不会漏掉各自引用的对象
+ */
+
+public class MarkSet {
+
+    private static final int ID_DIGITS = 40;
+    private static final int KEY_DIGITS = 16;
+
+    private final long[] keys;
+    private final AtomicLongArray marks;
+    //前8个字节相同的几项
+    private final AtomicLongArray shared;
+
+    private MarkSet(long[] keys, boolean[] collided) {
+        this.keys = keys;
+        this.marks = new AtomicLongArray((keys.length + 63) >>> 6);
+        this.shared = new AtomicLongArray((keys.length + 63) >>> 6);
+        for (int i = 0; i < keys.length; i++)
+            if (collided[i])
+                setBit(shared, i);
+    }
+
+    /**
+     * 收集所有对象的id，id的个数事先不知道
+     */
+    public static class Builder {
+        private long[] keys = new long[1024];
+        private int size;
+
+        /**
+         * @param id 十六进制的对象id，旧版本去掉了开头的0，长度不固定；不是id的名字会被忽略
+         */
+        public void add(String id) {
+            if (!isId(id))
+                return;
+            if (size == keys.length)
+                keys = Arrays.copyOf(keys, size * 2);
+            keys[size++] = key(id);
+        }
+
+        public MarkSet build() {
+            long[] sorted = Arrays.copyOf(keys, size);
+            keys = null;
+            Arrays.sort(sorted);
+            int unique = 0;
+            boolean[] collided = new boolean[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                if (unique > 0 && sorted[unique - 1] == sorted[i]) {
+                    collided[unique - 1] = true;
+                    continue;
+                }
+                sorted[unique++] = sorted[i];
+            }
+            return new MarkSet(Arrays.copyOf(sorted, unique), Arrays.copyOf(collided, unique));
+        }
+    }
+
+    /**
+     * 标记一个对象
+     * @return 这次标记之前它是否还没有被标记，调用者据此决定要不要继续遍历它引用的对象。
+     *         不在集合里的对象返回false
+     */
+    public boolean mark(String id) {
+        int index = indexOf(id);
+        if (index < 0)
+            return false;
+        return setBit(marks, index) || getBit(shared, index);
+    }
+
+    public boolean contains(String id) {
+        return indexOf(id) >= 0;
+    }
+
+    public boolean isMarked(String id) {
+        int index = indexOf(id);
+        return index >= 0 && getBit(marks, index);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public int markedCount() {
+        int count = 0;
+        for (int i = 0; i < marks.length(); i++)
+            count += Long.bitCount(marks.get(i));
+        return count;
+    }
+
+    private int indexOf(String id) {
+        if (!isId(id))
+            return -1;
+        int index = Arrays.binarySearch(keys, key(id));
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return 这一位原来是否为0
+     */
+    private static boolean setBit(AtomicLongArray bits, int index) {
+        long bit = 1L << (index & 63);
+        return (bits.getAndUpdate(index >>> 6, word -> word | bit) & bit) == 0;
+    }
+
+    private static boolean getBit(AtomicLongArray bits, int index) {
+        return (bits.get(index >>> 6) & 1L << (index & 63)) != 0;
+    }
+
+    private static boolean isId(String id) {
+        if (id == null || id.isEmpty() || id.length() > ID_DIGITS)
+            return false;
+        for (int i = 0; i < id.length(); i++)
+            if (Character.digit(id.charAt(i), 16) < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * 把id左边补零到40位，取前16位十六进制数字
+     */
+    private static long key(String id) {
+        int padding = ID_DIGITS - id.length();
+        long key = 0;
+        for (int i = 0; i < KEY_DIGITS; i++)
+            key = key << 4 | (i < padding ? 0 : Character.digit(id.charAt(i - padding), 16));
+        return key;
+    }
+}
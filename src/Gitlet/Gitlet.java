@@ -3,14 +3,33 @@ package Gitlet;
 import Gitlet.Blobs.BlobPool;
 import Gitlet.Commits.Commit;
 import Gitlet.Commits.CommitChain;
+import Gitlet.Commits.TreeStore;
+import Gitlet.Daemon.DaemonClient;
+import Gitlet.Diff.ContentMerge;
+import Gitlet.Diff.DiffPrinter;
+import Gitlet.Diff.RenameDetector;
+import Gitlet.Daemon.GitletDaemon;
+import Gitlet.Gc.GarbageCollector;
+import Gitlet.Search.CommitIndex;
+import Gitlet.Search.IndexedCommit;
 import Gitlet.Utility.Exceptions.*;
+import Gitlet.Stage.FileStat;
 import Gitlet.Stage.Stage;
+import Gitlet.Stage.StatusEngine;
+import Gitlet.Trace.Trace;
+import Gitlet.Utility.Config;
 import Gitlet.Utility.Utils;
+import Gitlet.Watch.DirtyLog;
+import Gitlet.Watch.WorktreeWatcher;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.ZonedDateTime;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 import static Gitlet.Utility.Utils.getGitDirPath;
@@ -29,39 +48,191 @@ public class Gitlet {
     private static CommitChain commitChain;
     private static Stage stage;
 
+    //本次命令修改过的组件，命令结束时只写回这些组件
+    private static boolean commitChainChanged, stageChanged, blobPoolChanged;
+
     public static void main(String[] args) {
+        //守护进程自己处理--trace，转发时原样带上
+        String[] forwarded = args;
+        boolean trace = args.length > 0 && args[0].equals(Trace.FLAG);
+        if (trace)
+            args = Arrays.copyOfRange(args, 1, args.length);
         if (args.length == 0) {
             System.err.println("Please enter a command.");
             return;
         }
-
-        if (args[0].equals("init")) {
-            init(args);
-        } else {
-            if (!isInitialized()) {
-                System.err.println("Not in an initialized Gitlet.Gitlet directory.");
-                System.exit(0);
-            }
-            blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
-            commitChain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
-            stage = Stage.deSerialFrom(Utils.getStageFilePath());
-            switch (args[0]) {
-                case "add": add(args); break;
-                case "branch": branch(args); break;
-                case "checkout": checkout(args); break;
-                case "commit": commit(args, false); break;
-                case "find": find(args); break;
-                case "global-log": globalLog(args); break;
-                case "log": log(args); break;
-                case "merge": merge(args); break;
-                case "reset": reset(args); break;
-                case "rm": rm(args); break;
-                case "rm-branch": rmBranch(args); break;
-                case "status": status(args);break;
-                default: System.err.println("No command with that name exists."); break;
+        if (args[0].equals("daemon")) {
+            daemon(args);
+            return;
+        }
+        if (args[0].equals("watch")) {
+            watch(args);
+            return;
+        }
+        //仓库已有守护进程在运行时，命令交给守护进程执行，省去JVM启动和反序列化的开销
+        if (!args[0].equals("init") && isInitialized() && DaemonClient.forward(forwarded))
+            return;
+        long start = System.nanoTime();
+        boolean ok = false;
+        Trace.startCommand(args[0], trace);
+        try {
+            if (args[0].equals("init")) {
+                init(args);
+            } else {
+                if (!isInitialized()) {
+                    System.err.println("Not in an initialized Gitlet.Gitlet directory.");
+                    abort();
+                }
+                loadRepository();
+                execute(args);
             }
+            persist();
+            ok = true;
+        } catch (CommandAbortException ignored) {
+        } finally {
+            Trace.finishCommand("cold", ok);
+            if (Boolean.getBoolean(DaemonClient.LATENCY_PROPERTY))
+                System.err.println(DaemonClient.formatLatency("cold", args[0], System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * 从.gitlet文件夹反序列化三大组件
+     */
+    public static void loadRepository() {
+        blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        commitChain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        stage = Stage.deSerialFrom(Utils.getStageFilePath());
+        commitChainChanged = stageChanged = blobPoolChanged = false;
+    }
+
+    /**
+     * 在已经加载到内存的三大组件上执行一条命令，并写回被修改的组件
+     *
+     * 供守护进程使用，命令中途失败时内存里可能留下一半的修改，所以直接丢弃并从磁盘重新加载，
+     * 这和冷启动时失败的命令什么都不写回的行为一致
+     * @param args 命令行参数
+     */
+    public static void executeResident(String[] args) {
+        Config.reload();
+        boolean trace = args.length > 0 && args[0].equals(Trace.FLAG);
+        if (trace)
+            args = Arrays.copyOfRange(args, 1, args.length);
+        if (args.length == 0) {
+            System.err.println("Please enter a command.");
+            return;
+        }
+        boolean ok = false;
+        Trace.startCommand(args[0], trace);
+        try {
+            execute(args);
+            persist();
+            ok = true;
+        } catch (CommandAbortException e) {
+            loadRepository();
+        } finally {
+            Trace.finishCommand("resident", ok);
+        }
+    }
+
+    private static void execute(String[] args) {
+        switch (args[0]) {
+            case "add": add(args); break;
+            case "branch": branch(args); break;
+            case "checkout": checkout(args); break;
+            case "commit": commit(args, false); break;
+            case "config": config(args); break;
+            case "diff": diff(args); break;
+            case "find": find(args); break;
+            case "gc": gc(args); break;
+            case "global-log": globalLog(args); break;
+            case "log": log(args); break;
+            case "merge": merge(args); break;
+            case "repack": repack(args); break;
+            case "reset": reset(args); break;
+            case "rm": rm(args); break;
+            case "rm-branch": rmBranch(args); break;
+            case "stats": stats(args); break;
+            case "status": status(args);break;
+            default: System.err.println("No command with that name exists."); break;
+        }
+    }
+
+    /**
+     * 只序列化本次命令修改过的组件，log、status等只读命令不产生任何写入
+     */
+    private static void persist() {
+        if (commitChainChanged && commitChain.isReadOnly()) {
+            System.err.println("The commit journal is damaged, refusing to write the repository.");
+            abort();
+        }
+        //检查点或者提交图过时时，即使命令没有修改commitChain也把升级之后的状态写回去
+        if (commitChainChanged || commitChain.needsSaving()) Utils.serializeCommitChain(commitChain);
+        if (stageChanged) Utils.serializeStage(stage);
+        if (blobPoolChanged) Utils.serializeBlobPool(blobPool);
+        commitChainChanged = stageChanged = blobPoolChanged = false;
+    }
+
+    /**
+     * 终止当前命令，已经做出的修改都不会被写回
+     */
+    private static void abort() {
+        throw new CommandAbortException();
+    }
+
+    /**
+     * 启动或停止本仓库的常驻守护进程
+     *
+     * gitlet daemon 在前台启动守护进程，gitlet daemon stop 通知正在运行的守护进程退出
+     * @param args 命令行参数
+     */
+    private static void daemon(String[] args) {
+        if (!isInitialized()) {
+            System.err.println("Not in an initialized Gitlet.Gitlet directory.");
+            return;
+        }
+        if (args.length == 2 && args[1].equals("stop")) {
+            if (!DaemonClient.stop())
+                System.err.println("No daemon is running for this repository.");
+            return;
+        }
+        if (args.length != 1) {
+            System.err.println("Incorrect operands.");
+            return;
+        }
+        try {
+            new GitletDaemon().serve();
+        } catch (IOException e) {
+            System.err.println("Can not start the daemon: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启动或停止本仓库的watch进程
+     *
+     * gitlet watch 在前台监视工作目录，把变化的路径记到.gitlet/watch/log，status和add .只检查这些路径；
+     * gitlet watch stop 通知正在运行的watch进程退出
+     * @param args 命令行参数
+     */
+    private static void watch(String[] args) {
+        if (!isInitialized()) {
+            System.err.println("Not in an initialized Gitlet.Gitlet directory.");
+            return;
+        }
+        if (args.length == 2 && args[1].equals("stop")) {
+            if (!WorktreeWatcher.stop())
+                System.err.println("No watcher is running for this repository.");
+            return;
+        }
+        if (args.length != 1) {
+            System.err.println("Incorrect operands.");
+            return;
+        }
+        try {
+            new WorktreeWatcher().run();
+        } catch (IOException e) {
+            System.err.println("Can not watch the working directory: " + e.getMessage());
         }
-        Utils.serializeAll(commitChain, stage, blobPool);
     }
 
     private static boolean isInitialized() {
@@ -71,26 +242,74 @@ public class Gitlet {
     private static void checkArgsValid(String[] args, int argsLength) {
         if (args.length != argsLength) {
             System.err.println("Incorrect operands.");
-            System.exit(0);
+            abort();
         }
     }
 
     /**
      * 暂存（跟踪）指定文件
+     *
+     * gitlet add [-j 并行度] [-v] [filename]，-j覆盖配置add.parallelism，-v打印吞吐量
      * @param args 命令行参数
      */
     private static void add(String[] args) {
-        checkArgsValid(args, 2);
+        int parallelism = Config.getInt(Config.ADD_PARALLELISM, Runtime.getRuntime().availableProcessors());
+        boolean verbose = false;
+        String s = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-v")) {
+                verbose = true;
+            } else if (args[i].equals("-j") && i + 1 < args.length) {
+                try {
+                    parallelism = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Incorrect operands.");
+                    abort();
+                }
+            } else if (s == null) {
+                s = args[i];
+            } else {
+                System.err.println("Incorrect operands.");
+                abort();
+            }
+        }
+        if (s == null) {
+            System.err.println("Incorrect operands.");
+            abort();
+        }
+        //watch进程在运行时，add .只需要看它记下的脏路径
+        DirtyLog watch = DirtyLog.open();
+        Set<String> dirty = watch == null ? null : watch.collect(stage);
         try {
-            String s = args[1];
             if (s.equals(".")) s = "";
             Path path = Paths.get(s);
-            List<Path> files = Files.walk(path).filter((p) -> (!Files.isDirectory(p) && !(p.toString().charAt(0)=='.'))).collect(Collectors.toList());
-            stage.trackFile(files);
-            blobPool.addFile(files);
+            List<Path> files;
+            if (s.isEmpty() && dirty != null)
+                files = dirty.stream().filter(f -> f.charAt(0) != '.').map(Paths::get)
+                        .filter(p -> Files.exists(p) && !Files.isDirectory(p)).collect(Collectors.toList());
+            else
+                files = Files.walk(path).filter((p) -> (!Files.isDirectory(p) && !(p.toString().charAt(0)=='.'))).collect(Collectors.toList());
+            //stat信息和暂存时一样的文件不用再读，其余文件的stat信息要在读取内容之前取得
+            Map<String, FileStat> stats = new ConcurrentHashMap<>();
+            List<Path> changed = files.parallelStream().filter(p -> {
+                String relative = Utils.getRelativeDir(p);
+                FileStat stat = FileStat.of(p);
+                if (stage.isClean(relative, stat))
+                    return false;
+                if (stat != null)
+                    stats.put(relative, stat);
+                return true;
+            }).collect(Collectors.toList());
+            stage.trackFile(blobPool.addFile(changed, parallelism), stats);
+            stageChanged = blobPoolChanged = true;
+            //刚暂存的文件下次status再确认一遍，脏路径只会多不会少
+            if (dirty != null)
+                watch.update(stage, dirty);
+            if (verbose)
+                System.err.println(blobPool.getLastAddReport());
         } catch (IOException e) {
             System.err.println("No file with that name exists ");
-            System.exit(0);
+            abort();
         }
     }
 
@@ -102,9 +321,10 @@ public class Gitlet {
         checkArgsValid(args, 2);
         try {
             commitChain.addBranch(args[1]);
+            commitChainChanged = true;
         } catch (AlreadyExistBranchException e) {
             System.err.println("A branch with that name already exists.");
-            System.exit(0);
+            abort();
         }
     }
 
@@ -114,14 +334,17 @@ public class Gitlet {
      */
     private static void checkout(String[] args) {
         checkArgsValid(args, 2);
+        Commit previous = commitChain.getHeadCommit();
         try {
             commitChain.changeBranchTo(args[1]);
         } catch (NoSuchBranchException e) {
             System.err.println("No such branch exists.");
-            System.exit(0);
+            abort();
         }
-        Utils.syncFilesWithHeadCommit(commitChain, blobPool);
+        Utils.syncFilesWithHeadCommit(previous, commitChain, blobPool);
         stage.clear();
+        clearMergeState();
+        commitChainChanged = stageChanged = true;
     }
 
     /**
@@ -129,7 +352,8 @@ public class Gitlet {
      *
      * 首先生成提交时间，SHA-1和本次commit要保存的文件夹路径等必要信息
      * 然后比较上次commit中文件的hash和这次是否一样，如果一样的话，停止commit
-     * 然后在commitChain上添加一个Commit结点，具体逻辑由commitChain实现
+     * 然后在commitChain上添加一个Commit结点，具体逻辑由commitChain实现。
+     * merge有冲突没有提交时，解决冲突之后的这次提交就是合并提交，第二个双亲是被合并的分支
      * @param args 命令行参数
      * @param isFirstCommit 指示本次commit是否为本Repo的第一次commit
      */
@@ -137,34 +361,302 @@ public class Gitlet {
         checkArgsValid(args, 2);
         String log = args[1];
         ZonedDateTime commitTime = ZonedDateTime.now();
-        String hash = Utils.encrypt(commitTime.toString(), "SHA-1");
         Map<String, String> stagedFiles = stage.getTrackingFiles();
+        String mergingBranch = isFirstCommit ? null : getMergingBranch();
         //第一次提交不需要检查提交文件的状况，因为没有上次提交，暂存区也不会有任何文件
         if (!isFirstCommit) {
-            Collection<String> lastCommitFiles = commitChain.getHeadCommit().getFileHashes();
-            //如果跟踪文件为0个或者这次提交的文件和上次完全一样，就不用提交了
-            if (stage.getNumberOfStagedFiles()==0 ||
-                    (lastCommitFiles.containsAll(stagedFiles.values()) && (lastCommitFiles.size()==stagedFiles.size()))) {
+            //如果跟踪文件为0个或者这次提交的目录树和上次完全一样，就不用提交了；合并提交即使和head一样也要记下第二个双亲
+            //先只算hash，放弃的提交不在.gitlet/trees里留下树对象
+            if (stage.getNumberOfStagedFiles()==0
+                    || (mergingBranch == null && TreeStore.hash(stagedFiles).equals(commitChain.getHeadCommit().getTreeHash()))) {
                 System.err.println("No changes added to the commit.");
-                System.exit(0);
+                abort();
             }
             //检查暂存区跟踪的文件有没有
         }
-        commitChain.newCommit(commitTime, log, stagedFiles, hash, System.getProperty("user.name"));
+        //暂存区写成目录树，没有变化的子目录会得到和上次提交相同的树对象，不会重复保存
+        String tree = TreeStore.write(stagedFiles);
+        if (mergingBranch != null) {
+            try {
+                commitChain.concludeMerge(commitTime, log, tree, System.getProperty("user.name"), mergingBranch);
+            } catch (NoSuchBranchException e) {
+                System.err.println("The branch being merged no longer exists.");
+                abort();
+            }
+            clearMergeState();
+        } else {
+            commitChain.newCommit(commitTime, log, tree, System.getProperty("user.name"));
+        }
+        commitChainChanged = true;
+    }
+
+    /**
+     * @return merge有冲突、还没有提交时被合并的分支，否则为null
+     */
+    private static String getMergingBranch() {
+        try {
+            return Files.exists(Utils.getMergeFilePath())
+                    ? new String(Files.readAllBytes(Utils.getMergeFilePath()), StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            abort();
+            return null;
+        }
+    }
+
+    private static void clearMergeState() {
+        try {
+            Files.deleteIfExists(Utils.getMergeFilePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            abort();
+        }
+    }
+
+    /**
+     * 按unified格式打印文件的差异
+     *
+     * gitlet diff：暂存区和工作目录；gitlet diff --staged：head提交和暂存区；
+     * gitlet diff [commit]：提交和工作目录；gitlet diff [commit] [commit]：两个提交。
+     * commit可以是分支名、完整的id或者至少4位的唯一前缀。
+     * 加上--find-renames时按内容相似度把删除和新增的文件配成改名，检测的代价打印到标准错误
+     * @param args 命令行参数
+     */
+    private static void diff(String[] args) {
+        List<String> operands = new ArrayList<>(Arrays.asList(args));
+        boolean findRenames = operands.remove("--find-renames");
+        args = operands.toArray(new String[0]);
+        if (args.length > 3) {
+            System.err.println("Incorrect operands.");
+            abort();
+        }
+        //新的一边是不是工作目录
+        boolean working = args.length < 3 && !(args.length == 2 && args[1].equals("--staged"));
+        //有变化的文件 -> {旧的hash, 新的hash}，null表示那一边没有这个文件
+        Map<String, String[]> changes = new TreeMap<>();
+        if (args.length == 1) {
+            for (String file : stage.getTrackingFiles().keySet()) {
+                String staged = stage.getHashOfFile(file), current = workingHash(file, staged);
+                if (!staged.equals(current))
+                    changes.put(file, new String[]{staged, current});
+            }
+        } else if (args.length == 2 && args[1].equals("--staged")) {
+            Map<String, String> headFiles = commitChain.getHeadCommit().getFiles(), stagedFiles = stage.getTrackingFiles();
+            Set<String> files = new HashSet<>(headFiles.keySet());
+            files.addAll(stagedFiles.keySet());
+            for (String file : files)
+                if (!Objects.equals(headFiles.get(file), stagedFiles.get(file)))
+                    changes.put(file, new String[]{headFiles.get(file), stagedFiles.get(file)});
+        } else if (args.length == 2) {
+            Map<String, String> commitFiles = resolveRevision(args[1]).getFiles();
+            Set<String> files = new HashSet<>(commitFiles.keySet());
+            files.addAll(stage.getTrackingFiles().keySet());
+            for (String file : files) {
+                String current = workingHash(file, commitFiles.get(file));
+                if (!Objects.equals(commitFiles.get(file), current))
+                    changes.put(file, new String[]{commitFiles.get(file), current});
+            }
+        } else {
+            Commit from = resolveRevision(args[1]), to = resolveRevision(args[2]);
+            //hash相同的子目录整个跳过
+            Map<String, String> changed = new HashMap<>();
+            List<String> removed = new ArrayList<>();
+            TreeStore.diff(from.getTreeHash(), to.getTreeHash(), changed, removed);
+            removed.forEach(file -> changed.put(file, null));
+            changed.forEach((file, hash) -> changes.put(file, new String[]{from.getHashOfFile(file), hash}));
+        }
+        DiffPrinter printer = new DiffPrinter(blobPool, System.out);
+        try {
+            //新文件名 -> 改名
+            Map<String, RenameDetector.Rename> renamed = new HashMap<>();
+            RenameDetector detector = null;
+            if (findRenames) {
+                Map<String, String> removed = new HashMap<>(), added = new HashMap<>();
+                changes.forEach((file, change) -> {
+                    if (change[1] == null)
+                        removed.put(file, change[0]);
+                    else if (change[0] == null)
+                        added.put(file, change[1]);
+                });
+                RenameDetector.Source snapshots = (path, hash) -> blobPool.mapContent(hash);
+                detector = new RenameDetector(snapshots, working ? (path, hash) -> DiffPrinter.map(Paths.get(path)) : snapshots);
+                for (RenameDetector.Rename rename : detector.detect(removed, added)) {
+                    String oldHash = changes.remove(rename.from)[0];
+                    changes.get(rename.to)[0] = oldHash;
+                    renamed.put(rename.to, rename);
+                }
+            }
+            for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+                String file = entry.getKey(), oldHash = entry.getValue()[0], newHash = entry.getValue()[1];
+                RenameDetector.Rename rename = renamed.get(file);
+                if (rename != null && working)
+                    printer.printWorkingRename(rename, oldHash, Paths.get(file));
+                else if (rename != null)
+                    printer.printRename(rename, oldHash, newHash);
+                else if (working)
+                    printer.printWorkingFile(file, oldHash, Paths.get(file));
+                else
+                    printer.printSnapshots(file, oldHash, newHash);
+            }
+            if (detector != null)
+                System.err.println(detector.report());
+        } catch (IOException e) {
+            e.printStackTrace();
+            abort();
+        }
+    }
+
+    /**
+     * @param hash 比较的快照，为null表示那一边没有这个文件
+     * @return 工作目录里的文件的hash，文件不存在时为null；暂存过并且没有被修改时不读文件
+     */
+    private static String workingHash(String file, String hash) {
+        Path path = Paths.get(file);
+        if (!Files.exists(path))
+            return null;
+        if (hash != null && hash.equals(stage.getHashOfFile(file)) && stage.isClean(file, FileStat.of(path)))
+            return hash;
+        return Utils.encrypt(path, "SHA-1");
+    }
+
+    /**
+     * @param revision 分支名、完整的提交id或者至少4位的唯一前缀
+     */
+    private static Commit resolveRevision(String revision) {
+        try {
+            return commitChain.getCommitByBranch(revision);
+        } catch (NoSuchBranchException ignored) { }
+        try {
+            if (revision.matches("[0-9a-fA-F]{4,40}"))
+                return commitChain.getCommit(commitChain.resolveCommitId(revision));
+        } catch (NoSuchCommitException ignored) {
+        } catch (AmbiguousCommitException e) {
+            System.err.println("Commit id " + revision + " is ambiguous.");
+            abort();
+        }
+        System.err.println("No branch or commit named " + revision + " exists.");
+        abort();
+        return null;
+    }
+
+    /**
+     * 查看或修改仓库配置
+     *
+     * gitlet config 列出所有配置项，gitlet config [key] 打印一项，gitlet config [key] [value] 修改一项
+     * @param args 命令行参数
+     */
+    private static void config(String[] args) {
+        if (args.length == 1) {
+            Config.all().forEach((key, value) -> System.out.println(key + "=" + value));
+        } else if (args.length == 2) {
+            System.out.println(Config.get(args[1], ""));
+        } else {
+            checkArgsValid(args, 3);
+            try {
+                Config.set(args[1], args[2]);
+            } catch (IOException e) {
+                System.err.println("Can not write the config file: " + e.getMessage());
+                abort();
+            }
+        }
     }
 
     /**
-     * 打印本Repo中所有的提交记录
+     * 回收不再被引用的提交、树对象和快照，打印回收的字节数
+     *
+     * gitlet gc [--now] [-j 线程数]：从所有分支、暂存区和宽限期内的提交出发并行地标记，再清扫没有被标记的对象。
+     * 宽限期由gc.grace配置，--now表示不留宽限期，立即回收所有没有被引用的对象
+     * @param args 命令行参数
+     */
+    private static void gc(String[] args) {
+        long grace = Config.getInt(Config.GC_GRACE, 14 * 24 * 3600) * 1000L;
+        int parallelism = Config.getInt(Config.GC_PARALLELISM, Runtime.getRuntime().availableProcessors());
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--now")) {
+                grace = 0;
+            } else if (args[i].equals("-j") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]*")) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: gc [--now] [-j threads]");
+                abort();
+            }
+        }
+        if (commitChain.isReadOnly()) {
+            System.err.println("The commit journal is damaged, refusing to collect garbage.");
+            abort();
+        }
+        //标记阶段失败时什么都没有改；删掉的提交由gc自己立即写回；
+        //清扫阶段失败时已经删掉的都是没有被引用的对象，blobPool里也已经去掉了它们，同样要写回
+        GarbageCollector collector = new GarbageCollector(commitChain, blobPool, stage, grace, parallelism);
+        try {
+            GarbageCollector.Report report = collector.run();
+            blobPoolChanged = report.getSnapshots() > 0;
+            System.out.println(report);
+        } catch (IOException e) {
+            System.err.println("gc failed: " + e.getMessage());
+            blobPoolChanged = collector.hasSwept();
+        }
+    }
+
+    /**
+     * 按时间倒序打印本Repo中所有的提交记录
+     *
+     * gitlet global-log [--limit 个数] [--since 时间]，时间可以是2020-04-16这样的日期或者ISO-8601格式的时刻。
+     * 从搜索索引中按时间倒序读取，打印够了个数或者早于since时就停下，不需要加载全部提交
      * @param args 命令行参数
      */
     private static void globalLog(String[] args) {
-        checkArgsValid(args, 1);
-        Iterator<Map.Entry<String, Commit>> commitIterator = commitChain.getAllCommitsIterator();
-        while(commitIterator.hasNext()) {
-            Commit temp = commitIterator.next().getValue();
-            if (commitChain.isHead(temp)) System.out.println("****current HEAD****");
-            System.out.println(temp);
+        int limit = -1;
+        long since = Long.MIN_VALUE;
+        for (int i = 1; i < args.length; i++) {
+            try {
+                if (args[i].equals("--limit") && i + 1 < args.length)
+                    limit = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--since") && i + 1 < args.length)
+                    since = parseTime(args[++i]);
+                else
+                    throw new IllegalArgumentException(args[i]);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                System.err.println("Incorrect operands.");
+                abort();
+            }
+        }
+        String head = commitChain.getHeadCommit().getHash();
+        searchIndex().forEachNewest(since, limit, commit -> {
+            if (commit.getHash().equals(head)) System.out.println("****current HEAD****");
+            System.out.println(commit);
             System.out.println("===");
+        });
+    }
+
+    /**
+     * @param time 2020-04-16这样的日期（当天零点，本地时区），或者ISO-8601格式的带时区时刻、UTC时刻、本地时刻
+     * @return 毫秒时间戳
+     */
+    private static long parseTime(String time) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return LocalDate.parse(time).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeException ignored) { }
+        try {
+            return ZonedDateTime.parse(time).toInstant().toEpochMilli();
+        } catch (DateTimeException ignored) { }
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeException ignored) { }
+        return LocalDateTime.parse(time).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 打开搜索索引，索引过时（比如由旧版本创建的仓库）时先补齐
+     */
+    private static CommitIndex searchIndex() {
+        try {
+            return CommitIndex.open(Utils.getSearchIndexPath()).sync(commitChain);
+        } catch (IOException e) {
+            System.err.println("Can not update the search index: " + e.getMessage());
+            abort();
+            return null;
         }
     }
 
@@ -179,27 +671,34 @@ public class Gitlet {
         blobPool = new BlobPool();
         commitChain = new CommitChain();
         stage = new Stage();
+        commitChainChanged = stageChanged = blobPoolChanged = true;
         try {
             Files.createDirectory(getGitDirPath());
             Files.createDirectory(Utils.getFilesPath());
         } catch (FileAlreadyExistsException e) {
             System.err.println("A Gitlet.Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            abort();
         } catch (IOException e) {
             e.printStackTrace();
-            System.exit(0);
+            abort();
         }
         commit(new String[]{"commit", "initial commit"}, true);
     }
 
     /**
      * 按时间逆序打印当前branch上的所有提交历史，直到全局的第一次提交
+     *
+     * gitlet log -n [个数] 只打印最近的几个提交，提交按需读取，耗时和仓库里的提交总数无关
      * @param args 命令行参数
      */
     private static void log(String[] args) {
-        checkArgsValid(args, 1);
-        for (Commit temp : commitChain) {
-            System.out.println(temp);
+        int limit = -1;
+        if (args.length == 3 && args[1].equals("-n") && args[2].matches("[0-9]+"))
+            limit = Integer.parseInt(args[2]);
+        else
+            checkArgsValid(args, 1);
+        for (Iterator<Commit> it = commitChain.iterator(); it.hasNext() && limit-- != 0; ) {
+            System.out.println(it.next());
             System.out.println("===");
         }
     }
@@ -215,50 +714,119 @@ public class Gitlet {
         //为了偷懒，我毅然选择了前者
 //        if (stage.getNumberOfStagedFiles() != 0) {
 //            System.err.println("There are files in stageing area. Please remove or commit them first.");
-//            System.exit(0);
+//            abort();
 //        }
         //我不能跟自己merge啊
         if (commitChain.getCurBranchName().equals(args[1])) {
             System.err.println("can not merge with the branch itself.");
-            System.exit(0);
+            abort();
+        }
+        if (getMergingBranch() != null) {
+            System.err.println("A merge is in progress, commit the resolved files first.");
+            abort();
         }
+        Commit previous = commitChain.getHeadCommit();
+        ContentMerge merger = new ContentMerge(blobPool, commitChain.getCurBranchName(), args[1]);
+        RenameDetector renames = RenameDetector.of(blobPool);
         try {
-            ZonedDateTime commitTime = ZonedDateTime.now();
-            String hash = Utils.encrypt(commitTime.toString(), "SHA-1");
-            commitChain.mergeWithBranch(commitTime, hash, System.getProperty("user.name"), args[1]);
+            commitChain.mergeWithBranch(ZonedDateTime.now(), System.getProperty("user.name"), args[1], merger, renames);
         } catch (NoSuchBranchException e) {
             System.err.println("No branch with that name exists.");
-            System.exit(0);
+            abort();
         } catch (ReverseMergeException e) {
             //孙子要跟爷爷merge，开倒车不行
             System.err.println("can not merge with a branch that is the ancester of current working branch.");
-            System.exit(0);
+            abort();
         } catch (MergeException e) {
-            //三方的文件都不相同，无法决策保留哪个
-            //其实有算法可以更加智能地解决这个问题，但是我菜啊啊啊啊啊，又菜又懒啊啊啊
-            System.err.println("conflict when merge "+ e.getConflictSource());
-            System.exit(0);
+            printRenames(renames);
+            //逐行合并之后还有冲突：不提交，所有冲突一起报告，工作目录里写入合并结果，冲突的文件带着冲突标记
+            e.getConflicts().forEach((file, reason) -> System.err.println("conflict when merge " + file + " (" + reason + ")"));
+            System.err.println("Fix the conflicts, then add and commit them to conclude the merge.");
+            Utils.syncFiles(previous.getTreeHash(), e.getTree(), blobPool);
+            try {
+                Files.write(Utils.getMergeFilePath(), args[1].getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                abort();
+            }
+            //没有冲突的文件直接暂存，冲突的文件等解决之后再add
+            Map<String, String> resolved = new HashMap<>(e.getFiles());
+            resolved.keySet().removeAll(e.getConflicts().keySet());
+            stage.clear();
+            stage.trackFile(resolved, Collections.emptyMap());
+            stageChanged = blobPoolChanged = true;
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            abort();
         }
-        Utils.syncFilesWithHeadCommit(commitChain, blobPool);
+        printRenames(renames);
+        Utils.syncFilesWithHeadCommit(previous, commitChain, blobPool);
         stage.clear();
+        commitChainChanged = stageChanged = blobPoolChanged = true;
+    }
+
+    /**
+     * merge时两边都有删除和新增的文件才会检测改名，检测过就打印找到的改名和代价
+     */
+    private static void printRenames(RenameDetector renames) {
+        for (RenameDetector.Rename rename : renames.getRenames())
+            System.out.println("rename " + rename.from + " -> " + rename.to + " (" + rename.score + "%)");
+        if (renames.hasRun())
+            System.out.println(renames.report());
+    }
+
+    /**
+     * 把.gitlet/objects下的松散快照文件打包成一个包文件和它的索引
+     *
+     * gitlet repack 只打包松散文件，gitlet repack -a 把已有的包也合并进来
+     * @param args 命令行参数
+     */
+    private static void repack(String[] args) {
+        boolean all = args.length == 2 && args[1].equals("-a");
+        if (!all)
+            checkArgsValid(args, 1);
+        try {
+            int packed = blobPool.repack(all);
+            System.out.println("packed " + packed + " snapshots.");
+        } catch (IOException e) {
+            System.err.println("repack failed: " + e.getMessage());
+            abort();
+        }
     }
 
     /**
      * 将head改变到指定commit，同时文件夹内容也会恢复到commit时的快照内容
      *
-     * 指定commit内所有文件快照都会被复制到它们原来所在的目录，替代现有的版本（如果现在存在的话）
+     * commit可以是完整的id，也可以是至少4位的唯一前缀。
+     * 只有和当前commit不同的文件会被恢复或删除，两边相同的文件保持不动
      * @param args 命令行参数
      */
     private static void reset(String[] args) {
         checkArgsValid(args, 2);
+        if (!args[1].matches("[0-9a-fA-F]{4,40}")) {
+            System.err.println("A commit id needs at least 4 hex digits.");
+            abort();
+        }
+        Commit previous = commitChain.getHeadCommit();
         try {
-            commitChain.resetTo(Utils.fromHash2DirName(args[1]));
+            commitChain.resetTo(commitChain.resolveCommitId(args[1]));
         } catch (NoSuchCommitException e) {
             System.err.println("No commit with that id exists.");
-            System.exit(0);
+            abort();
+        } catch (AmbiguousCommitException e) {
+            System.err.println("Commit id " + args[1] + " is ambiguous, candidates are:");
+            for (String candidate : e.getCandidates()) {
+                try {
+                    System.err.println("  " + candidate + " " + commitChain.getCommit(candidate).getLog());
+                } catch (NoSuchCommitException ignored) { }
+            }
+            abort();
         }
-        Utils.syncFilesWithHeadCommit(commitChain, blobPool);
+        Utils.syncFilesWithHeadCommit(previous, commitChain, blobPool);
         stage.clear();
+        clearMergeState();
+        commitChainChanged = stageChanged = true;
     }
 
     /**
@@ -267,15 +835,24 @@ public class Gitlet {
      */
     private static void rm(String[] args) {
         checkArgsValid(args, 2);
+        DirtyLog watch = DirtyLog.open();
+        Set<String> dirty = watch == null ? null : watch.collect(stage);
         try {
-            String hashOfRemovedFile = stage.untrackFile(Paths.get(args[1]));
-            blobPool.rmFile(hashOfRemovedFile);
+            stage.untrackFile(Paths.get(args[1]));
+            //快照可能还被以前的提交引用，留在对象库里由gc回收，只删除工作目录里的文件
+            Files.delete(Paths.get(args[1]));
+            stageChanged = true;
+            //取消暂存的文件不再是"已暂存并且内容一致"的
+            if (dirty != null) {
+                dirty.add(Utils.getRelativeDir(Paths.get(args[1])));
+                watch.update(stage, dirty);
+            }
         } catch (NotStagedException e) {
             System.err.println("Not staged yet.");
-            System.exit(0);
+            abort();
         } catch (IOException e) {
             System.err.println("No file with this path exists.");
-            System.exit(0);
+            abort();
         }
     }
 
@@ -287,82 +864,106 @@ public class Gitlet {
         checkArgsValid(args, 2);
         try {
             commitChain.deleteBranch(args[1]);
+            commitChainChanged = true;
         } catch (DeleteCurrentBranchException e) {
             System.err.println("Can not remove the current branch.");
-            System.exit(0);
+            abort();
         } catch (NoSuchBranchException e) {
             System.err.println("A branch with that name does not exist.");
-            System.exit(0);
+            abort();
         }
     }
 
     /**
-     * 打印状态，分为三种：
+     * 打印对象库的压缩率和压缩花费的CPU时间，以及提交缓存的命中情况
+     *
+     * gitlet stats --decode 还会把所有快照解压一遍，测量解压的CPU时间
+     * @param args 命令行参数
+     */
+    private static void stats(String[] args) {
+        boolean decode = args.length == 2 && args[1].equals("--decode");
+        if (!decode)
+            checkArgsValid(args, 1);
+        try {
+            blobPool.stats(decode).forEach(System.out::println);
+            System.out.println(commitChain.getCacheReport());
+        } catch (IOException e) {
+            System.err.println("Can not read the object store: " + e.getMessage());
+            abort();
+        }
+    }
+
+    /**
+     * 打印状态，分为四种：
      * 1. 跟踪中的文件
      * 2. 已经暂存但是在工作区已经被修改或者删除的文件
-     * 3. 工作目录中没有被跟踪的文件
+     * 3. 没有暂存、head提交里有，但是在工作区已经被修改或者删除的文件
+     * 4. 工作目录中（包括所有子目录）没有被跟踪的文件
+     * 工作目录由StatusEngine并行遍历一遍，每一类按路径排序输出；
+     * watch进程在运行并且记录有效时，只检查它记下的脏路径和上次还没有确认的路径
      * @param args 命令行参数
      */
     private static void status(String[] args) {
         checkArgsValid(args, 1);
-        List<String> hashesOfStagedFiles = stage.getHashesOfStagedFiles();
-        List<String> untrackFiles = new ArrayList<>(), modifiedFiles = new ArrayList<>(),
-                deletedFiles = new ArrayList<>(), trackingFiles = new ArrayList<>();
-        //检查已暂存文件的跟踪情况
-        for(String hash : hashesOfStagedFiles) {
-            Path dirRaw = blobPool.getFile(hash).getPathRaw();
-            //只要还在暂存区里，就是正在跟踪的文件
-            trackingFiles.add(dirRaw.toString());
-            //用户使用shell的命令删除或移动了文件，导致原路径的文件找不到了，那就标记为被删除
-            if (!Files.exists(dirRaw))
-                deletedFiles.add(dirRaw.toString());
-            //文件还在，但是跟暂存区的最新版本不一样了，那就是被修改过了，但是还没暂存
-            else if (!Utils.encrypt(dirRaw, "SHA-1").equals(hash))
-                modifiedFiles.add(dirRaw.toString());
-        }
-        //检查工作目录下未跟踪的文件
+        StatusEngine engine = new StatusEngine(stage, commitChain.getHeadCommit(),
+                Config.getInt(Config.STATUS_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+        DirtyLog watch = DirtyLog.open();
+        Set<String> dirty = watch == null ? null : watch.collect(stage);
         try {
-            //一个文件，如果他不属于上面三种的任何一个，就是未跟踪的文件
-            Files.list(Paths.get("")).forEach((path -> {
-                String p = path.toString();
-                if (!(p.equals(Utils.GIT_DIR_NAME)) && !trackingFiles.contains(p) && !modifiedFiles.contains(p) && !deletedFiles.contains(p))
-                    untrackFiles.add(p);
-            }));
-        } catch (IOException e) {
+            if (dirty == null ? engine.scan(Paths.get("")) : engine.scan(Paths.get(""), dirty))
+                stageChanged = true;
+            if (watch != null)
+                watch.update(stage, engine.getPending());
+            System.out.println("current working branch: " + commitChain.getCurBranchName());
+            System.out.println();
+            System.out.println("tracking files:");
+            //只要还在暂存区里，就是正在跟踪的文件
+            stage.getTrackingFiles().keySet().stream().sorted().forEach(System.out::println);
+            engine.print(System.out);
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
-            System.exit(0);
-        }
-        System.out.println("current working branch: " + commitChain.getCurBranchName());
-        System.out.println();
-        System.out.println("tracking files:");
-        trackingFiles.forEach(System.out::println);
-        System.out.println();
-        System.out.println("Staged but modified files:");
-        modifiedFiles.forEach(System.out::println);
-        System.out.println();
-        System.out.println("Staged but removed files:");
-        deletedFiles.forEach(System.out::println);
-        System.out.println();
-        System.out.println("Untracked files:");
-        untrackFiles.forEach(System.out::println);
+            abort();
+        } finally {
+            engine.close();
+        }
     }
 
     /**
-     * 遍历所有Commit对象，打印出具有指定log的Commit对象
-     * @param args
+     * 在搜索索引中查找提交，新的在前
+     *
+     * gitlet find [log]：log完全相同；--substring：log包含给定文本；--token：log包含给定的所有单词，不区分大小写；
+     * --regex：log能匹配给定的正则表达式；--author：作者是给定的名字
+     * @param args 命令行参数
      */
     private static void find(String[] args) {
-        checkArgsValid(args, 2);
-        boolean noSuchCommit = true;
-        Iterator<Map.Entry<String,Commit>> iterator = commitChain.getAllCommitsIterator();
-        while(iterator.hasNext()) {
-            Map.Entry<String,Commit> temp = iterator.next();
-            if (temp.getValue().getLog().equals(args[1])) {
-                System.out.println(temp.getValue());
-                noSuchCommit = false;
+        if (args.length != 2)
+            checkArgsValid(args, 3);
+        CommitIndex index = searchIndex();
+        String query = args[args.length - 1];
+        List<IndexedCommit> found = null;
+        if (args.length == 2) {
+            found = index.findExact(query);
+        } else {
+            switch (args[1]) {
+                case "--substring": found = index.findSubstring(query); break;
+                case "--token": found = index.findTokens(query); break;
+                case "--author": found = index.findAuthor(query); break;
+                case "--regex":
+                    try {
+                        found = index.findRegex(Pattern.compile(query));
+                    } catch (PatternSyntaxException e) {
+                        System.err.println("Invalid regular expression: " + e.getDescription());
+                        abort();
+                    }
+                    break;
+                default:
+                    System.err.println("Incorrect operands.");
+                    abort();
             }
         }
-        if (noSuchCommit)
+        for (IndexedCommit commit : found)
+            System.out.println(commit);
+        if (found.isEmpty())
             System.out.println("Found no commit with that message.");
     }
 }
\ No newline at end of file
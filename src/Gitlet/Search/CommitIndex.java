@@ -0,0 +1,363 @@
+package Gitlet.Search;
+
+import Gitlet.Commits.Commit;
+import Gitlet.Commits.CommitChain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * 提交信息的搜索索引，保存在.gitlet/searchindex目录下，供find和global-log使用
+ *
+ * docs文件按提交时间顺序追加每个提交的hash、时间、作者和log，offsets文件是每个提交在docs中的位置，
+ * 提交的编号就是它在offsets中的下标，所以编号越大提交越新。两个文件都直接映射进内存，
+ * 每次提交只在末尾追加一条记录。
+ *
+ * terms文件是倒排索引（见TermSegment），词项包括log中的单词、log的三字母组和作者，
+ * 它只覆盖写它时已有的提交，之后追加的提交在查询时逐个检查，积累到MAX_UNINDEXED个之后重写一次。
+ * 子串和精确查询用三字母组缩小范围，正则查询从表达式里必须出现的字面量中取三字母组，
+ * 取不到时才检查全部提交。
+ */
+
+public class CommitIndex {
+
+    //倒排索引之外的提交超过这么多个时重写倒排索引
+    static final int MAX_UNINDEXED = 1000;
+    //比这个长的单词不进倒排索引
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private static final String WORD = "w:", GRAM = "g:", AUTHOR = "a:";
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Path dir;
+    private final MappedByteBuffer docs, offsets;
+    private final int count;
+    private final TermSegment terms;
+
+    private CommitIndex(Path dir, MappedByteBuffer docs, MappedByteBuffer offsets, int count, TermSegment terms) {
+        this.dir = dir;
+        this.docs = docs;
+        this.offsets = offsets;
+        this.count = count;
+        this.terms = terms;
+    }
+
+    /**
+     * 打开dir下的索引，文件不存在或者损坏时得到一个空索引
+     */
+    public static CommitIndex open(Path dir) {
+        try (FileChannel docChannel = FileChannel.open(dir.resolve("docs"), StandardOpenOption.READ);
+             FileChannel offsetChannel = FileChannel.open(dir.resolve("offsets"), StandardOpenOption.READ)) {
+            int count = (int) (offsetChannel.size() / 8);
+            MappedByteBuffer offsets = offsetChannel.map(FileChannel.MapMode.READ_ONLY, 0, count * 8L);
+            MappedByteBuffer docs = docChannel.map(FileChannel.MapMode.READ_ONLY, 0, docChannel.size());
+            if (count > 0 && offsets.getLong((count - 1) * 8) >= docChannel.size())
+                return empty(dir);
+            TermSegment terms = TermSegment.open(dir.resolve("terms"));
+            if (terms.getDocCount() > count)
+                terms = TermSegment.EMPTY;
+            return new CommitIndex(dir, docs, offsets, count, terms);
+        } catch (IOException e) {
+            return empty(dir);
+        }
+    }
+
+    private static CommitIndex empty(Path dir) {
+        return new CommitIndex(dir, null, null, 0, TermSegment.EMPTY);
+    }
+
+    /**
+     * 让索引和commitChain一致：通常只追加本次命令新产生的提交，对不上时从全部提交重新生成
+     * @return 更新之后重新打开的索引
+     */
+    public CommitIndex sync(CommitChain commitChain) throws IOException {
+        List<Commit> added = commitChain.getAddedCommits();
+        boolean current = count == commitChain.size() - added.size()
+                && (count == 0 || commitChain.containsCommit(get(count - 1).getHash()));
+        if (current && added.isEmpty() && count - terms.getDocCount() <= MAX_UNINDEXED)
+            return this;
+        Files.createDirectories(dir);
+        if (current) {
+            append(added, false);
+        } else {
+            List<Commit> all = new ArrayList<>();
+            commitChain.getAllCommitsIterator().forEachRemaining(entry -> all.add(entry.getValue()));
+            all.sort(Comparator.comparing((Commit c) -> c.getTimestamp().toInstant()).thenComparing(Commit::getCommitStr));
+            Files.deleteIfExists(dir.resolve("terms"));
+            append(all, true);
+        }
+        CommitIndex index = open(dir);
+        if (index.count - index.terms.getDocCount() > MAX_UNINDEXED) {
+            index.writeTerms();
+            index = open(dir);
+        }
+        return index;
+    }
+
+    /**
+     * 把提交追加到docs和offsets末尾，先写docs再写offsets，中途崩溃时多出来的docs字节不会被引用
+     * @param truncate 为true时清空已有的记录
+     */
+    private void append(List<Commit> commits, boolean truncate) throws IOException {
+        try (FileChannel docChannel = FileChannel.open(dir.resolve("docs"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel offsetChannel = FileChannel.open(dir.resolve("offsets"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (truncate) {
+                docChannel.truncate(0);
+                offsetChannel.truncate(0);
+            }
+            long position = docChannel.size(), offsetPosition = truncate ? 0 : count * 8L;
+            ByteBuffer offsetBytes = ByteBuffer.allocate(commits.size() * 8);
+            for (Commit commit : commits) {
+                offsetBytes.putLong(position);
+                ByteBuffer record = encode(commit);
+                while (record.hasRemaining())
+                    position += docChannel.write(record, position);
+            }
+            docChannel.force(false);
+            offsetBytes.flip();
+            while (offsetBytes.hasRemaining())
+                offsetPosition += offsetChannel.write(offsetBytes, offsetPosition);
+            offsetChannel.truncate(offsetPosition);
+            offsetChannel.force(false);
+        }
+    }
+
+    private static ByteBuffer encode(Commit commit) {
+        byte[][] fields = {commit.getHash().getBytes(StandardCharsets.UTF_8),
+                commit.getTimestamp().toString().getBytes(StandardCharsets.UTF_8),
+                commit.getAuthor().getBytes(StandardCharsets.UTF_8),
+                commit.getLog().getBytes(StandardCharsets.UTF_8)};
+        int length = 8;
+        for (byte[] field : fields)
+            length += 4 + field.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putLong(commit.getTimestamp().toInstant().toEpochMilli());
+        for (byte[] field : fields)
+            record.putInt(field.length).put(field);
+        return record.flip();
+    }
+
+    /**
+     * 用全部提交重写倒排索引
+     */
+    private void writeTerms() throws IOException {
+        SortedMap<String, List<Integer>> index = new TreeMap<>();
+        for (int id = 0; id < count; id++) {
+            IndexedCommit commit = get(id);
+            for (String term : terms(commit)) {
+                List<Integer> docs = index.computeIfAbsent(term, k -> new ArrayList<>());
+                docs.add(id);
+            }
+        }
+        TermSegment.write(dir.resolve("terms"), count, index);
+    }
+
+    private static Set<String> terms(IndexedCommit commit) {
+        Set<String> terms = new HashSet<>();
+        for (String token : tokens(commit.getLog()))
+            if (token.length() <= MAX_TOKEN_LENGTH)
+                terms.add(WORD + token);
+        terms.addAll(trigrams(commit.getLog()));
+        terms.add(AUTHOR + commit.getAuthor().toLowerCase(Locale.ROOT));
+        return terms;
+    }
+
+    private static Set<String> tokens(String text) {
+        Set<String> tokens = new HashSet<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT)))
+            if (!token.isEmpty())
+                tokens.add(token);
+        return tokens;
+    }
+
+    private static Set<String> trigrams(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= lower.length(); i++)
+            grams.add(GRAM + lower.substring(i, i + 3));
+        return grams;
+    }
+
+    /**
+     * @return 索引中的提交数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param id 提交的编号，0是最早的提交
+     */
+    public IndexedCommit get(int id) {
+        int position = (int) offsets.getLong(id * 8);
+        long epochMillis = docs.getLong(position);
+        position += 8;
+        String[] fields = new String[4];
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bytes = new byte[docs.getInt(position)];
+            position += 4;
+            for (int j = 0; j < bytes.length; j++)
+                bytes[j] = docs.get(position + j);
+            position += bytes.length;
+            fields[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new IndexedCommit(fields[0], fields[1], epochMillis, fields[2], fields[3]);
+    }
+
+    /**
+     * 从最新的提交开始按时间倒序逐个交给action
+     * @param sinceMillis 只要这个时间之后（含）的提交
+     * @param limit 最多这么多个，小于0时不限
+     */
+    public void forEachNewest(long sinceMillis, int limit, Consumer<IndexedCommit> action) {
+        for (int id = count - 1; id >= 0 && limit != 0; id--, limit--) {
+            IndexedCommit commit = get(id);
+            if (commit.getEpochMillis() < sinceMillis)
+                return;
+            action.accept(commit);
+        }
+    }
+
+    /**
+     * @return log和text完全相同的提交，新的在前
+     */
+    public List<IndexedCommit> findExact(String text) {
+        return search(trigrams(text), commit -> commit.getLog().equals(text));
+    }
+
+    /**
+     * @return log包含text的提交，区分大小写，新的在前
+     */
+    public List<IndexedCommit> findSubstring(String text) {
+        return search(trigrams(text), commit -> commit.getLog().contains(text));
+    }
+
+    /**
+     * @return log包含text中所有单词的提交，不区分大小写，新的在前
+     */
+    public List<IndexedCommit> findTokens(String text) {
+        Set<String> wanted = tokens(text), terms = new HashSet<>();
+        for (String token : wanted)
+            if (token.length() <= MAX_TOKEN_LENGTH)
+                terms.add(WORD + token);
+        return search(terms, commit -> tokens(commit.getLog()).containsAll(wanted));
+    }
+
+    /**
+     * @return log中能找到regex的提交，新的在前
+     */
+    public List<IndexedCommit> findRegex(Pattern regex) {
+        return search(trigrams(requiredLiteral(regex.pattern())), commit -> regex.matcher(commit.getLog()).find());
+    }
+
+    /**
+     * @return 作者是author的提交，不区分大小写，新的在前
+     */
+    public List<IndexedCommit> findAuthor(String author) {
+        return search(Collections.singleton(AUTHOR + author.toLowerCase(Locale.ROOT)),
+                commit -> commit.getAuthor().equalsIgnoreCase(author));
+    }
+
+    /**
+     * 倒排索引覆盖的提交只检查包含所有词项的那些，之后追加的提交全部检查
+     * @param required 匹配的提交一定包含的词项，为空时检查全部提交
+     */
+    private List<IndexedCommit> search(Set<String> required, Predicate<IndexedCommit> matches) {
+        List<IndexedCommit> result = new ArrayList<>();
+        for (int id = count - 1; id >= terms.getDocCount(); id--) {
+            IndexedCommit commit = get(id);
+            if (matches.test(commit))
+                result.add(commit);
+        }
+        int[] candidates = null;
+        for (String term : required) {
+            candidates = candidates == null ? terms.postings(term) : intersect(candidates, terms.postings(term));
+            if (candidates.length == 0)
+                break;
+        }
+        if (candidates == null) {
+            for (int id = terms.getDocCount() - 1; id >= 0; id--) {
+                IndexedCommit commit = get(id);
+                if (matches.test(commit))
+                    result.add(commit);
+            }
+            return result;
+        }
+        for (int i = candidates.length - 1; i >= 0; i--) {
+            IndexedCommit commit = get(candidates[i]);
+            if (matches.test(commit))
+                result.add(commit);
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * 找出正则表达式匹配时一定会出现的最长一段字面量
+     *
+     * 只看括号之外的部分；顶层有|时没有必须出现的字面量；
+     * 后面跟着?、*或{的字符可能不出现，转义、字符类和.都会打断字面量；
+     * 有(?x)这样的内嵌标志时空格可能被忽略，不把空格当作字面量
+     * @return 找不到时返回空串
+     */
+    static String requiredLiteral(String regex) {
+        boolean spaces = !regex.contains("(?");
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                for (i++; i < regex.length() && regex.charAt(i) != ']'; i++)
+                    if (regex.charAt(i) == '\\')
+                        i++;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return "";
+            } else if (depth == 0 && (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '/'
+                    || (c == ' ' && spaces))) {
+                char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                if (next != '?' && next != '*' && next != '{') {
+                    run.append(c);
+                    literal = next != '+';
+                }
+            }
+            if (!literal) {
+                if (run.length() > best.length())
+                    best = run.toString();
+                run.setLength(0);
+            }
+        }
+        return run.length() > best.length() ? run.toString() : best;
+    }
+}
@@ -0,0 +1,38 @@
+package Gitlet.Search;
+
+/**
+ * 搜索索引中保存的一个提交，打印时和Commit的格式一样，不需要加载完整的Commit对象
+ */
+
+public class IndexedCommit {
+
+    private final String hash;
+    private final String time;
+    private final long epochMillis;
+    private final String author;
+    private final String log;
+
+    IndexedCommit(String hash, String time, long epochMillis, String author, String log) {
+        this.hash = hash;
+        this.time = time;
+        this.epochMillis = epochMillis;
+        this.author = author;
+        this.log = log;
+    }
+
+    public String getHash() { return hash; }
+
+    public long getEpochMillis() { return epochMillis; }
+
+    public String getAuthor() { return author; }
+
+    public String getLog() { return log; }
+
+    @Override
+    public String toString() {
+        return "Hash: "+hash+"\n"+
+                "time: "+time+"\n"+
+                "log: "+log+"\n"+
+                "Author: "+author;
+    }
+}
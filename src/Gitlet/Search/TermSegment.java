@@ -0,0 +1,137 @@
+package Gitlet.Search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 倒排索引的一个不可变的段，文件映射进内存，按词项二分查找
+ *
+ * 文件格式：
+ * 头部：魔数(int) 版本(int) 覆盖的提交数(int) 词项数(int)
+ * 词项表：每个词项在文件中的位置(int)，按词项排序
+ * 词项：长度(short) UTF-8字节 倒排表位置(int) 倒排表长度(int)
+ * 倒排表：从小到大排列的提交编号(int)
+ */
+
+class TermSegment {
+
+    private static final int MAGIC = 0x47535458;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+
+    static final TermSegment EMPTY = new TermSegment(null, 0, 0);
+
+    private final MappedByteBuffer buffer;
+    private final int docCount, termCount;
+
+    private TermSegment(MappedByteBuffer buffer, int docCount, int termCount) {
+        this.buffer = buffer;
+        this.docCount = docCount;
+        this.termCount = termCount;
+    }
+
+    /**
+     * @return 文件不存在或者损坏时返回EMPTY
+     */
+    static TermSegment open(Path path) {
+        if (!Files.exists(path))
+            return EMPTY;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH)
+                return EMPTY;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                return EMPTY;
+            return new TermSegment(buffer, buffer.getInt(8), buffer.getInt(12));
+        } catch (IOException e) {
+            return EMPTY;
+        }
+    }
+
+    /**
+     * @return 这个段覆盖了编号小于它的所有提交
+     */
+    int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * @return 包含词项的提交编号，从小到大排列
+     */
+    int[] postings(String term) {
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = buffer.getInt(HEADER_LENGTH + mid * 4);
+            int cmp = termAt(entry).compareTo(term);
+            if (cmp == 0) {
+                int length = buffer.getShort(entry) & 0xffff;
+                int offset = buffer.getInt(entry + 2 + length), count = buffer.getInt(entry + 6 + length);
+                int[] docs = new int[count];
+                for (int i = 0; i < count; i++)
+                    docs[i] = buffer.getInt(offset + i * 4);
+                return docs;
+            }
+            if (cmp < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return new int[0];
+    }
+
+    private String termAt(int entry) {
+        byte[] bytes = new byte[buffer.getShort(entry) & 0xffff];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(entry + 2 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 把词项和倒排表写成新的段，先写临时文件再原子地改名
+     * @param path 段文件
+     * @param docCount 覆盖的提交数
+     * @param index 词项 -> 从小到大排列的提交编号
+     */
+    static void write(Path path, int docCount, SortedMap<String, List<Integer>> index) throws IOException {
+        List<byte[]> terms = new ArrayList<>(index.size());
+        int entriesLength = 0, postingsLength = 0;
+        for (Map.Entry<String, List<Integer>> entry : index.entrySet()) {
+            byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(term);
+            entriesLength += 2 + term.length + 8;
+            postingsLength += entry.getValue().size() * 4;
+        }
+        int entriesOffset = HEADER_LENGTH + index.size() * 4;
+        ByteBuffer out = ByteBuffer.allocate(entriesOffset + entriesLength + postingsLength);
+        out.putInt(MAGIC).putInt(VERSION).putInt(docCount).putInt(index.size());
+        int entry = entriesOffset;
+        for (byte[] term : terms) {
+            out.putInt(entry);
+            entry += 2 + term.length + 8;
+        }
+        int posting = entriesOffset + entriesLength, i = 0;
+        for (List<Integer> docs : index.values()) {
+            byte[] term = terms.get(i++);
+            out.putShort((short) term.length).put(term).putInt(posting).putInt(docs.size());
+            posting += docs.size() * 4;
+        }
+        for (List<Integer> docs : index.values())
+            for (int doc : docs)
+                out.putInt(doc);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.flip();
+            while (out.hasRemaining())
+                channel.write(out);
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
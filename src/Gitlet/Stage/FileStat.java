@@ -0,0 +1,79 @@
+package Gitlet.Stage;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件的stat信息：大小、修改时间、inode和ctime
+ *
+ * 暂存区为每个文件记录暂存时的stat信息，之后stat信息没有变化的文件就不需要重新读取内容计算hash
+ */
+
+public class FileStat implements Serializable {
+
+    //已有暂存区文件里保存的就是这个值
+    private static final long serialVersionUID = 1870826633106605869L;
+
+    private final long size;
+    private final long mtime;
+    private final long ctime;
+    private final long inode;
+
+    private FileStat(long size, long mtime, long ctime, long inode) {
+        this.size = size;
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.inode = inode;
+    }
+
+    /**
+     * 读取文件的stat信息，支持unix属性视图的系统上会同时读到inode和ctime
+     * @return stat信息，文件不存在时返回null
+     */
+    public static FileStat of(Path file) {
+        try {
+            Map<String, Object> unix = Files.readAttributes(file, "unix:size,lastModifiedTime,ctime,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+            return new FileStat((Long) unix.get("size"), nanos((FileTime) unix.get("lastModifiedTime")),
+                    nanos((FileTime) unix.get("ctime")), (Long) unix.get("ino"));
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            try {
+                BasicFileAttributes basic = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                return new FileStat(basic.size(), nanos(basic.lastModifiedTime()), 0,
+                        basic.fileKey() == null ? 0 : basic.fileKey().hashCode());
+            } catch (IOException ioException) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    long getMtime() {
+        return mtime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileStat stat = (FileStat) o;
+        return size == stat.size && mtime == stat.mtime && ctime == stat.ctime && inode == stat.inode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 + Long.hashCode(mtime);
+    }
+}
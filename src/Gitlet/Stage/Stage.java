@@ -1,61 +1,228 @@
 package Gitlet.Stage;
 
+import Gitlet.Trace.Trace;
 import Gitlet.Utility.Exceptions.NotStagedException;
 import Gitlet.Utility.Utils;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.Serializable;
+import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 /**
  * 抽象暂存区相关操作的类
+ *
+ * 暂存区为每个文件记录hash和暂存时的stat信息（大小、修改时间、inode、ctime），
+ * stat信息没变的文件可以直接认为内容没变，status和add不用重新读取它们。
+ *
+ * 文件在暂存区写盘的同一个时间粒度内又被修改时，修改时间可能看不出变化，
+ * 所以修改时间不早于暂存区文件写盘时间的条目被认为是"不确定的"，必须重新计算hash
  */
 public class Stage implements Serializable {
 
+    //和最初版本保持一致，新版本只增加字段，旧仓库保存的对象仍然可以读出来
+    private static final long serialVersionUID = -1973206813831432466L;
+
+    //旧版本仓库的暂存区：map the name of a file to the hash of the newest version of the file.
+    private Map<String, String> tracking;
     //tracking files list.
-    //map the name of a file to the hash of the newest version of the file.
-    private Map<String, String> tracking = new HashMap<>();
+    //map the name of a file to the hash and the stat of the newest version of the file.
+    private Map<String, Entry> index = new HashMap<>();
+    //没有暂存、只在head提交里的文件：最后一次确认和提交的版本一致时，那个版本的hash和文件的stat信息
+    private Map<String, Entry> verified = new HashMap<>();
+    //暂存的文件集合每次改变时换一个随机值，watch记录的脏路径只在暂存区没有被其他途径改变时有效
+    private long version;
+    //暂存区文件最后一次写盘的时间，修改时间不早于它的条目不能只凭stat信息判断
+    private transient long indexTime = Long.MIN_VALUE;
 
     public static Stage deSerialFrom(Path path) {
+        Trace.Span span = Trace.begin("load.stage").read(path.toFile().length());
         try {
-            ObjectInputStream in = new ObjectInputStream(new FileInputStream(path.toString()));
-            return (Stage) in.readObject();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path.toString())));
+            Stage stage = (Stage) in.readObject();
+            in.close();
+            stage.migrate();
+            stage.indexTime = FileStat.nanos(Files.getLastModifiedTime(path));
+            return stage;
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return null;
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * 把旧版本只有hash的暂存区转换成带stat信息的，没有stat信息的条目下次会被重新计算hash
+     */
+    private void migrate() {
+        if (index == null)
+            index = new HashMap<>();
+        if (verified == null)
+            verified = new HashMap<>();
+        if (tracking != null) {
+            tracking.forEach((file, hash) -> index.put(file, new Entry(hash, null)));
+            tracking = null;
         }
     }
 
-    public void trackFile(List<Path> files) {
-        for(Path file : files) {
-            String s = Utils.getRelativeDir(file);
-            String sha1 = Utils.encrypt(file, "SHA-1");
-            tracking.put(s, sha1);
+    /**
+     * 暂存区刚刚写盘之后调用，记录写盘的时间
+     */
+    public void markWritten(Path path) {
+        try {
+            indexTime = FileStat.nanos(Files.getLastModifiedTime(path));
+        } catch (IOException e) {
+            indexTime = Long.MIN_VALUE;
         }
     }
 
+    /**
+     * 跟踪一批文件的最新版本
+     * @param files 文件的相对路径 -> 文件的hash，hash由BlobPool保存快照时顺便算出，不再重复读文件
+     * @param stats 文件的相对路径 -> 读取文件内容之前的stat信息
+     */
+    public void trackFile(Map<String, String> files, Map<String, FileStat> stats) {
+        files.forEach((file, hash) -> index.put(file, new Entry(hash, stats.get(file))));
+        changeVersion();
+    }
+
+    /**
+     * 判断文件自从暂存之后有没有被修改，不读取文件内容
+     * @param file 文件的相对路径
+     * @param stat 文件现在的stat信息
+     * @return 文件已被暂存并且可以确定没有被修改时返回true
+     */
+    public boolean isClean(String file, FileStat stat) {
+        Entry entry = index.get(file);
+        return entry != null && entry.stat != null && stat != null
+                && entry.stat.equals(stat) && !isRacy(entry);
+    }
+
+    /**
+     * 文件的stat信息变了但是内容没变时，更新记录的stat信息，下次就不用再计算hash了
+     *
+     * stat信息没变、但是修改时间不早于上次写暂存区的时间（racy）时，内容刚刚确认过，
+     * 也要求写回暂存区：写回之后暂存区的时间比它晚，它就不再是racy的，否则每次都要重新计算hash
+     * @return 是否修改了暂存区
+     */
+    public boolean refresh(String file, FileStat stat) {
+        Entry entry = index.get(file);
+        if (entry == null || stat == null)
+            return false;
+        if (stat.equals(entry.stat))
+            return isRacy(entry);
+        index.put(file, new Entry(entry.hash, stat));
+        return true;
+    }
+
+    /**
+     * 判断没有暂存的文件是否还和提交里的版本一致，不读取文件内容
+     * @param file 文件的相对路径
+     * @param hash 提交里的版本的hash
+     * @param stat 文件现在的stat信息
+     * @return 上次确认时也是这个版本并且stat信息没有变化时返回true
+     */
+    public boolean isVerified(String file, String hash, FileStat stat) {
+        Entry entry = verified.get(file);
+        return entry != null && entry.hash.equals(hash) && stat != null
+                && stat.equals(entry.stat) && !isRacy(entry);
+    }
+
+    /**
+     * 记录没有暂存的文件和提交里的hash版本一致时的stat信息，和refresh一样，racy的记录也要求写回暂存区
+     * @return 是否修改了暂存区
+     */
+    public boolean verify(String file, String hash, FileStat stat) {
+        Entry entry = verified.get(file);
+        if (stat == null)
+            return false;
+        if (entry != null && entry.hash.equals(hash) && stat.equals(entry.stat))
+            return isRacy(entry);
+        verified.put(file, new Entry(hash, stat));
+        return true;
+    }
+
+    /**
+     * 修改时间不早于上次写暂存区的时间，同一个时间刻度里可能又被改过，只看stat信息不能确定内容没变
+     */
+    private boolean isRacy(Entry entry) {
+        return entry.stat.getMtime() >= indexTime;
+    }
+
+    /**
+     * 去掉已经不在head提交里的文件的确认记录
+     * @return 是否修改了暂存区
+     */
+    public boolean retainVerified(Set<String> files) {
+        return verified.keySet().retainAll(files);
+    }
+
+    public String getHashOfFile(String file) {
+        Entry entry = index.get(file);
+        return entry == null ? null : entry.hash;
+    }
+
     public List<String> getHashesOfStagedFiles(){
-        return new ArrayList<>(tracking.values());
+        List<String> hashes = new ArrayList<>();
+        for (Entry entry : index.values())
+            hashes.add(entry.hash);
+        return hashes;
     }
 
-    public Map<String, String> getTrackingFiles() { return Map.copyOf(tracking); }
+    public Map<String, String> getTrackingFiles() {
+        Map<String, String> files = new HashMap<>();
+        index.forEach((file, entry) -> files.put(file, entry.hash));
+        return files;
+    }
 
     public int getNumberOfStagedFiles() {
-        return tracking.size();
+        return index.size();
     }
 
     public void clear() {
-        tracking.clear();
+        index.clear();
+        changeVersion();
     }
 
     public String untrackFile(Path file) throws NotStagedException{
-        String filename = file.getFileName().toString();
-        if (!tracking.containsKey(filename))
+        //和暂存区的键一样用相对于仓库根目录的路径
+        String filename = Utils.getRelativeDir(file);
+        if (!index.containsKey(filename))
             throw new NotStagedException();
-        return tracking.remove(filename);
+        changeVersion();
+        return index.remove(filename).hash;
+    }
+
+    /**
+     * @return 暂存的文件集合的版本，只有暂存、取消暂存和清空会改变它，更新stat信息不会
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void changeVersion() {
+        long next;
+        do {
+            next = ThreadLocalRandom.current().nextLong();
+        } while (next == version || next == 0);
+        version = next;
+    }
+
+    /**
+     * 暂存区中的一项
+     */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = -3182537491068183999L;
+
+        final String hash;
+        //暂存时的stat信息，旧版本仓库迁移过来的条目为null
+        final FileStat stat;
+
+        Entry(String hash, FileStat stat) {
+            this.hash = hash;
+            this.stat = stat;
+        }
     }
 }
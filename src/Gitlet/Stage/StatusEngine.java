@@ -0,0 +1,377 @@
+package Gitlet.Stage;
+
+import Gitlet.Commits.Commit;
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * status的计算：一次遍历同时比较工作目录、暂存区和head提交
+ *
+ * 工作目录按目录拆成任务，在ForkJoinPool里并行遍历，每个文件查一次暂存区和head提交的文件表：
+ * 暂存过的文件stat信息没变就不读内容，否则计算hash和暂存的版本比较；只在head提交里的文件和提交的版本比较，
+ * 暂存区同样记录了这些文件上次确认一致时的stat信息，stat没变就不读内容；
+ * 两边都没有的是未跟踪的文件。遍历结束后暂存区或head提交里有、但是没有遇到的文件就是被删除的文件。
+ * watch进程在运行时，也可以只检查它记下的脏路径，head提交的文件列表只按路径查找，不用展开整棵目录树。
+ * 不管哪种方式，所有不是"已暂存并且内容一致"的路径都会记在pending里，交给下一次只检查脏路径的status。
+ *
+ * 每一类文件交给一个SortedSpill收集，数量超过阈值时排好序写到临时文件里，
+ * 输出时把这些有序的片段归并起来逐行打印，改动很多时也不需要把所有路径都留在内存里
+ */
+
+public class StatusEngine {
+
+    /**
+     * status报告的文件分类，按输出的顺序排列
+     */
+    public enum Kind {
+        STAGED_MODIFIED("Staged but modified files:"),
+        STAGED_REMOVED("Staged but removed files:"),
+        COMMITTED_MODIFIED("Committed but modified files:"),
+        COMMITTED_REMOVED("Committed but removed files:"),
+        UNTRACKED("Untracked files:");
+
+        private final String title;
+
+        Kind(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    //每一类文件在内存里最多保留这么多条路径，超过之后排序写到临时文件
+    static final int SPILL_THRESHOLD = 100_000;
+
+    private final Stage stage;
+    private final Commit head;
+    //head提交展开之后的文件列表，只有完整遍历时才需要
+    private Map<String, String> headFiles;
+    private final int parallelism;
+
+    private final Map<Kind, SortedSpill> results = new EnumMap<>(Kind.class);
+    //遍历时遇到的、被暂存区或者head提交跟踪的文件
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    //内容没变、只是stat信息变了的暂存文件，遍历结束后统一更新暂存区
+    private final Map<String, FileStat> refreshed = new ConcurrentHashMap<>();
+    //确认和head提交一致的没有暂存的文件
+    private final Map<String, FileStat> verified = new ConcurrentHashMap<>();
+    //不是"已暂存并且内容一致"的路径：被修改、删除、未跟踪的文件，以及没有暂存、只在head提交里的文件
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param stage 暂存区
+     * @param head head提交，可以为null
+     * @param parallelism 并行遍历的线程数
+     */
+    public StatusEngine(Stage stage, Commit head, int parallelism) {
+        this.stage = stage;
+        this.head = head;
+        this.parallelism = Math.max(1, parallelism);
+        for (Kind kind : Kind.values())
+            results.put(kind, new SortedSpill(SPILL_THRESHOLD));
+    }
+
+    /**
+     * 遍历工作目录并分类，结果由print输出
+     * @param root 工作目录
+     * @return 暂存区是否因为更新stat信息而被修改
+     */
+    public boolean scan(Path root) throws IOException {
+        headFiles = head == null ? Collections.emptyMap() : head.getFiles();
+        invoke(new DirectoryTask(root, true));
+        for (String file : stage.getTrackingFiles().keySet())
+            if (!seen.contains(file))
+                report(Kind.STAGED_REMOVED, file);
+        for (String file : headFiles.keySet())
+            if (!seen.contains(file) && stage.getHashOfFile(file) == null)
+                report(Kind.COMMITTED_REMOVED, file);
+        return updateStage() | stage.retainVerified(headFiles.keySet());
+    }
+
+    /**
+     * 只检查给定的路径，其余文件认为是已暂存并且内容一致的
+     * @param root 工作目录
+     * @param paths watch记录的脏路径和上次的pending，可以已经不存在或者变成了目录
+     * @return 暂存区是否因为更新stat信息而被修改
+     */
+    public boolean scan(Path root, Collection<String> paths) throws IOException {
+        invoke(new PathsTask(root, new ArrayList<>(paths), 0, paths.size()));
+        return updateStage();
+    }
+
+    /**
+     * @return 不是"已暂存并且内容一致"的所有路径
+     */
+    public Set<String> getPending() {
+        return pending;
+    }
+
+    private void invoke(RecursiveAction task) throws IOException {
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        try {
+            workers.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private boolean updateStage() {
+        boolean changed = false;
+        for (Map.Entry<String, FileStat> entry : refreshed.entrySet())
+            changed |= stage.refresh(entry.getKey(), entry.getValue());
+        for (Map.Entry<String, FileStat> entry : verified.entrySet())
+            changed |= stage.verify(entry.getKey(), headHash(entry.getKey()), entry.getValue());
+        return changed;
+    }
+
+    private String headHash(String file) {
+        if (headFiles != null)
+            return headFiles.get(file);
+        return head == null ? null : head.getHashOfFile(file);
+    }
+
+    private void report(Kind kind, String file) {
+        results.get(kind).add(file);
+        pending.add(file);
+    }
+
+    /**
+     * 按Kind的顺序输出每一类文件，每一类内部按路径排序
+     */
+    public void print(PrintStream out) throws IOException {
+        for (Kind kind : Kind.values()) {
+            out.println();
+            out.println(kind.getTitle());
+            results.get(kind).drainSorted(out::println);
+        }
+    }
+
+    /**
+     * 删除还没有输出的临时文件
+     */
+    public void close() {
+        results.values().forEach(SortedSpill::close);
+    }
+
+    private void classify(Path file) {
+        String relative = Utils.getRelativeDir(file);
+        String staged = stage.getHashOfFile(relative);
+        String committed = staged == null ? headHash(relative) : null;
+        if (staged == null && committed == null) {
+            report(Kind.UNTRACKED, relative);
+            return;
+        }
+        seen.add(relative);
+        FileStat stat = FileStat.of(file);
+        if (staged != null) {
+            //stat信息和暂存时一样，不用读文件内容
+            if (stage.isClean(relative, stat))
+                return;
+            if (!Utils.encrypt(file, "SHA-1").equals(staged))
+                report(Kind.STAGED_MODIFIED, relative);
+            else if (stat != null)
+                refreshed.put(relative, stat);
+        } else {
+            //没有暂存的文件不管有没有修改，下次add .都要暂存它
+            pending.add(relative);
+            if (stage.isVerified(relative, committed, stat))
+                return;
+            if (!Utils.encrypt(file, "SHA-1").equals(committed))
+                report(Kind.COMMITTED_MODIFIED, relative);
+            else if (stat != null)
+                verified.put(relative, stat);
+        }
+    }
+
+    /**
+     * 检查一条脏路径：文件直接分类，不存在或者不再是文件的路径按被删除处理。
+     * 新出现的目录里的文件watch进程都会单独记下来，所以目录本身不用遍历
+     */
+    private void classifyPath(Path root, String relative) {
+        Path path = root.resolve(relative);
+        //和add一样跳过工作目录下以.开头的文件和目录
+        if (Paths.get(relative).getName(0).toString().startsWith("."))
+            return;
+        BasicFileAttributes attributes = null;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            //按被删除处理
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (attributes != null && !attributes.isDirectory()) {
+            classify(path);
+            return;
+        }
+        if (stage.getHashOfFile(relative) != null)
+            report(Kind.STAGED_REMOVED, relative);
+        else if (headHash(relative) != null)
+            report(Kind.COMMITTED_REMOVED, relative);
+    }
+
+    /**
+     * 把一批脏路径对半拆开并行检查
+     */
+    private class PathsTask extends RecursiveAction {
+        private static final long serialVersionUID = 6246206561120732244L;
+        //每个任务直接检查的路径数
+        private static final int BATCH = 256;
+
+        private final Path root;
+        private final List<String> paths;
+        private final int from, to;
+
+        PathsTask(Path root, List<String> paths, int from, int to) {
+            this.root = root;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PathsTask(root, paths, from, middle), new PathsTask(root, paths, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++)
+                classifyPath(root, paths.get(i));
+        }
+    }
+
+    /**
+     * 遍历一个目录：文件直接分类，子目录拆成新的任务
+     */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 4916728783230925714L;
+
+        private final Path directory;
+        private final boolean top;
+
+        DirectoryTask(Path directory, boolean top) {
+            this.directory = directory;
+            this.top = top;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    //和add一样跳过工作目录下以.开头的文件和目录，包括.gitlet
+                    if (top && entry.getFileName().toString().startsWith("."))
+                        continue;
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory())
+                        subtasks.add(new DirectoryTask(entry, false));
+                    else
+                        classify(entry);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * 收集一类文件的路径，超过阈值时把内存里的部分排序写成一个有序片段，输出时归并所有片段
+     */
+    static class SortedSpill {
+        private final int threshold;
+        private List<String> buffer = new ArrayList<>();
+        private final List<Path> runs = new ArrayList<>();
+
+        SortedSpill(int threshold) {
+            this.threshold = threshold;
+        }
+
+        synchronized void add(String path) {
+            buffer.add(path);
+            if (buffer.size() >= threshold) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void spill() throws IOException {
+            Collections.sort(buffer);
+            Path run = Files.createTempFile(Utils.getGitDirPath(), "status", ".run");
+            runs.add(run);
+            try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                for (String path : buffer) {
+                    writer.write(path);
+                    writer.newLine();
+                }
+            }
+            buffer = new ArrayList<>();
+        }
+
+        /**
+         * 按顺序把所有路径交给action，然后清空
+         */
+        synchronized void drainSorted(java.util.function.Consumer<String> action) throws IOException {
+            Collections.sort(buffer);
+            if (runs.isEmpty()) {
+                buffer.forEach(action);
+                buffer.clear();
+                return;
+            }
+            List<BufferedReader> readers = new ArrayList<>();
+            try {
+                //优先队列里是每个片段当前的第一行：路径和片段的下标，内存里的部分用下标-1表示
+                PriorityQueue<Map.Entry<String, Integer>> heads = new PriorityQueue<>(Map.Entry.comparingByKey());
+                for (int i = 0; i < runs.size(); i++) {
+                    BufferedReader reader = Files.newBufferedReader(runs.get(i), StandardCharsets.UTF_8);
+                    readers.add(reader);
+                    String line = reader.readLine();
+                    if (line != null)
+                        heads.add(new AbstractMap.SimpleEntry<>(line, i));
+                }
+                Iterator<String> memory = buffer.iterator();
+                if (memory.hasNext())
+                    heads.add(new AbstractMap.SimpleEntry<>(memory.next(), -1));
+                while (!heads.isEmpty()) {
+                    Map.Entry<String, Integer> head = heads.poll();
+                    action.accept(head.getKey());
+                    int source = head.getValue();
+                    String next = source < 0 ? (memory.hasNext() ? memory.next() : null) : readers.get(source).readLine();
+                    if (next != null)
+                        heads.add(new AbstractMap.SimpleEntry<>(next, source));
+                }
+            } finally {
+                for (BufferedReader reader : readers)
+                    reader.close();
+                buffer.clear();
+                close();
+            }
+        }
+
+        synchronized void close() {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ignored) { }
+            }
+            runs.clear();
+        }
+    }
+}
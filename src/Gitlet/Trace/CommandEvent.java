@@ -0,0 +1,25 @@
+package Gitlet.Trace;
+
+import jdk.jfr.*;
+
+/**
+ * 一条命令从开始到写回组件的JFR事件，里面的各个阶段是同一线程上的PhaseEvent
+ */
+
+@Name("gitlet.Command")
+@Label("Gitlet Command")
+@Category("Gitlet")
+@Description("A gitlet command, cold or executed by the daemon")
+@StackTrace(false)
+class CommandEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Mode")
+    @Description("cold or resident")
+    String mode;
+
+    @Label("Succeeded")
+    boolean ok;
+}
@@ -0,0 +1,34 @@
+package Gitlet.Trace;
+
+import jdk.jfr.*;
+
+/**
+ * 命令中一个阶段的JFR事件：加载组件、计算hash、保存快照、写工作目录、求共同祖先、写回组件
+ *
+ * 没有开启Flight Recorder时事件不会被提交，开销只是创建一个对象
+ */
+
+@Name("gitlet.Phase")
+@Label("Gitlet Phase")
+@Category("Gitlet")
+@Description("One phase of a gitlet command with its I/O counters")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Files Hashed")
+    int filesHashed;
+
+    @Label("Commits Visited")
+    int commitsVisited;
+}
@@ -0,0 +1,228 @@
+package Gitlet.Trace;
+
+import Gitlet.Utility.Config;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * 每条命令的阶段耗时和计数
+ *
+ * 各个阶段用begin开始、close结束，结束时提交一个PhaseEvent，开着Flight Recorder时可以在JMC里看到。
+ * 命令带着--trace或者配置了trace.metrics时，还会按阶段名累计次数、耗时、读写的字节数、计算hash的文件数和访问的提交数，
+ * 命令结束后--trace把汇总打印到标准错误，trace.metrics把它作为一行JSON追加到指定的文件。
+ * 阶段可以嵌套（比如写回commitChain时计算树对象的hash），并行计算的阶段累计的是各线程的时间之和，所以各阶段的耗时加起来可能超过命令的总耗时
+ */
+
+public class Trace {
+
+    //放在命令前面的全局选项：gitlet --trace <command> ...
+    public static final String FLAG = "--trace";
+
+    private static final Span NONE = new Span(null, null);
+
+    //正在收集的命令，没有在收集时为null
+    private static volatile Command current;
+
+    /**
+     * 一个阶段，由开始它的线程使用
+     */
+    public static class Span implements AutoCloseable {
+        private final String phase;
+        private final PhaseEvent event;
+        private final long start = System.nanoTime();
+        private long bytesRead, bytesWritten;
+        private int filesHashed, commitsVisited;
+
+        private Span(String phase, PhaseEvent event) {
+            this.phase = phase;
+            this.event = event;
+        }
+
+        /**
+         * @return 这个阶段的计数有没有人用，没有时调用者可以省去额外的统计
+         */
+        public boolean isRecording() {
+            return this != NONE;
+        }
+
+        public Span read(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        public Span written(long bytes) {
+            bytesWritten += bytes;
+            return this;
+        }
+
+        public Span hashed(int files) {
+            filesHashed += files;
+            return this;
+        }
+
+        public Span visited(int commits) {
+            commitsVisited += commits;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (this == NONE)
+                return;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.filesHashed = filesHashed;
+                event.commitsVisited = commitsVisited;
+                event.commit();
+            }
+            Command command = current;
+            if (command != null)
+                command.add(this, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 一个阶段在一条命令里的累计值
+     */
+    private static class Totals {
+        long count, nanos, bytesRead, bytesWritten, filesHashed, commitsVisited;
+    }
+
+    /**
+     * 正在执行的命令
+     */
+    private static class Command {
+        final String name;
+        final boolean print;
+        final Path metrics;
+        final CommandEvent event = new CommandEvent();
+        final long start = System.nanoTime();
+        //按第一次出现的顺序排列
+        final Map<String, Totals> phases = new LinkedHashMap<>();
+
+        Command(String name, boolean print, Path metrics) {
+            this.name = name;
+            this.print = print;
+            this.metrics = metrics;
+            event.begin();
+        }
+
+        synchronized void add(Span span, long nanos) {
+            Totals totals = phases.computeIfAbsent(span.phase, phase -> new Totals());
+            totals.count++;
+            totals.nanos += nanos;
+            totals.bytesRead += span.bytesRead;
+            totals.bytesWritten += span.bytesWritten;
+            totals.filesHashed += span.filesHashed;
+            totals.commitsVisited += span.commitsVisited;
+        }
+    }
+
+    /**
+     * 开始一个阶段，没有人收集、也没有开Flight Recorder时返回一个什么都不做的Span
+     * @param phase 阶段名，相同名字的阶段在汇总里合并
+     */
+    public static Span begin(String phase) {
+        PhaseEvent event = new PhaseEvent();
+        if (current == null && !event.isEnabled())
+            return NONE;
+        event.begin();
+        return new Span(phase, event);
+    }
+
+    /**
+     * 一条命令开始执行，同一时间只有一条命令（守护进程也是逐条执行）
+     * @param command 命令名
+     * @param print 是否在命令结束后打印各阶段的耗时
+     */
+    public static void startCommand(String command, boolean print) {
+        String metrics = Config.get(Config.TRACE_METRICS, "").trim();
+        current = new Command(command, print, metrics.isEmpty() ? null : Paths.get(metrics));
+    }
+
+    /**
+     * 命令结束，提交CommandEvent，按需打印汇总、追加一行JSON
+     * @param mode cold或者resident
+     * @param ok 命令是否成功执行，被中止的命令什么都不写回
+     */
+    public static void finishCommand(String mode, boolean ok) {
+        Command command = current;
+        if (command == null)
+            return;
+        current = null;
+        long nanos = System.nanoTime() - command.start;
+        command.event.end();
+        if (command.event.shouldCommit()) {
+            command.event.command = command.name;
+            command.event.mode = mode;
+            command.event.ok = ok;
+            command.event.commit();
+        }
+        if (command.print)
+            print(command, nanos, System.err);
+        if (command.metrics != null) {
+            try {
+                Files.write(command.metrics, (toJson(command, mode, ok, nanos) + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("can not append metrics to " + command.metrics + ": " + e);
+            }
+        }
+    }
+
+    private static void print(Command command, long nanos, PrintStream out) {
+        out.printf("trace %s: %.3f ms%n", command.name, nanos / 1e6);
+        command.phases.forEach((phase, totals) -> {
+            StringBuilder line = new StringBuilder(String.format("  %-18s %6dx %10.3f ms", phase, totals.count,
+                    totals.nanos / 1e6));
+            if (totals.bytesRead > 0)
+                line.append("  read ").append(totals.bytesRead).append(" B");
+            if (totals.bytesWritten > 0)
+                line.append("  written ").append(totals.bytesWritten).append(" B");
+            if (totals.filesHashed > 0)
+                line.append("  hashed ").append(totals.filesHashed);
+            if (totals.commitsVisited > 0)
+                line.append("  visited ").append(totals.commitsVisited).append(" commits");
+            out.println(line);
+        });
+    }
+
+    /**
+     * {"time":...,"command":...,"mode":...,"ok":...,"nanos":...,"phases":{阶段名:{"count":...,"nanos":...,...}}}
+     */
+    private static String toJson(Command command, String mode, boolean ok, long nanos) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"time\":").append(quote(Instant.now().toString()));
+        json.append(",\"command\":").append(quote(command.name));
+        json.append(",\"mode\":").append(quote(mode));
+        json.append(",\"ok\":").append(ok);
+        json.append(",\"nanos\":").append(nanos);
+        json.append(",\"phases\":{");
+        StringJoiner phases = new StringJoiner(",");
+        command.phases.forEach((phase, totals) -> phases.add(quote(phase) + ":{\"count\":" + totals.count
+                + ",\"nanos\":" + totals.nanos + ",\"bytesRead\":" + totals.bytesRead
+                + ",\"bytesWritten\":" + totals.bytesWritten + ",\"filesHashed\":" + totals.filesHashed
+                + ",\"commitsVisited\":" + totals.commitsVisited + "}"));
+        return json.append(phases).append("}}").toString();
+    }
+
+    private static String quote(String str) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            if (c == '"' || c == '\\')
+                out.append('\\').append(c);
+            else if (c < 0x20)
+                out.append(String.format("\\u%04x", (int) c));
+            else
+                out.append(c);
+        }
+        return out.append('"').toString();
+    }
+}
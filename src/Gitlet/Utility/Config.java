@@ -0,0 +1,85 @@
+package Gitlet.Utility;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * 仓库级别的配置，保存在.gitlet/config中，格式为Java properties文件
+ *
+ * 目前支持的配置项：
+ * core.compression  新快照的压缩方式：none、deflate或lz，默认deflate
+ * add.parallelism   add时并行计算hash和保存快照的线程数，默认为CPU核数
+ * checkout.parallelism  checkout、reset、merge时并发写文件的线程数，默认为CPU核数的两倍
+ * checkout.link     没有压缩的快照怎样放进工作目录：none、reflink、hardlink或auto，默认none总是复制
+ * status.parallelism    status时并行遍历工作目录和计算hash的线程数，默认为CPU核数
+ * gc.grace          gc的宽限期（秒），比它新的对象即使没有被引用也保留，默认1209600（两周）
+ * gc.parallelism    gc时并行标记的线程数，默认为CPU核数
+ * trace.metrics     每条命令结束后把各阶段的耗时和计数作为一行JSON追加到这个文件，默认不记录
+ */
+
+public class Config {
+
+    public static final String COMPRESSION = "core.compression";
+    public static final String ADD_PARALLELISM = "add.parallelism";
+    public static final String CHECKOUT_PARALLELISM = "checkout.parallelism";
+    public static final String CHECKOUT_LINK = "checkout.link";
+    public static final String STATUS_PARALLELISM = "status.parallelism";
+    public static final String GC_GRACE = "gc.grace";
+    public static final String GC_PARALLELISM = "gc.parallelism";
+    public static final String TRACE_METRICS = "trace.metrics";
+
+    private static Properties properties;
+
+    public static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static void set(String key, String value) throws IOException {
+        Properties p = load();
+        p.setProperty(key, value);
+        try (Writer out = Files.newBufferedWriter(Utils.getConfigPath())) {
+            p.store(out, null);
+        }
+    }
+
+    /**
+     * @return 按键排序的全部配置项
+     */
+    public static TreeMap<String, String> all() {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (String key : load().stringPropertyNames())
+            entries.put(key, load().getProperty(key));
+        return entries;
+    }
+
+    /**
+     * 守护进程里配置文件可能被其他命令修改，每条命令开始前重新读取
+     */
+    public static void reload() {
+        properties = null;
+    }
+
+    private static Properties load() {
+        if (properties == null) {
+            properties = new Properties();
+            if (Files.exists(Utils.getConfigPath())) {
+                try (Reader in = Files.newBufferedReader(Utils.getConfigPath())) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,18 @@
+package Gitlet.Utility.Exceptions;
+
+import java.util.List;
+
+public class AmbiguousCommitException extends Exception {
+
+    private static final long serialVersionUID = -8523367743111383270L;
+
+    private List<String> candidates;
+
+    public AmbiguousCommitException(List<String> candidates) {
+        this.candidates = candidates;
+    }
+
+    public List<String> getCandidates() {
+        return candidates;
+    }
+}
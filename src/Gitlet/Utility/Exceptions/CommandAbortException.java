@@ -0,0 +1,11 @@
+package Gitlet.Utility.Exceptions;
+
+/**
+ * 命令执行失败、需要放弃本次所有修改时抛出
+ *
+ * 冷启动时等价于原来的System.exit(0)，守护进程里则只结束当前这一条命令
+ */
+public class CommandAbortException extends RuntimeException {
+
+    private static final long serialVersionUID = 7812745962845858917L;
+}
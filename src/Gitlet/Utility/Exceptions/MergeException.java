@@ -1,14 +1,32 @@
 package Gitlet.Utility.Exceptions;
 
+import java.util.Map;
+
 public class MergeException extends Exception {
 
-    private String conflictSource;
+    private static final long serialVersionUID = 3894162047712215829L;
+
+    //冲突的文件 -> 冲突的原因，按文件名排序
+    private Map<String, String> conflicts;
+    //合并结果的文件列表和目录树，冲突的文件是带着冲突标记的版本
+    private Map<String, String> files;
+    private String tree;
+
+    public MergeException(Map<String, String> conflicts, Map<String, String> files, String tree) {
+        this.conflicts = conflicts;
+        this.files = files;
+        this.tree = tree;
+    }
+
+    public Map<String, String> getConflicts() {
+        return conflicts;
+    }
 
-    public MergeException(String conflictSource) {
-        this.conflictSource = conflictSource;
+    public Map<String, String> getFiles() {
+        return files;
     }
 
-    public String getConflictSource() {
-        return conflictSource;
+    public String getTree() {
+        return tree;
     }
 }
@@ -0,0 +1,265 @@
+package Gitlet.Utility;
+
+import Gitlet.Blobs.BlobPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把快照写回工作目录
+ *
+ * 先按顺序创建所有需要的父目录，再在一个有界线程池里并发地恢复文件，
+ * 每个线程同一时刻最多打开一个快照和一个目标文件，所以打开的文件句柄数不超过线程数的两倍。
+ * 单个文件失败不会中断其他文件，所有错误收集起来最后一起返回
+ *
+ * 配置了checkout.link时，可以直接链接的快照（松散存放、没有压缩、不是差量）不复制内容，
+ * 先尝试写时复制的克隆，再尝试硬链接，都不行时才复制。克隆要为每个文件启动一个cp进程，
+ * 小于REFLINK_MIN_SIZE的快照不克隆：REFLINK时直接复制，AUTO时尝试硬链接。硬链接的文件和对象库中的快照共用一个inode，
+ * 所以是只读的，要修改时先删掉再写；写回工作目录时总是先删除旧文件，断开可能存在的链接
+ */
+
+public class Materializer {
+
+    //启动一个cp进程的开销和复制1MiB差不多，更小的快照克隆不划算
+    static final long REFLINK_MIN_SIZE = 1 << 20;
+
+    /**
+     * 可以直接链接的快照怎样放进工作目录
+     */
+    public enum LinkMode {
+        //总是复制内容
+        NONE,
+        //写时复制的克隆，文件系统不支持时复制
+        REFLINK,
+        //硬链接到对象库中的快照，不在同一个文件系统时复制
+        HARDLINK,
+        //先尝试克隆，再尝试硬链接，最后复制
+        AUTO;
+
+        /**
+         * @param name 配置中的名字，不区分大小写
+         * @throws IllegalArgumentException 没有这个名字的方式
+         */
+        public static LinkMode of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final BlobPool blobPool;
+    private final int parallelism;
+    private final LinkMode linkMode;
+    //克隆或硬链接失败一次之后，这次checkout里就不再尝试
+    private volatile boolean reflinkFailed, hardlinkFailed;
+    private final AtomicInteger cloned = new AtomicInteger(), linked = new AtomicInteger();
+    //从快照复制出来的字节数，克隆和硬链接的文件不算
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param blobPool 文件池
+     * @param parallelism 并发写文件的线程数，为1时在当前线程里顺序写
+     */
+    public Materializer(BlobPool blobPool, int parallelism) {
+        this(blobPool, parallelism, LinkMode.NONE);
+    }
+
+    /**
+     * @param blobPool 文件池
+     * @param parallelism 并发写文件的线程数，为1时在当前线程里顺序写
+     * @param linkMode 可以直接链接的快照怎样放进工作目录
+     */
+    public Materializer(BlobPool blobPool, int parallelism, LinkMode linkMode) {
+        this.blobPool = blobPool;
+        this.parallelism = Math.max(1, parallelism);
+        this.linkMode = linkMode;
+    }
+
+    /**
+     * 按配置checkout.parallelism和checkout.link创建
+     *
+     * 并行度没有配置时使用CPU核数的两倍，写文件主要在等IO；链接方式没有配置或者无法识别时总是复制
+     */
+    public static Materializer configured(BlobPool blobPool) {
+        LinkMode linkMode;
+        try {
+            linkMode = LinkMode.of(Config.get(Config.CHECKOUT_LINK, "none"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("unknown checkout.link, copying files instead.");
+            linkMode = LinkMode.NONE;
+        }
+        return new Materializer(blobPool,
+                Config.getInt(Config.CHECKOUT_PARALLELISM, Runtime.getRuntime().availableProcessors() * 2), linkMode);
+    }
+
+    /**
+     * @return 通过克隆放进工作目录的文件数
+     */
+    public int getClonedCount() {
+        return cloned.get();
+    }
+
+    /**
+     * @return 通过硬链接放进工作目录的文件数
+     */
+    public int getLinkedCount() {
+        return linked.get();
+    }
+
+    /**
+     * @return 从快照复制进工作目录的字节数
+     */
+    public long getWrittenBytes() {
+        return written.get();
+    }
+
+    /**
+     * 把一批快照恢复到工作目录
+     * @param files 文件的相对路径 -> 快照的hash
+     * @return 失败的文件和原因，全部成功时为空
+     */
+    public List<String> write(Map<String, String> files) {
+        List<String> errors = new ArrayList<>();
+        SortedSet<Path> dirs = new TreeSet<>();
+        for (String file : files.keySet()) {
+            Path parent = Paths.get(file).getParent();
+            if (parent != null)
+                dirs.add(parent);
+        }
+        for (Path dir : dirs) {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                errors.add(dir + ": " + e);
+            }
+        }
+        if (parallelism == 1 || files.size() < 2) {
+            files.forEach((file, hash) -> restore(file, hash, errors));
+            return errors;
+        }
+        List<String> concurrentErrors = Collections.synchronizedList(errors);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, files.size()), runnable -> {
+            Thread thread = new Thread(runnable, "gitlet-checkout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            files.forEach((file, hash) -> futures.add(workers.submit(() -> restore(file, hash, concurrentErrors))));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    concurrentErrors.add(e.getCause().toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            concurrentErrors.add("checkout interrupted");
+        } finally {
+            workers.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * 删除一批文件，以及因此变空的目录
+     * @param files 文件的相对路径
+     * @return 失败的文件和原因，全部成功时为空
+     */
+    public List<String> delete(Collection<String> files) {
+        List<String> errors = new ArrayList<>();
+        for (String file : files) {
+            try {
+                Path target = Paths.get(file);
+                Files.deleteIfExists(target);
+                removeEmptyParents(target);
+            } catch (IOException e) {
+                errors.add(file + ": " + e);
+            }
+        }
+        return errors;
+    }
+
+    private void restore(String file, String hash, List<String> errors) {
+        try {
+            Path target = Paths.get(file);
+            Path object = linkMode == LinkMode.NONE ? null : blobPool.getLinkableObject(hash);
+            if (object != null && link(object, target))
+                return;
+            blobPool.restoreFile(hash, target);
+            written.addAndGet(target.toFile().length());
+        } catch (IOException | RuntimeException e) {
+            errors.add(file + ": " + e);
+        }
+    }
+
+    /**
+     * 按linkMode把快照文件克隆或者硬链接到target
+     * @return 是否成功，失败时target不存在
+     */
+    private boolean link(Path object, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if ((linkMode == LinkMode.REFLINK || linkMode == LinkMode.AUTO) && !reflinkFailed
+                && Files.size(object) >= REFLINK_MIN_SIZE) {
+            if (reflink(object, target)) {
+                cloned.incrementAndGet();
+                return true;
+            }
+            reflinkFailed = true;
+        }
+        if ((linkMode == LinkMode.HARDLINK || linkMode == LinkMode.AUTO) && !hardlinkFailed) {
+            try {
+                Files.createLink(target, object);
+                linked.incrementAndGet();
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                hardlinkFailed = true;
+                Files.deleteIfExists(target);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Java没有提供FICLONE，借助cp --reflink=always克隆，
+     * 文件系统不支持写时复制时cp直接失败而不是退回复制
+     */
+    private static boolean reflink(Path object, Path target) throws IOException {
+        Process cp = new ProcessBuilder("cp", "--reflink=always", object.toString(), target.toString())
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            if (cp.waitFor() != 0) {
+                Files.deleteIfExists(target);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cp.destroy();
+            Files.deleteIfExists(target);
+            throw new InterruptedIOException();
+        }
+        //克隆出来的文件是独立的，去掉从快照带过来的只读权限
+        target.toFile().setWritable(true);
+        return true;
+    }
+
+    /**
+     * 删除文件之后，顺着父目录往上删掉变空了的目录，直到仓库根目录
+     */
+    private static void removeEmptyParents(Path file) throws IOException {
+        for (Path dir = file.getParent(); dir != null; dir = dir.getParent()) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                if (children.iterator().hasNext())
+                    return;
+            }
+            Files.delete(dir);
+        }
+    }
+}
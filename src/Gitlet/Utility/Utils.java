@@ -1,15 +1,20 @@
 package Gitlet.Utility;
 
-import Gitlet.Blobs.Blob;
 import Gitlet.Blobs.BlobPool;
+import Gitlet.Commits.Commit;
 import Gitlet.Commits.CommitChain;
+import Gitlet.Commits.CommitJournal;
+import Gitlet.Commits.TreeStore;
+import Gitlet.Search.CommitIndex;
 import Gitlet.Stage.Stage;
+import Gitlet.Trace.Trace;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.security.*;
-import java.util.Collection;
+import java.util.*;
 
 /**
  * 工具类，封装一些常用操作
@@ -24,8 +29,18 @@ public class Utils {
     public static final String GIT_DIR_NAME = ".gitlet";
     public static final String STAGE_SERIALIZATION_NAME = "stage";
     public static final String COMMIT_CHAIN_SERIALIZATION_NAME = "commitchain";
+    public static final String COMMIT_JOURNAL_NAME = "commitjournal";
+    public static final String COMMIT_GRAPH_NAME = "commitgraph";
+    public static final String COMMIT_STORE_NAME = "commits";
+    public static final String SEARCH_INDEX_DIR_NAME = "searchindex";
     public static final String FILES_DIR_NAME = "objects";
+    public static final String TREES_DIR_NAME = "trees";
     public static final String BLOB_POOL_SERIALIZATION_NAME = "blobs";
+    public static final String DAEMON_FILE_NAME = "daemon";
+    public static final String PACKS_DIR_NAME = "packs";
+    public static final String CONFIG_FILE_NAME = "config";
+    public static final String WATCH_DIR_NAME = "watch";
+    public static final String MERGE_FILE_NAME = "merging";
 
     public static Path getGitDirPath() {
         return Paths.get(GIT_DIR_NAME);
@@ -37,23 +52,78 @@ public class Utils {
         return getGitDirPath().resolve(COMMIT_CHAIN_SERIALIZATION_NAME);
     }
 
+    public static Path getCommitJournalPath() { return getGitDirPath().resolve(COMMIT_JOURNAL_NAME); }
+
+    public static Path getCommitGraphPath() { return getGitDirPath().resolve(COMMIT_GRAPH_NAME); }
+
+    public static Path getCommitStorePath() { return getGitDirPath().resolve(COMMIT_STORE_NAME); }
+
+    public static Path getSearchIndexPath() { return getGitDirPath().resolve(SEARCH_INDEX_DIR_NAME); }
+
     public static Path getBlobsPath() { return getGitDirPath().resolve(BLOB_POOL_SERIALIZATION_NAME); }
 
     public static Path getFilesPath() { return getGitDirPath().resolve(FILES_DIR_NAME); }
 
+    public static Path getTreesPath() { return getGitDirPath().resolve(TREES_DIR_NAME); }
+
+    public static Path getPacksPath() { return getGitDirPath().resolve(PACKS_DIR_NAME); }
+
+    public static Path getConfigPath() { return getGitDirPath().resolve(CONFIG_FILE_NAME); }
+
+    public static Path getDaemonFilePath() { return getGitDirPath().resolve(DAEMON_FILE_NAME); }
+
+    public static Path getWatchPath() { return getGitDirPath().resolve(WATCH_DIR_NAME); }
+
+    public static Path getMergeFilePath() { return getGitDirPath().resolve(MERGE_FILE_NAME); }
+
     /**
-     * 从SHA-1字符串中截取后6位
-     *
-     * 主要作为某次commit的目录名称使用
-     * @param hash SHA-1字符串
-     * @return hash的后六位
+     * 检查工作目录是否已经被初始化
      */
-    public static String fromHash2DirName(String hash) { return hash.substring(hash.length()-6); }
+
+
+    //每个线程复用自己的MessageDigest实例，不用每次计算hash都重新创建
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    //流式计算文件hash时每次读取的字节数
+    public static final int IO_BUFFER_SIZE = 64 * 1024;
 
     /**
-     * 检查工作目录是否已经被初始化
+     * 获取当前线程复用的、已经重置过的MessageDigest
+     * @param algorithm 算法名称，例如SHA-1
+     */
+    public static MessageDigest digest(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest md = digests.get(algorithm);
+        if (md == null) {
+            md = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, md);
+        }
+        md.reset();
+        return md;
+    }
+
+    /**
+     * 把摘要转换成定长的十六进制字符串，保留开头的0
      */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
 
+    /**
+     * toHex的逆操作
+     * @param hex 偶数长度的十六进制字符串
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (Character.digit(hex.charAt(i * 2), 16) << 4 | Character.digit(hex.charAt(i * 2 + 1), 16));
+        return bytes;
+    }
 
     /**
      * 计算字符串的sha-1值
@@ -61,52 +131,100 @@ public class Utils {
      * @return 该字符串的sha-1值
      */
     public static String encrypt(String str, String algorithm)  {
-        try {
-            MessageDigest md = MessageDigest.getInstance(algorithm);
-            byte[] bytes = md.digest(str.getBytes());
-            return new BigInteger(1, bytes).toString(16);
+        return encrypt(str.getBytes(), algorithm);
+    }
+
+    public static String encrypt(byte[] bytes, String algorithm) {
+        try (Trace.Span span = Trace.begin("hash")) {
+            span.hashed(1).read(bytes.length);
+            return toHex(digest(algorithm).digest(bytes));
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
             return "impossible";
         }
     }
 
+    /**
+     * 以固定大小的缓冲区流式计算文件的hash，内存占用和文件大小无关
+     */
     public static String encrypt(Path file, String algorithm) {
-        try {
-            MessageDigest md = MessageDigest.getInstance(algorithm);
-            byte[] bytes = md.digest(Files.readAllBytes(file));
-            return new BigInteger(1, bytes).toString(16);
+        try (Trace.Span span = Trace.begin("hash").hashed(1);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest md = digest(algorithm);
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            int n;
+            while ((n = channel.read(buffer)) >= 0) {
+                span.read(n);
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return toHex(md.digest());
         } catch (IOException | NoSuchAlgorithmException e) {
             e.printStackTrace();
             return "impossible";
         }
     }
 
+    /**
+     * 把commitChain的修改追加到日志里，日志积累到一定程度时才整体写一次检查点
+     */
     public static void serializeCommitChain(CommitChain cc) {
-        try {
-            ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(getCommitChainPath().toString()));
-            oos.writeObject(cc);
-            oos.close();
+        Path[] appended = {getCommitStorePath(), getCommitJournalPath()};
+        Path[] rewritten = {getCommitChainPath(), getCommitGraphPath()};
+        try (Trace.Span span = Trace.begin("save.commitChain")) {
+            long[] before = span.isRecording() ? fileState(appended, rewritten) : null;
+            cc.saveCommits();
+            CommitJournal.save(cc, getCommitChainPath(), getCommitJournalPath());
+            cc.saveGraph(getCommitGraphPath());
+            CommitIndex.open(getSearchIndexPath()).sync(cc);
+            cc.clearAddedCommits();
+            if (span.isRecording()) {
+                //追加写的文件按增长的长度算，整体重写的文件按新的长度算
+                long[] after = fileState(appended, rewritten);
+                for (int i = 0; i < appended.length; i++)
+                    span.written(Math.max(0, after[i] - before[i]));
+                for (int i = appended.length; i < after.length; i += 2)
+                    if (after[i + 1] != before[i + 1])
+                        span.written(after[i]);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return appended里每个文件的长度，然后是rewritten里每个文件的长度和修改时间
+     */
+    private static long[] fileState(Path[] appended, Path[] rewritten) {
+        long[] state = new long[appended.length + 2 * rewritten.length];
+        for (int i = 0; i < appended.length; i++)
+            state[i] = appended[i].toFile().length();
+        for (int i = 0; i < rewritten.length; i++) {
+            state[appended.length + 2 * i] = rewritten[i].toFile().length();
+            state[appended.length + 2 * i + 1] = rewritten[i].toFile().lastModified();
+        }
+        return state;
+    }
+
     public static void serializeBlobPool(BlobPool bp) {
-        try {
+        try (Trace.Span span = Trace.begin("save.blobPool")) {
             ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(getBlobsPath().toString()));
             oos.writeObject(bp);
             oos.close();
+            span.written(getBlobsPath().toFile().length());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public static void serializeStage(Stage stage) {
-        try {
+        try (Trace.Span span = Trace.begin("save.stage")) {
             ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(getStageFilePath().toString()));
             oos.writeObject(stage);
             oos.close();
+            stage.markWritten(getStageFilePath());
+            span.written(getStageFilePath().toFile().length());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -118,15 +236,41 @@ public class Utils {
         serializeBlobPool(bp);
     }
 
-    public static void syncFilesWithHeadCommit(CommitChain commitChain, BlobPool blobPool) {
-        Collection<String> hashesOfBackupFiles = commitChain.getHeadCommit().getFileHashes();
-        for (String hash : hashesOfBackupFiles) {
-            Blob blob = blobPool.getFile(hash);
-            try {
-                Files.copy(blob.getPathGit(), blob.getPathRaw(), StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * 把工作目录从previous提交的快照切换到head提交的快照
+     *
+     * 只处理两次提交之间有差别的文件：比较两次提交的目录树，hash相同的子目录整个跳过，
+     * hash不同或者新出现的文件从快照恢复，只在previous里存在的文件被删除，两边一样的文件完全不碰。
+     * 先删除再写入，这样文件和目录互相替换的情况也能处理。
+     * 文件由Materializer并发写出，失败的文件在最后统一报告
+     * @param previous 切换之前head指向的提交
+     * @param commitChain 已经切换好head的commitChain
+     * @param blobPool 文件池
+     */
+    public static void syncFilesWithHeadCommit(Commit previous, CommitChain commitChain, BlobPool blobPool) {
+        Commit head = commitChain.getHeadCommit();
+        if (previous.getHash().equals(head.getHash()))
+            return;
+        syncFiles(previous.getTreeHash(), head.getTreeHash(), blobPool);
+    }
+
+    /**
+     * 把工作目录从目录树from的状态改成目录树to的状态，只写入和删除两边不同的文件
+     */
+    public static void syncFiles(String from, String to, BlobPool blobPool) {
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        Materializer materializer = Materializer.configured(blobPool);
+        List<String> errors;
+        try (Trace.Span span = Trace.begin("checkout")) {
+            TreeStore.diff(from, to, changed, removed);
+            errors = new ArrayList<>(materializer.delete(removed));
+            errors.addAll(materializer.write(changed));
+            span.written(materializer.getWrittenBytes());
+        }
+        if (!errors.isEmpty()) {
+            System.err.println(errors.size() + " files could not be updated:");
+            errors.forEach(System.err::println);
         }
     }
 
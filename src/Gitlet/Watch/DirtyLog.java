@@ -0,0 +1,268 @@
+package Gitlet.Watch;
+
+import Gitlet.Stage.Stage;
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * watch进程记录的脏路径日志，以及status、add读取日志的一端
+ *
+ * .gitlet/watch下的文件：
+ * lock  watch进程运行期间一直持有它的文件锁，拿得到这把锁说明没有watch进程在运行
+ * log   watch进程追加的事件，每行一条：S会话id（第一行）、P变化的路径、D被删除的目录、O事件溢出、R日志轮换、C同步用的cookie
+ * mark  上一次消费日志的位置：会话id、日志偏移、当时的暂存区版本，以及当时不是"已暂存并且内容一致"的所有路径
+ *
+ * 读取时先在watch目录下创建一个cookie文件，等watch进程把它记进日志，这样在这之前发生的修改一定都已经在日志里了。
+ * 从mark记录的偏移读到cookie为止，得到的路径加上mark里的路径就是这次需要检查的全部路径，
+ * 其余文件上次被确认已经暂存并且内容一致，之后也没有任何事件，不用再stat。
+ * 没有watch进程、会话变了（watch重启或者日志轮换）、暂存区被其他命令改过、或者事件溢出时返回null，调用者做完整的遍历
+ */
+
+public class DirtyLog {
+
+    static final String LOCK_FILE_NAME = "lock";
+    static final String LOG_FILE_NAME = "log";
+    static final String MARK_FILE_NAME = "mark";
+    static final String STOP_FILE_NAME = "stop";
+    static final String COOKIE_PREFIX = "cookie-";
+
+    static final char SESSION = 'S';
+    static final char PATH = 'P';
+    static final char DIRECTORY = 'D';
+    static final char OVERFLOW = 'O';
+    static final char ROTATE = 'R';
+    static final char COOKIE = 'C';
+
+    //等待watch进程记下cookie的最长时间，超时说明watch进程卡住了，按没有watch处理
+    private static final long COOKIE_TIMEOUT_MILLIS = 2000;
+
+    //collect读到的会话和cookie之后的偏移，update时写进mark
+    private String session;
+    private long offset;
+
+    private DirtyLog() { }
+
+    /**
+     * @return watch进程正在运行时返回它的日志，否则返回null
+     */
+    public static DirtyLog open() {
+        return isWatching() ? new DirtyLog() : null;
+    }
+
+    /**
+     * @return 是否有watch进程持有本仓库的锁
+     */
+    public static boolean isWatching() {
+        Path lock = Utils.getWatchPath().resolve(LOCK_FILE_NAME);
+        if (!Files.exists(lock))
+            return false;
+        try (FileChannel channel = FileChannel.open(lock, StandardOpenOption.WRITE)) {
+            FileLock held = channel.tryLock();
+            if (held == null)
+                return true;
+            held.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 等watch进程跟上之后，收集自从上次update以来需要检查的路径
+     * @param stage 暂存区，暂存的文件集合和上次update时不同就不能只看日志
+     * @return 需要检查的相对路径，需要完整遍历工作目录时返回null
+     */
+    public Set<String> collect(Stage stage) {
+        String cookie = COOKIE_PREFIX + ProcessHandle.current().pid() + "-" + System.nanoTime();
+        Path cookiePath = Utils.getWatchPath().resolve(cookie);
+        try {
+            Files.createFile(cookiePath);
+            return read(cookie, Mark.read(), stage);
+        } catch (IOException e) {
+            session = null;
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            session = null;
+            return null;
+        } finally {
+            try {
+                Files.deleteIfExists(cookiePath);
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private Set<String> read(String cookie, Mark mark, Stage stage) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MILLIS;
+        Path logPath = Utils.getWatchPath().resolve(LOG_FILE_NAME);
+        while (true) {
+            boolean valid = mark != null && mark.stageVersion == stage.getVersion();
+            boolean overflow = false;
+            Set<String> paths = new HashSet<>();
+            List<String> removedDirectories = new ArrayList<>();
+            String current = null;
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(Utils.IO_BUFFER_SIZE);
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long position = 0;
+                boolean rotated = false;
+                while (!rotated) {
+                    buffer.clear();
+                    int n = channel.read(buffer, position);
+                    if (n <= 0) {
+                        if (System.currentTimeMillis() > deadline) {
+                            session = null;
+                            return null;
+                        }
+                        Thread.sleep(1);
+                        continue;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        position++;
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        String text = line.toString(StandardCharsets.UTF_8);
+                        line.reset();
+                        if (text.isEmpty())
+                            continue;
+                        String value = text.substring(1);
+                        switch (text.charAt(0)) {
+                            case SESSION:
+                                current = value;
+                                //同一个会话里mark之前的事件已经被上次消费过了，直接跳到mark的位置
+                                if (valid && value.equals(mark.session) && mark.offset > position) {
+                                    position = mark.offset;
+                                    buffer.clear().flip();
+                                }
+                                valid &= value.equals(mark == null ? null : mark.session);
+                                break;
+                            case PATH: paths.add(value); break;
+                            case DIRECTORY: removedDirectories.add(value); break;
+                            case OVERFLOW: overflow = true; break;
+                            case ROTATE: rotated = true; break;
+                            case COOKIE:
+                                if (!value.equals(cookie))
+                                    break;
+                                session = current;
+                                offset = position;
+                                if (!valid || overflow || current == null)
+                                    return null;
+                                paths.addAll(mark.pending);
+                                expand(removedDirectories, stage, mark.pending, paths);
+                                return paths;
+                            default: break;
+                        }
+                        if (rotated)
+                            break;
+                    }
+                }
+            }
+            //watch进程换了新的日志文件，cookie会记在新文件里，新会话和mark对不上，只为了找到cookie的位置
+            mark = null;
+        }
+    }
+
+    /**
+     * 整个被删除或者移走的目录只有一条事件，把暂存区和上次记录里这个目录下的路径都加进来；
+     * 只在head提交里的文件一定在上次记录里，所以不用展开目录树
+     */
+    private static void expand(List<String> directories, Stage stage, Collection<String> pending, Set<String> paths) {
+        if (directories.isEmpty())
+            return;
+        List<String> prefixes = new ArrayList<>();
+        for (String directory : directories)
+            prefixes.add(directory + File.separator);
+        for (String file : stage.getTrackingFiles().keySet())
+            if (startsWithAny(file, prefixes))
+                paths.add(file);
+        for (String file : pending)
+            if (startsWithAny(file, prefixes))
+                paths.add(file);
+    }
+
+    private static boolean startsWithAny(String file, List<String> prefixes) {
+        for (String prefix : prefixes)
+            if (file.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+    /**
+     * 记录这次消费到的位置
+     * @param stage 已经改完的暂存区
+     * @param pending 现在不是"已暂存并且内容一致"的所有路径，可以多但是不能少
+     */
+    public void update(Stage stage, Collection<String> pending) {
+        if (session == null)
+            return;
+        try {
+            new Mark(session, offset, stage.getVersion(), pending).write();
+        } catch (IOException e) {
+            //mark写不出来，下次按完整遍历处理
+            try {
+                Files.deleteIfExists(Utils.getWatchPath().resolve(MARK_FILE_NAME));
+            } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * 上一次消费日志的位置
+     */
+    private static final class Mark {
+        final String session;
+        final long offset;
+        final long stageVersion;
+        final Collection<String> pending;
+
+        Mark(String session, long offset, long stageVersion, Collection<String> pending) {
+            this.session = session;
+            this.offset = offset;
+            this.stageVersion = stageVersion;
+            this.pending = pending;
+        }
+
+        static Mark read() {
+            Path path = Utils.getWatchPath().resolve(MARK_FILE_NAME);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                String session = in.readUTF();
+                long offset = in.readLong();
+                long stageVersion = in.readLong();
+                int count = in.readInt();
+                List<String> pending = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    pending.add(in.readUTF());
+                return new Mark(session, offset, stageVersion, pending);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void write() throws IOException {
+            Path path = Utils.getWatchPath().resolve(MARK_FILE_NAME);
+            Path tmp = path.resolveSibling(MARK_FILE_NAME + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(session);
+                out.writeLong(offset);
+                out.writeLong(stageVersion);
+                out.writeInt(pending.size());
+                for (String file : pending)
+                    out.writeUTF(file);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package Gitlet.Watch;
+
+import Gitlet.Utility.Utils;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 在后台监视工作目录的进程，每个仓库最多一个
+ *
+ * 启动时递归地给工作目录下的每个目录注册WatchService（和add一样跳过根目录下以.开头的文件和目录），
+ * 之后把每个变化的路径追加到.gitlet/watch/log，格式见DirtyLog。新建的目录马上注册并把里面已有的文件都记一遍，
+ * 被删除的目录只记一条D事件。WatchService丢了事件时记一条O事件，读取的一端会改做完整遍历。
+ * .gitlet/watch目录也被监视，用来接收读取一端的cookie和stop请求。
+ * 日志超过LOG_ROTATE_SIZE时换一个新的会话重新开始
+ */
+
+public class WorktreeWatcher {
+
+    //日志超过这个大小时开始新的会话，读取的一端会做一次完整遍历
+    static final long LOG_ROTATE_SIZE = 64L << 20;
+
+    private final PrintStream console = System.out;
+    private final Path watchDir = Utils.getWatchPath();
+    private final Path logPath = watchDir.resolve(DirtyLog.LOG_FILE_NAME);
+
+    //注册过的目录：WatchKey -> 相对路径，工作目录本身是空路径
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private WatchService service;
+    private WatchKey controlKey;
+    private Writer log;
+    private long logSize;
+
+    //stop等待watch进程退出的最长时间
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * 通知正在运行的watch进程退出
+     * @return 是否有watch进程收到了通知
+     */
+    public static boolean stop() {
+        if (!DirtyLog.isWatching())
+            return false;
+        try {
+            Files.write(Utils.getWatchPath().resolve(DirtyLog.STOP_FILE_NAME), new byte[0]);
+            long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+            while (DirtyLog.isWatching() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    public void run() throws IOException {
+        Files.createDirectories(watchDir);
+        try (FileChannel lockChannel = FileChannel.open(watchDir.resolve(DirtyLog.LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                System.err.println("A watcher is already running for this repository.");
+                return;
+            }
+            Files.deleteIfExists(watchDir.resolve(DirtyLog.STOP_FILE_NAME));
+            try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+                service = watchService;
+                startSession();
+                controlKey = watchDir.toAbsolutePath().register(service, ENTRY_CREATE);
+                long start = System.nanoTime();
+                register(Paths.get(""));
+                log.flush();
+                console.printf("[watch] watching %d directories, registered in %.1f ms%n",
+                        directories.size(), (System.nanoTime() - start) / 1e6);
+                loop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (log != null)
+                    log.close();
+                //日志只在watch进程运行时有效，读取的一端拿得到锁就不会再看它
+                Files.deleteIfExists(logPath);
+                Files.deleteIfExists(watchDir.resolve(DirtyLog.STOP_FILE_NAME));
+            }
+        }
+    }
+
+    private void loop() throws IOException, InterruptedException {
+        while (true) {
+            WatchKey key = service.take();
+            boolean stop = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    write(DirtyLog.OVERFLOW, "");
+                    continue;
+                }
+                String name = event.context().toString();
+                if (key == controlKey) {
+                    if (name.startsWith(DirtyLog.COOKIE_PREFIX))
+                        write(DirtyLog.COOKIE, name);
+                    else if (name.equals(DirtyLog.STOP_FILE_NAME))
+                        stop = true;
+                    continue;
+                }
+                Path directory = directories.get(key);
+                if (directory != null)
+                    handle(directory, name, event.kind());
+            }
+            //目录被删除或者移走之后它的WatchKey失效，父目录的事件可能排在后面，这里先把它记成被删除的目录
+            if (!key.reset() && key != controlKey) {
+                Path directory = directories.get(key);
+                if (directory != null && !directory.toString().isEmpty())
+                    write(DirtyLog.DIRECTORY, directory.toString());
+                forget(directory);
+            }
+            log.flush();
+            if (stop) {
+                console.println("[watch] stopped");
+                return;
+            }
+            if (logSize > LOG_ROTATE_SIZE)
+                rotate();
+        }
+    }
+
+    private void handle(Path directory, String name, WatchEvent.Kind<?> kind) throws IOException {
+        if (directory.toString().isEmpty() && name.startsWith("."))
+            return;
+        Path path = directory.resolve(name);
+        if (kind == ENTRY_DELETE && keys.containsKey(path)) {
+            write(DirtyLog.DIRECTORY, path.toString());
+            forget(path);
+            return;
+        }
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            //新建或者移进来的目录：注册之后把里面已有的文件都记下来，注册之前发生的修改也不会漏掉
+            if (kind == ENTRY_CREATE && !keys.containsKey(path))
+                register(path);
+            return;
+        }
+        write(DirtyLog.PATH, path.toString());
+    }
+
+    /**
+     * 递归注册一个目录，新建的目录里已有的文件都记成变化的路径
+     */
+    private void register(Path start) throws IOException {
+        boolean existing = start.toString().isEmpty();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path relative = dir.normalize();
+                if (!relative.toString().isEmpty() && relative.getNameCount() == 1 && relative.toString().startsWith("."))
+                    return FileVisitResult.SKIP_SUBTREE;
+                WatchKey key;
+                try {
+                    key = dir.toAbsolutePath().register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                } catch (IOException e) {
+                    //比如超过了系统允许的监视数量，漏掉的目录没法补救，只能退出让读取的一端做完整遍历
+                    throw new IOException("Can not watch " + dir.toAbsolutePath() + ": " + e.getMessage(), e);
+                }
+                directories.put(key, relative);
+                keys.put(relative, key);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = file.normalize();
+                if (!existing && !(relative.getNameCount() == 1 && relative.toString().startsWith(".")))
+                    write(DirtyLog.PATH, relative.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                //注册之前又被删掉了
+                if (e instanceof NoSuchFileException)
+                    return FileVisitResult.CONTINUE;
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 取消一个目录和它所有子目录的注册
+     */
+    private void forget(Path directory) {
+        if (directory == null)
+            return;
+        Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = it.next();
+            if (directory.toString().isEmpty() || entry.getKey().startsWith(directory)) {
+                entry.getValue().cancel();
+                directories.remove(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 开始一个新的会话：新日志写好会话id之后再原子地替换旧日志
+     */
+    private void startSession() throws IOException {
+        String session = new BigInteger(64, new SecureRandom()).toString(16);
+        Path tmp = watchDir.resolve(DirtyLog.LOG_FILE_NAME + ".tmp");
+        Files.write(tmp, (DirtyLog.SESSION + session + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = Files.newBufferedWriter(logPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        logSize = Files.size(logPath);
+    }
+
+    private void rotate() throws IOException {
+        write(DirtyLog.ROTATE, "");
+        log.close();
+        startSession();
+        console.println("[watch] log rotated");
+    }
+
+    private void write(char type, String path) throws IOException {
+        log.write(type);
+        log.write(path);
+        log.write('\n');
+        logSize += path.length() + 2;
+    }
+}
@@ -0,0 +1,88 @@
+package Gitlet.Blobs;
+
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Config;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 一遍读完文件同时算hash和写快照：hash和整个文件的SHA-1一致，读回的内容和原文件一样，不留下临时文件
+ */
+class BlobPoolAddTest {
+
+    private BlobPool blobPool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+        blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Codec.class)
+    void roundTripsNewFiles(Codec codec) throws IOException {
+        ScratchRepository.run("config", Config.COMPRESSION, codec.name().toLowerCase(Locale.ROOT));
+        Random random = new Random(6);
+        byte[] large = new byte[3 * Utils.IO_BUFFER_SIZE + 123];
+        random.nextBytes(large);
+        List<Path> files = Arrays.asList(
+                ScratchRepository.write("empty.txt", new byte[0]),
+                ScratchRepository.write("small.txt", "hello\n"),
+                ScratchRepository.write("d/large.bin", large),
+                ScratchRepository.write("d/text.txt", "line of text\n".repeat(20000)));
+
+        Map<String, String> added = blobPool.addFile(files, 2);
+        assertEquals(files.size(), added.size());
+        for (Path file : files) {
+            String hash = added.get(Utils.getRelativeDir(file));
+            assertEquals(Utils.encrypt(file, "SHA-1"), hash, file.toString());
+            assertEquals(codec, blobPool.getFile(hash).getCodec());
+            assertArrayEquals(Files.readAllBytes(file), blobPool.readContent(hash), file.toString());
+            Path restored = ScratchRepository.ROOT.resolve("restored");
+            Files.deleteIfExists(restored);
+            blobPool.restoreFile(hash, restored);
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(restored), file.toString());
+        }
+        assertEquals(Collections.emptyList(), temporaryFiles());
+    }
+
+    @Test
+    void storesIdenticalContentOnce() throws IOException {
+        List<Path> files = Arrays.asList(
+                ScratchRepository.write("a.txt", "same content\n"),
+                ScratchRepository.write("b/a.txt", "same content\n"));
+        Map<String, String> added = blobPool.addFile(files, 2);
+        assertEquals(added.get("work/a.txt"), added.get("work/b/a.txt"));
+        int snapshots = blobPool.getHashes().size();
+
+        //再加一次同样的内容，不产生新的快照
+        assertEquals(added, blobPool.addFile(files, 1));
+        assertEquals(snapshots, blobPool.getHashes().size());
+        assertEquals(Collections.emptyList(), temporaryFiles());
+    }
+
+    private static List<Path> temporaryFiles() throws IOException {
+        try (Stream<Path> walk = Files.walk(Utils.getFilesPath())) {
+            return walk.filter(file -> file.getFileName().toString().endsWith(".tmp")).collect(Collectors.toList());
+        }
+    }
+}
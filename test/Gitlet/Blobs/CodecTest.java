@@ -0,0 +1,113 @@
+package Gitlet.Blobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 每种压缩方式压缩之后都能解压出原来的内容，包括跨块、不可压缩和逐字节写入的数据
+ */
+class CodecTest {
+
+    @Test
+    void roundTripsAllCodecs() throws IOException {
+        for (Codec codec : Codec.values())
+            for (byte[] data : samples())
+                assertArrayEquals(data, decompress(codec, compress(codec, data)), codec + ", " + data.length + " bytes");
+    }
+
+    @Test
+    void compressesRepetitiveText() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; source.length() < 200_000; i++)
+            source.append("    public void method").append(i % 50).append("() {\n        return;\n    }\n");
+        byte[] text = source.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(compress(Codec.LZ, text).length < text.length / 2);
+        assertTrue(compress(Codec.DEFLATE, text).length < text.length / 2);
+    }
+
+    @Test
+    void lzKeepsIncompressibleBlocksNearTheirSize() throws IOException {
+        byte[] random = random(3 * LzOutputStream.BLOCK_SIZE, 7);
+        //不能变小的块原样保存，只多出块头
+        assertTrue(compress(Codec.LZ, random).length < random.length + 64);
+    }
+
+    @Test
+    void lzAcceptsSingleByteWrites() throws IOException {
+        byte[] text = text(LzOutputStream.BLOCK_SIZE + 1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = Codec.LZ.compress(bytes)) {
+            for (byte b : text)
+                out.write(b);
+        }
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = Codec.LZ.decompress(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (int b; (b = in.read()) != -1; )
+                read.write(b);
+        }
+        assertArrayEquals(text, read.toByteArray());
+    }
+
+    @Test
+    void lzRejectsTruncatedStream() throws IOException {
+        byte[] compressed = compress(Codec.LZ, text(100_000));
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(IOException.class, () -> decompress(Codec.LZ, truncated));
+    }
+
+    @Test
+    void looksUpCodecsByName() {
+        assertEquals(Codec.LZ, Codec.of(" lz "));
+        assertEquals(Codec.DEFLATE, Codec.of("Deflate"));
+        assertThrows(IllegalArgumentException.class, () -> Codec.of("zstd"));
+    }
+
+    private static byte[][] samples() {
+        return new byte[][]{
+                new byte[0],
+                {42},
+                "abcabcabcabc".getBytes(StandardCharsets.UTF_8),
+                text(10_000),
+                //正好一个块、跨过块的边界
+                text(LzOutputStream.BLOCK_SIZE),
+                text(2 * LzOutputStream.BLOCK_SIZE + 17),
+                random(100_000, 1),
+                new byte[300_000],
+        };
+    }
+
+    private static byte[] compress(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(Codec codec, byte[] compressed) throws IOException {
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] text(int bytes) {
+        Random random = new Random(bytes);
+        StringBuilder text = new StringBuilder();
+        String[] words = {"commit", "branch", "merge", "blob", "tree", "stage"};
+        while (text.length() < bytes)
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+        return text.substring(0, bytes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int bytes, long seed) {
+        byte[] data = new byte[bytes];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,94 @@
+package Gitlet.Blobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 差量在基础版本上应用之后得到原来的新版本，相似的版本得到的差量远小于新版本
+ */
+class DeltaTest {
+
+    @Test
+    void roundTripsAnEditedText() throws IOException {
+        byte[] base = text(20000, 1);
+        byte[] target = edit(base, 2);
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertTrue(delta.length < target.length / 10, "delta of " + delta.length + " bytes");
+    }
+
+    @Test
+    void roundTripsUnrelatedData() throws IOException {
+        Random random = new Random(3);
+        byte[] base = new byte[5000], target = new byte[7000];
+        random.nextBytes(base);
+        random.nextBytes(target);
+        assertArrayEquals(target, Delta.apply(base, Delta.create(base, target)));
+    }
+
+    @Test
+    void roundTripsEdgeCases() throws IOException {
+        byte[] text = text(1000, 4);
+        byte[][][] cases = {
+                {new byte[0], new byte[0]},
+                {new byte[0], text},
+                {text, new byte[0]},
+                {text, text},
+                //比一个块还短
+                {"short".getBytes(StandardCharsets.UTF_8), "shorter".getBytes(StandardCharsets.UTF_8)},
+                //在开头和末尾加内容
+                {text, concat("header\n".getBytes(StandardCharsets.UTF_8), text, "trailer\n".getBytes(StandardCharsets.UTF_8))},
+                //重复的内容
+                {text, concat(text, text, text)},
+        };
+        for (byte[][] c : cases)
+            assertArrayEquals(c[1], Delta.apply(c[0], Delta.create(c[0], c[1])));
+    }
+
+    @Test
+    void rejectsDeltaForAnotherBase() {
+        byte[] base = text(2000, 5);
+        byte[] delta = Delta.create(base, edit(base, 6));
+        assertThrows(IOException.class, () -> Delta.apply(Arrays.copyOf(base, base.length - 1), delta));
+    }
+
+    private static byte[] text(int bytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < bytes)
+            text.append("line ").append(random.nextInt(100000)).append(" of the file\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 改掉几段、删掉一段、插入一段
+     */
+    private static byte[] edit(byte[] base, long seed) {
+        Random random = new Random(seed);
+        byte[] edited = base.clone();
+        for (int i = 0; i < 5; i++)
+            edited[random.nextInt(edited.length)] = (byte) ('A' + i);
+        int cut = edited.length / 3;
+        return concat(Arrays.copyOfRange(edited, 0, cut), "inserted\n".getBytes(StandardCharsets.UTF_8),
+                Arrays.copyOfRange(edited, cut + 100, edited.length));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts)
+            length += part.length;
+        byte[] out = new byte[length];
+        int at = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, out, at, part.length);
+            at += part.length;
+        }
+        return out;
+    }
+}
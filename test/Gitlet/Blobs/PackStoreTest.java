@@ -0,0 +1,97 @@
+package Gitlet.Blobs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 包的索引：按扇出表和二分查找找到每个快照，找不到的hash返回不存在
+ */
+class PackStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void locatesEveryPackedSnapshot() throws IOException {
+        List<String> hashes = hashes(600, 1);
+        //扇出表的两端
+        hashes.add("00" + "1".repeat(38));
+        hashes.add("ff" + "e".repeat(38));
+        PackStore.write(dir, hashes, PackStoreTest::content);
+        try (PackStore store = PackStore.open(dir)) {
+            for (String hash : hashes) {
+                assertTrue(store.contains(hash), hash);
+                assertTrue(store.packedAt(hash) > 0);
+                try (InputStream in = store.open(hash)) {
+                    assertArrayEquals(contentOf(hash), in.readAllBytes(), hash);
+                }
+            }
+        }
+    }
+
+    @Test
+    void missesHashesThatAreNotPacked() throws IOException {
+        List<String> hashes = hashes(300, 2);
+        PackStore.write(dir, hashes, PackStoreTest::content);
+        try (PackStore store = PackStore.open(dir)) {
+            for (String hash : hashes) {
+                //首字节相同、只差最后一位的hash落在同一段扇出里
+                String neighbour = hash.substring(0, 39) + (hash.charAt(39) == '0' ? '1' : '0');
+                if (hashes.contains(neighbour))
+                    continue;
+                assertFalse(store.contains(neighbour), neighbour);
+                assertNull(store.open(neighbour));
+                assertEquals(-1, store.packedAt(neighbour));
+            }
+        }
+    }
+
+    @Test
+    void searchesAllPacks() throws IOException {
+        List<String> first = hashes(50, 3), second = hashes(50, 4);
+        PackStore.write(dir, first, PackStoreTest::content);
+        PackStore.write(dir, second, PackStoreTest::content);
+        try (PackStore store = PackStore.open(dir)) {
+            assertEquals(4, store.packFiles().size());
+            for (String hash : first)
+                assertTrue(store.contains(hash));
+            for (String hash : second)
+                assertTrue(store.contains(hash));
+        }
+    }
+
+    @Test
+    void emptyDirectoryHasNoSnapshots() throws IOException {
+        try (PackStore store = PackStore.open(dir.resolve("missing"))) {
+            assertFalse(store.contains("a".repeat(40)));
+        }
+    }
+
+    private static List<String> hashes(int count, long seed) {
+        Random random = new Random(seed);
+        Set<String> hashes = new LinkedHashSet<>();
+        while (hashes.size() < count)
+            hashes.add(String.format("%016x%016x%08x", random.nextLong(), random.nextLong(), random.nextInt()));
+        return new ArrayList<>(hashes);
+    }
+
+    private static byte[] contentOf(String hash) {
+        return ("content of " + hash + "\n").repeat(hash.charAt(0) % 7 + 1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void content(String hash, WritableByteChannel target) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(contentOf(hash));
+        while (bytes.hasRemaining())
+            target.write(bytes);
+    }
+}
@@ -0,0 +1,112 @@
+package Gitlet.Commits;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 提交图文件：新记录追加到末尾，重新打开之后和保存前一样；排序表之外的记录超过MAX_UNSORTED时整个重写；
+ * 和提交记录对不上时从提交记录重新生成
+ */
+class CommitGraphTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendedRecordsSurviveReopening() throws IOException {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R");
+        g.add("A", "R");
+        g.add("B", "R");
+        g.save();
+        //第一次保存整个写出，排序表覆盖所有记录
+        assertEquals(3, header(g, 8));
+        assertEquals(3, header(g, 12));
+
+        g.add("M", "A", "B");
+        g.add("C", "M");
+        g.save();
+        //之后只追加记录、改写记录数，排序表不变
+        assertEquals(5, header(g, 8));
+        assertEquals(3, header(g, 12));
+
+        CommitGraph before = g.graph;
+        ScratchGraph reopened = new ScratchGraph(directory);
+        CommitGraph graph = reopened.graph;
+        assertFalse(graph.isDirty());
+        assertEquals(5, graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            assertEquals(before.getId(i), graph.getId(i));
+            assertEquals(before.getParent(i), graph.getParent(i));
+            assertEquals(before.getSecondParent(i), graph.getSecondParent(i));
+            assertEquals(before.getGeneration(i), graph.getGeneration(i));
+            assertEquals(before.getEpochMillis(i), graph.getEpochMillis(i));
+            assertEquals(graph.getId(i), reopened.store.load(graph.getOffset(i)).getHash());
+        }
+        int merge = reopened.index("M");
+        assertEquals(reopened.index("A"), graph.getParent(merge));
+        assertEquals(reopened.index("B"), graph.getSecondParent(merge));
+        assertEquals(4, graph.getGeneration(reopened.index("C")));
+        assertEquals(CommitGraph.NONE, graph.getParent(reopened.index("R")));
+    }
+
+    @Test
+    void rewritesOnceTheUnsortedTailIsTooLong() throws IOException {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("c0");
+        g.save();
+        for (int i = 1; i <= CommitGraph.MAX_UNSORTED; i++)
+            g.add("c" + i, "c" + (i - 1));
+        g.save();
+        //正好MAX_UNSORTED条在排序表之外，仍然只追加
+        assertEquals(CommitGraph.MAX_UNSORTED + 1, header(g, 8));
+        assertEquals(1, header(g, 12));
+
+        g.add("last", "c" + CommitGraph.MAX_UNSORTED);
+        g.save();
+        assertEquals(CommitGraph.MAX_UNSORTED + 2, header(g, 8));
+        assertEquals(CommitGraph.MAX_UNSORTED + 2, header(g, 12));
+        assertFalse(Files.exists(g.getGraphPath().resolveSibling(g.getGraphPath().getFileName() + ".tmp")));
+
+        ScratchGraph reopened = new ScratchGraph(directory);
+        for (String name : new String[]{"c0", "c500", "c" + CommitGraph.MAX_UNSORTED, "last"}) {
+            int index = reopened.index(name);
+            assertNotEquals(CommitGraph.NONE, index, name);
+            assertEquals(ScratchGraph.id(name), reopened.store.load(reopened.graph.getOffset(index)).getHash());
+        }
+        assertEquals(CommitGraph.MAX_UNSORTED + 2, reopened.graph.getGeneration(reopened.index("last")));
+    }
+
+    @Test
+    void regeneratesFromTheStoreWhenBehind() throws IOException {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R");
+        g.add("A", "R");
+        g.save();
+        //提交记录保存了，提交图没来得及保存
+        g.add("B", "A");
+        g.store.save();
+
+        ScratchGraph reopened = new ScratchGraph(directory);
+        assertTrue(reopened.graph.isDirty());
+        assertEquals(3, reopened.graph.size());
+        assertEquals(reopened.index("A"), reopened.graph.getParent(reopened.index("B")));
+        reopened.save();
+        assertEquals(3, header(reopened, 12));
+        assertFalse(new ScratchGraph(directory).graph.isDirty());
+    }
+
+    /**
+     * @return 文件头里position处的int：8是记录数，12是排序表长度
+     */
+    private static int header(ScratchGraph g, int position) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(g.getGraphPath())).getInt(position);
+    }
+}
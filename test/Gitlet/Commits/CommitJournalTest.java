@@ -0,0 +1,90 @@
+package Gitlet.Commits;
+
+import Gitlet.Gitlet;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 日志重放：末尾写了一半的记录被丢弃，中间的记录损坏时commitChain变成只读
+ */
+class CommitJournalTest {
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+        for (String log : new String[]{"one", "two"}) {
+            ScratchRepository.write("a.txt", log);
+            ScratchRepository.run("add", "work/a.txt");
+            ScratchRepository.run("commit", log);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void replaysCommittedRecords() {
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertFalse(chain.isReadOnly());
+        assertEquals(Arrays.asList("two", "one"), logs(chain));
+    }
+
+    @Test
+    void dropsTornTrailingFrame() throws IOException {
+        Path journal = Utils.getCommitJournalPath();
+        byte[] intact = Files.readAllBytes(journal);
+        //崩溃时只写下了一条记录的头部：长度说还有100字节，后面什么都没有
+        Files.write(journal, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 0, 0}, StandardOpenOption.APPEND);
+
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertFalse(chain.isReadOnly());
+        assertEquals(Arrays.asList("two", "one"), logs(chain));
+
+        //下一次追加先截掉写了一半的记录
+        Gitlet.loadRepository();
+        ScratchRepository.write("a.txt", "three");
+        ScratchRepository.run("add", "work/a.txt");
+        ScratchRepository.run("commit", "three");
+        byte[] after = Files.readAllBytes(journal);
+        assertArrayEquals(intact, Arrays.copyOf(after, intact.length));
+        chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertFalse(chain.isReadOnly());
+        assertEquals(Arrays.asList("three", "two", "one"), logs(chain));
+    }
+
+    @Test
+    void damagedMiddleFrameMakesChainReadOnly() throws IOException {
+        Path journal = Utils.getCommitJournalPath();
+        byte[] bytes = Files.readAllBytes(journal);
+        //第一条记录的序号被改坏，CRC对不上，后面还有完整的记录
+        bytes[12] ^= 0x40;
+        Files.write(journal, bytes);
+
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertTrue(chain.isReadOnly());
+        assertThrows(IOException.class,
+                () -> CommitJournal.save(chain, Utils.getCommitChainPath(), journal));
+        assertArrayEquals(bytes, Files.readAllBytes(journal));
+    }
+
+    private static List<String> logs(CommitChain chain) {
+        List<String> logs = new ArrayList<>();
+        chain.forEach(commit -> logs.add(commit.getLog()));
+        return logs;
+    }
+}
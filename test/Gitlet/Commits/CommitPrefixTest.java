@@ -0,0 +1,135 @@
+package Gitlet.Commits;
+
+import Gitlet.Gitlet;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Exceptions.AmbiguousCommitException;
+import Gitlet.Utility.Exceptions.NoSuchCommitException;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按前缀找提交：排序表上二分查找，扇出表的边界两边都能找到，排序表之外追加的记录逐条比较；
+ * commitChain对有歧义和找不到的前缀给出对应的错误
+ */
+class CommitPrefixTest {
+
+    private static final String A0 = "a0" + "11".repeat(19), AF = "af" + "22".repeat(19);
+    private static final String NINE_F = "9f" + "ff".repeat(19), B0 = "b0" + "00".repeat(19);
+    private static final String ABCD1 = "abcd1" + "0".repeat(35), ABCD2 = "abcd2" + "0".repeat(35);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resolvesPrefixesInTheSortedTable() throws IOException {
+        ScratchGraph g = graph(A0, AF, NINE_F, B0, ABCD1, ABCD2);
+        g.save();
+        assertEquals(Collections.singletonList(AF), g.graph.resolvePrefix("af22", 10));
+        assertEquals(Collections.singletonList(B0), g.graph.resolvePrefix(B0, 10));
+        assertEquals(Collections.emptyList(), g.graph.resolvePrefix("a1", 10));
+        assertEquals(Collections.emptyList(), g.graph.resolvePrefix("c", 10));
+        assertEquals(set(ABCD1, ABCD2), new HashSet<>(g.graph.resolvePrefix("abcd", 10)));
+        assertEquals(1, g.graph.resolvePrefix("abcd", 1).size());
+    }
+
+    @Test
+    void singleDigitPrefixSpansSixteenFanoutBuckets() throws IOException {
+        //a0和af在扇出表的两头，9f和b0紧挨着范围的外面
+        ScratchGraph g = graph(A0, AF, NINE_F, B0, ABCD1, ABCD2, "00" + "1".repeat(38), "ff" + "1".repeat(38));
+        g.save();
+        assertEquals(set(A0, AF, ABCD1, ABCD2), new HashSet<>(g.graph.resolvePrefix("a", 10)));
+        assertEquals(set(NINE_F), new HashSet<>(g.graph.resolvePrefix("9", 10)));
+        assertEquals(set(B0), new HashSet<>(g.graph.resolvePrefix("b", 10)));
+        assertEquals(set("00" + "1".repeat(38)), new HashSet<>(g.graph.resolvePrefix("0", 10)));
+        assertEquals(set("ff" + "1".repeat(38)), new HashSet<>(g.graph.resolvePrefix("ff", 10)));
+    }
+
+    @Test
+    void findsRecordsAppendedAfterTheSortedTable() throws IOException {
+        ScratchGraph g = graph(A0, B0, ABCD2);
+        g.save();
+        //追加的记录不在排序表里，保存时只追加到文件末尾
+        g.add(ABCD1);
+        g.add(AF);
+        for (int i = 0; i < CommitGraph.MAX_UNSORTED - 10; i++)
+            g.add("filler " + i);
+        g.save();
+        g = reopen();
+        assertEquals(Collections.singletonList(ABCD1), g.graph.resolvePrefix("abcd1", 10));
+        assertEquals(Collections.singletonList(AF), g.graph.resolvePrefix("af22", 10));
+        //一个在排序表里，一个在后面
+        assertEquals(set(ABCD1, ABCD2), new HashSet<>(g.graph.resolvePrefix("abcd", 10)));
+        assertEquals(g.graph.size() - 1, g.graph.indexOf(ScratchGraph.id("filler " + (CommitGraph.MAX_UNSORTED - 11))));
+        assertEquals(CommitGraph.NONE, g.graph.indexOf("abcd3" + "0".repeat(35)));
+    }
+
+    @Test
+    void commitChainReportsAmbiguousAndUnknownPrefixes() throws Exception {
+        ScratchRepository.create();
+        try {
+            //在仓库的提交记录和提交图里直接加两个前缀相同的提交
+            ScratchGraph g = new ScratchGraph(Utils.getCommitStorePath(), Utils.getCommitGraphPath());
+            g.add(ABCD1);
+            g.add(ABCD2);
+            g.save();
+            CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+
+            AmbiguousCommitException ambiguous = assertThrows(AmbiguousCommitException.class,
+                    () -> chain.resolveCommitId("ABCD"));
+            assertEquals(set(ABCD1, ABCD2), new HashSet<>(ambiguous.getCandidates()));
+            assertEquals(ABCD1, chain.resolveCommitId("abcd1"));
+            assertEquals(ABCD2, chain.resolveCommitId(ABCD2));
+            assertThrows(NoSuchCommitException.class, () -> chain.resolveCommitId("abcd3"));
+
+            Gitlet.loadRepository();
+            String error = errors("reset", "abcd");
+            assertTrue(error.startsWith("Commit id abcd is ambiguous, candidates are:"), error);
+            assertTrue(error.contains("  " + ABCD1 + " " + ABCD1), error);
+            assertTrue(error.contains("  " + ABCD2 + " " + ABCD2), error);
+            assertEquals("No commit with that id exists.", errors("reset", "abcd3").trim());
+            assertEquals("A commit id needs at least 4 hex digits.", errors("reset", "abc").trim());
+        } finally {
+            ScratchRepository.delete();
+        }
+    }
+
+    private ScratchGraph graph(String... ids) {
+        ScratchGraph g = new ScratchGraph(directory);
+        for (String id : ids)
+            g.add(id);
+        return g;
+    }
+
+    private ScratchGraph reopen() {
+        return new ScratchGraph(directory);
+    }
+
+    private static Set<String> set(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    /**
+     * @return 命令打印到标准错误的内容
+     */
+    private static String errors(String... args) {
+        PrintStream err = System.err;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            ScratchRepository.run(args);
+        } finally {
+            System.setErr(err);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
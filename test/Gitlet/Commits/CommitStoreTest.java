@@ -0,0 +1,215 @@
+package Gitlet.Commits;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 提交记录文件：按偏移只读一条记录，还没保存的记录同样可以按偏移读，
+ * 崩溃在写记录和改写头部之间时多出来的字节不算数，重写之后偏移全部改变
+ */
+class CommitStoreTest {
+
+    private static final String TREE = "00".repeat(20);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsSingleRecordsByOffset() throws IOException {
+        CommitStore store = CommitStore.open(path());
+        List<Long> offsets = append(store, 0, 10);
+        store.save();
+
+        store = CommitStore.open(path());
+        assertEquals(10, store.size());
+        //打开时只读文件头，缓存里什么都没有
+        assertNull(store.cached(id(7)));
+        Commit commit = store.load(offsets.get(7));
+        assertEquals(id(7), commit.getHash());
+        assertEquals("commit 7", commit.getLog());
+        assertEquals(id(6), commit.getParentCommitStr());
+        assertSame(commit, store.cached(id(7)));
+        assertNull(store.cached(id(6)));
+        assertTrue(store.report().contains("1 hits, 1 misses"), store.report());
+        store.close();
+    }
+
+    @Test
+    void readsPendingRecordsBeforeAndAfterSaving() throws IOException {
+        CommitStore store = CommitStore.open(path());
+        List<Long> saved = append(store, 0, 3);
+        store.save();
+        List<Long> pending = append(store, 3, 3);
+        assertEquals(6, store.size());
+        //还没写进文件的记录排在已有记录的后面
+        assertEquals(Files.size(path()), (long) pending.get(0));
+        assertEquals("commit 4", store.load(pending.get(1)).getLog());
+        assertEquals("commit 1", store.load(saved.get(1)).getLog());
+        assertEquals(concat(saved, pending), offsets(store));
+
+        store.save();
+        store.close();
+        store = CommitStore.open(path());
+        assertEquals(6, store.size());
+        assertEquals("commit 4", store.load(pending.get(1)).getLog());
+        assertEquals(concat(saved, pending), offsets(store));
+        store.close();
+    }
+
+    @Test
+    void ignoresRecordsWrittenBeforeACrash() throws IOException {
+        CommitStore store = CommitStore.open(path());
+        List<Long> offsets = append(store, 0, 3);
+        store.save();
+        long end = Files.size(path());
+        //崩溃在写完记录、改写头部之前：文件末尾多了一条完整的记录和半条记录
+        CommitStore crashed = CommitStore.open(path());
+        append(crashed, 3, 1);
+        crashed.save();
+        byte[] torn = Arrays.copyOfRange(Files.readAllBytes(path()), (int) end, (int) Files.size(path()));
+        try (FileChannel channel = FileChannel.open(path(), StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+            channel.write(ByteBuffer.wrap(torn), end);
+            channel.write(ByteBuffer.wrap(torn, 0, torn.length / 2), end + torn.length);
+        }
+        writeHeader(3, end);
+
+        store = CommitStore.open(path());
+        assertEquals(3, store.size());
+        assertEquals(offsets, offsets(store));
+        //下一次追加覆盖多出来的字节
+        List<Long> appended = append(store, 10, 1);
+        assertEquals(end, (long) appended.get(0));
+        store.save();
+        store.close();
+        store = CommitStore.open(path());
+        assertEquals(4, store.size());
+        assertEquals("commit 10", store.load(appended.get(0)).getLog());
+        assertEquals(concat(offsets, appended), offsets(store));
+        store.close();
+    }
+
+    @Test
+    void treatsATornHeaderAsAnEmptyFile() throws IOException {
+        CommitStore store = CommitStore.open(path());
+        append(store, 0, 3);
+        store.save();
+        store.close();
+        try (FileChannel channel = FileChannel.open(path(), StandardOpenOption.WRITE)) {
+            channel.truncate(CommitStore.HEADER_LENGTH / 2);
+        }
+        store = CommitStore.open(path());
+        assertEquals(0, store.size());
+        assertEquals(Collections.emptyList(), offsets(store));
+
+        //头部说有效长度超过了文件大小
+        Files.write(path(), new byte[0]);
+        store = CommitStore.open(path());
+        List<Long> offsets = append(store, 0, 2);
+        store.save();
+        store.close();
+        writeHeader(2, Files.size(path()) + 1);
+        store = CommitStore.open(path());
+        assertEquals(0, store.size());
+
+        //第一次保存时重写整个文件
+        assertEquals(offsets.subList(0, 1), append(store, 5, 1));
+        store.save();
+        store.close();
+        store = CommitStore.open(path());
+        assertEquals(1, store.size());
+        assertEquals("commit 5", store.load(offsets.get(0)).getLog());
+        store.close();
+    }
+
+    @Test
+    void rewriteMovesEveryOffset() throws IOException {
+        CommitStore store = CommitStore.open(path());
+        List<Long> before = append(store, 0, 6);
+        store.save();
+        Map<String, Long> old = new HashMap<>();
+        store.forEach((commit, offset) -> old.put(commit.getHash(), offset));
+        assertNotNull(store.load(before.get(5)));
+
+        //去掉前两个提交，剩下的提交都往前挪
+        List<Commit> kept = new ArrayList<>();
+        for (int i = 2; i < 6; i++)
+            kept.add(store.load(before.get(i)));
+        store.rewrite(kept);
+        assertEquals(4, store.size());
+        assertNull(store.cached(id(5)));
+        Map<String, Long> moved = new HashMap<>();
+        store.forEach((commit, offset) -> moved.put(commit.getHash(), offset));
+        assertEquals(new HashSet<>(Arrays.asList(id(2), id(3), id(4), id(5))), moved.keySet());
+        assertEquals(CommitStore.HEADER_LENGTH, (long) moved.get(id(2)));
+        for (int i = 2; i < 6; i++) {
+            assertNotEquals(old.get(id(i)), moved.get(id(i)));
+            assertEquals("commit " + i, store.load(moved.get(id(i))).getLog());
+        }
+        assertFalse(Files.exists(path().resolveSibling(path().getFileName() + ".tmp")));
+
+        //重写之后继续追加
+        List<Long> appended = append(store, 6, 1);
+        store.save();
+        store.close();
+        store = CommitStore.open(path());
+        assertEquals(5, store.size());
+        assertEquals("commit 6", store.load(appended.get(0)).getLog());
+        store.close();
+    }
+
+    private Path path() {
+        return directory.resolve("commits");
+    }
+
+    /**
+     * 把文件头改成给定的记录数和有效长度
+     */
+    private void writeHeader(int count, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(12).putInt(count).putLong(end).flip(), 8);
+        }
+    }
+
+    /**
+     * 追加提交from..from+n-1，每个提交的双亲是前一个
+     * @return 新记录的偏移
+     */
+    private static List<Long> append(CommitStore store, int from, int n) {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = from; i < from + n; i++) {
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(1_600_000_000L + i), ZoneOffset.UTC);
+            offsets.add(store.append(new Commit(time, "commit " + i, TREE, id(i), "tester", i == 0 ? null : id(i - 1))));
+        }
+        return offsets;
+    }
+
+    private static List<Long> offsets(CommitStore store) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        store.forEach((commit, offset) -> offsets.add(offset));
+        return offsets;
+    }
+
+    private static List<Long> concat(List<Long> a, List<Long> b) {
+        List<Long> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    private static String id(int i) {
+        return ScratchGraph.id("commit " + i);
+    }
+}
@@ -0,0 +1,155 @@
+package Gitlet.Commits;
+
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Exceptions.NoSuchBranchException;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 求最近公共祖先：交叉合并时返回所有同样好的公共祖先，能经过第二个双亲找到公共祖先，
+ * 一边是另一边的祖先时就是它自己；isAncestor按代数剪枝；commitChain的缓存在删掉提交之后仍然给出同样的答案
+ */
+class MergeBaseTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsBothBasesOfACrissCross() {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R");
+        g.add("A", "R");
+        g.add("B", "R");
+        //A和B互相合并了一次
+        g.add("C", "A", "B");
+        g.add("D", "B", "A");
+        g.add("E", "C");
+        g.add("F", "D");
+        assertEquals(names("A", "B"), bases(g, "E", "F"));
+        assertEquals(names("A", "B"), bases(g, "F", "E"));
+    }
+
+    @Test
+    void followsTheSecondParent() {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R");
+        g.add("S1", "R");
+        g.add("S2", "S1");
+        //M的第一个双亲是R，S2只能经过第二个双亲到达
+        g.add("M", "R", "S2");
+        g.add("N", "M");
+        g.add("T", "S2");
+        assertEquals(names("S2"), bases(g, "N", "T"));
+        assertEquals(names("S2"), bases(g, "T", "N"));
+    }
+
+    @Test
+    void ancestorIsItsOwnBase() {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R");
+        g.add("A", "R");
+        g.add("B", "A");
+        g.add("C", "B");
+        assertEquals(names("A"), bases(g, "C", "A"));
+        assertEquals(names("A"), bases(g, "A", "C"));
+        assertEquals(names("C"), bases(g, "C", "C"));
+    }
+
+    @Test
+    void unrelatedHistoriesHaveNoBase() {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("R1");
+        g.add("A", "R1");
+        g.add("R2");
+        g.add("B", "R2");
+        assertEquals(Collections.emptySet(), bases(g, "A", "B"));
+    }
+
+    @Test
+    void isAncestorStopsAtTheAncestorsGeneration() throws IOException {
+        ScratchGraph g = new ScratchGraph(directory);
+        g.add("c0");
+        for (int i = 1; i < 100; i++)
+            g.add("c" + i, "c" + (i - 1));
+        g.add("s1", "c90");
+        g.save();
+        assertTrue(new MergeBase(g.graph).isAncestor(g.index("c0"), g.index("c99")));
+        MergeBase mergeBase = new MergeBase(g.graph);
+        assertTrue(mergeBase.isAncestor(g.index("c95"), g.index("c99")));
+        assertTrue(mergeBase.getVisited() <= 4, "visited " + mergeBase.getVisited());
+
+        //代数不比祖先大的提交不可能是它的后代，不用走
+        mergeBase = new MergeBase(g.graph);
+        assertFalse(mergeBase.isAncestor(g.index("c90"), g.index("c10")));
+        assertEquals(0, mergeBase.getVisited());
+
+        //只走到s1的代数为止，不会一直走到根
+        mergeBase = new MergeBase(g.graph);
+        assertFalse(mergeBase.isAncestor(g.index("s1"), g.index("c99")));
+        assertTrue(mergeBase.getVisited() < 10, "visited " + mergeBase.getVisited());
+        assertTrue(mergeBase.isAncestor(g.index("s1"), g.index("s1")));
+    }
+
+    @Test
+    void cachedBasesSurvivePruning() throws IOException, NoSuchBranchException {
+        ScratchRepository.create();
+        try {
+            commit("base", "a.txt", "base\n");
+            ScratchRepository.run("branch", "dev");
+            ScratchRepository.run("branch", "dropped");
+            ScratchRepository.run("checkout", "dev");
+            commit("on dev", "b.txt", "dev\n");
+            ScratchRepository.run("checkout", "dropped");
+            commit("to drop", "c.txt", "dropped\n");
+            ScratchRepository.run("checkout", "master");
+            commit("on master", "a.txt", "master\n");
+            ScratchRepository.run("rm-branch", "dropped");
+
+            CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+            List<String> before = hashes(chain.findMergeBasesByBranch("master", "dev"));
+            assertEquals(1, before.size());
+            assertEquals(before, hashes(chain.findMergeBasesByBranch("dev", "master")));
+
+            //删掉提交之后提交记录的偏移都变了，缓存被清空，重新算出同样的结果
+            assertEquals(1, chain.pruneCommits(chain.liveCommits(Long.MAX_VALUE)));
+            assertEquals(before, hashes(chain.findMergeBasesByBranch("master", "dev")));
+            assertEquals("base", chain.findMergeBasesByBranch("master", "dev").get(0).getLog());
+        } finally {
+            ScratchRepository.delete();
+        }
+    }
+
+    private static Set<String> bases(ScratchGraph g, String a, String b) {
+        Set<String> bases = new HashSet<>();
+        for (int base : new MergeBase(g.graph).find(g.index(a), g.index(b)))
+            bases.add(g.graph.getId(base));
+        return bases;
+    }
+
+    private static Set<String> names(String... names) {
+        Set<String> ids = new HashSet<>();
+        for (String name : names)
+            ids.add(ScratchGraph.id(name));
+        return ids;
+    }
+
+    private static List<String> hashes(List<Commit> commits) {
+        List<String> hashes = new ArrayList<>();
+        for (Commit commit : commits)
+            hashes.add(commit.getHash());
+        return hashes;
+    }
+
+    private static void commit(String log, String file, String content) throws IOException {
+        ScratchRepository.write(file, content);
+        ScratchRepository.run("add", ScratchRepository.ROOT.resolve(file).toString());
+        ScratchRepository.run("commit", log);
+    }
+}
@@ -0,0 +1,79 @@
+package Gitlet.Commits;
+
+import Gitlet.Utility.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试用的提交图：按名字生成提交，写进临时目录里的提交记录和提交图，不需要完整的仓库
+ *
+ * 提交的id是名字的SHA-1（名字本身就是40位十六进制时直接用作id），代数和CommitChain一样是双亲代数的最大值加一，提交时间按添加的顺序每个加一秒
+ */
+class ScratchGraph {
+
+    //树对象不会被读，所有提交用同一个
+    private static final String TREE = "00".repeat(20);
+
+    private final Path graphPath;
+    final CommitStore store;
+    CommitGraph graph;
+    private final Map<String, Commit> commits = new HashMap<>();
+
+    ScratchGraph(Path directory) {
+        this(directory.resolve("commits"), directory.resolve("commitgraph"));
+    }
+
+    ScratchGraph(Path storePath, Path graphPath) {
+        this.graphPath = graphPath;
+        store = CommitStore.open(storePath);
+        graph = CommitGraph.open(graphPath, store);
+    }
+
+    /**
+     * 添加一个提交，双亲必须已经添加过
+     * @param parents 零到两个双亲的名字
+     * @return 新提交
+     */
+    Commit add(String name, String... parents) {
+        String parent = parents.length > 0 ? id(parents[0]) : null;
+        String secondParent = parents.length > 1 ? id(parents[1]) : null;
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(1_600_000_000L + commits.size()), ZoneOffset.UTC);
+        Commit commit = new Commit(time, name, TREE, id(name), "tester", parent, secondParent);
+        int generation = 0;
+        for (String p : parents)
+            generation = Math.max(generation, commits.get(p).getGeneration());
+        commit.setGeneration(generation + 1);
+        commits.put(name, commit);
+        graph.add(commit, store.append(commit));
+        return commit;
+    }
+
+    /**
+     * 把提交记录和提交图写进文件，再重新映射提交图
+     */
+    void save() throws IOException {
+        store.save();
+        graph = graph.save(graphPath);
+    }
+
+    Path getGraphPath() {
+        return graphPath;
+    }
+
+    int index(String name) {
+        return graph.indexOf(id(name));
+    }
+
+    static String id(String name) {
+        if (name.matches("[0-9a-f]{40}"))
+            return name;
+        return Utils.encrypt(name.getBytes(StandardCharsets.UTF_8), "SHA-1");
+    }
+}
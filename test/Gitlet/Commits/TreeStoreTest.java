@@ -0,0 +1,89 @@
+package Gitlet.Commits;
+
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 比较两棵树：文件和同名目录互换时删掉一边的全部文件、写入另一边的全部文件，
+ * hash相同的子树整个跳过，连树对象都不读
+ */
+class TreeStoreTest {
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void fileBecomesADirectory() {
+        String from = TreeStore.write(files("work/x", "x", "work/keep/k.txt", "k"));
+        String to = TreeStore.write(files("work/x/inner.txt", "inner", "work/x/deep/y.txt", "y",
+                "work/keep/k.txt", "k"));
+
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        TreeStore.diff(from, to, changed, removed);
+        assertEquals(files("work/x/inner.txt", "inner", "work/x/deep/y.txt", "y"), changed);
+        assertEquals(Collections.singletonList("work/x"), removed);
+    }
+
+    @Test
+    void directoryBecomesAFile() {
+        String from = TreeStore.write(files("work/x/inner.txt", "inner", "work/x/deep/y.txt", "y",
+                "work/keep/k.txt", "k"));
+        String to = TreeStore.write(files("work/x", "x", "work/keep/k.txt", "k"));
+
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        TreeStore.diff(from, to, changed, removed);
+        assertEquals(files("work/x", "x"), changed);
+        assertEquals(set("work/x/inner.txt", "work/x/deep/y.txt"), new HashSet<>(removed));
+    }
+
+    @Test
+    void skipsUnchangedSubtreesWithoutReadingThem() throws IOException {
+        String from = TreeStore.write(files("work/a.txt", "a1", "work/same/s.txt", "unread s", "work/same/t/u.txt", "u"));
+        String to = TreeStore.write(files("work/a.txt", "a2", "work/same/s.txt", "unread s", "work/same/t/u.txt", "u"));
+        //没有变化的子目录在两棵树里是同一个树对象，删掉它之后比较照样成功
+        String same = TreeStore.hash(files("s.txt", "unread s", "t/u.txt", "u"));
+        Files.delete(Utils.getTreesPath().resolve(same.substring(0, 2)).resolve(same.substring(2)));
+
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        TreeStore.diff(from, to, changed, removed);
+        assertEquals(files("work/a.txt", "a2"), changed);
+        assertEquals(Collections.emptyList(), removed);
+
+        //同一棵树什么都不比较
+        TreeStore.diff(to, to, changed, removed);
+        assertEquals(1, changed.size());
+    }
+
+    /**
+     * @param entries 路径和内容交替出现，内容的SHA-1当作快照的hash
+     */
+    private static Map<String, String> files(String... entries) {
+        Map<String, String> files = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2)
+            files.put(entries[i], ScratchGraph.id(entries[i + 1]));
+        return files;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new HashSet<>(Arrays.asList(paths));
+    }
+}
@@ -0,0 +1,92 @@
+package Gitlet.Diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按行比较：修改按位置排序、互不相邻，把修改应用到旧版本上得到新版本
+ */
+class LineDiffTest {
+
+    @Test
+    void identicalContentHasNoEdits() {
+        assertTrue(LineDiff.diff(lines("a\nb\nc\n"), lines("a\nb\nc\n")).isEmpty());
+        assertTrue(LineDiff.diff(Lines.empty(), Lines.empty()).isEmpty());
+    }
+
+    @Test
+    void findsSingleInsertDeleteAndReplace() {
+        assertEdits("a\nb\n", "a\nx\nb\n", "[1,1)->[1,2)");
+        assertEdits("a\nx\nb\n", "a\nb\n", "[1,2)->[1,1)");
+        assertEdits("a\nb\nc\n", "a\ny\nc\n", "[1,2)->[1,2)");
+        assertEdits("", "a\nb\n", "[0,0)->[0,2)");
+    }
+
+    @Test
+    void keepsUnchangedLinesBetweenEdits() {
+        assertEdits("1\n2\n3\n4\n5\n6\n", "0\n1\n2\n4\n5\n6\n7\n", "[0,0)->[0,1)", "[2,3)->[3,3)", "[6,6)->[6,7)");
+    }
+
+    @Test
+    void editsRebuildTheNewVersion() {
+        Random random = new Random(20);
+        for (int round = 0; round < 50; round++) {
+            //足够长，会用唯一的行做锚点切分
+            List<String> a = new ArrayList<>();
+            for (int i = 0; i < 50 + random.nextInt(400); i++)
+                a.add("line " + random.nextInt(round % 2 == 0 ? 1000000 : 20) + "\n");
+            List<String> b = mutate(a, random);
+            String aText = String.join("", a), bText = String.join("", b);
+            List<Edit> edits = LineDiff.diff(lines(aText), lines(bText));
+            for (int k = 1; k < edits.size(); k++)
+                assertTrue(edits.get(k).beginA > edits.get(k - 1).endA, "edits must be sorted and not adjacent");
+            assertEquals(b, apply(a, b, edits));
+        }
+    }
+
+    private static void assertEdits(String a, String b, String... expected) {
+        List<String> actual = new ArrayList<>();
+        for (Edit edit : LineDiff.diff(lines(a), lines(b)))
+            actual.add("[" + edit.beginA + "," + edit.endA + ")->[" + edit.beginB + "," + edit.endB + ")");
+        assertEquals(List.of(expected), actual);
+    }
+
+    /**
+     * 随机删除、插入和改写一些行
+     */
+    private static List<String> mutate(List<String> lines, Random random) {
+        List<String> mutated = new ArrayList<>(lines);
+        for (int k = random.nextInt(20); k > 0 && !mutated.isEmpty(); k--) {
+            int at = random.nextInt(mutated.size());
+            switch (random.nextInt(3)) {
+                case 0: mutated.remove(at); break;
+                case 1: mutated.add(at, "inserted " + random.nextInt() + "\n"); break;
+                default: mutated.set(at, "changed " + random.nextInt() + "\n"); break;
+            }
+        }
+        return mutated;
+    }
+
+    private static List<String> apply(List<String> a, List<String> b, List<Edit> edits) {
+        List<String> result = new ArrayList<>();
+        int position = 0;
+        for (Edit edit : edits) {
+            result.addAll(a.subList(position, edit.beginA));
+            result.addAll(b.subList(edit.beginB, edit.endB));
+            position = edit.endA;
+        }
+        result.addAll(a.subList(position, a.size()));
+        return result;
+    }
+
+    static Lines lines(String text) {
+        return new Lines(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
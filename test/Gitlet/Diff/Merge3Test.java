@@ -0,0 +1,91 @@
+package Gitlet.Diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static Gitlet.Diff.LineDiffTest.lines;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 三方合并：改在不同地方的修改都保留，改到同一处或者相邻的地方时写出带冲突标记的结果
+ */
+class Merge3Test {
+
+    private static final String BASE = "1\n2\n3\n4\n5\n6\n7\n8\n9\n";
+
+    @Test
+    void mergesChangesInDifferentPlaces() {
+        Merge3.Result result = merge(BASE, "1\nTWO\n3\n4\n5\n6\n7\n8\n9\n", "1\n2\n3\n4\n5\n6\n7\nEIGHT\n9\n");
+        assertEquals(0, result.conflicts);
+        assertEquals("1\nTWO\n3\n4\n5\n6\n7\nEIGHT\n9\n", text(result));
+    }
+
+    @Test
+    void mergesInsertionsAndDeletions() {
+        Merge3.Result result = merge(BASE, "0\n1\n2\n3\n4\n5\n6\n7\n8\n9\n", "1\n2\n3\n4\n5\n6\n7\n8\n");
+        assertEquals(0, result.conflicts);
+        assertEquals("0\n1\n2\n3\n4\n5\n6\n7\n8\n", text(result));
+    }
+
+    @Test
+    void takesTheOnlyChangedSide() {
+        String changed = "1\n2\n3\nfour\n5\n6\n7\n8\n9\n";
+        assertEquals(changed, text(merge(BASE, changed, BASE)));
+        assertEquals(changed, text(merge(BASE, BASE, changed)));
+    }
+
+    @Test
+    void identicalChangesAreNotConflicts() {
+        String changed = "1\n2\n3\nfour\nfive\n6\n7\n8\n9\n";
+        Merge3.Result result = merge(BASE, changed, changed);
+        assertEquals(0, result.conflicts);
+        assertEquals(changed, text(result));
+    }
+
+    @Test
+    void reportsConflictingChangesWithMarkers() {
+        Merge3.Result result = merge(BASE, "1\n2\n3\n4\nours\n6\n7\n8\n9\n", "1\n2\n3\n4\ntheirs\n6\n7\n8\n9\n");
+        assertEquals(1, result.conflicts);
+        assertEquals("1\n2\n3\n4\n"
+                + "<<<<<<< master\nours\n"
+                + "||||||| base\n5\n"
+                + "=======\ntheirs\n"
+                + ">>>>>>> other\n"
+                + "6\n7\n8\n9\n", text(result));
+    }
+
+    @Test
+    void adjacentChangesConflict() {
+        Merge3.Result result = merge(BASE, "1\n2\nTHREE\n4\n5\n6\n7\n8\n9\n", "1\n2\n3\nFOUR\n5\n6\n7\n8\n9\n");
+        assertEquals(1, result.conflicts);
+        assertEquals("1\n2\n"
+                + "<<<<<<< master\nTHREE\n4\n"
+                + "||||||| base\n3\n4\n"
+                + "=======\n3\nFOUR\n"
+                + ">>>>>>> other\n"
+                + "5\n6\n7\n8\n9\n", text(result));
+    }
+
+    @Test
+    void countsEveryConflict() {
+        Merge3.Result result = merge(BASE, "A\n2\n3\n4\n5\n6\n7\n8\nB\n", "a\n2\n3\n4\n5\n6\n7\n8\nb\n");
+        assertEquals(2, result.conflicts);
+    }
+
+    @Test
+    void keepsMarkersOnTheirOwnLines() {
+        //最后一行没有换行符时，冲突标记前补上换行
+        Merge3.Result result = merge("x\ny", "x\nours", "x\ntheirs");
+        assertEquals(1, result.conflicts);
+        assertEquals("x\n<<<<<<< master\nours\n||||||| base\ny\n=======\ntheirs\n>>>>>>> other\n", text(result));
+    }
+
+    private static Merge3.Result merge(String base, String ours, String theirs) {
+        return Merge3.merge(lines(base), lines(ours), lines(theirs), "master", "base", "other");
+    }
+
+    private static String text(Merge3.Result result) {
+        return new String(result.content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+package Gitlet.Diff;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 改名检测：内容相同的文件先按hash配对，相似度不低于50%的文件再配对，每个文件最多配对一次
+ */
+class RenameDetectorTest {
+
+    private static final int LINES = 100;
+
+    //hash -> 内容
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private RenameDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        RenameDetector.Source source = (path, hash) -> ByteBuffer.wrap(contents.get(hash));
+        detector = new RenameDetector(source, source);
+    }
+
+    @Test
+    void pairsIdenticalContent() throws IOException {
+        String file = file(0);
+        List<RenameDetector.Rename> renames = detector.detect(Map.of("a.txt", file), Map.of("b.txt", file));
+        assertRenames(renames, "a.txt->b.txt:100");
+        assertTrue(detector.hasRun());
+    }
+
+    @Test
+    void prefersTheSameFileNameForIdenticalContent() throws IOException {
+        String file = file(0);
+        List<RenameDetector.Rename> renames = detector.detect(
+                Map.of("x/f.txt", file, "y/g.txt", file), Map.of("z/g.txt", file));
+        assertRenames(renames, "y/g.txt->z/g.txt:100");
+    }
+
+    @Test
+    void pairsEditedContent() throws IOException {
+        List<RenameDetector.Rename> renames = detector.detect(Map.of("a.txt", file(0)), Map.of("b.txt", file(20)));
+        assertRenames(renames, "a.txt->b.txt:80");
+    }
+
+    @Test
+    void appliesTheSimilarityThreshold() throws IOException {
+        //每行一样长，相似度就是没改的行的比例
+        assertRenames(detector.detect(Map.of("a.txt", file(0)), Map.of("b.txt", file(40))), "a.txt->b.txt:60");
+        assertRenames(detector.detect(Map.of("a.txt", file(0)), Map.of("b.txt", file(RenameDetector.MIN_SCORE))),
+                "a.txt->b.txt:50");
+        assertRenames(detector.detect(Map.of("a.txt", file(0)), Map.of("b.txt", file(55))));
+        assertRenames(detector.detect(Map.of("a.txt", file(0)), Map.of("b.txt", unrelated())));
+    }
+
+    @Test
+    void pairsEachFileAtMostOnce() throws IOException {
+        //两个新文件都像同一个旧文件时，只配对更像的那个
+        List<RenameDetector.Rename> renames = detector.detect(
+                Map.of("a.txt", file(0)), Map.of("b.txt", file(30), "c.txt", file(10)));
+        assertRenames(renames, "a.txt->c.txt:90");
+    }
+
+    @Test
+    void sortsRenamesBySource() throws IOException {
+        String same = unrelated();
+        Map<String, String> removed = new HashMap<>(), added = new HashMap<>();
+        removed.put("c.txt", file(0));
+        removed.put("a.txt", same);
+        removed.put("b.txt", put("nothing like the others\n"));
+        added.put("d.txt", file(10));
+        added.put("e.txt", same);
+        assertRenames(detector.detect(removed, added), "a.txt->e.txt:100", "c.txt->d.txt:90");
+    }
+
+    @Test
+    void skipsEmptyFiles() throws IOException {
+        String empty = put("");
+        assertRenames(detector.detect(Map.of("a.txt", empty), Map.of("b.txt", put("x\n"))));
+    }
+
+    /**
+     * @param changed 改掉的行数
+     * @return 共LINES行、每行一样长的文件的hash
+     */
+    private String file(int changed) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i++)
+            text.append(String.format(i < changed ? "edit %04d of the file\n" : "line %04d of the file\n", i));
+        return put(text.toString());
+    }
+
+    private String unrelated() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i++)
+            text.append(String.format("unrelated content %04d\n", i));
+        return put(text.toString());
+    }
+
+    private String put(String text) {
+        String hash = Integer.toHexString(text.hashCode()) + "-" + text.length();
+        contents.put(hash, text.getBytes(StandardCharsets.UTF_8));
+        return hash;
+    }
+
+    private static void assertRenames(List<RenameDetector.Rename> renames, String... expected) {
+        List<String> actual = new ArrayList<>();
+        for (RenameDetector.Rename rename : renames)
+            actual.add(rename.from + "->" + rename.to + ":" + rename.score);
+        assertEquals(List.of(expected), actual);
+    }
+}
@@ -0,0 +1,203 @@
+package Gitlet.Gc;
+
+import Gitlet.Blobs.BlobPool;
+import Gitlet.Commits.Commit;
+import Gitlet.Commits.CommitChain;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Config;
+import Gitlet.Utility.Exceptions.NoSuchBranchException;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * gc只删除没有被引用的对象：所有分支和暂存区用到的对象、宽限期内的对象、它们的差量基础都保留，
+ * 删掉提交之后重新加载的仓库仍然能找到每个分支并继续追加日志
+ */
+class GarbageCollectorTest {
+
+    private static final long HOUR = 3600_000L;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void keepsObjectsOfEveryBranchAndTheStage() throws IOException, NoSuchBranchException {
+        commit("one", "a.txt", "a1\n", "d/b.txt", "b1\n");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        commit("on dev", "d/b.txt", "b on dev\n");
+        ScratchRepository.run("checkout", "master");
+        commit("two", "a.txt", "a2\n");
+        //只在暂存区里的快照
+        add("c.txt", "staged only\n");
+
+        ScratchRepository.run("gc", "--now");
+
+        BlobPool blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertEquals("staged only\n", text(blobPool.readContent(hash("staged only\n"))));
+        //检出每个分支，工作目录里的文件和分支上的快照一致
+        for (String branch : Arrays.asList("dev", "master")) {
+            ScratchRepository.run("checkout", branch);
+            for (Map.Entry<String, String> file : chain.getCommitByBranch(branch).getFileEntries())
+                assertArrayEquals(Files.readAllBytes(Path.of(file.getKey())), blobPool.readContent(file.getValue()),
+                        branch + " " + file.getKey());
+        }
+        assertEquals(Arrays.asList("two", "one"), logs(chain));
+    }
+
+    @Test
+    void reclaimsOrphanedSnapshotsOnlyAfterTheGracePeriod() throws IOException {
+        ScratchRepository.run("config", Config.GC_GRACE, "3600");
+        commit("one", "a.txt", "kept\n");
+        //暂存之后又被覆盖，没有任何提交或暂存区引用它
+        add("b.txt", "orphan\n");
+        add("b.txt", "current\n");
+        String orphan = hash("orphan\n");
+        Path stored = BlobPool.deSerialFrom(Utils.getBlobsPath()).getFile(orphan).getPathGit();
+
+        ScratchRepository.run("gc");
+        assertTrue(BlobPool.deSerialFrom(Utils.getBlobsPath()).getHashes().contains(orphan));
+        assertTrue(Files.exists(stored));
+
+        age(stored, 2 * HOUR);
+        ScratchRepository.run("gc");
+        BlobPool blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        assertFalse(blobPool.getHashes().contains(orphan));
+        assertFalse(Files.exists(stored));
+        assertEquals("kept\n", text(blobPool.readContent(hash("kept\n"))));
+        assertEquals("current\n", text(blobPool.readContent(hash("current\n"))));
+    }
+
+    @Test
+    void keepsDeltaBasesOfLiveSnapshots() throws IOException {
+        String v1 = lines(0), v2 = lines(1);
+        add("big.txt", v1);
+        add("big.txt", v2);
+        BlobPool blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        assertEquals(hash(v1), blobPool.getDeltaBase(hash(v2)));
+
+        //v1只被暂存区里v2的差量引用
+        ScratchRepository.run("gc", "--now");
+        blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        assertTrue(blobPool.getHashes().contains(hash(v1)));
+        assertEquals(v2, text(blobPool.readContent(hash(v2))));
+    }
+
+    @Test
+    void keepsDeltaBasesOfYoungSnapshots() throws IOException {
+        ScratchRepository.run("config", Config.GC_GRACE, "3600");
+        commit("one", "a.txt", "a\n");
+        String v1 = lines(0), v2 = lines(1);
+        add("big.txt", v1);
+        add("big.txt", v2);
+        ScratchRepository.run("rm", "work/big.txt");
+        BlobPool blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        //v1已经过了宽限期，v2没有被引用但还在宽限期内，v2的差量基础不能删
+        age(blobPool.getFile(hash(v1)).getPathGit(), 2 * HOUR);
+
+        ScratchRepository.run("gc");
+        blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        assertTrue(blobPool.getHashes().contains(hash(v1)));
+        assertEquals(v2, text(blobPool.readContent(hash(v2))));
+
+        age(blobPool.getFile(hash(v2)).getPathGit(), 2 * HOUR);
+        ScratchRepository.run("gc");
+        blobPool = BlobPool.deSerialFrom(Utils.getBlobsPath());
+        assertFalse(blobPool.getHashes().contains(hash(v1)));
+        assertFalse(blobPool.getHashes().contains(hash(v2)));
+    }
+
+    @Test
+    void prunedChainReloadsAndKeepsAppending() throws IOException, NoSuchBranchException {
+        commit("one", "a.txt", "1\n");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        commit("dropped", "a.txt", "dropped\n");
+        String dropped = CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getHash();
+        ScratchRepository.run("checkout", "master");
+        ScratchRepository.run("branch", "kept");
+        ScratchRepository.run("rm-branch", "dev");
+        commit("two", "a.txt", "2\n");
+
+        ScratchRepository.run("gc", "--now");
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertFalse(chain.isReadOnly());
+        assertFalse(chain.containsCommit(dropped));
+        assertEquals("two", chain.getCommitByBranch("master").getLog());
+        assertEquals("one", chain.getCommitByBranch("kept").getLog());
+        assertEquals(Arrays.asList("two", "one"), logs(chain));
+
+        //gc之后继续提交，日志从新的检查点往后重放
+        commit("three", "a.txt", "3\n");
+        chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        assertFalse(chain.isReadOnly());
+        assertEquals(Arrays.asList("three", "two", "one"), logs(chain));
+        assertEquals("one", chain.getCommitByBranch("kept").getLog());
+        assertEquals("3\n", text(BlobPool.deSerialFrom(Utils.getBlobsPath())
+                .readContent(chain.getHeadCommit().getHashOfFile("work/a.txt"))));
+    }
+
+    private static void commit(String log, String... files) throws IOException {
+        for (int i = 0; i < files.length; i += 2)
+            ScratchRepository.write(files[i], files[i + 1]);
+        ScratchRepository.run("add", ScratchRepository.ROOT.toString());
+        ScratchRepository.run("commit", log);
+    }
+
+    private static void add(String name, String content) throws IOException {
+        ScratchRepository.write(name, content);
+        ScratchRepository.run("add", ScratchRepository.ROOT.resolve(name).toString());
+    }
+
+    /**
+     * @return 一个足够大、可以存成差量的文本，version只改其中一行
+     */
+    private static String lines(int version) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            text.append(i == 250 ? "version " + version : "line " + i).append(" of a large file\n");
+        return text.toString();
+    }
+
+    private static void age(Path file, long millis) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+
+    private static List<String> logs(CommitChain chain) {
+        List<String> logs = new ArrayList<>();
+        for (Iterator<Commit> it = chain.iterator(); it.hasNext(); )
+            logs.add(it.next().getLog());
+        return logs;
+    }
+
+    private static String hash(String content) {
+        return Utils.encrypt(content.getBytes(StandardCharsets.UTF_8), "SHA-1");
+    }
+
+    private static String text(byte[] content) {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,201 @@
+package Gitlet;
+
+import Gitlet.Commits.Commit;
+import Gitlet.Commits.CommitChain;
+import Gitlet.Stage.Stage;
+import Gitlet.Utility.Config;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 从命令行的角度走一遍常用命令：每条命令写回磁盘之后，重新读出来的仓库和工作目录都是预期的样子；
+ * 失败的命令和只读的命令不写回任何组件
+ */
+class GitletTest {
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void commitsAndLogsNewestFirst() throws IOException {
+        commit("one", "a.txt", "1\n", "d/b.txt", "b\n");
+        commit("two", "a.txt", "2\n");
+
+        CommitChain chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        Commit head = chain.getHeadCommit();
+        assertEquals("two", head.getLog());
+        assertEquals(Arrays.asList("work/a.txt", "work/d/b.txt"), new ArrayList<>(new TreeSet<>(head.getFileNames())));
+        String log = output("log");
+        assertTrue(log.indexOf("log: two") < log.indexOf("log: one"), log);
+    }
+
+    @Test
+    void resetRestoresTheWorkingDirectory() throws IOException {
+        commit("one", "a.txt", "1\n", "d/b.txt", "b\n");
+        String first = CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getHash();
+        commit("two", "a.txt", "2\n", "c.txt", "c\n");
+
+        ScratchRepository.run("reset", first.substring(0, 8));
+        assertEquals("1\n", read("a.txt"));
+        assertEquals("b\n", read("d/b.txt"));
+        assertFalse(Files.exists(ScratchRepository.ROOT.resolve("c.txt")));
+        assertEquals(first, CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getHash());
+        assertEquals(0, Stage.deSerialFrom(Utils.getStageFilePath()).getNumberOfStagedFiles());
+    }
+
+    @Test
+    void checksOutAndMergesBranches() throws IOException {
+        commit("base", "a.txt", "a\n", "b.txt", "b\n");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        commit("on dev", "b.txt", "b on dev\n");
+
+        ScratchRepository.run("checkout", "master");
+        assertEquals("b\n", read("b.txt"));
+        commit("on master", "a.txt", "a on master\n");
+
+        ScratchRepository.run("merge", "dev");
+        assertEquals("a on master\n", read("a.txt"));
+        assertEquals("b on dev\n", read("b.txt"));
+        Commit head = CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit();
+        assertNotNull(head.getSecondParentCommitStr());
+    }
+
+    @Test
+    void checkoutOnlyRewritesChangedFiles() throws IOException {
+        commit("base", "a.txt", "a\n", "keep/k.txt", "k\n", "keep/sub/s.txt", "s\n");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        commit("on dev", "a.txt", "a on dev\n");
+        //把没有变化的文件的修改时间改到很久以前，重写过的文件会得到新的时间
+        FileTime old = FileTime.fromMillis(1_000_000_000_000L);
+        Map<String, Object> inodes = new HashMap<>();
+        for (String name : Arrays.asList("a.txt", "keep/k.txt", "keep/sub/s.txt")) {
+            Path file = ScratchRepository.ROOT.resolve(name);
+            Files.setLastModifiedTime(file, old);
+            inodes.put(name, Files.getAttribute(file, "unix:ino"));
+        }
+
+        ScratchRepository.run("checkout", "master");
+        assertEquals("a\n", read("a.txt"));
+        assertNotEquals(old, Files.getLastModifiedTime(ScratchRepository.ROOT.resolve("a.txt")));
+        for (String name : Arrays.asList("keep/k.txt", "keep/sub/s.txt")) {
+            Path file = ScratchRepository.ROOT.resolve(name);
+            assertEquals(old, Files.getLastModifiedTime(file), name);
+            assertEquals(inodes.get(name), Files.getAttribute(file, "unix:ino"), name);
+        }
+    }
+
+    @Test
+    void checkoutSwapsFilesAndDirectories() throws IOException {
+        //多个线程同时写文件
+        ScratchRepository.run("config", Config.CHECKOUT_PARALLELISM, "4");
+        commit("base", "a.txt", "a\n", "x", "x file\n", "y/inner.txt", "y inner\n", "y/deep/z.txt", "z\n");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        //检出之后暂存区是空的，提交的是重新add进来的文件
+        for (String name : Arrays.asList("x", "y/inner.txt", "y/deep/z.txt", "y/deep", "y"))
+            Files.delete(ScratchRepository.ROOT.resolve(name));
+        commit("swap", "x/inner.txt", "x inner\n", "x/deep/w.txt", "w\n", "y", "y file\n");
+
+        ScratchRepository.run("checkout", "master");
+        assertEquals("x file\n", read("x"));
+        assertEquals("y inner\n", read("y/inner.txt"));
+        assertEquals("z\n", read("y/deep/z.txt"));
+        assertEquals("a\n", read("a.txt"));
+
+        ScratchRepository.run("checkout", "dev");
+        assertEquals("x inner\n", read("x/inner.txt"));
+        assertEquals("w\n", read("x/deep/w.txt"));
+        assertEquals("y file\n", read("y"));
+        assertEquals("a\n", read("a.txt"));
+        Set<String> names = new TreeSet<>(CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getFileNames());
+        assertEquals(new TreeSet<>(Arrays.asList("work/a.txt", "work/x/deep/w.txt", "work/x/inner.txt", "work/y")), names);
+    }
+
+    @Test
+    void removesNestedFiles() throws IOException {
+        commit("one", "a.txt", "same\n", "d/b.txt", "same\n");
+
+        ScratchRepository.run("rm", "work/d/b.txt");
+        assertFalse(Files.exists(ScratchRepository.ROOT.resolve("d/b.txt")));
+        //同样内容的其他文件不受影响
+        assertEquals("same\n", read("a.txt"));
+        Stage stage = Stage.deSerialFrom(Utils.getStageFilePath());
+        assertNull(stage.getHashOfFile("work/d/b.txt"));
+        assertNotNull(stage.getHashOfFile("work/a.txt"));
+    }
+
+    @Test
+    void failedAndReadOnlyCommandsWriteNothing() throws IOException {
+        commit("one", "a.txt", "1\n");
+        List<Path> components = Arrays.asList(Utils.getCommitChainPath(), Utils.getCommitJournalPath(),
+                Utils.getStageFilePath(), Utils.getBlobsPath());
+        List<byte[]> before = contents(components);
+
+        //没有变化的提交失败，log只读
+        ScratchRepository.run("commit", "nothing");
+        output("log");
+        ScratchRepository.run("checkout", "no-such-branch");
+        List<byte[]> after = contents(components);
+        for (int i = 0; i < components.size(); i++)
+            assertArrayEquals(before.get(i), after.get(i), components.get(i).toString());
+        assertEquals("one", CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getLog());
+    }
+
+    /**
+     * 写入成对给出的文件名和内容，add整个工作目录之后提交
+     */
+    private static void commit(String log, String... files) throws IOException {
+        for (int i = 0; i < files.length; i += 2)
+            ScratchRepository.write(files[i], files[i + 1]);
+        ScratchRepository.run("add", ScratchRepository.ROOT.toString());
+        ScratchRepository.run("commit", log);
+    }
+
+    private static String read(String name) throws IOException {
+        return new String(Files.readAllBytes(ScratchRepository.ROOT.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 命令打印到标准输出的内容
+     */
+    private static String output(String... args) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            ScratchRepository.run(args);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static List<byte[]> contents(List<Path> paths) throws IOException {
+        List<byte[]> contents = new ArrayList<>();
+        for (Path path : paths)
+            contents.add(Files.exists(path) ? Files.readAllBytes(path) : new byte[0]);
+        return contents;
+    }
+}
@@ -0,0 +1,73 @@
+package Gitlet;
+
+import Gitlet.Utility.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 测试用的仓库
+ *
+ * 仓库的路径都相对于当前目录，所以仓库直接建在当前目录里（mvn test时是target/test-work），
+ * 工作文件放在work/下面。每个测试开始前重新创建，结束后删除
+ */
+public class ScratchRepository {
+
+    public static final Path ROOT = Paths.get("work");
+
+    /**
+     * 删掉上一次留下的仓库，重新init并加载
+     */
+    public static void create() throws IOException {
+        delete();
+        Files.createDirectories(ROOT);
+        Gitlet.main(new String[]{"init"});
+        Gitlet.loadRepository();
+    }
+
+    public static void delete() throws IOException {
+        deleteTree(Utils.getGitDirPath());
+        deleteTree(ROOT);
+    }
+
+    /**
+     * 在work/下写一个文件
+     * @return 文件的路径
+     */
+    public static Path write(String name, String content) throws IOException {
+        return write(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Path write(String name, byte[] content) throws IOException {
+        Path file = ROOT.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return file;
+    }
+
+    /**
+     * 以常驻进程的方式执行一条命令并写回
+     */
+    public static void run(String... args) {
+        Gitlet.executeResident(args);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths)
+            Files.delete(path);
+    }
+}
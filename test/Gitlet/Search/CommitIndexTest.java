@@ -0,0 +1,210 @@
+package Gitlet.Search;
+
+import Gitlet.Commits.CommitChain;
+import Gitlet.Gitlet;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 搜索索引：新提交只追加，追加的提交超过MAX_UNINDEXED个之后写倒排索引，删掉提交之后从剩下的提交重建；
+ * 正则查询只用必须出现的字面量缩小范围，结果和逐个检查全部提交一样
+ */
+class CommitIndexTest {
+
+    private static final ZonedDateTime TIME = ZonedDateTime.parse("2020-04-16T00:00:00Z");
+
+    private CommitChain chain;
+    private String tree;
+    private int commits;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+        chain = CommitChain.deSerialFrom(Utils.getCommitChainPath());
+        tree = chain.getHeadCommit().getTreeHash();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void syncAppendsNewCommits() throws IOException {
+        CommitIndex index = sync(CommitIndex.open(dir()));
+        assertEquals(chain.size(), index.size());
+        commit("first change", "second change");
+        byte[] docs = Files.readAllBytes(dir().resolve("docs"));
+
+        commit("third change");
+        index = sync(index);
+        assertEquals(chain.size(), index.size());
+        assertEquals("third change", index.get(index.size() - 1).getLog());
+        //已有的记录不动，只在末尾追加
+        byte[] appended = Files.readAllBytes(dir().resolve("docs"));
+        assertArrayEquals(docs, Arrays.copyOf(appended, docs.length));
+        assertTrue(appended.length > docs.length);
+        assertFalse(Files.exists(dir().resolve("terms")));
+        assertEquals(logs("third change", "second change", "first change"), logs(index.findSubstring("change")));
+
+        //倒排索引之外的提交太多时写一次倒排索引，之后的追加不改写它
+        for (int i = 0; i <= CommitIndex.MAX_UNINDEXED; i++)
+            commit("filler " + i);
+        index = sync(index);
+        assertEquals(chain.size(), index.size());
+        byte[] terms = Files.readAllBytes(dir().resolve("terms"));
+        commit("fourth change");
+        index = sync(index);
+        assertArrayEquals(terms, Files.readAllBytes(dir().resolve("terms")));
+        assertEquals(logs("fourth change", "third change", "second change", "first change"),
+                logs(index.findSubstring("change")));
+        assertEquals(logs("filler 17"), logs(index.findExact("filler 17")));
+    }
+
+    @Test
+    void syncRebuildsAfterPruning() throws Exception {
+        commit("kept one");
+        chain.addBranch("dev");
+        chain.changeBranchTo("dev");
+        commit("dropped one");
+        chain.changeBranchTo("master");
+        commit("kept two");
+        chain.deleteBranch("dev");
+        CommitIndex index = sync(CommitIndex.open(dir()));
+        assertEquals(logs("dropped one"), logs(index.findExact("dropped one")));
+
+        assertEquals(1, chain.pruneCommits(chain.liveCommits(Long.MAX_VALUE)));
+        index = sync(index);
+        assertEquals(chain.size(), index.size());
+        assertEquals(Collections.emptyList(), index.findExact("dropped one"));
+        assertEquals(logs("kept two", "kept one"), logs(index.findSubstring("kept")));
+        for (int i = 0; i < index.size(); i++)
+            assertTrue(chain.containsCommit(index.get(i).getHash()));
+    }
+
+    @Test
+    void requiredLiteralSkipsOptionalParts() {
+        assertEquals("fix bug", CommitIndex.requiredLiteral("fix bug"));
+        //顶层的|两边都可能匹配
+        assertEquals("", CommitIndex.requiredLiteral("fix|feat"));
+        assertEquals(": parser", CommitIndex.requiredLiteral("(fix|feat): parser"));
+        //?、*、{}修饰的字符可能不出现，+修饰的字符至少出现一次
+        assertEquals("colo", CommitIndex.requiredLiteral("colou?r"));
+        assertEquals("colou", CommitIndex.requiredLiteral("colou+r"));
+        assertEquals("bcd", CommitIndex.requiredLiteral("a*bcd"));
+        assertEquals("yz", CommitIndex.requiredLiteral("x{2}yz"));
+        //转义、字符类和.打断字面量
+        assertEquals(" files", CommitIndex.requiredLiteral("\\d+ files"));
+        assertEquals("def", CommitIndex.requiredLiteral("[a|c]def"));
+        assertEquals("abc", CommitIndex.requiredLiteral("a.b.abc"));
+        //内嵌标志时空格可能被忽略
+        assertEquals("branch", CommitIndex.requiredLiteral("(?x)merge branch"));
+    }
+
+    @Test
+    void regexSearchMatchesAFullScan() throws IOException {
+        commit("fix parser crash", "feat: colour picker", "color tweaks", "Merge branch dev", "refactor store",
+                "rebase store", "colouur");
+        for (int i = 0; i <= CommitIndex.MAX_UNINDEXED; i++)
+            commit("filler " + i);
+        commit("late colour fix");
+        CommitIndex index = sync(CommitIndex.open(dir()));
+        assertTrue(Files.exists(dir().resolve("terms")));
+
+        assertEquals(logs("feat: colour picker", "fix parser crash"), regex(index, "^(fix|feat)"));
+        assertEquals(logs("late colour fix", "feat: colour picker", "fix parser crash"), regex(index, "fix|feat"));
+        assertEquals(logs("late colour fix", "color tweaks", "feat: colour picker"), regex(index, "colou?r\\b"));
+        assertEquals(logs("late colour fix", "colouur", "feat: colour picker"), regex(index, "colou+r"));
+        assertEquals(logs("rebase store", "refactor store"), regex(index, "re(factor|base) store"));
+        assertEquals(logs("Merge branch dev"), regex(index, "(?i)MERGE BRANCH"));
+        assertEquals(logs("filler 1000", "filler 100"), regex(index, "filler 100\\d?$"));
+        assertEquals(Collections.emptyList(), regex(index, "colour{2}"));
+    }
+
+    @Test
+    void findRegexCommand() throws IOException {
+        commit("feat: colour picker", "color tweaks", "fix parser crash");
+        Utils.serializeCommitChain(chain);
+        Gitlet.loadRepository();
+        String found = find("--regex", "colou?r");
+        assertTrue(found.contains("feat: colour picker") && found.contains("color tweaks"), found);
+        assertFalse(found.contains("fix parser crash"), found);
+        assertEquals("Found no commit with that message.", find("--regex", "flavour|taste{2}").trim());
+    }
+
+    /**
+     * 在当前分支上依次提交，所有提交共用同一棵树
+     */
+    private void commit(String... logs) {
+        for (String log : logs)
+            chain.newCommit(TIME.plusSeconds(++commits), log, tree, "tester");
+    }
+
+    /**
+     * 和命令写回时一样同步索引，然后清空新增的提交
+     */
+    private CommitIndex sync(CommitIndex index) throws IOException {
+        index = index.sync(chain);
+        chain.clearAddedCommits();
+        return index;
+    }
+
+    /**
+     * @return findRegex的结果，同时检查它和逐个检查全部提交的结果一样
+     */
+    private static List<String> regex(CommitIndex index, String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        List<String> scanned = new ArrayList<>();
+        for (int id = index.size() - 1; id >= 0; id--)
+            if (pattern.matcher(index.get(id).getLog()).find())
+                scanned.add(index.get(id).getLog());
+        List<String> found = logs(index.findRegex(pattern));
+        assertEquals(scanned, found, regex);
+        return found;
+    }
+
+    private static List<String> logs(List<IndexedCommit> commits) {
+        List<String> logs = new ArrayList<>();
+        for (IndexedCommit commit : commits)
+            logs.add(commit.getLog());
+        return logs;
+    }
+
+    private static List<String> logs(String... logs) {
+        return Arrays.asList(logs);
+    }
+
+    private static Path dir() {
+        return Utils.getSearchIndexPath();
+    }
+
+    private static String find(String... args) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            String[] command = new String[args.length + 1];
+            command[0] = "find";
+            System.arraycopy(args, 0, command, 1, args.length);
+            ScratchRepository.run(command);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
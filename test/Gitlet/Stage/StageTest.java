@@ -0,0 +1,123 @@
+package Gitlet.Stage;
+
+import Gitlet.Gitlet;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 暂存区的stat信息：修改时间早于暂存区写盘时间的条目才能只凭stat信息判断没有修改，
+ * racy的条目确认内容没变之后要求写回暂存区，写回之后就不再是racy的
+ */
+class StageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void racyEntriesAreNotCleanUntilTheStageIsWrittenAgain() throws IOException {
+        Path file = Files.write(directory.resolve("a.txt"), "aaaa".getBytes(StandardCharsets.UTF_8));
+        FileStat stat = FileStat.of(file);
+        Stage stage = new Stage();
+        stage.trackFile(Collections.singletonMap("a.txt", "hash"), Collections.singletonMap("a.txt", stat));
+        Path index = Files.write(directory.resolve("index"), new byte[0]);
+
+        //暂存区和文件在同一个时间刻度里写下
+        written(stage, index, Files.getLastModifiedTime(file).toMillis());
+        assertFalse(stage.isClean("a.txt", stat));
+        assertTrue(stage.refresh("a.txt", stat));
+
+        written(stage, index, Files.getLastModifiedTime(file).toMillis() + 1000);
+        assertTrue(stage.isClean("a.txt", stat));
+        assertFalse(stage.refresh("a.txt", stat));
+    }
+
+    @Test
+    void racyVerifiedEntriesAreWrittenBackToo() throws IOException {
+        Path file = Files.write(directory.resolve("a.txt"), "aaaa".getBytes(StandardCharsets.UTF_8));
+        FileStat stat = FileStat.of(file);
+        Stage stage = new Stage();
+        Path index = Files.write(directory.resolve("index"), new byte[0]);
+        assertTrue(stage.verify("a.txt", "hash", stat));
+
+        written(stage, index, Files.getLastModifiedTime(file).toMillis());
+        assertFalse(stage.isVerified("a.txt", "hash", stat));
+        assertTrue(stage.verify("a.txt", "hash", stat));
+
+        written(stage, index, Files.getLastModifiedTime(file).toMillis() + 1000);
+        assertTrue(stage.isVerified("a.txt", "hash", stat));
+        assertFalse(stage.verify("a.txt", "hash", stat));
+        assertFalse(stage.isVerified("a.txt", "other", stat));
+    }
+
+    @Test
+    void statusAndAddSeeEditsInTheSameTick() throws IOException {
+        ScratchRepository.create();
+        try {
+            Path file = ScratchRepository.write("a.txt", "aaaa");
+            ScratchRepository.run("add", file.toString());
+            FileTime tick = Files.getLastModifiedTime(file);
+            Files.setLastModifiedTime(Utils.getStageFilePath(), tick);
+            //同一个刻度里改成同样长度的内容，修改时间看不出来
+            Files.write(file, "bbbb".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(file, tick);
+            Gitlet.loadRepository();
+
+            assertTrue(status().contains("Staged but modified files:\nwork/a.txt\n"));
+            ScratchRepository.run("add", file.toString());
+            assertEquals(Utils.encrypt("bbbb".getBytes(StandardCharsets.UTF_8), "SHA-1"),
+                    Stage.deSerialFrom(Utils.getStageFilePath()).getHashOfFile("work/a.txt"));
+        } finally {
+            ScratchRepository.delete();
+        }
+    }
+
+    @Test
+    void statusRestampsRacyEntries() throws IOException {
+        ScratchRepository.create();
+        try {
+            Path file = ScratchRepository.write("a.txt", "aaaa");
+            ScratchRepository.run("add", file.toString());
+            FileTime tick = Files.getLastModifiedTime(file);
+            Files.setLastModifiedTime(Utils.getStageFilePath(), tick);
+            Gitlet.loadRepository();
+
+            //内容没变，但条目是racy的：status重新计算hash之后写回暂存区
+            assertFalse(status().contains("work/a.txt\n\nStaged but removed"));
+            assertTrue(Files.getLastModifiedTime(Utils.getStageFilePath()).compareTo(tick) > 0);
+            Stage stage = Stage.deSerialFrom(Utils.getStageFilePath());
+            assertTrue(stage.isClean("work/a.txt", FileStat.of(file)));
+        } finally {
+            ScratchRepository.delete();
+        }
+    }
+
+    private static void written(Stage stage, Path index, long millis) throws IOException {
+        Files.setLastModifiedTime(index, FileTime.fromMillis(millis));
+        stage.markWritten(index);
+    }
+
+    private static String status() {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            ScratchRepository.run("status");
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,226 @@
+package Gitlet.Stage;
+
+import Gitlet.Commits.Commit;
+import Gitlet.Commits.CommitChain;
+import Gitlet.ScratchRepository;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * status的分类：五类文件各自归到正确的一类，超过阈值写出的有序片段能归并回来，
+ * 只检查脏路径的结果和完整遍历一致
+ */
+class StatusEngineTest {
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void reportsEveryKind() throws IOException {
+        ScratchRepository.write("committed/modified.txt", "1\n");
+        ScratchRepository.write("committed/removed.txt", "1\n");
+        ScratchRepository.write("committed/same.txt", "1\n");
+        commit();
+        add("staged/modified.txt", "1\n");
+        add("staged/removed.txt", "1\n");
+        add("staged/same.txt", "1\n");
+
+        ScratchRepository.write("committed/modified.txt", "2\n");
+        Files.delete(ScratchRepository.ROOT.resolve("committed/removed.txt"));
+        ScratchRepository.write("staged/modified.txt", "2\n");
+        Files.delete(ScratchRepository.ROOT.resolve("staged/removed.txt"));
+        ScratchRepository.write("untracked.txt", "1\n");
+
+        Map<StatusEngine.Kind, List<String>> kinds = scan(null);
+        assertEquals(Collections.singletonList("work/staged/modified.txt"), kinds.get(StatusEngine.Kind.STAGED_MODIFIED));
+        assertEquals(Collections.singletonList("work/staged/removed.txt"), kinds.get(StatusEngine.Kind.STAGED_REMOVED));
+        assertEquals(Collections.singletonList("work/committed/modified.txt"), kinds.get(StatusEngine.Kind.COMMITTED_MODIFIED));
+        assertEquals(Collections.singletonList("work/committed/removed.txt"), kinds.get(StatusEngine.Kind.COMMITTED_REMOVED));
+        assertEquals(Collections.singletonList("work/untracked.txt"), kinds.get(StatusEngine.Kind.UNTRACKED));
+    }
+
+    @Test
+    void mergesSpilledRuns() throws IOException {
+        StatusEngine.SortedSpill spill = new StatusEngine.SortedSpill(3);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            paths.add(String.format("work/%02d.txt", i));
+        List<String> shuffled = new ArrayList<>(paths);
+        Collections.shuffle(shuffled, new Random(20));
+        shuffled.forEach(spill::add);
+        //20条路径，每3条写出一个片段，最后2条留在内存里
+        assertEquals(6, runs());
+
+        List<String> drained = new ArrayList<>();
+        spill.drainSorted(drained::add);
+        assertEquals(paths, drained);
+        assertEquals(0, runs());
+
+        //没有输出就关闭也要删掉临时文件
+        spill = new StatusEngine.SortedSpill(2);
+        spill.add("b");
+        spill.add("a");
+        spill.add("c");
+        assertEquals(1, runs());
+        spill.close();
+        assertEquals(0, runs());
+    }
+
+    @Test
+    void scanningDirtyPathsMatchesAFullScan() throws IOException {
+        ScratchRepository.write("a.txt", "1\n");
+        ScratchRepository.write("b.txt", "1\n");
+        ScratchRepository.write("c.txt", "1\n");
+        ScratchRepository.write("d/x.txt", "1\n");
+        ScratchRepository.write("d/y.txt", "1\n");
+        commit();
+        add("s.txt", "1\n");
+        add("d/staged.txt", "1\n");
+        ScratchRepository.write("untracked.txt", "1\n");
+        //上一次完整遍历之后不是"已暂存并且内容一致"的路径
+        StatusEngine previous = new StatusEngine(stage(), head(), 2);
+        previous.scan(Paths.get(""));
+        previous.close();
+        Set<String> dirty = new HashSet<>(previous.getPending());
+
+        //修改、删除、新建文件，整个删掉一个目录，把一个文件换成同名的目录
+        dirty.addAll(edit("s.txt", "2\n"));
+        dirty.addAll(edit("a.txt", "2\n"));
+        dirty.add(delete("b.txt"));
+        dirty.addAll(edit("new.txt", "1\n"));
+        deleteTree(ScratchRepository.ROOT.resolve("d"));
+        dirty.add("work/d");
+        dirty.add("work/d/staged.txt");
+        Files.delete(ScratchRepository.ROOT.resolve("c.txt"));
+        dirty.addAll(edit("c.txt/inner.txt", "1\n"));
+        dirty.add("work/c.txt");
+
+        Map<StatusEngine.Kind, List<String>> full = scan(null);
+        assertEquals(full, scan(dirty));
+        assertEquals(Arrays.asList("work/d/staged.txt"), full.get(StatusEngine.Kind.STAGED_REMOVED));
+        assertEquals(Arrays.asList("work/b.txt", "work/c.txt", "work/d/x.txt", "work/d/y.txt"),
+                full.get(StatusEngine.Kind.COMMITTED_REMOVED));
+    }
+
+    @Test
+    void pendingCoversEverythingButCleanStagedFiles() throws IOException {
+        ScratchRepository.write("committed.txt", "1\n");
+        commit();
+        add("clean.txt", "1\n");
+        add("modified.txt", "1\n");
+        ScratchRepository.write("modified.txt", "2\n");
+        ScratchRepository.write("untracked.txt", "1\n");
+
+        StatusEngine engine = new StatusEngine(stage(), head(), 2);
+        engine.scan(Paths.get(""));
+        assertEquals(new HashSet<>(Arrays.asList("work/committed.txt", "work/modified.txt", "work/untracked.txt")),
+                engine.getPending());
+        engine.close();
+    }
+
+    /**
+     * @param paths 只检查的路径，为null时完整遍历
+     * @return 每一类文件按输出顺序排列的路径
+     */
+    private static Map<StatusEngine.Kind, List<String>> scan(Collection<String> paths) throws IOException {
+        StatusEngine engine = new StatusEngine(stage(), head(), 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (paths == null)
+                engine.scan(Paths.get(""));
+            else
+                engine.scan(Paths.get(""), paths);
+            engine.print(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        } finally {
+            engine.close();
+        }
+        Map<StatusEngine.Kind, List<String>> kinds = new EnumMap<>(StatusEngine.Kind.class);
+        Map<String, StatusEngine.Kind> titles = new HashMap<>();
+        for (StatusEngine.Kind kind : StatusEngine.Kind.values())
+            titles.put(kind.getTitle(), kind);
+        List<String> current = null;
+        for (String line : bytes.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (titles.containsKey(line))
+                kinds.put(titles.get(line), current = new ArrayList<>());
+            else if (!line.isEmpty())
+                current.add(line);
+        }
+        return kinds;
+    }
+
+    /**
+     * 提交工作目录里的所有文件，再检出一个新分支清空暂存区，之后这些文件只在head提交里
+     */
+    private static void commit() {
+        ScratchRepository.run("add", ScratchRepository.ROOT.toString());
+        ScratchRepository.run("commit", "one");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+    }
+
+    private static Stage stage() {
+        return Stage.deSerialFrom(Utils.getStageFilePath());
+    }
+
+    private static Commit head() {
+        return CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit();
+    }
+
+    private static void add(String name, String content) throws IOException {
+        ScratchRepository.write(name, content);
+        ScratchRepository.run("add", ScratchRepository.ROOT.resolve(name).toString());
+    }
+
+    /**
+     * @return watch进程为这次修改记下的路径
+     */
+    private static List<String> edit(String name, String content) throws IOException {
+        return Collections.singletonList(ScratchRepository.write(name, content).toString());
+    }
+
+    private static String delete(String name) throws IOException {
+        Path file = ScratchRepository.ROOT.resolve(name);
+        Files.delete(file);
+        return file.toString();
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths)
+            Files.delete(path);
+    }
+
+    /**
+     * @return .gitlet下还没删掉的有序片段数
+     */
+    private static long runs() throws IOException {
+        try (Stream<Path> files = Files.list(Utils.getGitDirPath())) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".run")).count();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package Gitlet.Utility;
+
+import Gitlet.Blobs.BlobPool;
+import Gitlet.Commits.CommitChain;
+import Gitlet.ScratchRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 链接方式的checkout：硬链接出来的文件和快照一样是只读的，checkout覆盖它时不会改到快照；
+ * 小于REFLINK_MIN_SIZE的快照不克隆，直接复制
+ */
+class MaterializerTest {
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+        ScratchRepository.run("config", Config.COMPRESSION, "none");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ScratchRepository.delete();
+        Config.reload();
+    }
+
+    @Test
+    void hardlinkedFilesLeaveTheObjectUntouched() throws IOException {
+        ScratchRepository.run("config", Config.CHECKOUT_LINK, "hardlink");
+        Path file = ScratchRepository.write("a.txt", "first version\n");
+        commit("one");
+        ScratchRepository.run("branch", "dev");
+        ScratchRepository.run("checkout", "dev");
+        ScratchRepository.write("a.txt", "the second version, long enough not to be a delta\n");
+        commit("two");
+
+        ScratchRepository.run("checkout", "master");
+        Path object = object(file);
+        assertNotNull(object);
+        assertTrue(Files.isSameFile(file, object));
+        //对象库里的快照是只读的，链接出来的文件也是
+        assertFalse(Files.getPosixFilePermissions(object).contains(PosixFilePermission.OWNER_WRITE));
+        assertFalse(Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE));
+
+        //checkout先删掉链接再写，快照的内容不变
+        ScratchRepository.run("checkout", "dev");
+        assertEquals("the second version, long enough not to be a delta\n", read(file));
+        assertFalse(Files.isSameFile(file, object));
+        assertEquals("first version\n", read(object));
+        assertFalse(Files.getPosixFilePermissions(object).contains(PosixFilePermission.OWNER_WRITE));
+
+        ScratchRepository.run("checkout", "master");
+        assertEquals("first version\n", read(file));
+        assertTrue(Files.isSameFile(file, object));
+    }
+
+    @Test
+    void smallObjectsAreCopiedInsteadOfCloned() throws IOException {
+        Path file = ScratchRepository.write("a.txt", "small\n");
+        commit("one");
+        Path object = object(file);
+        assertNotNull(object);
+        Files.delete(file);
+
+        Materializer materializer = new Materializer(pool(), 1, Materializer.LinkMode.REFLINK);
+        assertEquals(Collections.emptyList(), materializer.write(Collections.singletonMap(file.toString(), hash(file))));
+        assertEquals("small\n", read(file));
+        assertEquals(0, materializer.getClonedCount());
+        assertEquals(6, materializer.getWrittenBytes());
+        assertFalse(Files.isSameFile(file, object));
+        assertTrue(Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE));
+    }
+
+    private static void commit(String log) {
+        ScratchRepository.run("add", ScratchRepository.ROOT.toString());
+        ScratchRepository.run("commit", log);
+    }
+
+    private static BlobPool pool() {
+        return BlobPool.deSerialFrom(Utils.getBlobsPath());
+    }
+
+    /**
+     * @return 文件在head提交里的快照hash
+     */
+    private static String hash(Path file) {
+        return CommitChain.deSerialFrom(Utils.getCommitChainPath()).getHeadCommit().getHashOfFile(file.toString());
+    }
+
+    /**
+     * @return head提交里这个文件的快照在对象库里的路径
+     */
+    private static Path object(Path file) {
+        return pool().getLinkableObject(hash(file));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
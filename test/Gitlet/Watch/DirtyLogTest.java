@@ -0,0 +1,185 @@
+package Gitlet.Watch;
+
+import Gitlet.ScratchRepository;
+import Gitlet.Stage.Stage;
+import Gitlet.Utility.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 读取watch日志：同一个会话里只返回上次之后记下的路径和上次的pending，被删除的目录展开成下面跟踪的文件；
+ * 会话变了、暂存区被改过、事件溢出时返回null
+ *
+ * 测试里没有真的watch进程，由一个线程持有锁并且替它把cookie记进日志
+ */
+class DirtyLogTest {
+
+    private FileChannel lock;
+    private Thread responder;
+    private volatile boolean stopped;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ScratchRepository.create();
+        Files.createDirectories(Utils.getWatchPath());
+        lock = FileChannel.open(Utils.getWatchPath().resolve(DirtyLog.LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock.lock();
+        startSession("first");
+        responder = new Thread(this::answerCookies);
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stopped = true;
+        responder.join();
+        lock.close();
+        ScratchRepository.delete();
+    }
+
+    @Test
+    void collectsPathsSinceTheLastUpdate() throws IOException {
+        Stage stage = new Stage();
+        DirtyLog log = DirtyLog.open();
+        assertNotNull(log);
+        append(DirtyLog.PATH, "work/old.txt");
+        //还没有mark，第一次只能完整遍历
+        assertNull(log.collect(stage));
+        log.update(stage, Collections.singletonList("work/pending.txt"));
+
+        append(DirtyLog.PATH, "work/a.txt");
+        append(DirtyLog.PATH, "work/b.txt");
+        log = DirtyLog.open();
+        assertEquals(set("work/a.txt", "work/b.txt", "work/pending.txt"), log.collect(stage));
+        log.update(stage, Collections.emptyList());
+
+        //mark之前的事件不会再返回
+        log = DirtyLog.open();
+        assertEquals(set(), log.collect(stage));
+    }
+
+    @Test
+    void expandsRemovedDirectories() throws IOException {
+        Stage stage = new Stage();
+        stage.trackFile(map("work/d/staged.txt", "work/e/staged.txt"), Collections.emptyMap());
+        DirtyLog log = DirtyLog.open();
+        assertNull(log.collect(stage));
+        log.update(stage, Arrays.asList("work/d/committed.txt", "work/dd.txt"));
+
+        append(DirtyLog.DIRECTORY, "work/d");
+        log = DirtyLog.open();
+        assertEquals(set("work/d/staged.txt", "work/d/committed.txt", "work/dd.txt"), log.collect(stage));
+    }
+
+    @Test
+    void newSessionNeedsAFullScan() throws IOException {
+        Stage stage = marked(new Stage());
+        //watch进程重启，日志从一个新的会话开始
+        startSession("second");
+        append(DirtyLog.PATH, "work/a.txt");
+        DirtyLog log = DirtyLog.open();
+        assertNull(log.collect(stage));
+        log.update(stage, Collections.emptyList());
+
+        append(DirtyLog.PATH, "work/b.txt");
+        assertEquals(set("work/b.txt"), DirtyLog.open().collect(stage));
+    }
+
+    @Test
+    void changedStageNeedsAFullScan() throws IOException {
+        Stage stage = marked(new Stage());
+        append(DirtyLog.PATH, "work/a.txt");
+        //暂存区被其他命令改过，日志之外可能有文件不再是"已暂存并且内容一致"的
+        stage.trackFile(map("work/other.txt"), Collections.emptyMap());
+        assertNull(DirtyLog.open().collect(stage));
+    }
+
+    @Test
+    void overflowNeedsAFullScan() throws IOException {
+        Stage stage = marked(new Stage());
+        append(DirtyLog.PATH, "work/a.txt");
+        append(DirtyLog.OVERFLOW, "");
+        DirtyLog log = DirtyLog.open();
+        assertNull(log.collect(stage));
+        log.update(stage, Collections.emptyList());
+
+        //溢出之后重新记下的位置又可以用了
+        append(DirtyLog.PATH, "work/b.txt");
+        assertEquals(set("work/b.txt"), DirtyLog.open().collect(stage));
+    }
+
+    @Test
+    void noWatcherWithoutTheLock() throws IOException {
+        lock.close();
+        assertFalse(DirtyLog.isWatching());
+        assertNull(DirtyLog.open());
+    }
+
+    /**
+     * 消费一次日志并记下位置
+     */
+    private static Stage marked(Stage stage) {
+        DirtyLog log = DirtyLog.open();
+        log.collect(stage);
+        log.update(stage, Collections.emptyList());
+        return stage;
+    }
+
+    private synchronized void startSession(String session) throws IOException {
+        Files.write(logPath(), (DirtyLog.SESSION + session + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized void append(char type, String value) throws IOException {
+        Files.write(logPath(), (type + value + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 替watch进程把新出现的cookie文件记进日志
+     */
+    private void answerCookies() {
+        Set<String> answered = new HashSet<>();
+        while (!stopped) {
+            try (Stream<Path> files = Files.list(Utils.getWatchPath())) {
+                for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                    String name = it.next().getFileName().toString();
+                    if (name.startsWith(DirtyLog.COOKIE_PREFIX) && answered.add(name))
+                        append(DirtyLog.COOKIE, name);
+                }
+                Thread.sleep(1);
+            } catch (IOException ignored) {
+                //cookie文件在列目录的时候被删掉了，下一轮再看
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static Path logPath() {
+        return Utils.getWatchPath().resolve(DirtyLog.LOG_FILE_NAME);
+    }
+
+    private static Map<String, String> map(String... files) {
+        Map<String, String> map = new HashMap<>();
+        for (String file : files)
+            map.put(file, "hash");
+        return map;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new HashSet<>(Arrays.asList(paths));
+    }
+}